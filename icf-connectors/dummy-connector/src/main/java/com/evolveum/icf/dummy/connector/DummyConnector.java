@@ -969,6 +969,9 @@ public class DummyConnector implements PoolableConnector, AuthenticateOp, Resolv
 		        	if (matches(query, co)) {
 		        		co = filterOutAttributesToGet(co, attributesToGet);
 		        		handler.handle(co);
+		        		if (query == null && resource.isDuplicateAccountsInSearch()) {
+		        			handler.handle(co);
+		        		}
 		        	}
 		        }
 		        
@@ -100,6 +100,7 @@ public class DummyResource implements DebugDumpable {
 
 	private boolean generateAccountDescriptionOnCreate = false;		   // simulates volatile behavior (on create)
 	private boolean generateAccountDescriptionOnUpdate = false;        // simulates volatile behavior (on update)
+	private boolean duplicateAccountsInSearch = false;                 // simulates a resource returning an object twice in a search
 
 	// Following two properties are just copied from the connector
 	// configuration and can be checked later. They are otherwise
@@ -295,6 +296,14 @@ public class DummyResource implements DebugDumpable {
 		this.generateAccountDescriptionOnUpdate = generateAccountDescriptionOnUpdate;
 	}
 
+	public boolean isDuplicateAccountsInSearch() {
+		return duplicateAccountsInSearch;
+	}
+
+	public void setDuplicateAccountsInSearch(boolean duplicateAccountsInSearch) {
+		this.duplicateAccountsInSearch = duplicateAccountsInSearch;
+	}
+
 	public Collection<String> getForbiddenNames() {
 		return forbiddenNames;
 	}
@@ -51,6 +51,10 @@ public class InternalMonitor {
 	private static boolean traceShadowFetchOperation = false;
 	
 	private static long shadowChangeOpeartionCount = 0;
+	/**
+	 * Repository searches for the shadows that correspond to resource objects.
+	 */
+	private static long shadowLookupCount = 0;
 	/**
 	 * All provisioning operations that reach out to the resources.
 	 */
@@ -176,6 +180,14 @@ public class InternalMonitor {
 		provisioningAllExtOperationCount++;
 	}
 	
+	public static long getShadowLookupCount() {
+		return shadowLookupCount;
+	}
+	
+	public synchronized static void recordShadowLookup() {
+		shadowLookupCount++;
+	}
+	
 	public static long getConnectorOperationCount() {
 		return connectorOperationCount;
 	}
@@ -229,6 +241,7 @@ public class InternalMonitor {
 		shadowFetchOperationCount = 0;
 		traceShadowFetchOperation = false;
 		shadowChangeOpeartionCount = 0;
+		shadowLookupCount = 0;
 		traceConnectorOperation = false;
 		connectorOperationCount = 0;
 	}
@@ -20,14 +20,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.UnmarshalException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -38,6 +48,8 @@ import javax.xml.validation.Schema;
 
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.staxmate.dom.DOMConverter;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -77,6 +89,7 @@ public class Validator {
 	private static final String OPERATION_RESOURCE_BASICS_CHECK = OPERATION_PREFIX + "objectBasicsCheck";
 	private static final String START_LINE_NUMBER = "startLineNumber";
 	private static final String END_LINE_NUMBER = "endLineNumber";
+	private static final int DEFAULT_QUEUE_SIZE_PER_WORKER = 10;
 	private boolean verbose = false;
 	private boolean validateSchemas = true;
 	private boolean allowAnyType = false;
@@ -85,7 +98,9 @@ public class Validator {
 	private Unmarshaller unmarshaller = null;
 	private PrismContext prismContext;
 	private Schema midPointJavaxSchema;
-	private javax.xml.validation.Validator xsdValidator;
+	private ThreadLocal<javax.xml.validation.Validator> xsdValidator;
+	private int workerThreads = 0;
+	private int queueSize = 0;
 	long progress = 0;
 	long errors = 0;
 	long stopAfterErrors = 0;
@@ -106,10 +121,17 @@ public class Validator {
 		if (prismContext == null) {
 			throw new IllegalStateException("No prism context set during validator initialization");
 		}
-		SchemaRegistry schemaRegistry = prismContext.getSchemaRegistry();
+		final SchemaRegistry schemaRegistry = prismContext.getSchemaRegistry();
 		midPointJavaxSchema = schemaRegistry.getJavaxSchema();
-		xsdValidator = midPointJavaxSchema.newValidator();
-		xsdValidator.setResourceResolver(schemaRegistry);
+		// javax validators are not thread-safe, each worker thread needs its own
+		xsdValidator = new ThreadLocal<javax.xml.validation.Validator>() {
+			@Override
+			protected javax.xml.validation.Validator initialValue() {
+				javax.xml.validation.Validator validator = midPointJavaxSchema.newValidator();
+				validator.setResourceResolver(schemaRegistry);
+				return validator;
+			}
+		};
 	}
 
 	public EventHandler getHandler() {
@@ -156,6 +178,31 @@ public class Validator {
 		this.stopAfterErrors = stopAfterErrors;
 	}
 
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Number of threads that parse, validate and hand over the objects to the handler. If set to zero (the default)
+	 * everything is done in the thread that calls validate(). Otherwise the calling thread only reads the objects
+	 * from the stream and the handler must be thread-safe.
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Maximum number of objects that were read but not yet completely processed. Limits the memory used by
+	 * parallel processing. Zero (the default) means 10 objects per worker thread.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
 	public long getProgress() {
 		return progress;
 	}
@@ -219,48 +266,33 @@ public class Validator {
 				throw new SystemException("StAX Malfunction?");
 			}
 
-			while (stream.hasNext()) {
-				eventType = stream.next();
-				if (eventType == XMLStreamConstants.START_ELEMENT) {
-
-					OperationResult objectResult = validatorResult.createSubresult(objectResultOperationName);
-					progress++;
-					objectResult.addContext(OperationResult.CONTEXT_PROGRESS, progress);
-
-					EventResult cont = null;
-					try {
-						// Read and validate individual object from the stream
-						cont = readFromStreamAndValidate(stream, objectResult,
-								rootNamespaceDeclarations, validatorResult);
-					} catch (RuntimeException e) {
-						if (objectResult.isUnknown()) {
-							// Make sure that unexpected error is recorded.
-							objectResult.recordFatalError(e);
+			if (workerThreads > 0) {
+				if (!validateParallel(stream, rootNamespaceDeclarations, validatorResult, objectResultOperationName)) {
+					return;
+				}
+			} else {
+				while (stream.hasNext()) {
+					eventType = stream.next();
+					if (eventType == XMLStreamConstants.START_ELEMENT) {
+
+						OperationResult objectResult = validatorResult.createSubresult(objectResultOperationName);
+						progress++;
+						objectResult.addContext(OperationResult.CONTEXT_PROGRESS, progress);
+
+						EventResult cont = null;
+						try {
+							// Read and validate individual object from the stream
+							cont = readFromStreamAndValidate(stream, objectResult,
+									rootNamespaceDeclarations, validatorResult);
+						} catch (RuntimeException e) {
+							if (objectResult.isUnknown()) {
+								// Make sure that unexpected error is recorded.
+								objectResult.recordFatalError(e);
+							}
+							throw e;
 						}
-						throw e;
-					}
-
-					if (objectResult.isError()) {
-						errors++;
-					}
-					
-					objectResult.cleanupResult();
-					validatorResult.summarize();
 
-					if (cont.isStop()) {
-						if (cont.getReason() != null) {
-							validatorResult.recordFatalError("Processing has been stopped: "
-									+ cont.getReason());
-						} else {
-							validatorResult.recordFatalError("Processing has been stopped");
-						}
-						// This means total stop, no other objects will be
-						// processed
-						return;
-					}
-					if (!cont.isCont()) {
-						if (stopAfterErrors > 0 && errors >= stopAfterErrors) {
-							validatorResult.recordFatalError("Too many errors (" + errors + ")");
+						if (!processObjectResult(cont, objectResult, validatorResult)) {
 							return;
 						}
 					}
@@ -282,9 +314,184 @@ public class Validator {
 
 	}
 
+	/**
+	 * Records the outcome of a single object in the validator result.
+	 * Returns false if the processing should stop.
+	 */
+	private boolean processObjectResult(EventResult cont, OperationResult objectResult, OperationResult validatorResult) {
+		if (objectResult.isError()) {
+			errors++;
+		}
+
+		objectResult.cleanupResult();
+		validatorResult.summarize();
+
+		if (cont.isStop()) {
+			if (cont.getReason() != null) {
+				validatorResult.recordFatalError("Processing has been stopped: "
+						+ cont.getReason());
+			} else {
+				validatorResult.recordFatalError("Processing has been stopped");
+			}
+			// This means total stop, no other objects will be
+			// processed
+			return false;
+		}
+		if (!cont.isCont()) {
+			if (stopAfterErrors > 0 && errors >= stopAfterErrors) {
+				validatorResult.recordFatalError("Too many errors (" + errors + ")");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pipelined variant of the main loop. The calling thread reads the objects from the stream, worker threads
+	 * validate and parse them and pass them to the handler (which usually stores them in the repository).
+	 * Object results are processed in the original order. Objects are processed in parallel only with objects
+	 * of the same element name (e.g. a long run of users), all pending objects are finished before an object
+	 * of a different type is started. Therefore objects can still refer to objects of other types that precede
+	 * them in the file (e.g. users to roles), but not to objects of the same type.
+	 * Security context of the calling thread is propagated to the worker threads. The handler has to be thread-safe.
+	 * Returns false if the processing was stopped.
+	 */
+	private boolean validateParallel(XMLStreamReader stream, final Map<String, String> rootNamespaceDeclarations,
+			OperationResult validatorResult, String objectResultOperationName) throws XMLStreamException {
+
+		int maxPending = queueSize > 0 ? queueSize : workerThreads * DEFAULT_QUEUE_SIZE_PER_WORKER;
+		Deque<PendingObject> pendingObjects = new ArrayDeque<>(maxPending);
+		ExecutorService executor = Executors.newFixedThreadPool(workerThreads);
+		final SecurityContext securityContext = SecurityContextHolder.getContext();
+		QName previousElementName = null;
+		try {
+			while (stream.hasNext()) {
+				int eventType = stream.next();
+				if (eventType != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				QName elementName = stream.getName();
+				if (previousElementName != null && !previousElementName.equals(elementName)) {
+					if (!completePendingObjects(pendingObjects, 0, validatorResult)) {
+						return false;
+					}
+				}
+				previousElementName = elementName;
+				if (!completePendingObjects(pendingObjects, maxPending - 1, validatorResult)) {
+					return false;
+				}
+
+				// Object results are not put under the validator result until they are complete (they are
+				// filled-in by the worker threads and validator result is summarized in this thread)
+				final OperationResult objectResult = new OperationResult(objectResultOperationName);
+				progress++;
+				objectResult.addContext(OperationResult.CONTEXT_PROGRESS, progress);
+
+				final Element objectElement = readFromStream(stream, objectResult, rootNamespaceDeclarations,
+						validatorResult);
+				Future<EventResult> future;
+				if (objectElement == null) {
+					FutureTask<EventResult> skipped = new FutureTask<>(new Callable<EventResult>() {
+						@Override
+						public EventResult call() {
+							return EventResult.skipObject();
+						}
+					});
+					skipped.run();
+					future = skipped;
+				} else {
+					future = executor.submit(new Callable<EventResult>() {
+						@Override
+						public EventResult call() {
+							SecurityContextHolder.setContext(securityContext);
+							try {
+								return validateObjectInternal(objectElement, objectResult, objectResult);
+							} finally {
+								SecurityContextHolder.clearContext();
+							}
+						}
+					});
+				}
+				pendingObjects.addLast(new PendingObject(objectResult, future));
+			}
+
+			return completePendingObjects(pendingObjects, 0, validatorResult);
+
+		} finally {
+			// Objects that are not yet started are not processed if the processing was stopped.
+			for (PendingObject pendingObject : pendingObjects) {
+				pendingObject.future.cancel(false);
+			}
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the oldest pending objects until there are at most maxPending of them.
+	 * Returns false if the processing should stop.
+	 */
+	private boolean completePendingObjects(Deque<PendingObject> pendingObjects, int maxPending,
+			OperationResult validatorResult) {
+		while (pendingObjects.size() > maxPending) {
+			PendingObject pendingObject = pendingObjects.removeFirst();
+			EventResult cont;
+			try {
+				cont = pendingObject.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SystemException("Interrupted while waiting for object processing", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (pendingObject.objectResult.isUnknown()) {
+					// Make sure that unexpected error is recorded.
+					pendingObject.objectResult.recordFatalError(cause);
+				}
+				validatorResult.addSubresult(pendingObject.objectResult);
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new SystemException(cause.getMessage(), cause);
+			}
+			validatorResult.addSubresult(pendingObject.objectResult);
+			if (!processObjectResult(cont, pendingObject.objectResult, validatorResult)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class PendingObject {
+		private final OperationResult objectResult;
+		private final Future<EventResult> future;
+
+		private PendingObject(OperationResult objectResult, Future<EventResult> future) {
+			this.objectResult = objectResult;
+			this.future = future;
+		}
+	}
+
 	private EventResult readFromStreamAndValidate(XMLStreamReader stream, OperationResult objectResult,
 			Map<String, String> rootNamespaceDeclarations, OperationResult validatorResult) {
 
+		Element objectElement = readFromStream(stream, objectResult, rootNamespaceDeclarations, validatorResult);
+		if (objectElement == null) {
+			return EventResult.skipObject();
+		}
+		return validateObjectInternal(objectElement, objectResult, validatorResult);
+	}
+
+	/**
+	 * Reads a single object from the stream to DOM. Returns null if the object cannot be read.
+	 */
+	private Element readFromStream(XMLStreamReader stream, OperationResult objectResult,
+			Map<String, String> rootNamespaceDeclarations, OperationResult validatorResult) {
+
 		objectResult.addContext(START_LINE_NUMBER, stream.getLocation().getLineNumber());
 
 		Document objectDoc;
@@ -297,7 +504,7 @@ public class Validator {
 				handler.handleGlobalError(validatorResult);
 			}
 			objectResult.recordFatalError(ex);
-			return EventResult.skipObject();
+			return null;
 		}
 
 		objectResult.addContext(END_LINE_NUMBER, stream.getLocation().getLineNumber());
@@ -308,8 +515,7 @@ public class Validator {
 		// element
 		Element objectElement = DOMUtil.getFirstChildElement(objectDoc);
 		DOMUtil.setNamespaceDeclarations(objectElement, rootNamespaceDeclarations);
-
-		return validateObjectInternal(objectElement, objectResult, validatorResult);
+		return objectElement;
 	}
 	
 	public EventResult validateObject(String stringXml, OperationResult objectResult) {
@@ -442,7 +648,7 @@ public class Validator {
 		OperationResult result = objectResult.createSubresult(Validator.class.getName() + ".validateSchema");
 		DOMResult validationResult = new DOMResult();
 		try {
-			xsdValidator.validate(new DOMSource(objectDoc), validationResult);
+			xsdValidator.get().validate(new DOMSource(objectDoc), validationResult);
 		} catch (SAXException e) {
 			result.recordFatalError("Validation error: " + e.getMessage(), e);
 			objectResult.computeStatus("Validation error: " + e.getMessage());
@@ -26,6 +26,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -228,6 +229,92 @@ public class BasicValidatorTest {
         assertEquals(2,result.getSubresults().size());
     }
     
+    /**
+     * Same as handlerTest, but the objects are processed by worker threads.
+     */
+    @Test
+    public void handlerTestParallel() throws Exception {
+    	System.out.println("\n===[ handlerTestParallel ]=====");
+
+    	OperationResult result = new OperationResult(this.getClass().getName()+".handlerTestParallel");
+
+        final List<String> postMarshallHandledOids = Collections.synchronizedList(new ArrayList<String>());
+
+        EventHandler handler = new EventHandler() {
+
+			@Override
+			public EventResult preMarshall(Element objectElement, Node postValidationTree, OperationResult objectResult) {
+				return EventResult.cont();
+			}
+
+            @Override
+            public <T extends Objectable> EventResult postMarshall(PrismObject<T> object, Element objectElement, OperationResult objectResult) {
+                postMarshallHandledOids.add(object.getOid());
+                return EventResult.cont();
+            }
+
+			@Override
+			public void handleGlobalError(OperationResult currentResult) { /* nothing */ }
+
+        };
+
+        Validator validator = new Validator(PrismTestUtil.getPrismContext(), handler);
+        validator.setVerbose(false);
+        validator.setWorkerThreads(2);
+
+        validateFile("three-objects.xml", handler, validator, result);
+
+        System.out.println(result.debugDump());
+        assertTrue("Result is not success", result.isSuccess());
+        assertEquals("Wrong number of handled objects", 3, postMarshallHandledOids.size());
+        assertTrue(postMarshallHandledOids.contains("c0c010c0-d34d-b33f-f00d-111111111111"));
+        assertTrue(postMarshallHandledOids.contains("c0c010c0-d34d-b33f-f00d-111111111112"));
+        assertTrue(postMarshallHandledOids.contains("c0c010c0-d34d-b33f-f00d-111111111113"));
+    }
+
+    /**
+     * Same as schemaViolation test, but the objects are processed by worker threads.
+     * The object results have to be in the original order anyway.
+     */
+    @Test
+    public void schemaViolationParallel() throws Exception {
+    	System.out.println("\n===[ schemaViolationParallel ]=====");
+
+        OperationResult result = new OperationResult(this.getClass().getName()+".schemaViolationParallel");
+
+        Validator validator = new Validator(PrismTestUtil.getPrismContext());
+        validator.setVerbose(false);
+        validator.setWorkerThreads(3);
+
+        validateFile("three-users-schema-violation.xml", null, validator, result);
+
+        System.out.println(result.debugDump());
+        assertFalse(result.isSuccess());
+        assertEquals(3, result.getSubresults().size());
+        assertTrue(result.getSubresults().get(0).getMessage().contains("Invalid content was found starting with element 'foo'"));
+        assertTrue(result.getSubresults().get(1).getMessage().contains("Invalid content was found starting with element 'givenName'"));
+        assertTrue(result.getSubresults().get(2).getMessage().contains("Invalid content was found starting with element 'fullName'"));
+    }
+
+    @Test
+    public void testStopOnErrorsParallel() throws Exception {
+    	System.out.println("\n===[ testStopOnErrorsParallel ]=====");
+
+        OperationResult result = new OperationResult(this.getClass().getName()+".testStopOnErrorsParallel");
+
+        Validator validator = new Validator(PrismTestUtil.getPrismContext());
+        validator.setVerbose(false);
+        validator.setStopAfterErrors(2);
+        validator.setWorkerThreads(2);
+        validator.setQueueSize(1);
+
+        validateFile("three-users-schema-violation.xml", null, validator, result);
+
+        System.out.println(result.debugDump());
+        assertFalse(result.isSuccess());
+        assertEquals(2,result.getSubresults().size());
+    }
+
     @Test
     public void noName() throws Exception {
     	System.out.println("\n===[ noName ]=====");
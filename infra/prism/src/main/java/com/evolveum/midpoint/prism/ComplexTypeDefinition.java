@@ -21,7 +21,7 @@ import com.evolveum.midpoint.prism.path.NameItemPathSegment;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.PrettyPrinter;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,7 +38,7 @@ import javax.xml.namespace.QName;
  */
 public class ComplexTypeDefinition extends Definition {
 	private static final long serialVersionUID = 2655797837209175037L;
-	private List<ItemDefinition> itemDefinitions;
+	private DefinitionList<ItemDefinition> itemDefinitions;
 	private QName superType;
 	private boolean containerMarker;
 	private boolean objectMarker;
@@ -48,12 +48,12 @@ public class ComplexTypeDefinition extends Definition {
 
 	public ComplexTypeDefinition(QName typeName, PrismContext prismContext) {
 		super(typeName, prismContext);
-		itemDefinitions = new ArrayList<ItemDefinition>();
+		itemDefinitions = new DefinitionList<ItemDefinition>();
 	}
 	
 	public ComplexTypeDefinition(QName typeName, PrismContext prismContext, Class<?> compileTimeClass) {
 		super(typeName, prismContext);
-		itemDefinitions = new ArrayList<ItemDefinition>();
+		itemDefinitions = new DefinitionList<ItemDefinition>();
 		this.compileTimeClass = compileTimeClass;
 	}
 
@@ -71,7 +71,7 @@ public class ComplexTypeDefinition extends Definition {
 	 */
 	public List<? extends ItemDefinition> getDefinitions() {
 		if (itemDefinitions == null) {
-			itemDefinitions = new ArrayList<ItemDefinition>();
+			itemDefinitions = new DefinitionList<ItemDefinition>();
 		}
 		return itemDefinitions;
 	}
@@ -209,7 +209,7 @@ public class ComplexTypeDefinition extends Definition {
             throw new IllegalArgumentException("name not specified while searching in " + this);
         }
 
-        for (ItemDefinition def : getDefinitions()) {
+        for (ItemDefinition def : getCandidates(name, caseInsensitive)) {
             if (isItemValid(def, name, clazz, caseInsensitive)) {
                 return (T) def;
             }
@@ -229,7 +229,7 @@ public class ComplexTypeDefinition extends Definition {
             throw new IllegalArgumentException("Cannot resolve empty path on complex type definition "+this);
         }
         QName firstName = ((NameItemPathSegment)path.first()).getName();
-        for (ItemDefinition def : getDefinitions()) {
+        for (ItemDefinition def : getCandidates(firstName, false)) {
             if (firstName.equals(def.getName())) {
                 return (ID) def.findItemDefinition(path.rest(), clazz);
             }
@@ -237,6 +237,18 @@ public class ComplexTypeDefinition extends Definition {
         return null;
     }
 	
+	/**
+	 * Returns item definitions that may match the name. The index cannot be used for case-insensitive
+	 * search and for subclasses that provide their own definitions (see getDefinitions()).
+	 */
+	Collection<? extends ItemDefinition> getCandidates(QName name, boolean caseInsensitive) {
+		List<? extends ItemDefinition> defs = getDefinitions();
+		if (caseInsensitive || defs != itemDefinitions) {
+			return defs;
+		}
+		return itemDefinitions.getCandidatesByName(name.getLocalPart());
+	}
+
 	private <T extends ItemDefinition> boolean isItemValid(ItemDefinition def, QName name, Class<T> clazz, boolean caseInsensitive) {
 		if (def == null) {
     		return false;
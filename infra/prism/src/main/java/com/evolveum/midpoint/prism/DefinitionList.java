@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/**
+ * List of definitions (in a schema or in a complex type) with lookup indexes by item name,
+ * type name and compile-time class.
+ *
+ * The indexes are only used to narrow the set of definitions that have to be checked, the callers still
+ * apply their usual conditions to the candidates. The candidates are returned in the order of this list,
+ * therefore the first matching definition is the same as the one found by a sequential search.
+ *
+ * Definitions are shared by many threads once the schemas are initialized. Therefore the indexes are never
+ * updated in place. They are built lazily as an immutable snapshot and a new snapshot is built after any
+ * structural modification of the list. Definitions should not change their name, type name or compile-time
+ * class after they were looked up in the list. If they do (e.g. when the schema is being parsed),
+ * {@link #invalidateIndex()} has to be called.
+ *
+ * @author Radovan Semancik
+ */
+public class DefinitionList<D extends Definition> extends ArrayList<D> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Smaller lists are searched sequentially. It is not worth to build the index for them.
+	 */
+	static final int INDEX_THRESHOLD = 10;
+
+	private transient volatile Index<D> index;
+
+	/**
+	 * ArrayList does not count set() as a structural modification, but it changes the indexed content.
+	 */
+	@Override
+	public D set(int i, D definition) {
+		D previous = super.set(i, definition);
+		modCount++;
+		return previous;
+	}
+
+	/**
+	 * Returns item definitions that have the specified local name (compared case-sensitively).
+	 * These are all the item definitions that may match the name either exactly or by {@link com.evolveum.midpoint.util.QNameUtil#match(QName, QName)}.
+	 * Reference definitions are always among the candidates, as they match also their composite object element name,
+	 * which may be set after the definition was added.
+	 */
+	public Collection<D> getCandidatesByName(String localName) {
+		Index<D> index = getIndex();
+		if (index == null) {
+			return this;
+		}
+		List<D> bucket = index.byLocalName.get(localName);
+		return bucket != null ? bucket : index.unindexedByName;
+	}
+
+	/**
+	 * Returns definitions that have exactly the specified type name.
+	 */
+	public Collection<D> getCandidatesByTypeName(QName typeName) {
+		Index<D> index = getIndex();
+		return index != null ? index.get(index.byTypeName, typeName) : this;
+	}
+
+	/**
+	 * Returns complex type and container definitions that have the specified compile-time class.
+	 */
+	public Collection<D> getCandidatesByCompileTimeClass(Class<?> compileTimeClass) {
+		Index<D> index = getIndex();
+		return index != null ? index.get(index.byCompileTimeClass, compileTimeClass) : this;
+	}
+
+	public void invalidateIndex() {
+		index = null;
+	}
+
+	private Index<D> getIndex() {
+		if (size() < INDEX_THRESHOLD) {
+			return null;
+		}
+		Index<D> current = index;
+		if (current == null || current.modCount != modCount) {
+			current = new Index<D>(this, modCount);
+			index = current;
+		}
+		return current;
+	}
+
+	private static class Index<D extends Definition> {
+
+		private final int modCount;
+		private final Map<String, List<D>> byLocalName = new HashMap<>();
+		private final List<D> unindexedByName = new ArrayList<>();
+		private final Map<QName, List<D>> byTypeName = new HashMap<>();
+		private final Map<Class<?>, List<D>> byCompileTimeClass = new HashMap<>();
+
+		private Index(List<D> definitions, int modCount) {
+			this.modCount = modCount;
+			for (D definition : definitions) {
+				String localName = getIndexedLocalName(definition);
+				if (localName != null && !byLocalName.containsKey(localName)) {
+					byLocalName.put(localName, new ArrayList<D>());
+				}
+			}
+			for (D definition : definitions) {
+				if (definition instanceof ItemDefinition) {
+					String localName = getIndexedLocalName(definition);
+					if (localName != null) {
+						byLocalName.get(localName).add(definition);
+					} else {
+						// keeping the order of the candidates
+						unindexedByName.add(definition);
+						for (List<D> bucket : byLocalName.values()) {
+							bucket.add(definition);
+						}
+					}
+				}
+				if (definition.getTypeName() != null) {
+					put(byTypeName, definition.getTypeName(), definition);
+				}
+				Class<?> compileTimeClass = getCompileTimeClass(definition);
+				if (compileTimeClass != null) {
+					put(byCompileTimeClass, compileTimeClass, definition);
+				}
+			}
+		}
+
+		private String getIndexedLocalName(D definition) {
+			if (!(definition instanceof ItemDefinition) || definition instanceof PrismReferenceDefinition) {
+				return null;
+			}
+			QName name = ((ItemDefinition) definition).getName();
+			return name != null ? name.getLocalPart() : null;
+		}
+
+		private Class<?> getCompileTimeClass(D definition) {
+			if (definition instanceof ComplexTypeDefinition) {
+				return ((ComplexTypeDefinition) definition).getCompileTimeClass();
+			} else if (definition instanceof PrismContainerDefinition) {
+				return ((PrismContainerDefinition<?>) definition).getCompileTimeClass();
+			} else {
+				return null;
+			}
+		}
+
+		private <K> void put(Map<K, List<D>> map, K key, D definition) {
+			List<D> bucket = map.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<>(1);
+				map.put(key, bucket);
+			}
+			bucket.add(definition);
+		}
+
+		private <K> Collection<D> get(Map<K, List<D>> map, K key) {
+			List<D> bucket = map.get(key);
+			if (bucket == null) {
+				return Collections.emptyList();
+			}
+			return bucket;
+		}
+	}
+}
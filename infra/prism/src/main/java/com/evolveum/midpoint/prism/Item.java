@@ -31,6 +31,7 @@ import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -58,8 +59,9 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     protected QName elementName;
     protected PrismValue parent;
     protected D definition;
-    private List<V> values = new ArrayList<V>();
+    private ItemValueList<V> values = new ItemValueList<V>();
     private transient Map<String,Object> userData = new HashMap<>();;
+    private boolean immutable;
     
     protected transient PrismContext prismContext;          // beware, this one can easily be null
 
@@ -137,7 +139,11 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
      * @param name the name to set
      */
     public void setElementName(QName elementName) {
+    	checkMutability();
         this.elementName = elementName;
+        if (parent instanceof PrismContainerValue) {
+        	((PrismContainerValue<?>) parent).invalidateItemIndex();
+        }
     }
 
     /**
@@ -218,7 +224,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
 	public List<V> getValues() {
-		return values;
+		return immutable ? Collections.unmodifiableList(values) : values;
 	}
     
     public V getValue(int index) {
@@ -259,7 +265,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
      * provided value argument may not be.
      */
     public PrismValue findValue(PrismValue value, boolean ignoreMetadata) {
-        for (PrismValue myVal : getValues()) {
+        for (PrismValue myVal : values.getCandidates(value)) {
             if (myVal.equalsComplex(value, ignoreMetadata, false)) {
                 return myVal;
             }
@@ -335,7 +341,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
     
     public boolean contains(V value, boolean ignoreMetadata) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: values.getCandidates(value)) {
     		if (myValue.equals(value, ignoreMetadata)) {
     			return true;
     		}
@@ -344,7 +350,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
         
     public boolean containsRealValue(V value) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: values.getCandidates(value)) {
     		if (myValue.equalsRealValue(value)) {
     			return true;
     		}
@@ -367,6 +373,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
     
     public boolean add(V newValue) throws SchemaException {
+    	checkMutability();
     	newValue.setParent(this);
     	if (containsEquivalentValue(newValue)) {
     		return false;
@@ -378,48 +385,61 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
     
     public boolean removeAll(Collection<V> newValues) {
-    	boolean changed = false;
+    	checkMutability();
+    	// matching values are collected first and then removed in one pass
+    	List<V> valuesToRemove = new ArrayList<>();
     	for (V val: newValues) {
-    		if (remove(val)) {
-    			changed = true;
-    		}
+    		collectValuesToRemove(val, valuesToRemove);
     	}
-    	return changed;
+    	values.removeInstances(valuesToRemove);
+    	return !valuesToRemove.isEmpty();
     }
 
     public boolean remove(V newValue) {
-    	boolean changed = false;
-    	Iterator<V> iterator = values.iterator();
-    	while (iterator.hasNext()) {
-    		V val = iterator.next();
+    	checkMutability();
+    	List<V> valuesToRemove = new ArrayList<>();
+    	collectValuesToRemove(newValue, valuesToRemove);
+    	values.removeInstances(valuesToRemove);
+    	return !valuesToRemove.isEmpty();
+    }
+
+    private void collectValuesToRemove(V newValue, List<V> valuesToRemove) {
+    	for (V val: values.getCandidates(newValue)) {
     		if (val.representsSameValue(newValue) || val.equalsRealValue(newValue)) {
-    			iterator.remove();
-    			changed = true;
+    			valuesToRemove.add(val);
     		}
     	}
-    	return changed;
     }
     
     public V remove(int index) {
+    	checkMutability();
     	return values.remove(index);
     }
 
     public void replaceAll(Collection<V> newValues) throws SchemaException {
+    	checkMutability();
     	values.clear();
     	addAll(newValues);
     }
 
     public void replace(V newValue) {
+    	checkMutability();
     	values.clear();
         newValue.setParent(this);
     	values.add(newValue);
     }
     
     public void clear() {
+    	checkMutability();
     	values.clear();
     }
+
+    void invalidateValueIndex() {
+    	values.invalidateIndex();
+    }
     
     public void normalize() {
+    	checkMutability();
     	Iterator<V> iterator = values.iterator();
     	while (iterator.hasNext()) {
     		V value = iterator.next();
@@ -572,6 +592,34 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     	}
     }
 
+    public boolean isImmutable() {
+		return immutable;
+	}
+
+    /**
+     * Makes the item and all its values (recursively) immutable, or mutable again. Immutable items
+     * can be safely shared, e.g. by caches or by several threads. Any attempt to modify an immutable
+     * item or its values ends with IllegalStateException. Clones of immutable items are mutable.
+     * 
+     * User data and definitions are not covered by immutability.
+     */
+	public void setImmutable(boolean immutable) {
+		this.immutable = immutable;
+		for (V value : values) {
+			value.setImmutable(immutable);
+		}
+		if (immutable) {
+			// readers would otherwise build their own index snapshots
+			values.prepareForSharing();
+		}
+	}
+
+	protected void checkMutability() {
+		if (immutable) {
+			throw new IllegalStateException("An attempt to modify an immutable item: " + this);
+		}
+	}
+
     public abstract Item clone();
 
     protected void copyValues(Item clone) {
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List of item values that maintains a hash index over the values when the item grows large.
+ *
+ * The index is used only to narrow the set of values that have to be compared with a given value
+ * (see {@link #getCandidates(PrismValue)}), the values are still compared by the usual equals methods.
+ * Therefore the index key of a value (see {@link PrismValue#getValueIndexKey()}) must be the same
+ * for all values that are equal or equivalent. Values that have no such key (containers, raw values,
+ * values of exotic types) are kept aside and are always among the candidates.
+ *
+ * The list may be modified directly (e.g. via item.getValues()), so the index is discarded after any
+ * structural modification of the list except for {@link #add(PrismValue)} and removal of a single value
+ * by {@link #removeInstances(Collection)}, and it is rebuilt lazily.
+ * Values that change their key (e.g. by setting the real value) invalidate the index of their parent item.
+ *
+ * Immutable items may be read by several threads. Therefore reading never updates the index in place:
+ * it is built into a new snapshot that is published only when complete. Only the methods that modify
+ * the list update the current index (these are never called concurrently with reading).
+ *
+ * The order of values is not affected by the index.
+ *
+ * @author Radovan Semancik
+ */
+class ItemValueList<V extends PrismValue> extends ArrayList<V> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Items with fewer values are searched sequentially. It is not worth to build the index for them.
+	 */
+	static final int INDEX_THRESHOLD = 50;
+
+	private transient volatile Index<V> index;
+
+	@Override
+	public boolean add(V value) {
+		Index<V> current = getValidIndex();
+		super.add(value);
+		if (current != null) {
+			current.add(value);
+			current.modCount = modCount;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns values that may be equal or equivalent to the provided value, in the order in which they
+	 * are stored in this list (for indexed and unindexed ones separately). If the index cannot be used,
+	 * the list itself is returned.
+	 */
+	Collection<V> getCandidates(PrismValue value) {
+		if (size() < INDEX_THRESHOLD) {
+			return this;
+		}
+		Object key = value != null ? value.getValueIndexKey() : null;
+		if (key == null) {
+			return this;
+		}
+		Index<V> current = getValidIndex();
+		if (current == null) {
+			current = new Index<V>(this, modCount);
+			index = current;
+		}
+		return current.getCandidates(key);
+	}
+
+	/**
+	 * Removes the specified value instances (compared by identity), keeping the order of the remaining values.
+	 * Many values are removed in a single pass, so the removal is not quadratic.
+	 */
+	void removeInstances(Collection<? extends PrismValue> valuesToRemove) {
+		if (valuesToRemove.isEmpty()) {
+			return;
+		}
+		if (valuesToRemove.size() == 1) {
+			PrismValue valueToRemove = valuesToRemove.iterator().next();
+			Index<V> current = getValidIndex();
+			for (int i = 0; i < size(); i++) {
+				if (get(i) == valueToRemove) {
+					remove(i);
+					if (current != null) {
+						// keep the index, otherwise removing values one by one would rebuild it each time
+						current.remove(valueToRemove);
+						current.modCount = modCount;
+					}
+					return;
+				}
+			}
+			return;
+		}
+		Map<PrismValue, Boolean> instances = new IdentityHashMap<>();
+		for (PrismValue value : valuesToRemove) {
+			instances.put(value, Boolean.TRUE);
+		}
+		List<V> remainingValues = new ArrayList<>(size());
+		for (V value : this) {
+			if (!instances.containsKey(value)) {
+				remainingValues.add(value);
+			}
+		}
+		clear();
+		addAll(remainingValues);
+	}
+
+	void invalidateIndex() {
+		index = null;
+	}
+
+	/**
+	 * Builds the index in advance, so the threads that read the list do not need to build their own snapshots.
+	 */
+	void prepareForSharing() {
+		if (size() >= INDEX_THRESHOLD && getValidIndex() == null) {
+			index = new Index<V>(this, modCount);
+		}
+	}
+
+	private Index<V> getValidIndex() {
+		Index<V> current = index;
+		return current != null && current.modCount == modCount ? current : null;
+	}
+
+	private static class Index<V extends PrismValue> {
+
+		private int modCount;
+		private final Map<Object, List<V>> buckets = new HashMap<>();
+		private final List<V> unindexed = new ArrayList<>();
+
+		private Index(List<V> values, int modCount) {
+			for (V value : values) {
+				add(value);
+			}
+			this.modCount = modCount;
+		}
+
+		private Collection<V> getCandidates(Object key) {
+			List<V> bucket = buckets.get(key);
+			if (bucket == null) {
+				return unindexed;
+			}
+			if (unindexed.isEmpty()) {
+				return bucket;
+			}
+			List<V> candidates = new ArrayList<>(bucket.size() + unindexed.size());
+			candidates.addAll(bucket);
+			candidates.addAll(unindexed);
+			return candidates;
+		}
+
+		private void add(V value) {
+			Object key = value.getValueIndexKey();
+			if (key == null) {
+				unindexed.add(value);
+				return;
+			}
+			List<V> bucket = buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<>(1);
+				buckets.put(key, bucket);
+			}
+			bucket.add(value);
+		}
+
+		private void remove(PrismValue value) {
+			Object key = value.getValueIndexKey();
+			List<V> bucket = key != null ? buckets.get(key) : unindexed;
+			if (bucket == null) {
+				return;
+			}
+			for (int i = 0; i < bucket.size(); i++) {
+				if (bucket.get(i) == value) {
+					bucket.remove(i);
+					break;
+				}
+			}
+			if (key != null && bucket.isEmpty()) {
+				buckets.remove(key);
+			}
+		}
+	}
+}
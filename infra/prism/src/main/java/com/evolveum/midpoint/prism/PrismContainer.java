@@ -124,6 +124,9 @@ public class PrismContainer<C extends Containerable> extends Item<PrismContainer
 				// Insert first empty value. This simulates empty single-valued container. It the container exists
 		        // it is clear that it has at least one value (and that value is empty).
 				PrismContainerValue<C> pValue = new PrismContainerValue<C>(null, null, this, null, null, prismContext);
+				if (isImmutable()) {
+					return createImmutableEmptyValue(pValue);
+				}
 		        try {
 					add(pValue);
 				} catch (SchemaException e) {
@@ -138,6 +141,9 @@ public class PrismContainer<C extends Containerable> extends Item<PrismContainer
 			// Insert first empty value. This simulates empty single-valued container. It the container exists
 	        // it is clear that it has at least one value (and that value is empty).
 			PrismContainerValue<C> pValue = new PrismContainerValue<C>(null, null, this, null, null, prismContext);
+			if (isImmutable()) {
+				return createImmutableEmptyValue(pValue);
+			}
 	        try {
 				add(pValue);
 			} catch (SchemaException e) {
@@ -200,6 +206,12 @@ public class PrismContainer<C extends Containerable> extends Item<PrismContainer
 		}
 	}
     
+    // immutable container cannot get the simulated empty value, the value is returned but it is not added
+    private PrismContainerValue<C> createImmutableEmptyValue(PrismContainerValue<C> pValue) {
+    	pValue.setImmutable(true);
+    	return pValue;
+    }
+    
     public PrismContainerValue<C> getValue(Long id) {
     	for (PrismContainerValue<C> pval: getValues()) {
     		if ((id == null && pval.getId() == null) ||
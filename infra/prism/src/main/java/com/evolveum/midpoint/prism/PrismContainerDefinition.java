@@ -222,14 +222,14 @@ public class PrismContainerDefinition<C extends Containerable> extends ItemDefin
 		// not contains qnames with namespaces defined (but the prefix was
 		// specified) match definition according to the local name
         if (StringUtils.isEmpty(firstName.getNamespaceURI())) {
-        	for (ItemDefinition def : getDefinitions()){
+        	for (ItemDefinition def : getDefinitionCandidates(firstName)){
         		if (QNameUtil.match(firstName, def.getName())){
         			return (ID) def.findItemDefinition(rest, clazz);
         		}
         	}
         }
         
-        for (ItemDefinition def : getDefinitions()) {
+        for (ItemDefinition def : getDefinitionCandidates(firstName)) {
             if (firstName.equals(def.getName())) {
                 return (ID) def.findItemDefinition(rest, clazz);
             }
@@ -242,6 +242,16 @@ public class PrismContainerDefinition<C extends Containerable> extends ItemDefin
         return null;
     }
 
+    /**
+     * Returns item definitions that may have the specified name (using the index of the complex type).
+     */
+    private Collection<? extends ItemDefinition> getDefinitionCandidates(QName name) {
+        if (complexTypeDefinition == null) {
+            return getDefinitions();
+        }
+        return complexTypeDefinition.getCandidates(name, false);
+    }
+
     public <ID extends ItemDefinition> ID findItemDefinition(QName name) {
         return (ID)findItemDefinition(name, ItemDefinition.class);
     }
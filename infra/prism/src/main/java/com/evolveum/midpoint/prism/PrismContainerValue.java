@@ -18,9 +18,12 @@ package com.evolveum.midpoint.prism;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -57,7 +60,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 
 	// This is list. We need to maintain the order internally to provide consistent
     // output in DOM and other ordering-sensitive representations
-    private List<Item<?,?>> items = null;
+    private ItemList items = null;
     private Long id;
     
     // XNode map of all sub-elements in this container value.
@@ -150,6 +153,9 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
      */
     
     public List<Item<?,?>> getItems() {
+    	if (isImmutable() && items != null) {
+    		return Collections.unmodifiableList(items);
+    	}
         return items;
     }
     
@@ -215,6 +221,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 	}
 
 	public void setId(Long id) {
+		checkMutability();
 		this.id = id;
 	}
 	
@@ -353,6 +360,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
      * @throws IllegalArgumentException an attempt to add value that already exists
      */
     public <IV extends PrismValue,ID extends ItemDefinition> boolean add(Item<IV,ID> item) throws SchemaException {
+    	checkMutability();
     	if (item.getElementName() == null) {
     		throw new IllegalArgumentException("Cannot add item without a name to value of container "+getParent());
     	}
@@ -368,7 +376,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         	item.applyDefinition((ID)determineItemDefinition(item.getElementName(), getActualDefinition()), false);
         }
         if (items == null) {
-        	items = new ArrayList<Item<?,?>>();
+        	items = new ItemList();
         }
         return items.add(item);
     }
@@ -421,6 +429,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
     	if (item == null){
     		return;
     	}
+    	checkMutability();
         Item<IV,ID> existingItem = findItem(item.getElementName(), Item.class);
         if (existingItem != null && items != null) {
             items.remove(existingItem);
@@ -431,6 +440,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
     
     public <IV extends PrismValue,ID extends ItemDefinition> void remove(Item<IV,ID> item) {
         Validate.notNull(item, "Item must not be null.");
+        checkMutability();
 
         Item<IV,ID> existingItem = findItem(item.getElementName(),  Item.class);
         if (existingItem != null && items != null) {
@@ -440,6 +450,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
     }
     
     public void removeAll() {
+    	checkMutability();
     	if (items == null){
     		return;
     	}
@@ -469,6 +480,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
      * @param itemsToAdd items to add
      */
     public void addAllReplaceExisting(Collection<? extends Item<?,?>> itemsToAdd) throws SchemaException {
+        checkMutability();
         // Check for conflicts, remove conflicting values
         for (Item<?,?> item : itemsToAdd) {
             Item<?,?> existingItem = findItem(item.getElementName(), Item.class);
@@ -500,6 +512,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 //    }
     
     public void clear() {
+    	checkMutability();
     	if (items != null) {
     		items.clear();
     	}
@@ -718,7 +731,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
             return null;
         }
         Item<IV,ID> matching = null;
-        for (Item<?,?> item : items) {
+        for (Item<?,?> item : items.getCandidates(subName)) {
             if (QNameUtil.match(subName, item.getElementName())) {
                 if (matching != null) {
                     String containerName = getParent() != null ? DebugUtil.formatElementName(getParent().getElementName()) : "";
@@ -760,7 +773,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 		}
 		
 		if (type.isAssignableFrom(newItem.getClass())) {
-			add(newItem);
+			addCreatedItem(newItem);
 			return newItem;
     	} else {
 			throw new IllegalStateException("The " + type.getSimpleName() + " cannot be created because the item should be of type "
@@ -821,7 +834,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
             throw new IllegalArgumentException("No definition of container '" + containerName + "' in " + getActualDefinition());
         }
         PrismContainer<X> container = containerDefinition.instantiate();
-        add(container);
+        addCreatedItem(container);
         return container;
     }
 
@@ -847,15 +860,27 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         } else {
         	property = propertyDefinition.instantiate();
         }
-        add(property);
+        addCreatedItem(property);
         return property;
     }
     
     public <X> PrismProperty<X> createProperty(PrismPropertyDefinition propertyDefinition) throws SchemaException {
     	PrismProperty<X> property = propertyDefinition.instantiate();
-    	add(property);
+    	addCreatedItem(property);
         return property;
     }
+
+    /**
+     * Immutable value cannot get new items. The empty item is returned as if it was created
+     * (e.g. for JAXB getters of lists), but it is not added and it cannot be modified.
+     */
+    private void addCreatedItem(Item<?,?> newItem) throws SchemaException {
+    	if (isImmutable()) {
+    		newItem.setImmutable(true);
+    	} else {
+    		add(newItem);
+    	}
+    }
     
     public void removeProperty(QName propertyName) {
     	removeProperty(new ItemPath(propertyName));
@@ -875,6 +900,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 
 	// Expects that "self" path is NOT present in propPath
 	<IV extends PrismValue,ID extends ItemDefinition,I extends Item<IV,ID>> void removeItem(ItemPath propPath, Class<I> itemType) {
+		checkMutability();
 		if (items == null){
     		return;
     	}
@@ -1049,6 +1075,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 	}
 		
 	public boolean addRawElement(Object element) throws SchemaException {
+		checkMutability();
 		PrismContainerDefinition<C> definition = getDefinition();
 		if (definition == null) {
 			// We cannot do much better. We do not even have prism context here.
@@ -1067,6 +1094,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 	}
 	
 	public boolean deleteRawElement(Object element) throws SchemaException {
+		checkMutability();
 		PrismContainerDefinition<C> definition = getDefinition();
 		if (definition == null) {
 			// We cannot do much better. We do not even have prism context here.
@@ -1083,6 +1111,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 
 	
 	public boolean removeRawElement(Object element) {
+		checkMutability();
 		return rawElements.remove(element);
 	}
 
@@ -1318,7 +1347,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 				Item<?,?> clonedItem = item.clone();
 				clonedItem.setParent(clone);
 				if (clone.items == null) {
-					clone.items = new ArrayList<>(this.items.size());
+					clone.items = new ItemList();
 				}
 				clone.items.add(clonedItem);
 			}
@@ -1515,11 +1544,25 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         }
     }
 
+    @Override
+    public void setImmutable(boolean immutable) {
+    	super.setImmutable(immutable);
+    	if (items != null) {
+    		for (Item<?,?> item : items) {
+    			item.setImmutable(immutable);
+    		}
+    		if (immutable) {
+    			items.prepareForSharing();
+    		}
+    	}
+    }
+
     public QName getConcreteType() {
         return concreteType;
     }
 
     public void setConcreteType(QName concreteType) {
+    	checkMutability();
         this.concreteType = concreteType;
         this.concreteTypeDefinition = null;
     }
@@ -1564,4 +1607,88 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
     }
 
 
+
+    void invalidateItemIndex() {
+        if (items != null) {
+            items.invalidateIndex();
+        }
+    }
+
+    /**
+     * List of items that maintains an index of items by local name when the container value has many items.
+     * Items are matched by local name, because names are compared using QNameUtil.match (that tolerates
+     * unqualified names). The list may be modified directly (via getItems()), so the index is discarded
+     * after any structural change and rebuilt lazily.
+     *
+     * The index is built lazily while the list is being read, possibly by several threads. Therefore it is
+     * never updated in place: a new immutable snapshot is built and published through a single volatile field,
+     * and every lookup reads that field only once.
+     */
+    private static class ItemList extends ArrayList<Item<?,?>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int INDEX_THRESHOLD = 10;
+
+        private transient volatile ItemIndex index;
+
+        // returns items that may match the name, in the order in which they are stored in this list
+        Collection<Item<?,?>> getCandidates(QName name) {
+            if (size() < INDEX_THRESHOLD || name == null) {
+                return this;
+            }
+            ItemIndex current = getValidIndex();
+            if (current == null) {
+                current = new ItemIndex(this, modCount);
+                index = current;
+            }
+            return current.getCandidates(name.getLocalPart());
+        }
+
+        // builds the index in advance, so the threads that read the list do not need to build their own snapshots
+        void prepareForSharing() {
+            if (size() >= INDEX_THRESHOLD && getValidIndex() == null) {
+                index = new ItemIndex(this, modCount);
+            }
+        }
+
+        void invalidateIndex() {
+            index = null;
+        }
+
+        private ItemIndex getValidIndex() {
+            ItemIndex current = index;
+            return current != null && current.modCount == modCount ? current : null;
+        }
+    }
+
+    private static class ItemIndex {
+
+        private final int modCount;
+        private final Map<String, List<Item<?,?>>> buckets;
+
+        private ItemIndex(List<Item<?,?>> items, int modCount) {
+            Map<String, List<Item<?,?>>> newBuckets = new HashMap<>();
+            for (Item<?,?> item : items) {
+                String localPart = item.getElementName() != null ? item.getElementName().getLocalPart() : null;
+                List<Item<?,?>> bucket = newBuckets.get(localPart);
+                if (bucket == null) {
+                    bucket = new ArrayList<>(1);
+                    newBuckets.put(localPart, bucket);
+                }
+                bucket.add(item);
+            }
+            for (Map.Entry<String, List<Item<?,?>>> entry : newBuckets.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            this.buckets = newBuckets;
+            this.modCount = modCount;
+        }
+
+        private Collection<Item<?,?>> getCandidates(String localPart) {
+            List<Item<?,?>> bucket = buckets.get(localPart);
+            return bucket != null ? bucket : Collections.<Item<?,?>>emptyList();
+        }
+    }
+
 }
@@ -83,6 +83,7 @@ public class PrismObject<O extends Objectable> extends PrismContainer<O> {
 	}
 
 	public void setOid(String oid) {
+		checkMutability();
 		this.oid = oid;
 	}
 
@@ -91,6 +92,7 @@ public class PrismObject<O extends Objectable> extends PrismContainer<O> {
 	}
 
 	public void setVersion(String version) {
+		checkMutability();
 		this.version = version;
 	}
 
@@ -211,6 +213,16 @@ public class PrismObject<O extends Objectable> extends PrismContainer<O> {
 		return clone;
 	}
 
+	/**
+	 * Returns immutable copy of this object. The copy can be shared (e.g. cached) without further cloning,
+	 * see {@link Item#setImmutable(boolean)}.
+	 */
+	public PrismObject<O> createImmutableClone() {
+		PrismObject<O> clone = clone();
+		clone.setImmutable(true);
+		return clone;
+	}
+
 	protected void copyValues(PrismObject<O> clone) {
 		super.copyValues(clone);
 		clone.oid = this.oid;
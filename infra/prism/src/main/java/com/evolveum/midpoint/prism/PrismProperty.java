@@ -227,6 +227,7 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
      * Will remove all existing values.
      */
     public void setValue(PrismPropertyValue<T> value) {
+    	checkMutability();
     	getValues().clear();
         addValue(value);
     }
@@ -247,6 +248,7 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
     }
 
     public void addValue(PrismPropertyValue<T> pValueToAdd) {
+    	checkMutability();
     	pValueToAdd.checkValue();
     	Iterator<PrismPropertyValue<T>> iterator = getValues().iterator();
     	while (iterator.hasNext()) {
@@ -279,6 +281,7 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
     }
 
     public boolean deleteValue(PrismPropertyValue<T> pValueToDelete) {
+    	checkMutability();
     	Iterator<PrismPropertyValue<T>> iterator = getValues().iterator();
     	boolean found = false;
     	while (iterator.hasNext()) {
@@ -297,6 +300,7 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
     }
 
     public void replaceValues(Collection<PrismPropertyValue<T>> valuesToReplace) {
+    	checkMutability();
     	getValues().clear();
         addValues(valuesToReplace);
     }
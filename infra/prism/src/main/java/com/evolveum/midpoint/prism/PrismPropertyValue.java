@@ -94,8 +94,10 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
 
 
     public void setValue(T value) {
+    	checkMutability();
         this.value = value;
         checkValue();
+        invalidateParentValueIndex();
     }
 
     public T getValue() {
@@ -154,7 +156,26 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
 	}
 
 	public void setRawElement(XNode rawElement) {
+		checkMutability();
 		this.rawElement = rawElement;
+		invalidateParentValueIndex();
+	}
+
+	// only immutable values with hashCode consistent with the comparison in equalsComplex are indexed
+	@Override
+	public Object getValueIndexKey() {
+		if (rawElement != null || value == null) {
+			return null;
+		}
+		if (value instanceof PolyString) {
+			// norm may be recomputed, orig is stable
+			return ((PolyString) value).getOrig();
+		}
+		if (value instanceof String || value instanceof QName || value instanceof Boolean || value instanceof Integer
+				|| value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof Enum) {
+			return value;
+		}
+		return null;
 	}
 
 	@Override
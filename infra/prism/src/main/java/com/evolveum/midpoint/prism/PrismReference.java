@@ -102,6 +102,7 @@ public class PrismReference extends Item<PrismReferenceValue,PrismReferenceDefin
 
     
     public boolean add(PrismReferenceValue value) {
+    	checkMutability();
     	value.setParent(this);
     	return getValues().add(value);
     }
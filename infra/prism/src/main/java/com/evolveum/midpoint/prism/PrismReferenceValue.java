@@ -92,7 +92,15 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 
 	public void setOid(String oid) {
+		checkMutability();
 		this.oid = oid;
+		invalidateParentValueIndex();
+	}
+
+	// equal references have equal OIDs; references identified only by embedded objects are not indexed
+	@Override
+	public Object getValueIndexKey() {
+		return oid;
 	}
 	
 	public PrismObject getObject() {
@@ -100,6 +108,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 
 	public void setObject(PrismObject object) {
+		checkMutability();
 		this.object = object;
 	}
 
@@ -130,6 +139,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
      * @param allowEmptyNamespace This is an ugly hack. See comment in DOMUtil.validateNonEmptyQName.
      */
 	public void setTargetType(QName targetType, boolean allowEmptyNamespace) {
+		checkMutability();
 		// Null value is OK
 		if (targetType != null) {
 			// But non-empty is not ..
@@ -159,6 +169,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 	
 	public void setTargetName(PolyString name) {
+		checkMutability();
 		this.targetName = name;
 	}
 
@@ -176,6 +187,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 
 	public void setRelation(QName relation) {
+		checkMutability();
 		this.relation = relation;
 	}
 
@@ -184,6 +196,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 
 	public void setDescription(String description) {
+		checkMutability();
 		this.description = description;
 	}
 
@@ -192,9 +205,18 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	}
 
 	public void setFilter(SearchFilterType filter) {
+		checkMutability();
 		this.filter = filter;
 	}
 	
+	@Override
+	public void setImmutable(boolean immutable) {
+		super.setImmutable(immutable);
+		if (object != null) {
+			object.setImmutable(immutable);
+		}
+	}
+	
 	@Override
 	public boolean isRaw() {
 		// Reference value cannot be raw
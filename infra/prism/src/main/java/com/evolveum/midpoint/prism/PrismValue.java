@@ -45,6 +45,7 @@ public abstract class PrismValue implements Visitable, PathVisitable, Serializab
     private Itemable parent;
     protected Element domElement = null;
     private transient Map<String,Object> userData = new HashMap<>();;
+    private boolean immutable;
 
     PrismValue() {
 		super();
@@ -102,6 +103,44 @@ public abstract class PrismValue implements Visitable, PathVisitable, Serializab
 		this.parent = parent;
 	}
 	
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	/**
+	 * Makes the value (and its subitems, if any) immutable, or mutable again. See {@link Item#setImmutable(boolean)}.
+	 */
+	public void setImmutable(boolean immutable) {
+		this.immutable = immutable;
+	}
+
+	protected void checkMutability() {
+		if (immutable) {
+			throw new IllegalStateException("An attempt to modify an immutable value of " + parent);
+		}
+	}
+	
+	/**
+	 * Returns the key used to index values of multi-valued items (see {@link ItemValueList})
+	 * and of delta set triples (see {@link com.evolveum.midpoint.prism.delta.IndexedValueSet}).
+	 * All values that are equal or equivalent to this one must have the same key.
+	 * Returns null if the value cannot be indexed.
+	 */
+	public Object getValueIndexKey() {
+		return null;
+	}
+
+	/**
+	 * Must be called when the index key of this value changes.
+	 */
+	void invalidateParentValueIndex() {
+		if (parent instanceof Item) {
+			((Item<?,?>) parent).invalidateValueIndex();
+		} else if (parent instanceof ItemDelta) {
+			((ItemDelta<?,?>) parent).invalidateValueIndex();
+		}
+	}
+
 	public ItemPath getPath() {
 		Itemable parent = getParent();
 		if (parent == null) {
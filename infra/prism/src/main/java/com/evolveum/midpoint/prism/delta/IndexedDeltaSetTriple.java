@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.delta;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.match.MatchingRule;
+import com.evolveum.midpoint.util.Transformer;
+
+/**
+ * Delta set triple that keeps its sets indexed by the (prism) values of the members, so the members that have
+ * a given value can be found without scanning the sets. The values are considered equivalent if their real values
+ * are equal or, if a matching rule is specified, if they match by that rule.
+ *
+ * This is meant for processing of large triples, e.g. consolidation of outputs of many mappings that produce
+ * values of a single item. See {@link IndexedValueSet} for the details.
+ *
+ * @author Radovan Semancik
+ */
+public class IndexedDeltaSetTriple<T, V extends PrismValue> extends DeltaSetTriple<T> {
+
+	private final Transformer<T, V> valueExtractor;
+	private final MatchingRule<?> matchingRule;
+
+	/**
+	 * @param valueExtractor provides the prism value of a member. If null, the members are the prism values.
+	 * @param matchingRule rule used to find the equivalent values. If null, the real values are compared.
+	 */
+	public IndexedDeltaSetTriple(Transformer<T, V> valueExtractor, MatchingRule<?> matchingRule) {
+		super(null, null, null);
+		this.valueExtractor = valueExtractor;
+		this.matchingRule = matchingRule;
+		zeroSet = createSet();
+		plusSet = createSet();
+		minusSet = createSet();
+	}
+
+	/**
+	 * Creates an indexed copy of the triple. The members are not cloned.
+	 */
+	public static <T, V extends PrismValue> IndexedDeltaSetTriple<T, V> copyOf(DeltaSetTriple<T> triple,
+			Transformer<T, V> valueExtractor, MatchingRule<?> matchingRule) {
+		IndexedDeltaSetTriple<T, V> indexedTriple = new IndexedDeltaSetTriple<>(valueExtractor, matchingRule);
+		copySet(triple.getZeroSet(), indexedTriple.zeroSet);
+		copySet(triple.getPlusSet(), indexedTriple.plusSet);
+		copySet(triple.getMinusSet(), indexedTriple.minusSet);
+		return indexedTriple;
+	}
+
+	private static <T> void copySet(Collection<T> source, Collection<T> target) {
+		if (source != null) {
+			target.addAll(source);
+		}
+	}
+
+	@Override
+	protected Collection<T> createSet() {
+		return new IndexedValueSet<>(valueExtractor, matchingRule);
+	}
+
+	/**
+	 * Returns the members of the specified set that have a value equivalent to the specified one.
+	 */
+	public List<T> findEquivalent(PlusMinusZero whichSet, PrismValue value) {
+		return getIndexedSet(whichSet).findEquivalent(value);
+	}
+
+	public boolean presentEquivalent(PlusMinusZero whichSet, PrismValue value) {
+		return getIndexedSet(whichSet).containsEquivalent(value);
+	}
+
+	/**
+	 * Returns the values of all the members without the duplicates, i.e. only the first one of the equivalent values
+	 * is returned. The values are returned in the order of the sets (zero, plus, minus) and of the members in them.
+	 */
+	public List<V> getDistinctValues() {
+		IndexedValueSet<V, V> distinctValues = IndexedValueSet.create(matchingRule);
+		addDistinctValues(distinctValues, PlusMinusZero.ZERO);
+		addDistinctValues(distinctValues, PlusMinusZero.PLUS);
+		addDistinctValues(distinctValues, PlusMinusZero.MINUS);
+		return distinctValues;
+	}
+
+	private void addDistinctValues(IndexedValueSet<V, V> distinctValues, PlusMinusZero whichSet) {
+		IndexedValueSet<T, V> set = getIndexedSet(whichSet);
+		for (T member : set) {
+			V value = set.getValue(member);
+			if (value != null && !distinctValues.containsEquivalent(value)) {
+				distinctValues.add(value);
+			}
+		}
+	}
+
+	// the sets are always created by createSet()
+	@SuppressWarnings("unchecked")
+	private IndexedValueSet<T, V> getIndexedSet(PlusMinusZero whichSet) {
+		return (IndexedValueSet<T, V>) getSet(whichSet);
+	}
+
+	@Override
+	protected String debugName() {
+		return "IndexedDeltaSetTriple";
+	}
+}
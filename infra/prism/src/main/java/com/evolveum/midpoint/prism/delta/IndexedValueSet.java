@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.delta;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.match.MatchingRule;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.util.Transformer;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Set of delta set triple members with a hash index over their prism values. It is used for large triples,
+ * where finding the members that have a given value by a sequential search would make the processing quadratic.
+ *
+ * The members may be prism values or other objects that carry a prism value (e.g. values with their origin
+ * when the mappings are consolidated). The value of a member is provided by the value extractor.
+ * The values are indexed by a key that is the same for all equivalent values: the value normalized by the
+ * matching rule (if there is one) or the index key of the value (see {@link PrismValue#getValueIndexKey()}).
+ * Values that have no such key are kept aside and they are always compared. The index only narrows the set
+ * of members that have to be compared, the values are still compared in the usual way.
+ *
+ * The set keeps the order in which the members were added and it may be modified directly. The index is
+ * maintained when members are added, it is discarded after any other structural modification and rebuilt lazily.
+ * The values must not be changed while they are in the set.
+ *
+ * @author Radovan Semancik
+ */
+public class IndexedValueSet<T, V extends PrismValue> extends ArrayList<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Smaller sets are searched sequentially. It is not worth to build the index for them.
+	 */
+	static final int INDEX_THRESHOLD = 50;
+
+	private final Transformer<T, V> valueExtractor;
+	private final MatchingRule<Object> matchingRule;
+
+	private transient Map<Object, List<T>> index;
+	private transient List<T> unindexed;
+	private transient int indexedModCount;
+
+	/**
+	 * @param valueExtractor provides the prism value of a member. If null, the members are the prism values.
+	 * @param matchingRule rule used to find the equivalent values. If null, the real values are compared.
+	 */
+	@SuppressWarnings("unchecked")
+	public IndexedValueSet(Transformer<T, V> valueExtractor, MatchingRule<?> matchingRule) {
+		this.valueExtractor = valueExtractor;
+		this.matchingRule = (MatchingRule<Object>) matchingRule;
+	}
+
+	public static <V extends PrismValue> IndexedValueSet<V, V> create(MatchingRule<?> matchingRule) {
+		return new IndexedValueSet<V, V>(null, matchingRule);
+	}
+
+	/**
+	 * Returns a collection with the same values that can be used for repeated contains() checks.
+	 * Small collections and sets are returned as they are.
+	 */
+	public static <V extends PrismValue> Collection<V> forLookup(Collection<V> values) {
+		if (values == null || values.size() < INDEX_THRESHOLD || values instanceof IndexedValueSet) {
+			return values;
+		}
+		IndexedValueSet<V, V> set = create(null);
+		set.addAll(values);
+		return set;
+	}
+
+	public MatchingRule<?> getMatchingRule() {
+		return matchingRule;
+	}
+
+	@Override
+	public boolean add(T member) {
+		boolean indexValid = isIndexValid();
+		super.add(member);
+		if (indexValid) {
+			addToIndex(member);
+			indexedModCount = modCount;
+		}
+		return true;
+	}
+
+	/**
+	 * ArrayList does not count set() as a structural modification, but it changes the indexed content.
+	 */
+	@Override
+	public T set(int i, T member) {
+		T previous = super.set(i, member);
+		modCount++;
+		return previous;
+	}
+
+	/**
+	 * Members are compared by equals(), as usual. The index is used only if the members are the prism values.
+	 */
+	@Override
+	public boolean contains(Object o) {
+		if (valueExtractor != null || !(o instanceof PrismValue) || size() < INDEX_THRESHOLD) {
+			return super.contains(o);
+		}
+		for (T member : getCandidates((PrismValue) o)) {
+			if (o.equals(member)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the members that have a value equivalent to the specified one.
+	 */
+	public List<T> findEquivalent(PrismValue value) {
+		List<T> equivalent = new ArrayList<>();
+		if (value == null) {
+			return equivalent;
+		}
+		for (T member : getCandidates(value)) {
+			if (isEquivalent(getValue(member), value)) {
+				equivalent.add(member);
+			}
+		}
+		return equivalent;
+	}
+
+	public boolean containsEquivalent(PrismValue value) {
+		if (value == null) {
+			return false;
+		}
+		for (T member : getCandidates(value)) {
+			if (isEquivalent(getValue(member), value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	V getValue(T member) {
+		if (valueExtractor == null) {
+			return (V) member;
+		}
+		return valueExtractor.transform(member);
+	}
+
+	private boolean isEquivalent(V memberValue, PrismValue value) {
+		if (memberValue == null) {
+			return false;
+		}
+		if (matchingRule != null && memberValue instanceof PrismPropertyValue && value instanceof PrismPropertyValue) {
+			Object memberRealValue = ((PrismPropertyValue<?>) memberValue).getValue();
+			Object realValue = ((PrismPropertyValue<?>) value).getValue();
+			if (memberRealValue != null && realValue != null) {
+				try {
+					return matchingRule.match(memberRealValue, realValue);
+				} catch (SchemaException e) {
+					// values that the rule cannot process are compared in the usual way
+				}
+			}
+		}
+		return memberValue.equalsRealValue(value);
+	}
+
+	/**
+	 * Returns the key that is the same for all values that are equivalent to the specified one or null if there is no such key.
+	 * Matching rules do not need to provide a normalized PolyString (they match the orig or norm parts instead),
+	 * therefore PolyStrings are indexed by their norm, which is the same for all matching PolyStrings.
+	 */
+	private Object getKey(PrismValue value) {
+		if (value == null) {
+			return null;
+		}
+		Object key = value.getValueIndexKey();
+		if (matchingRule == null || key == null || !(value instanceof PrismPropertyValue)) {
+			return key;
+		}
+		Object realValue = ((PrismPropertyValue<?>) value).getValue();
+		if (realValue instanceof PolyString) {
+			return ((PolyString) realValue).getNorm();
+		}
+		try {
+			Object normalized = matchingRule.normalize(realValue);
+			return normalized instanceof String ? normalized : null;
+		} catch (SchemaException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the members that may have a value equivalent to the specified one, in the order of this set
+	 * (for indexed and unindexed members separately). If the index cannot be used, the set itself is returned.
+	 */
+	public Collection<T> getCandidates(PrismValue value) {
+		if (size() < INDEX_THRESHOLD) {
+			return this;
+		}
+		Object key = getKey(value);
+		if (key == null) {
+			return this;
+		}
+		if (!isIndexValid()) {
+			buildIndex();
+		}
+		List<T> bucket = index.get(key);
+		if (bucket == null) {
+			return unindexed;
+		}
+		if (unindexed.isEmpty()) {
+			return bucket;
+		}
+		List<T> candidates = new ArrayList<>(bucket.size() + unindexed.size());
+		candidates.addAll(bucket);
+		candidates.addAll(unindexed);
+		return candidates;
+	}
+
+	public void invalidateIndex() {
+		index = null;
+		unindexed = null;
+	}
+
+	private boolean isIndexValid() {
+		return index != null && indexedModCount == modCount;
+	}
+
+	private void buildIndex() {
+		index = new HashMap<>();
+		unindexed = new ArrayList<>();
+		for (T member : this) {
+			addToIndex(member);
+		}
+		indexedModCount = modCount;
+	}
+
+	private void addToIndex(T member) {
+		Object key = getKey(getValue(member));
+		if (key == null) {
+			unindexed.add(member);
+			return;
+		}
+		List<T> bucket = index.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<>(1);
+			index.put(key, bucket);
+		}
+		bucket.add(member);
+	}
+}
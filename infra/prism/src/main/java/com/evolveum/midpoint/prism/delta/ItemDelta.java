@@ -20,7 +20,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -309,7 +311,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		if (valuesToAdd == null) {
 			valuesToAdd = newValueCollection();
 		}
-		if (PrismValue.containsRealValue(valuesToAdd,newValue)) {
+		if (containsRealValue(valuesToAdd, newValue)) {
 			return;
 		}
 		valuesToAdd.add(newValue);
@@ -331,7 +333,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 	
 	private boolean removeValue(V valueToRemove, Collection<V> set) {
 		boolean removed = false;
-		if (set == null) {
+		if (set == null || !containsRealValue(set, valueToRemove)) {
 			return removed;
 		}
 		Iterator<V> valuesToReplaceIterator = set.iterator();
@@ -359,7 +361,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 	
 	public void mergeValueToAdd(V newValue) {
 		if (valuesToReplace != null) {
-			if (!PrismValue.containsRealValue(valuesToReplace, newValue)) {
+			if (!containsRealValue(valuesToReplace, newValue)) {
 				valuesToReplace.add(newValue);
 				newValue.setParent(this);
 			}
@@ -402,7 +404,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		if (collection == null) {
 			return false;
 		}
-		for (V colVal: collection) {
+		for (V colVal: getCandidates(collection, value)) {
 			if (isValueEquivalent(colVal, value)) {
 				return true;
 			}
@@ -413,6 +415,42 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 	protected boolean isValueEquivalent(V a, V b) {
 		return a.equalsRealValue(b);
 	}
+
+	private boolean containsRealValue(Collection<V> collection, V value) {
+		if (collection == null) {
+			return false;
+		}
+		for (V colVal: getCandidates(collection, value)) {
+			if (colVal.equalsRealValue(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// values that may be equivalent to the given one; large value collections of the delta are indexed
+	private Collection<V> getCandidates(Collection<V> collection, V value) {
+		if (collection instanceof IndexedValueSet) {
+			return ((IndexedValueSet<V, V>) collection).getCandidates(value);
+		}
+		return collection;
+	}
+
+	/**
+	 * Must be called when the index key of a value of this delta changes.
+	 */
+	public void invalidateValueIndex() {
+		invalidateValueIndex(valuesToAdd);
+		invalidateValueIndex(valuesToDelete);
+		invalidateValueIndex(valuesToReplace);
+		invalidateValueIndex(estimatedOldValues);
+	}
+
+	private void invalidateValueIndex(Collection<V> collection) {
+		if (collection instanceof IndexedValueSet) {
+			((IndexedValueSet<V, V>) collection).invalidateIndex();
+		}
+	}
 	
 	public void mergeValuesToDelete(Collection<V> newValues) {
 		for (V val : newValues) {
@@ -540,8 +578,9 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		setValueToReplace(newValue);
 	}
 
+	// the values are checked for duplicates when they are added, so the collection is indexed when it grows large
 	private Collection<V> newValueCollection() {
-		return new ArrayList<V>();
+		return IndexedValueSet.<V>create(null);
 	}
 
 	public boolean isValueToAdd(V value) {
@@ -572,7 +611,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		if (set == null) {
 			return false;
 		}
-		for (V myVal: set) {
+		for (V myVal: getCandidates(set, value)) {
 			if (myVal.equals(value, ignoreMetadata)) {
 				return true;
 			}
@@ -656,7 +695,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		if (estimatedOldValues == null) {
 			estimatedOldValues = newValueCollection();
 		}
-		if (PrismValue.containsRealValue(estimatedOldValues,newValue)) {
+		if (containsRealValue(estimatedOldValues, newValue)) {
 			return;
 		}
 		estimatedOldValues.add(newValue);
@@ -1335,7 +1374,7 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		}
 		if (itemOld != null && itemOld.getValues() != null) {
 			for (V itemVal: itemOld.getValues()) {
-				if (!PrismValue.containsRealValue(valuesToDelete, itemVal) && !PrismValue.containsRealValue(valuesToAdd, itemVal)) {
+				if (!containsRealValue(valuesToDelete, itemVal) && !containsRealValue(valuesToAdd, itemVal)) {
 					triple.getZeroSet().add((V) itemVal.clone());
 				}
 			}
@@ -1610,6 +1649,151 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		}
 	}
 
+	/**
+	 * Compacts an ordered sequence of modifications (in place). Successive modifications of the same item
+	 * are merged into one: a later replace wins over everything before it, a value that was added and then
+	 * deleted (or deleted and then added) is only deleted (added), and duplicate values are dropped.
+	 * Modifications that have no values to add, delete or replace are removed.
+	 *
+	 * Unlike {@link #merge(Collection, ItemDelta)} the result has the same effect as applying the modifications
+	 * one by one. Therefore two modifications are not merged if there is a modification of a parent or a child item
+	 * between them. Container values may be identified only by their IDs, so additions and deletions of container
+	 * values are not merged into one modification either. Modifications that are merged are cloned first,
+	 * the modifications in the original collection are not changed.
+	 */
+	public static void compact(Collection<? extends ItemDelta> modifications) {
+		if (modifications == null || (modifications.size() < 2 && !containsEmpty(modifications))) {
+			return;
+		}
+		List<ItemDelta> compacted = new ArrayList<>(modifications.size());
+		Map<ItemDelta, Boolean> clones = new IdentityHashMap<>();
+		for (ItemDelta modification : modifications) {
+			if (modification.isEmpty()) {
+				continue;
+			}
+			int i = findCompactionTarget(compacted, modification);
+			if (i < 0) {
+				compacted.add(modification);
+				continue;
+			}
+			ItemDelta target = compacted.get(i);
+			if (!clones.containsKey(target)) {
+				target = target.clone();
+				clones.put(target, Boolean.TRUE);
+				compacted.set(i, target);
+			}
+			target.mergeSequential(modification);
+		}
+		Iterator<ItemDelta> iterator = compacted.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isEmpty()) {
+				iterator.remove();
+			}
+		}
+		if (compacted.size() != modifications.size() || !clones.isEmpty()) {
+			modifications.clear();
+			((Collection) modifications).addAll(compacted);
+		}
+	}
+
+	private static boolean containsEmpty(Collection<? extends ItemDelta> modifications) {
+		for (ItemDelta modification : modifications) {
+			if (modification.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the index of the last modification of the same item, if the modification can be merged to it.
+	 */
+	private static int findCompactionTarget(List<ItemDelta> compacted, ItemDelta modification) {
+		ItemPath path = modification.getPath();
+		for (int i = compacted.size() - 1; i >= 0; i--) {
+			ItemDelta candidate = compacted.get(i);
+			CompareResult compareResult = candidate.getPath().compareComplex(path);
+			if (compareResult == CompareResult.NO_RELATION) {
+				continue;
+			}
+			if (compareResult == CompareResult.EQUIVALENT && candidate.getClass() == modification.getClass()
+					&& candidate.canMergeSequential(modification)) {
+				return i;
+			}
+			return -1;
+		}
+		return -1;
+	}
+
+	private boolean canMergeSequential(ItemDelta<V,D> laterDelta) {
+		if (!(this instanceof ContainerDelta) || valuesToReplace != null || laterDelta.valuesToReplace != null) {
+			return true;
+		}
+		return (valuesToDelete == null && laterDelta.valuesToDelete == null)
+				|| (valuesToAdd == null && laterDelta.valuesToAdd == null);
+	}
+
+	/**
+	 * Merges chronologically later delta of the same item to this delta, so that this delta has the same effect
+	 * as applying this delta and then the later one. Empty replace is kept, as it removes all the values.
+	 */
+	private void mergeSequential(ItemDelta<V,D> laterDelta) {
+		if (laterDelta.valuesToReplace != null) {
+			valuesToAdd = null;
+			valuesToDelete = null;
+			valuesToReplace = newValueCollection();
+			addClones(valuesToReplace, laterDelta.valuesToReplace);
+			return;
+		}
+		if (laterDelta.valuesToAdd != null) {
+			for (V value : laterDelta.valuesToAdd) {
+				if (valuesToReplace != null) {
+					addClone(valuesToReplace, value);
+				} else {
+					removeValueToDelete(value);
+					if (valuesToAdd == null) {
+						valuesToAdd = newValueCollection();
+					}
+					addClone(valuesToAdd, value);
+				}
+			}
+		}
+		if (laterDelta.valuesToDelete != null) {
+			for (V value : laterDelta.valuesToDelete) {
+				if (valuesToReplace != null) {
+					removeValueToReplace(value);
+				} else {
+					removeValueToAdd(value);
+					if (valuesToDelete == null) {
+						valuesToDelete = newValueCollection();
+					}
+					addClone(valuesToDelete, value);
+				}
+			}
+		}
+		if (valuesToAdd != null && valuesToAdd.isEmpty()) {
+			valuesToAdd = null;
+		}
+		if (valuesToDelete != null && valuesToDelete.isEmpty()) {
+			valuesToDelete = null;
+		}
+	}
+
+	private void addClones(Collection<V> set, Collection<V> values) {
+		for (V value : values) {
+			addClone(set, value);
+		}
+	}
+
+	private void addClone(Collection<V> set, V value) {
+		if (containsEquivalentValue(set, value)) {
+			return;
+		}
+		V clone = (V) value.clone();
+		set.add(clone);
+		clone.setParent(this);
+	}
+
 	public void addToReplaceDelta() {
 		if (isReplace()) {
 			throw new IllegalStateException("Delta is a REPLACE delta, not an ADD one");
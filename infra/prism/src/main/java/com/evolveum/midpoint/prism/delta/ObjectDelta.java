@@ -442,6 +442,16 @@ public class ObjectDelta<T extends Objectable> implements DebugDumpable, Visitab
     	}
     }
     
+    /**
+     * Merges successive modifications of the same item and removes empty modifications,
+     * see {@link ItemDelta#compact(Collection)}. Only MODIFY deltas are compacted.
+     */
+    public void compact() {
+    	if (changeType == ChangeType.MODIFY) {
+    		ItemDelta.compact(modifications);
+    	}
+    }
+    
     public void applyDefinition(PrismObjectDefinition<T> definition) throws SchemaException {
     	if (objectToAdd != null) {
     		objectToAdd.applyDefinition(definition);
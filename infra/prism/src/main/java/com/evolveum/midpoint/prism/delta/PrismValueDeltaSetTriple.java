@@ -54,7 +54,8 @@ public class PrismValueDeltaSetTriple<V extends PrismValue> extends DeltaSetTrip
      */
     public static <V extends PrismValue> PrismValueDeltaSetTriple<V> diffPrismValueDeltaSetTriple(Collection<V> valuesOld, Collection<V> valuesNew) {
     	PrismValueDeltaSetTriple<V> triple = new PrismValueDeltaSetTriple<V>();
-        diff(valuesOld, valuesNew, triple);
+        // the collections are searched for each value of the other one
+        diff(IndexedValueSet.forLookup(valuesOld), IndexedValueSet.forLookup(valuesNew), triple);
         return triple;
     }
 
@@ -16,9 +16,11 @@
 package com.evolveum.midpoint.prism.parser;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -62,19 +64,42 @@ public class DomParser implements Parser {
 	
 	private SchemaRegistry schemaRegistry;
 
+	/**
+	 * If set, whole documents (files, streams and strings) are parsed and serialized by StAX, without
+	 * building the DOM tree. The DOM tree is still used when parsing from (or serializing to) DOM elements.
+	 */
+	private boolean streaming = true;
+	private final StaxParser staxParser = new StaxParser();
+
 	public DomParser(SchemaRegistry schemaRegistry) {
 		super();
 		this.schemaRegistry = schemaRegistry;
 	}
-	
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
 	@Override
 	public Collection<XNode> parseCollection(File file) throws SchemaException, IOException {
+		if (streaming) {
+			try (InputStream stream = new FileInputStream(file)) {
+				return staxParser.parseCollection(stream);
+			}
+		}
 		Document document = DOMUtil.parseFile(file);
 		return parseCollection(document);
 	}
 
 	@Override
 	public Collection<XNode> parseCollection(InputStream stream) throws SchemaException, IOException {
+		if (streaming) {
+			return staxParser.parseCollection(stream);
+		}
 		Document document = DOMUtil.parse(stream);
 		return parseCollection(document);
 	}
@@ -98,12 +123,22 @@ public class DomParser implements Parser {
 	
 	@Override
 	public XNode parse(File file) throws SchemaException {
+		if (streaming) {
+			try (InputStream stream = new FileInputStream(file)) {
+				return staxParser.parse(stream);
+			} catch (IOException e) {
+				throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+			}
+		}
 		Document document = DOMUtil.parseFile(file);
 		return parse(document);
 	}
 
     @Override
     public XNode parse(InputStream stream) throws SchemaException, IOException {
+        if (streaming) {
+            return staxParser.parse(stream);
+        }
         Document document = DOMUtil.parse(stream);
         return parse(document);
     }
@@ -111,6 +146,9 @@ public class DomParser implements Parser {
 
     @Override
 	public XNode parse(String dataString) throws SchemaException {
+		if (streaming) {
+			return staxParser.parse(new StringReader(dataString));
+		}
 		Document document = DOMUtil.parseDocument(dataString);
 		return parse(document);
 	}
@@ -402,7 +440,6 @@ public class DomParser implements Parser {
 
 	@Override
 	public String serializeToString(XNode xnode, QName rootElementName) throws SchemaException {
-		DomSerializer serializer = new DomSerializer(this, schemaRegistry);
 		RootXNode xroot;
 		if (xnode instanceof RootXNode) {
 			xroot = (RootXNode) xnode;
@@ -410,12 +447,14 @@ public class DomParser implements Parser {
 			xroot = new RootXNode(rootElementName);
 			xroot.setSubnode(xnode);
 		}
-		Element element = serializer.serialize(xroot);
-		return DOMUtil.serializeDOMToString(element);
+		return serializeToString(xroot);
 	}
 	
 	@Override
 	public String serializeToString(RootXNode xnode) throws SchemaException {
+		if (streaming) {
+			return new StaxSerializer(schemaRegistry).serializeToString(xnode);
+		}
 		DomSerializer serializer = new DomSerializer(this, schemaRegistry);
 		Element element = serializer.serialize(xnode);
 		return DOMUtil.serializeDOMToString(element);
@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.parser;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.Visitor;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ListXNode;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.SchemaXNode;
+import com.evolveum.midpoint.prism.xnode.ValueParser;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Parses XML directly into XNodes using StAX, without building the DOM tree first.
+ *
+ * The resulting XNodes are the same as the ones produced by {@link DomParser} from a DOM tree. The only part of the
+ * document that is still converted to DOM is the content of xsd:schema elements, as SchemaXNode needs a DOM element.
+ *
+ * Primitive values are kept as strings together with the namespace declarations that were visible at the place
+ * of the value, so that QNames and item paths can be resolved later (when the type is known).
+ *
+ * @author Radovan Semancik
+ */
+public class StaxParser {
+
+	private static final QName SCHEMA_ELEMENT_QNAME = DOMUtil.XSD_SCHEMA_ELEMENT;
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		// do not read DTDs nor resolve external entities (the same as in DOMUtil.parse)
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	public RootXNode parse(InputStream stream) throws SchemaException {
+		XMLStreamReader reader = createReader(stream);
+		try {
+			return parse(reader);
+		} finally {
+			closeReader(reader);
+		}
+	}
+
+	public RootXNode parse(Reader dataReader) throws SchemaException {
+		XMLStreamReader reader = createReader(dataReader);
+		try {
+			return parse(reader);
+		} finally {
+			closeReader(reader);
+		}
+	}
+
+	private RootXNode parse(XMLStreamReader reader) throws SchemaException {
+		try {
+			if (!moveToNextElement(reader)) {
+				throw new IllegalStateException("Error parsing XML document: no root element");
+			}
+			return parseRoot(reader, new NamespaceScope(null));
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Parses sub-elements of the root element, each of them into a separate RootXNode.
+	 */
+	public Collection<XNode> parseCollection(InputStream stream) throws SchemaException {
+		XMLStreamReader reader = createReader(stream);
+		try {
+			if (!moveToNextElement(reader)) {
+				throw new IllegalStateException("Error parsing XML document: no root element");
+			}
+			NamespaceScope rootScope = new NamespaceScope(null).enter(reader);
+			Collection<XNode> nodes = new ArrayList<XNode>();
+			while (moveToNextElement(reader)) {
+				nodes.add(parseRoot(reader, rootScope));
+			}
+			return nodes;
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		} finally {
+			closeReader(reader);
+		}
+	}
+
+	private XMLStreamReader createReader(InputStream stream) {
+		try {
+			return INPUT_FACTORY.createXMLStreamReader(stream);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		}
+	}
+
+	private XMLStreamReader createReader(Reader dataReader) {
+		try {
+			return INPUT_FACTORY.createXMLStreamReader(dataReader);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		}
+	}
+
+	private void closeReader(XMLStreamReader reader) {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			// nothing to do here, the document was already read (or failed for other reason)
+		}
+	}
+
+	/**
+	 * Moves the reader to the next start element on the same level. Returns false if the end of enclosing
+	 * element (or document) was reached instead.
+	 */
+	private boolean moveToNextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reader is positioned at the start element. After return it is positioned at the corresponding end element.
+	 */
+	private RootXNode parseRoot(XMLStreamReader reader, NamespaceScope parentScope) throws XMLStreamException, SchemaException {
+		NamespaceScope scope = parentScope.enter(reader);
+		RootXNode xroot = new RootXNode(reader.getName());
+		extractCommonMetadata(reader, scope, xroot);
+		xroot.setSubnode(parseElementContent(reader, scope));
+		return xroot;
+	}
+
+	private void extractCommonMetadata(XMLStreamReader reader, NamespaceScope scope, XNode xnode) throws SchemaException {
+		QName xsiType = resolveXsiType(reader, scope);
+		if (xsiType != null) {
+			xnode.setTypeQName(xsiType);
+			xnode.setExplicitTypeDeclaration(true);
+		}
+
+		String maxOccursString = reader.getAttributeValue(
+				PrismConstants.A_MAX_OCCURS.getNamespaceURI(),
+				PrismConstants.A_MAX_OCCURS.getLocalPart());
+		if (!StringUtils.isBlank(maxOccursString)) {
+			int maxOccurs = parseMultiplicity(maxOccursString, reader.getName());
+			xnode.setMaxOccurs(maxOccurs);
+		}
+	}
+
+	/**
+	 * The same as DOMUtil.resolveXsiType, including the non-namespaced "hacked" variant of the attribute.
+	 */
+	private QName resolveXsiType(XMLStreamReader reader, NamespaceScope scope) {
+		String xsiType = reader.getAttributeValue(DOMUtil.XSI_TYPE.getNamespaceURI(), DOMUtil.XSI_TYPE.getLocalPart());
+		if (StringUtils.isEmpty(xsiType)) {
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				QName attrName = reader.getAttributeName(i);
+				if (StringUtils.isEmpty(attrName.getNamespaceURI()) && DOMUtil.HACKED_XSI_TYPE.equals(attrName.getLocalPart())) {
+					xsiType = reader.getAttributeValue(i);
+					break;
+				}
+			}
+		}
+		if (StringUtils.isEmpty(xsiType)) {
+			return null;
+		}
+		return resolveQName(xsiType, scope);
+	}
+
+	private int parseMultiplicity(String maxOccursString, QName elementName) throws SchemaException {
+		if (PrismConstants.MULTIPLICITY_UNBONUNDED.equals(maxOccursString)) {
+			return -1;
+		}
+		if (maxOccursString.startsWith("-")) {
+			return -1;
+		}
+		if (StringUtils.isNumeric(maxOccursString)) {
+			return Integer.valueOf(maxOccursString);
+		} else {
+			throw new SchemaException("Expecetd numeric value for " + PrismConstants.A_MAX_OCCURS.getLocalPart()
+					+ " attribute on " + elementName + " but got " + maxOccursString);
+		}
+	}
+
+	/**
+	 * Parses the content of the current element (the name of the element is ignored). Reader is positioned at
+	 * the start element. After return it is positioned at the corresponding end element.
+	 */
+	private XNode parseElementContent(XMLStreamReader reader, NamespaceScope scope) throws XMLStreamException, SchemaException {
+		QName elementName = reader.getName();
+		if (isNil(reader)) {
+			skipElement(reader);
+			return null;
+		}
+
+		// metadata and attributes have to be read before the reader moves to the content;
+		// the node is created when we know whether the element is a map or a primitive value
+		ElementMetadata metadata = new ElementMetadata();
+		extractCommonMetadata(reader, scope, metadata);
+		List<PrimitiveXNode<?>> attributes = null;
+		List<QName> attributeNames = null;
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			QName attrName = reader.getAttributeName(i);
+			if (!isApplicationAttribute(attrName)) {
+				continue;
+			}
+			if (attributes == null) {
+				attributes = new ArrayList<>();
+				attributeNames = new ArrayList<>();
+			}
+			PrimitiveXNode<Object> xattr = new PrimitiveXNode<Object>();
+			xattr.setValueParser(new PrimitiveStringParser<Object>(attrName, reader.getAttributeValue(i), scope.getNamespaces(), true));
+			xattr.setAttribute(true);
+			attributes.add(xattr);
+			attributeNames.add(attrName);
+		}
+
+		StringBuilder text = null;
+		MapXNode xmap = null;
+		QName lastElementQName = null;
+		List<XNode> lastElements = null;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if (xmap == null) {
+					xmap = createMap(metadata, attributeNames, attributes);
+				}
+				QName childQName = reader.getName();
+				// We really want to have equals here, not match
+				// we want to be very explicit about namespace here
+				if (childQName.equals(SCHEMA_ELEMENT_QNAME)) {
+					if (childQName.equals(lastElementQName)) {
+						throw new SchemaException("Too many schema elements");
+					}
+					mergeElementGroup(xmap, lastElementQName, lastElements);
+					lastElementQName = childQName;
+					lastElements = new ArrayList<>(1);
+					lastElements.add(parseSchemaElement(reader, scope));
+					continue;
+				}
+				XNode xsub = parseElementContent(reader, scope.enter(reader));
+				if (childQName.equals(lastElementQName)) {
+					lastElements.add(xsub);
+				} else {
+					mergeElementGroup(xmap, lastElementQName, lastElements);
+					lastElementQName = childQName;
+					lastElements = new ArrayList<>();
+					lastElements.add(xsub);
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE) {
+				if (xmap == null) {
+					if (text == null) {
+						text = new StringBuilder();
+					}
+					text.append(reader.getText());
+				}
+			}
+			// comments and processing instructions are ignored (the same as in DOM parser)
+		}
+
+		if (xmap != null) {
+			mergeElementGroup(xmap, lastElementQName, lastElements);
+			return xmap;
+		}
+		if (attributes != null) {
+			return createMap(metadata, attributeNames, attributes);
+		}
+		PrimitiveXNode<Object> xprim = new PrimitiveXNode<Object>();
+		metadata.copyTo(xprim);
+		xprim.setValueParser(new PrimitiveStringParser<Object>(elementName,
+				text != null ? text.toString() : "", scope.getNamespaces(), false));
+		return xprim;
+	}
+
+	private MapXNode createMap(ElementMetadata metadata, List<QName> attributeNames, List<PrimitiveXNode<?>> attributes) {
+		MapXNode xmap = new MapXNode();
+		metadata.copyTo(xmap);
+		if (attributes != null) {
+			for (int i = 0; i < attributes.size(); i++) {
+				xmap.put(attributeNames.get(i), attributes.get(i));
+			}
+		}
+		return xmap;
+	}
+
+	private void mergeElementGroup(MapXNode xmap, QName elementQName, List<XNode> elements) {
+		if (elements == null || elements.isEmpty()) {
+			return;
+		}
+		XNode xsub;
+		if (elements.size() == 1) {
+			xsub = elements.get(0);
+		} else {
+			ListXNode xlist = new ListXNode();
+			xlist.addAll(elements);
+			xsub = xlist;
+		}
+		xmap.merge(elementQName, xsub);
+	}
+
+	private boolean isNil(XMLStreamReader reader) {
+		String nilString = reader.getAttributeValue(DOMUtil.XSI_NIL.getNamespaceURI(), DOMUtil.XSI_NIL.getLocalPart());
+		return nilString != null && Boolean.parseBoolean(nilString);
+	}
+
+	/**
+	 * The same as DOMUtil.isApplicationAttribute. Namespace declarations are not reported as attributes by StAX.
+	 */
+	private boolean isApplicationAttribute(QName attrName) {
+		String namespaceURI = attrName.getNamespaceURI();
+		if (StringUtils.isEmpty(namespaceURI)) {
+			return !DOMUtil.HACKED_XSI_TYPE.equals(attrName.getLocalPart());
+		}
+		return !XMLConstants.XML_NS_URI.equals(namespaceURI)
+				&& !XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceURI);
+	}
+
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Schema is kept as DOM. All the namespace declarations visible at the schema element are copied to it,
+	 * as QNames in the schema (e.g. types of the elements) refer to them.
+	 */
+	private SchemaXNode parseSchemaElement(XMLStreamReader reader, NamespaceScope parentScope) throws XMLStreamException {
+		Document document = DOMUtil.getDocument();
+		Element schemaElement = createDomElement(document, reader);
+		for (Map.Entry<String, String> entry : parentScope.getNamespaces().entrySet()) {
+			if (!isDeclaredOnElement(reader, entry.getKey())) {
+				DOMUtil.setNamespaceDeclaration(schemaElement, entry.getKey(), entry.getValue());
+			}
+		}
+		document.appendChild(schemaElement);
+		readDomContent(reader, document, schemaElement);
+		SchemaXNode xschema = new SchemaXNode();
+		xschema.setSchemaElement(schemaElement);
+		return xschema;
+	}
+
+	private boolean isDeclaredOnElement(XMLStreamReader reader, String prefix) {
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			if (StringUtils.equals(StringUtils.defaultIfEmpty(reader.getNamespacePrefix(i), null), prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Element createDomElement(Document document, XMLStreamReader reader) {
+		QName name = reader.getName();
+		Element element = document.createElementNS(StringUtils.defaultIfEmpty(name.getNamespaceURI(), null),
+				StringUtils.isEmpty(name.getPrefix()) ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart());
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			DOMUtil.setNamespaceDeclaration(element, reader.getNamespacePrefix(i), StringUtils.defaultString(reader.getNamespaceURI(i)));
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			QName attrName = reader.getAttributeName(i);
+			String qualifiedName = StringUtils.isEmpty(attrName.getPrefix()) ?
+					attrName.getLocalPart() : attrName.getPrefix() + ":" + attrName.getLocalPart();
+			element.setAttributeNS(StringUtils.defaultIfEmpty(attrName.getNamespaceURI(), null), qualifiedName,
+					reader.getAttributeValue(i));
+		}
+		return element;
+	}
+
+	private void readDomContent(XMLStreamReader reader, Document document, Element element) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			switch (event) {
+				case XMLStreamConstants.END_ELEMENT:
+					return;
+				case XMLStreamConstants.START_ELEMENT:
+					Element child = createDomElement(document, reader);
+					element.appendChild(child);
+					readDomContent(reader, document, child);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					element.appendChild(document.createTextNode(reader.getText()));
+					break;
+				case XMLStreamConstants.CDATA:
+					element.appendChild(document.createCDATASection(reader.getText()));
+					break;
+				case XMLStreamConstants.COMMENT:
+					element.appendChild(document.createComment(reader.getText()));
+					break;
+				default:
+					// ignored
+			}
+		}
+	}
+
+	/**
+	 * The same as DOMUtil.resolveQName: no prefix means no namespace (default namespace is NOT used).
+	 */
+	private static QName resolveQName(String qnameStringRepresentation, NamespaceScope scope) {
+		return resolveQName(qnameStringRepresentation, scope.getNamespaces());
+	}
+
+	private static QName resolveQName(String qnameStringRepresentation, Map<String, String> namespaces) {
+		if (StringUtils.isBlank(qnameStringRepresentation)) {
+			return null;
+		}
+		String[] qnameArray = qnameStringRepresentation.split(":");
+		if (qnameArray.length > 2) {
+			throw new IllegalArgumentException("Unsupported format: more than one colon in Qname: "
+					+ qnameStringRepresentation);
+		}
+		if (qnameArray.length == 1 || qnameArray[1] == null || qnameArray[1].isEmpty()) {
+			// no prefix => no namespace
+			return new QName(null, qnameArray[0]);
+		}
+		String namespacePrefix = qnameArray[0];
+		String namespace = namespaces.get(namespacePrefix);
+		if (namespace == null) {
+			QNameUtil.reportUndeclaredNamespacePrefix(namespacePrefix, qnameStringRepresentation);
+			namespacePrefix = QNameUtil.markPrefixAsUndeclared(namespacePrefix);
+		}
+		return new QName(namespace, qnameArray[1], namespacePrefix);
+	}
+
+	/**
+	 * Type and multiplicity of an element, collected before it is known which kind of XNode the element will be.
+	 */
+	private static class ElementMetadata extends XNode {
+
+		private void copyTo(XNode xnode) {
+			xnode.setTypeQName(getTypeQName());
+			xnode.setExplicitTypeDeclaration(isExplicitTypeDeclaration());
+			xnode.setMaxOccurs(getMaxOccurs());
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return true;
+		}
+
+		@Override
+		public void accept(Visitor visitor) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getDesc() {
+			return "metadata";
+		}
+
+		@Override
+		public String debugDump(int indent) {
+			return toString();
+		}
+	}
+
+	/**
+	 * Namespace declarations visible at the current element. Default namespace is stored under null key
+	 * (the same as in DOMUtil.getNamespaceDeclarations). The maps are shared by the elements that do not declare
+	 * any namespace, therefore they must not be modified after they are created.
+	 */
+	private static class NamespaceScope {
+
+		private final Map<String, String> namespaces;
+
+		private NamespaceScope(Map<String, String> namespaces) {
+			this.namespaces = namespaces != null ? namespaces : new HashMap<String, String>();
+		}
+
+		private NamespaceScope enter(XMLStreamReader reader) {
+			int count = reader.getNamespaceCount();
+			if (count == 0) {
+				return this;
+			}
+			Map<String, String> childNamespaces = new HashMap<>(namespaces);
+			for (int i = 0; i < count; i++) {
+				String prefix = StringUtils.defaultIfEmpty(reader.getNamespacePrefix(i), null);
+				String namespace = reader.getNamespaceURI(i);
+				if (StringUtils.isEmpty(namespace)) {
+					childNamespaces.remove(prefix);
+				} else {
+					childNamespaces.put(prefix, namespace);
+				}
+			}
+			return new NamespaceScope(childNamespaces);
+		}
+
+		private Map<String, String> getNamespaces() {
+			return namespaces;
+		}
+	}
+
+	/**
+	 * Parser for values of elements and attributes that were already read from the stream.
+	 */
+	private static class PrimitiveStringParser<T> implements ValueParser<T>, Serializable {
+
+		private final QName name;
+		private final String value;
+		private final Map<String, String> namespaces;
+		private final boolean attribute;
+
+		private PrimitiveStringParser(QName name, String value, Map<String, String> namespaces, boolean attribute) {
+			this.name = name;
+			this.value = value;
+			this.namespaces = namespaces;
+			this.attribute = attribute;
+		}
+
+		@Override
+		public T parse(QName typeName) throws SchemaException {
+			if (ItemPath.XSD_TYPE.equals(typeName)) {
+				// default namespace is not used in paths (see XPathHolder)
+				Map<String, String> pathNamespaces = namespaces;
+				if (namespaces.containsKey(null)) {
+					pathNamespaces = new HashMap<>(namespaces);
+					pathNamespaces.remove(null);
+				}
+				return (T) new XPathHolder(value, pathNamespaces).toItemPath();
+			} else if (DOMUtil.XSD_QNAME.equals(typeName)) {
+				return (T) resolveQName(value, namespaces);
+			} else if (XmlTypeConverter.canConvert(typeName)) {
+				return (T) XmlTypeConverter.toJavaValue(value, XsdTypeMapper.getXsdToJavaMapping(typeName), true);
+			} else if (DOMUtil.XSD_ANYTYPE.equals(typeName)) {
+				return (T) value;                // if parsing primitive as xsd:anyType, we can safely parse it as string
+			} else {
+				throw new SchemaException("Cannot convert " + (attribute ? "attribute" : "element") + " '" + name + "' to " + typeName);
+			}
+		}
+
+		@Override
+		public boolean isEmpty() {
+			// the same as DOMUtil.isEmpty for attributes and elements
+			return attribute ? StringUtils.isEmpty(value) : StringUtils.isBlank(value);
+		}
+
+		@Override
+		public String getStringValue() {
+			return value;
+		}
+
+		@Override
+		public Map<String, String> getPotentiallyRelevantNamespaces() {
+			return new HashMap<>(namespaces);
+		}
+
+		@Override
+		public String toString() {
+			return "ValueParser(StAX, " + PrettyPrinter.prettyPrint(name) + ": " + value + ")";
+		}
+	}
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.parser;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.schema.SchemaRegistry;
+import com.evolveum.midpoint.prism.xml.DynamicNamespacePrefixMapper;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ListXNode;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.SchemaXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Serializes XNodes to XML text using StAX writer, without building the DOM tree first.
+ *
+ * The result is equivalent to the result of {@link DomSerializer} followed by DOMUtil.serializeDOMToString
+ * (indented, without XML declaration), although the placement of namespace declarations may differ.
+ * The rules for the namespace prefixes, xsi:type and attribute serialization are the same.
+ *
+ * Instances are not thread-safe, a new one should be created for each serialization.
+ *
+ * @author Radovan Semancik
+ */
+public class StaxSerializer {
+
+	private static final String INDENT = "    ";
+	private static final String GENERATED_PREFIX_PREFIX = "qn";
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private final SchemaRegistry schemaRegistry;
+
+	private XMLStreamWriter writer;
+	private List<Map<String, String>> namespaceScopes;
+	private List<Boolean> hasChildElements;
+	private int generatedPrefixCounter;
+
+	StaxSerializer(SchemaRegistry schemaRegistry) {
+		super();
+		this.schemaRegistry = schemaRegistry;
+	}
+
+	private DynamicNamespacePrefixMapper getNamespacePrefixMapper() {
+		if (schemaRegistry == null) {
+			return null;
+		}
+		return schemaRegistry.getNamespacePrefixMapper();
+	}
+
+	public String serializeToString(RootXNode rootxnode) throws SchemaException {
+		StringWriter stringWriter = new StringWriter();
+		namespaceScopes = new ArrayList<>();
+		hasChildElements = new ArrayList<>();
+		generatedPrefixCounter = 0;
+		try {
+			writer = OUTPUT_FACTORY.createXMLStreamWriter(stringWriter);
+			serializeRoot(rootxnode);
+			writer.flush();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error in XML serialization: " + e.getMessage(), e);
+		}
+		return stringWriter.toString();
+	}
+
+	private void serializeRoot(RootXNode rootxnode) throws SchemaException, XMLStreamException {
+		QName rootElementName = rootxnode.getRootElementName();
+		XNode subnode = rootxnode.getSubnode();
+		if (subnode instanceof PrimitiveXNode) {
+			serializePrimitiveElement((PrimitiveXNode<?>) subnode, rootElementName);
+			return;
+		}
+		if (!(subnode instanceof MapXNode)) {
+			throw new SchemaException("Sub-root xnode is not map, cannot serialize to XML (it is "+subnode+")");
+		}
+		startElement(rootElementName);
+		// frequently used namespaces (e.g. c, t, q, ri) are declared at the top to eliminate their use
+		// on many places inside the doc (MID-2198)
+		DynamicNamespacePrefixMapper namespacePrefixMapper = getNamespacePrefixMapper();
+		if (namespacePrefixMapper != null) {
+			for (Entry<String, String> entry : namespacePrefixMapper.getNamespacesDeclaredByDefault().entrySet()) {
+				if (StringUtils.isNotEmpty(entry.getKey()) && lookupNamespace(entry.getKey()) == null) {
+					declareNamespace(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		QName typeQName = rootxnode.getTypeQName();
+		if (typeQName == null && subnode.getTypeQName() != null) {
+			typeQName = subnode.getTypeQName();
+		}
+		if (typeQName != null && (schemaRegistry == null || !schemaRegistry.hasImplicitTypeDefinition(rootElementName, typeQName))) {
+			writeXsiType(typeQName);
+		}
+		serializeMapContent((MapXNode) subnode, false);
+		endElement();
+	}
+
+	private void serializeMapContent(MapXNode xmap, boolean withComment) throws SchemaException, XMLStreamException {
+		// attributes have to be written before any content of the element
+		for (Entry<QName, XNode> entry : xmap.entrySet()) {
+			XNode xsubnode = entry.getValue();
+			if (xsubnode instanceof ListXNode) {
+				for (XNode xsubsubnode : (ListXNode) xsubnode) {
+					serializeIfAttribute(xsubsubnode, entry.getKey());
+				}
+			} else {
+				serializeIfAttribute(xsubnode, entry.getKey());
+			}
+		}
+		if (withComment) {
+			writeComment(xmap);
+		}
+		for (Entry<QName, XNode> entry : xmap.entrySet()) {
+			XNode xsubnode = entry.getValue();
+			if (xsubnode instanceof ListXNode) {
+				for (XNode xsubsubnode : (ListXNode) xsubnode) {
+					serializeSubnode(xsubsubnode, entry.getKey());
+				}
+			} else {
+				serializeSubnode(xsubnode, entry.getKey());
+			}
+		}
+	}
+
+	private void serializeIfAttribute(XNode xsubnode, QName attributeName) throws SchemaException, XMLStreamException {
+		if (xsubnode instanceof PrimitiveXNode<?> && ((PrimitiveXNode<?>) xsubnode).isAttribute()) {
+			serializePrimitiveAttribute((PrimitiveXNode<?>) xsubnode, attributeName);
+		}
+	}
+
+	private void serializeSubnode(XNode xsubnode, QName elementName) throws SchemaException, XMLStreamException {
+		if (xsubnode == null) {
+			return;
+		}
+		if (xsubnode instanceof RootXNode) {
+			startElement(elementName);
+			writeComment(xsubnode);
+			serializeSubnode(((RootXNode) xsubnode).getSubnode(), ((RootXNode) xsubnode).getRootElementName());
+			endElement();
+		} else if (xsubnode instanceof MapXNode) {
+			startElement(elementName);
+			if (xsubnode.isExplicitTypeDeclaration() && xsubnode.getTypeQName() != null) {
+				writeXsiType(xsubnode.getTypeQName());
+			}
+			serializeMapContent((MapXNode) xsubnode, true);
+			endElement();
+		} else if (xsubnode instanceof PrimitiveXNode<?>) {
+			PrimitiveXNode<?> xprim = (PrimitiveXNode<?>) xsubnode;
+			if (!xprim.isAttribute()) {
+				serializePrimitiveElement(xprim, elementName);
+			}
+		} else if (xsubnode instanceof ListXNode) {
+			for (XNode xsubsubnode : (ListXNode) xsubnode) {
+				serializeSubnode(xsubsubnode, elementName);
+			}
+		} else if (xsubnode instanceof SchemaXNode) {
+			serializeSchema((SchemaXNode) xsubnode);
+		} else {
+			throw new IllegalArgumentException("Unknown subnode "+xsubnode);
+		}
+	}
+
+	private QName determineTypeQName(PrimitiveXNode<?> xprim) {
+		QName typeQName = xprim.getTypeQName();
+		// if typeQName is not explicitly specified, we try to determine it from parsed value
+		if (typeQName == null && xprim.isParsed()) {
+			Object v = xprim.getValue();
+			if (v != null) {
+				typeQName = XsdTypeMapper.toXsdType(v.getClass());
+			}
+		}
+		if (typeQName != null && StringUtils.isBlank(typeQName.getNamespaceURI())) {
+			typeQName = XsdTypeMapper.determineQNameWithNs(typeQName);
+		}
+		return typeQName;
+	}
+
+	private void serializePrimitiveAttribute(PrimitiveXNode<?> xprim, QName attributeName) throws SchemaException, XMLStreamException {
+		QName typeQName = determineTypeQName(xprim);
+		String value;
+		if (typeQName == null) {
+			checkSchemalessSerialization(attributeName);
+			value = xprim.getStringValue();
+			if (value != null) {
+				declareRelevantNamespaces(xprim);
+			}
+		} else if (typeQName.equals(ItemPath.XSD_TYPE)) {
+			if (xprim.getValue() == null) {
+				return;
+			}
+			throw new UnsupportedOperationException("Serializing ItemPath as an attribute is not supported yet");
+		} else if (typeQName.equals(DOMUtil.XSD_QNAME)) {
+			QName qname = (QName) xprim.getParsedValueWithoutRecording(DOMUtil.XSD_QNAME);
+			value = qnameToString(setQNamePrefixExplicitIfNeeded(qname));
+		} else {
+			value = xprim.getGuessedFormattedValue();
+		}
+		if (value != null) {
+			DOMUtil.checkValidXmlChars(value);
+			// attributes are serialized without namespace (the same as in DomSerializer)
+			writer.writeAttribute(attributeName.getLocalPart(), value);
+		}
+	}
+
+	private void serializePrimitiveElement(PrimitiveXNode<?> xprim, QName elementName) throws SchemaException, XMLStreamException {
+		QName typeQName = determineTypeQName(xprim);
+
+		if (typeQName == null) {    // this means that either xprim is unparsed or it is empty
+			checkSchemalessSerialization(elementName);
+			String stringValue = xprim.getStringValue();
+			if (stringValue != null) {
+				startElement(elementName);
+				declareRelevantNamespaces(xprim);
+				writeText(stringValue);
+				endElement();
+			}
+			return;
+		}
+
+		String text;
+		if (typeQName.equals(ItemPath.XSD_TYPE)) {
+			ItemPath itemPath = (ItemPath) xprim.getValue();
+			if (itemPath == null) {
+				return;
+			}
+			XPathHolder holder = new XPathHolder(itemPath);
+			startElement(elementName);
+			for (Entry<String, String> entry : holder.getNamespaceMap().entrySet()) {
+				if (!entry.getValue().equals(lookupNamespace(entry.getKey()))) {
+					declareNamespace(entry.getKey(), entry.getValue());
+				}
+			}
+			text = holder.getXPathWithDeclarations();
+		} else if (typeQName.equals(DOMUtil.XSD_QNAME)) {
+			startElement(elementName);
+			QName value = (QName) xprim.getParsedValueWithoutRecording(DOMUtil.XSD_QNAME);
+			text = value != null ? qnameToString(setQNamePrefixExplicitIfNeeded(value)) : "";
+		} else {
+			startElement(elementName);
+			text = xprim.getGuessedFormattedValue();
+		}
+		if (xprim.isExplicitTypeDeclaration()) {
+			writeXsiType(typeQName);
+		}
+		writeText(text);
+		endElement();
+	}
+
+	private void checkSchemalessSerialization(QName name) {
+		if (!PrismContext.isAllowSchemalessSerialization()) {
+			throw new IllegalStateException("No type for primitive element "+name+", cannot serialize (schemaless serialization is disabled)");
+		}
+	}
+
+	private void declareRelevantNamespaces(PrimitiveXNode<?> xprim) throws XMLStreamException {
+		Map<String, String> namespaces = xprim.getRelevantNamespaceDeclarations();
+		if (namespaces == null) {
+			return;
+		}
+		for (Entry<String, String> entry : namespaces.entrySet()) {
+			// default namespace is not relevant for QNames and paths, and it would change the namespace of the element
+			if (StringUtils.isNotEmpty(entry.getKey()) && StringUtils.isNotEmpty(entry.getValue())
+					&& !entry.getValue().equals(lookupNamespace(entry.getKey()))) {
+				declareNamespace(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void writeText(String text) throws XMLStreamException {
+		if (text != null) {
+			DOMUtil.checkValidXmlChars(text);
+			writer.writeCharacters(text);
+		}
+	}
+
+	private void writeComment(XNode xnode) throws XMLStreamException {
+		String text = xnode.getComment();
+		if (StringUtils.isNotEmpty(text)) {
+			writer.writeComment(text.replace("--", "- -"));
+		}
+	}
+
+	private void writeXsiType(QName typeQName) throws XMLStreamException {
+		String value = qnameToString(setQNamePrefixExplicitIfNeeded(typeQName));
+		String xsiPrefix = getPrefixForAttribute(DOMUtil.XSI_TYPE);
+		writer.writeAttribute(xsiPrefix, DOMUtil.XSI_TYPE.getNamespaceURI(), DOMUtil.XSI_TYPE.getLocalPart(), value);
+	}
+
+	private void serializeSchema(SchemaXNode xschema) throws XMLStreamException {
+		Element schemaElement = xschema.getSchemaElement();
+		if (schemaElement == null) {
+			return;
+		}
+		indent();
+		writeDomElement(schemaElement);
+	}
+
+	/**
+	 * Writes the DOM element as it is (without indentation). Namespace declarations are added if needed.
+	 */
+	private void writeDomElement(Element element) throws XMLStreamException {
+		String namespace = StringUtils.defaultString(element.getNamespaceURI());
+		String prefix = StringUtils.defaultString(element.getPrefix());
+		writer.writeStartElement(prefix, element.getLocalName() != null ? element.getLocalName() : element.getNodeName(), namespace);
+		namespaceScopes.add(null);
+		hasChildElements.add(Boolean.TRUE);
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attr = (Attr) attributes.item(i);
+			if (DOMUtil.isNamespaceDefinition(attr)) {
+				String declaredPrefix = DOMUtil.getNamespaceDeclarationPrefix(attr);
+				if (!attr.getValue().equals(lookupNamespace(StringUtils.defaultString(declaredPrefix)))) {
+					declareNamespace(StringUtils.defaultString(declaredPrefix), attr.getValue());
+				}
+			}
+		}
+		if (!namespace.equals(StringUtils.defaultString(lookupNamespace(prefix)))) {
+			declareNamespace(prefix, namespace);
+		}
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attr = (Attr) attributes.item(i);
+			if (DOMUtil.isNamespaceDefinition(attr)) {
+				continue;
+			}
+			String attrNamespace = attr.getNamespaceURI();
+			if (StringUtils.isEmpty(attrNamespace)) {
+				writer.writeAttribute(attr.getLocalName() != null ? attr.getLocalName() : attr.getName(), attr.getValue());
+			} else {
+				String attrPrefix = getPrefixForAttribute(new QName(attrNamespace, attr.getLocalName(),
+						StringUtils.defaultString(attr.getPrefix())));
+				writer.writeAttribute(attrPrefix, attrNamespace, attr.getLocalName(), attr.getValue());
+			}
+		}
+		NodeList childNodes = element.getChildNodes();
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			Node child = childNodes.item(i);
+			switch (child.getNodeType()) {
+				case Node.ELEMENT_NODE:
+					writeDomElement((Element) child);
+					break;
+				case Node.TEXT_NODE:
+					writer.writeCharacters(child.getNodeValue());
+					break;
+				case Node.CDATA_SECTION_NODE:
+					writer.writeCData(child.getNodeValue());
+					break;
+				case Node.COMMENT_NODE:
+					writer.writeComment(child.getNodeValue());
+					break;
+				default:
+					// ignored
+			}
+		}
+		writer.writeEndElement();
+		namespaceScopes.remove(namespaceScopes.size() - 1);
+		hasChildElements.remove(hasChildElements.size() - 1);
+	}
+
+	/**
+	 * Starts the element with the correct namespace prefix and namespace declaration
+	 * (the same rules as in DOMUtil.lookupOrCreateNamespaceDeclaration with default namespace allowed).
+	 */
+	private void startElement(QName qname) throws XMLStreamException {
+		indent();
+		String namespace = qname.getNamespaceURI();
+		String prefix;
+		String namespaceToDeclare = null;
+		if (StringUtils.isBlank(namespace)) {
+			prefix = "";
+			if (StringUtils.isNotEmpty(lookupNamespace(""))) {
+				namespaceToDeclare = "";
+			}
+		} else {
+			String preferredPrefix = setQNamePrefix(qname).getPrefix();
+			if (StringUtils.isNotBlank(preferredPrefix) && lookupNamespace(preferredPrefix) == null) {
+				prefix = preferredPrefix;
+				namespaceToDeclare = namespace;
+			} else if (StringUtils.isNotBlank(preferredPrefix) && namespace.equals(lookupNamespace(preferredPrefix))) {
+				prefix = preferredPrefix;
+			} else if (namespace.equals(lookupNamespace(""))) {
+				prefix = "";
+			} else {
+				prefix = lookupPrefix(namespace);
+				if (prefix == null) {
+					prefix = StringUtils.isBlank(preferredPrefix) ? "" : generatePrefix();
+					namespaceToDeclare = namespace;
+				}
+			}
+		}
+		writer.writeStartElement(prefix, qname.getLocalPart(), StringUtils.defaultString(namespace));
+		namespaceScopes.add(null);
+		hasChildElements.add(Boolean.FALSE);
+		if (namespaceToDeclare != null) {
+			declareNamespace(prefix, namespaceToDeclare);
+		}
+	}
+
+	private void endElement() throws XMLStreamException {
+		int depth = hasChildElements.size() - 1;
+		if (hasChildElements.get(depth)) {
+			writeIndentation(depth);
+		}
+		writer.writeEndElement();
+		namespaceScopes.remove(depth);
+		hasChildElements.remove(depth);
+	}
+
+	private void indent() throws XMLStreamException {
+		int depth = hasChildElements.size();
+		if (depth > 0) {
+			hasChildElements.set(depth - 1, Boolean.TRUE);
+			writeIndentation(depth);
+		}
+	}
+
+	private void writeIndentation(int depth) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder(1 + depth * INDENT.length());
+		sb.append('\n');
+		for (int i = 0; i < depth; i++) {
+			sb.append(INDENT);
+		}
+		writer.writeCharacters(sb.toString());
+	}
+
+	/**
+	 * Returns the string form of the QName, declaring the namespace on the current element if needed.
+	 * QNames never use the default namespace (the same as in DOMUtil.setQNameValue).
+	 */
+	private String qnameToString(QName value) throws XMLStreamException {
+		if (XMLConstants.NULL_NS_URI.equals(value.getNamespaceURI())) {
+			if (QNameUtil.isPrefixUndeclared(value.getPrefix())) {
+				return value.getPrefix() + ":" + value.getLocalPart();
+			} else {
+				return value.getLocalPart();
+			}
+		}
+		return getPrefixForAttribute(value) + ":" + value.getLocalPart();
+	}
+
+	private String getPrefixForAttribute(QName qname) throws XMLStreamException {
+		String namespace = qname.getNamespaceURI();
+		String preferredPrefix = qname.getPrefix();
+		if (StringUtils.isNotBlank(preferredPrefix)) {
+			String namespaceForPreferredPrefix = lookupNamespace(preferredPrefix);
+			if (namespaceForPreferredPrefix == null) {
+				declareNamespace(preferredPrefix, namespace);
+				return preferredPrefix;
+			} else if (namespaceForPreferredPrefix.equals(namespace)) {
+				return preferredPrefix;
+			}
+		}
+		String prefix = lookupPrefix(namespace);
+		if (prefix == null) {
+			prefix = generatePrefix();
+			declareNamespace(prefix, namespace);
+		}
+		return prefix;
+	}
+
+	private String generatePrefix() {
+		String prefix;
+		do {
+			prefix = GENERATED_PREFIX_PREFIX + (generatedPrefixCounter++);
+		} while (lookupNamespace(prefix) != null);
+		return prefix;
+	}
+
+	/**
+	 * Declares the namespace on the current element. Default namespace has empty prefix.
+	 */
+	private void declareNamespace(String prefix, String namespace) throws XMLStreamException {
+		int depth = namespaceScopes.size() - 1;
+		Map<String, String> scope = namespaceScopes.get(depth);
+		if (scope == null) {
+			scope = new HashMap<>();
+			namespaceScopes.set(depth, scope);
+		}
+		scope.put(prefix, namespace);
+		if (prefix.isEmpty()) {
+			writer.writeDefaultNamespace(namespace);
+		} else {
+			writer.writeNamespace(prefix, namespace);
+		}
+	}
+
+	private String lookupNamespace(String prefix) {
+		for (int i = namespaceScopes.size() - 1; i >= 0; i--) {
+			Map<String, String> scope = namespaceScopes.get(i);
+			if (scope != null && scope.containsKey(prefix)) {
+				return scope.get(prefix);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns non-empty prefix bound to the namespace (that is not redefined in inner scope), or null.
+	 */
+	private String lookupPrefix(String namespace) {
+		for (int i = namespaceScopes.size() - 1; i >= 0; i--) {
+			Map<String, String> scope = namespaceScopes.get(i);
+			if (scope == null) {
+				continue;
+			}
+			for (Entry<String, String> entry : scope.entrySet()) {
+				if (!entry.getKey().isEmpty() && namespace.equals(entry.getValue())
+						&& namespace.equals(lookupNamespace(entry.getKey()))) {
+					return entry.getKey();
+				}
+			}
+		}
+		return null;
+	}
+
+	private QName setQNamePrefix(QName qname) {
+		DynamicNamespacePrefixMapper namespacePrefixMapper = getNamespacePrefixMapper();
+		if (namespacePrefixMapper == null) {
+			return qname;
+		}
+		return namespacePrefixMapper.setQNamePrefix(qname);
+	}
+
+	private QName setQNamePrefixExplicitIfNeeded(QName name) {
+		if (name != null && StringUtils.isNotBlank(name.getNamespaceURI()) && StringUtils.isBlank(name.getPrefix())) {
+			DynamicNamespacePrefixMapper namespacePrefixMapper = getNamespacePrefixMapper();
+			if (namespacePrefixMapper == null) {
+				return name;
+			}
+			return namespacePrefixMapper.setQNamePrefixExplicit(name);
+		} else {
+			return name;
+		}
+	}
+
+}
@@ -16,10 +16,17 @@
 package com.evolveum.midpoint.prism.polystring;
 
 import java.text.Normalizer;
+import java.util.Locale;
 
 import org.apache.commons.lang.StringUtils;
 
 /**
+ * Trims the string, decomposes it (NFKD), removes all characters except for ASCII letters, digits, underscore
+ * and whitespace, collapses whitespace to a single space and converts the result to lower case.
+ * 
+ * The normalization is done in a single pass over the string (it used to be done by regular expressions).
+ * ASCII strings do not need to be decomposed and strings that are already normalized are returned as they are.
+ * 
  * @author semancik
  *
  */
@@ -34,13 +41,77 @@ public class PrismDefaultPolyStringNormalizer implements PolyStringNormalizer {
 			return null;
 		}
 		String s = StringUtils.trim(orig);
-		s = Normalizer.normalize(s, Normalizer.Form.NFKD);
-		s = s.replaceAll("[^\\w\\s\\d]", "");
-		s = s.replaceAll("\\s+", " ");
-		if (StringUtils.isBlank(s)) {
-			s = "";
+		if (!isAscii(s)) {
+			s = Normalizer.normalize(s, Normalizer.Form.NFKD);
 		}
-		return StringUtils.lowerCase(s);
+		// Lower case conversion of ASCII letters is locale-sensitive in few languages (e.g. Turkish dotless i).
+		// In that case it is left to String.toLowerCase() as before.
+		boolean lowerCaseInPlace = !isSpecialLowerCaseLocale();
+		
+		// The normalized string is built only if it differs from the original one
+		char[] normChars = null;
+		int normLength = 0;
+		boolean blank = true;
+		boolean inWhitespace = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			char normChar;
+			if (isWordChar(c)) {
+				normChar = lowerCaseInPlace && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+				blank = false;
+				inWhitespace = false;
+			} else if (isWhitespace(c)) {
+				if (inWhitespace) {
+					continue;
+				}
+				normChar = ' ';
+				inWhitespace = true;
+			} else {
+				continue;
+			}
+			if (normChars == null) {
+				if (normLength == i && normChar == c) {
+					normLength++;
+					continue;
+				}
+				normChars = new char[s.length()];
+				s.getChars(0, normLength, normChars, 0);
+			}
+			normChars[normLength++] = normChar;
+		}
+		if (blank) {
+			return "";
+		}
+		String norm = normChars == null ? s.substring(0, normLength) : new String(normChars, 0, normLength);
+		return lowerCaseInPlace ? norm : norm.toLowerCase();
+	}
+
+	private boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as \w in Java regular expressions, i.e. [a-zA-Z_0-9]
+	 */
+	private boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * Same as \s in Java regular expressions, i.e. [ \t\n\x0B\f\r]
+	 */
+	private boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private boolean isSpecialLowerCaseLocale() {
+		String language = Locale.getDefault().getLanguage();
+		return "tr".equals(language) || "az".equals(language) || "lt".equals(language);
 	}
 
 }
@@ -192,6 +192,9 @@ class DomToSchemaProcessor {
 		// Create PropertyContainer (and possibly also Property) definition from the top-level elements in XSD
 		// This also creates ResourceObjectDefinition in some cases
 		createDefinitionsFromElements(xsSchemaSet);
+
+		// Definitions were completed (e.g. compile-time classes were set) after they were added to the schema
+		schema.invalidateIndex();
 				
 		return schema;
 	}
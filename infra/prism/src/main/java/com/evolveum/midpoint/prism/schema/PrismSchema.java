@@ -17,7 +17,6 @@
 package com.evolveum.midpoint.prism.schema;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -62,12 +61,12 @@ public class PrismSchema implements DebugDumpable {
 	private static final Trace LOGGER = TraceManager.getTrace(PrismSchema.class);
 	
 	protected String namespace;
-	protected Collection<Definition> definitions;
+	protected DefinitionList<Definition> definitions;
 	protected PrismContext prismContext;
 
 	protected PrismSchema(PrismContext prismContext) {
 		this.prismContext = prismContext;
-		definitions = new ArrayList<Definition>();
+		definitions = new DefinitionList<Definition>();
 	}
 	
 	public PrismSchema(String namespace, PrismContext prismContext) {
@@ -76,7 +75,7 @@ public class PrismSchema implements DebugDumpable {
 		}
 		this.namespace = namespace;
 		this.prismContext = prismContext;
-		definitions = new ArrayList<Definition>();
+		definitions = new DefinitionList<Definition>();
 	}
 
 	/**
@@ -100,11 +99,14 @@ public class PrismSchema implements DebugDumpable {
 	 * The set contains all definitions of all types that were parsed. Order of
 	 * definitions is insignificant.
 	 * 
+	 * The definitions are indexed for the lookups (see {@link DefinitionList}).
+	 * Definitions added to the returned collection should not be renamed afterwards.
+	 * 
 	 * @return set of definitions
 	 */
 	public Collection<Definition> getDefinitions() {
 		if (definitions == null) {
-			definitions = new HashSet<Definition>();
+			definitions = new DefinitionList<Definition>();
 		}
 		return definitions;
 	}
@@ -215,7 +217,7 @@ public class PrismSchema implements DebugDumpable {
 	}
 
 	private <T extends Objectable> PrismObjectDefinition<T> scanForPrismObjectDefinition(Class<T> type) {
-		for (Definition def: getDefinitions()) {
+		for (Definition def: getCandidatesByCompileTimeClass(type)) {
 			if (def instanceof PrismObjectDefinition<?>) {
 				PrismObjectDefinition<?> objDef = (PrismObjectDefinition<?>)def;
 				if (type.equals(objDef.getCompileTimeClass())) {
@@ -232,7 +234,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("typeName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByTypeName(typeName)) {
 			if (type.isAssignableFrom(definition.getClass())
 					&& typeName.equals(definition.getTypeName())) {
 				return (T) definition;
@@ -264,7 +266,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("elementName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByName(elementName.getLocalPart())) {
 			if (type.isAssignableFrom(definition.getClass())
 					&& elementName.equals(((PrismContainerDefinition)definition).getName())) {
 				return (T) definition;
@@ -274,7 +276,7 @@ public class PrismSchema implements DebugDumpable {
 	}
 	
 	public <C extends Containerable> PrismContainerDefinition<C> findContainerDefinitionByCompileTimeClass(Class<C> type) {
-		for (Definition def: getDefinitions()) {
+		for (Definition def: getCandidatesByCompileTimeClass(type)) {
 			if (def instanceof PrismContainerDefinition<?>) {
 				PrismContainerDefinition<C> contDef = (PrismContainerDefinition<C>)def;
 				if (type.equals(contDef.getCompileTimeClass())) {
@@ -286,7 +288,7 @@ public class PrismSchema implements DebugDumpable {
 	}
 
 	public <C extends Containerable> ComplexTypeDefinition findComplexTypeDefinitionByCompileTimeClass(Class<C> type) {
-		for (Definition def: getDefinitions()) {
+		for (Definition def: getCandidatesByCompileTimeClass(type)) {
 			if (def instanceof ComplexTypeDefinition) {
 				ComplexTypeDefinition ctd = (ComplexTypeDefinition)def;
 				if (type.equals(ctd.getCompileTimeClass())) {
@@ -310,7 +312,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("elementName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByName(elementName.getLocalPart())) {
 			if (type.isAssignableFrom(definition.getClass())
 					&& elementName.equals(((PrismPropertyDefinition)definition).getName())) {
 				return (T) definition;
@@ -324,7 +326,7 @@ public class PrismSchema implements DebugDumpable {
             throw new IllegalArgumentException("elementName must be supplied");
         }
         // TODO: check for multiple definition with the same type
-        for (Definition definition : definitions) {
+        for (Definition definition : definitions.getCandidatesByName(elementName.getLocalPart())) {
             if (type.isAssignableFrom(definition.getClass())
                     && elementName.equals(((PrismReferenceDefinition)definition).getName())) {
                 return (T) definition;
@@ -341,7 +343,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("typeName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByTypeName(typeName)) {
 			if (definition instanceof ComplexTypeDefinition && typeName.equals(definition.getTypeName())) {
 				return (ComplexTypeDefinition) definition;
 			}
@@ -359,7 +361,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("definitionName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByName(definitionName.getLocalPart())) {
 			if (definitionType.isAssignableFrom(definition.getClass())) {
 				ItemDefinition idef = (ItemDefinition) definition;
 				if (definitionName.equals(idef.getName())) {
@@ -378,7 +380,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("localName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByName(localName)) {
 			if (definitionType.isAssignableFrom(definition.getClass())) {
 				ItemDefinition idef = (ItemDefinition) definition;
 				if (localName.equals(idef.getName().getLocalPart())) {
@@ -399,7 +401,7 @@ public class PrismSchema implements DebugDumpable {
 			throw new IllegalArgumentException("typeName must be supplied");
 		}
 		// TODO: check for multiple definition with the same type
-		for (Definition definition : definitions) {
+		for (Definition definition : definitions.getCandidatesByTypeName(typeName)) {
 			if (definitionType.isAssignableFrom(definition.getClass())) {
 				ItemDefinition idef = (ItemDefinition) definition;
 				if (typeName.equals(idef.getTypeName())) {
@@ -414,6 +416,26 @@ public class PrismSchema implements DebugDumpable {
 		return definitions.isEmpty();
 	}
 
+	/**
+	 * Discards the lookup indexes. This has to be called when the definitions in this schema were renamed,
+	 * retyped or got a different compile-time class after they had been looked up.
+	 */
+	public void invalidateIndex() {
+		definitions.invalidateIndex();
+		classToDefCache.clear();
+	}
+
+	/**
+	 * Subclasses may provide their own definitions (see getDefinitions()), the index can be used only for ours.
+	 */
+	private Collection<Definition> getCandidatesByCompileTimeClass(Class<?> compileTimeClass) {
+		Collection<Definition> defs = getDefinitions();
+		if (defs == definitions) {
+			return definitions.getCandidatesByCompileTimeClass(compileTimeClass);
+		}
+		return defs;
+	}
+
 	/**
 	 * Creates a new property container definition and adds it to the schema.
 	 * 
@@ -87,6 +87,10 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
 	private EntityResolver builtinSchemaResolver;	
 	private List<SchemaDescription> schemaDescriptions;
 	private Map<String,SchemaDescription> parsedSchemas;
+	// Lookup indexes over schemaDescriptions. If there are more descriptions with the same key, the first one wins.
+	private Map<String,SchemaDescription> schemaDescriptionsByNamespace;
+	private Map<String,SchemaDescription> schemaDescriptionsByPrefix;
+	private Map<Package,SchemaDescription> schemaDescriptionsByCompileTimePackage;
 	private Map<QName,ComplexTypeDefinition> extensionSchemas;
 	private boolean initialized = false;
 	private DynamicNamespacePrefixMapper namespacePrefixMapper;
@@ -101,6 +105,9 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
         this.catalogResource = RUNTIME_CATALOG_RESOURCE;
 		this.schemaDescriptions = new ArrayList<SchemaDescription>();
 		this.parsedSchemas = new HashMap<String, SchemaDescription>();
+		this.schemaDescriptionsByNamespace = new HashMap<String, SchemaDescription>();
+		this.schemaDescriptionsByPrefix = new HashMap<String, SchemaDescription>();
+		this.schemaDescriptionsByCompileTimePackage = new HashMap<Package, SchemaDescription>();
 		this.extensionSchemas = new HashMap<QName, ComplexTypeDefinition>();
 	}
 
@@ -254,6 +261,15 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
 		}
 		parsedSchemas.put(desc.getNamespace(), desc);
 		schemaDescriptions.add(desc);
+		addToIndex(schemaDescriptionsByNamespace, desc.getNamespace(), desc);
+		addToIndex(schemaDescriptionsByPrefix, desc.getUsualPrefix(), desc);
+		addToIndex(schemaDescriptionsByCompileTimePackage, desc.getCompileTimeClassesPackage(), desc);
+	}
+
+	private <K> void addToIndex(Map<K,SchemaDescription> index, K key, SchemaDescription desc) {
+		if (key != null && !index.containsKey(key)) {
+			index.put(key, desc);
+		}
 	}
 	
 	public void registerPrismSchemasFromDirectory(File directory) throws FileNotFoundException, SchemaException {
@@ -481,12 +497,7 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
 
 	
 	private SchemaDescription lookupSchemaDescription(String namespace) {
-		for (SchemaDescription desc : schemaDescriptions) {
-			if (namespace.equals(desc.getNamespace())) {
-				return desc;
-			}
-		}
-		return null;
+		return schemaDescriptionsByNamespace.get(namespace);
 	}
 
 	/* (non-Javadoc)
@@ -771,14 +782,11 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
     }
 
     public PrismSchema findSchemaByCompileTimeClass(Class<?> compileTimeClass) {
-		Package compileTimePackage = compileTimeClass.getPackage();
-		for (SchemaDescription desc: schemaDescriptions) {
-			if (compileTimePackage.equals(desc.getCompileTimeClassesPackage())) {
-				PrismSchema schema = desc.getSchema();
-				return schema;
-			}
+		SchemaDescription desc = schemaDescriptionsByCompileTimePackage.get(compileTimeClass.getPackage());
+		if (desc == null) {
+			return null;
 		}
-		return null;
+		return desc.getSchema();
 	}
 	
 	public <O extends Objectable> PrismObjectDefinition<O> findObjectDefinitionByCompileTimeClass(Class<O> compileTimeClass) {
@@ -992,12 +1000,7 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
 	}
 		
 	public SchemaDescription findSchemaDescriptionByNamespace(String namespaceURI) {
-		for (SchemaDescription desc: schemaDescriptions) {
-			if (namespaceURI.equals(desc.getNamespace())) {
-				return desc;
-			}
-		}
-		return null;
+		return schemaDescriptionsByNamespace.get(namespaceURI);
 	}
 	
 	public PrismSchema findSchemaByPrefix(String prefix) {
@@ -1009,12 +1012,7 @@ public class SchemaRegistry implements LSResourceResolver, EntityResolver, Debug
 	}
 		
 	public SchemaDescription findSchemaDescriptionByPrefix(String prefix) {
-		for (SchemaDescription desc: schemaDescriptions) {
-			if (prefix.equals(desc.getUsualPrefix())) {
-				return desc;
-			}
-		}
-		return null;
+		return schemaDescriptionsByPrefix.get(prefix);
 	}
 	
 	public PrismObjectDefinition determineDefinitionFromClass(Class type) {
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.schema.PrismSchema;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Checks that the indexed definition lookups in schemas and complex types find the same definitions
+ * as the sequential search. The performance test only prints the times, it does not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestDefinitionIndex {
+
+	private static final String NS_TEST = "http://midpoint.evolveum.com/xml/ns/test/index-1";
+	private static final int NUMBER_OF_DEFINITIONS = 100;
+	private static final int PERFORMANCE_ITERATIONS = 1000;
+
+	@BeforeSuite
+	public void setupDebug() {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+	}
+
+	@Test
+	public void test100SchemaLookups() throws SchemaException, SAXException, IOException {
+		System.out.println("\n\n===[ test100SchemaLookups ]===\n");
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+
+		for (PrismSchema schema : prismContext.getSchemaRegistry().getSchemas()) {
+			if (schema == null) {
+				continue;	// not a prism schema
+			}
+			for (Definition definition : schema.getDefinitions()) {
+				// WHEN, THEN
+				if (definition instanceof ItemDefinition) {
+					QName name = ((ItemDefinition) definition).getName();
+					assertSame("Wrong definition for " + name, findItemSequentially(schema, name, false),
+							schema.findItemDefinition(name, ItemDefinition.class));
+					assertSame("Wrong definition for " + name.getLocalPart(), findItemSequentially(schema, name, true),
+							schema.findItemDefinition(name.getLocalPart(), ItemDefinition.class));
+				}
+				if (definition instanceof ComplexTypeDefinition) {
+					ComplexTypeDefinition ctd = (ComplexTypeDefinition) definition;
+					assertSame("Wrong complex type definition for " + ctd.getTypeName(), ctd,
+							schema.findComplexTypeDefinition(ctd.getTypeName()));
+					if (ctd.getCompileTimeClass() != null) {
+						assertSame("Wrong complex type definition for " + ctd.getCompileTimeClass(), ctd,
+								schema.findComplexTypeDefinitionByCompileTimeClass((Class) ctd.getCompileTimeClass()));
+					}
+				}
+				if (definition instanceof PrismContainerDefinition) {
+					PrismContainerDefinition<?> containerDef = (PrismContainerDefinition<?>) definition;
+					assertSame("Wrong container definition for " + containerDef.getTypeName(),
+							findContainerByTypeSequentially(schema, containerDef.getTypeName()),
+							schema.findContainerDefinitionByType(containerDef.getTypeName()));
+				}
+			}
+			assertNull(schema.findItemDefinition(new QName(schema.getNamespace(), "noSuchItem"), ItemDefinition.class));
+			assertNull(schema.findComplexTypeDefinition(new QName(schema.getNamespace(), "NoSuchType")));
+		}
+
+		assertNotNull("No user definition", prismContext.getSchemaRegistry().findObjectDefinitionByElementName(USER_QNAME));
+		assertNotNull("No user definition", prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(
+				com.evolveum.midpoint.prism.foo.UserType.class));
+	}
+
+	@Test
+	public void test110ComplexTypeLookups() throws SchemaException, SAXException, IOException {
+		System.out.println("\n\n===[ test110ComplexTypeLookups ]===\n");
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+
+		for (PrismSchema schema : prismContext.getSchemaRegistry().getSchemas()) {
+			if (schema == null) {
+				continue;	// not a prism schema
+			}
+			for (ComplexTypeDefinition ctd : schema.getComplexTypeDefinitions()) {
+				for (ItemDefinition itemDef : ctd.getDefinitions()) {
+					QName name = itemDef.getName();
+					QName unqualifiedName = new QName(name.getLocalPart());
+					QName upperCaseName = new QName(name.getNamespaceURI(), name.getLocalPart().toUpperCase());
+
+					// WHEN, THEN
+					assertSame("Wrong definition for " + name + " in " + ctd, findItemSequentially(ctd, name, false),
+							ctd.findItemDefinition(name, ItemDefinition.class));
+					assertSame("Wrong definition for " + unqualifiedName + " in " + ctd, findItemSequentially(ctd, unqualifiedName, false),
+							ctd.findItemDefinition(unqualifiedName, ItemDefinition.class));
+					assertSame("Wrong definition for " + upperCaseName + " in " + ctd, findItemSequentially(ctd, upperCaseName, true),
+							ctd.findItemDefinition(upperCaseName, ItemDefinition.class, true));
+					assertSame("Wrong definition for path " + name + " in " + ctd, findItemSequentially(ctd, name, false),
+							ctd.findItemDefinition(new ItemPath(name)));
+					if (itemDef instanceof PrismReferenceDefinition) {
+						QName compositeName = ((PrismReferenceDefinition) itemDef).getCompositeObjectElementName();
+						if (compositeName != null) {
+							assertSame("Wrong definition for " + compositeName + " in " + ctd, findItemSequentially(ctd, compositeName, false),
+									ctd.findItemDefinition(compositeName, ItemDefinition.class));
+						}
+					}
+				}
+				assertNull(ctd.findItemDefinition(new QName(ctd.getTypeName().getNamespaceURI(), "noSuchItem"), ItemDefinition.class));
+			}
+		}
+	}
+
+	/**
+	 * The indexes have to follow the changes of the definitions.
+	 */
+	@Test
+	public void test120ModifyDefinitions() throws SchemaException, SAXException, IOException {
+		System.out.println("\n\n===[ test120ModifyDefinitions ]===\n");
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+		PrismSchema schema = new PrismSchema(NS_TEST, prismContext);
+		ComplexTypeDefinition ctd = schema.createComplexTypeDefinition(new QName(NS_TEST, "BigType"));
+		for (int i = 0; i < NUMBER_OF_DEFINITIONS; i++) {
+			schema.createPropertyDefinition("prop" + i, DOMUtil.XSD_STRING);
+			ctd.createPropertyDefinition("item" + i, DOMUtil.XSD_STRING);
+		}
+		assertNotNull(schema.findPropertyDefinitionByElementName(new QName(NS_TEST, "prop10")));
+		assertNotNull(ctd.findPropertyDefinition(new QName(NS_TEST, "item10")));
+
+		// WHEN
+		schema.createPropertyDefinition("propNew", DOMUtil.XSD_STRING);
+		ctd.createPropertyDefinition("itemNew", DOMUtil.XSD_STRING);
+		PrismPropertyDefinition replacement = new PrismPropertyDefinition(new QName(NS_TEST, "item10"), DOMUtil.XSD_INT, prismContext);
+		ctd.replaceDefinition(new QName(NS_TEST, "item10"), replacement);
+		schema.getDefinitions().remove(schema.findPropertyDefinitionByElementName(new QName(NS_TEST, "prop20")));
+
+		// THEN
+		assertNotNull(schema.findPropertyDefinitionByElementName(new QName(NS_TEST, "propNew")));
+		assertNotNull(ctd.findPropertyDefinition(new QName(NS_TEST, "itemNew")));
+		assertSame(replacement, ctd.findPropertyDefinition(new QName(NS_TEST, "item10")));
+		assertSame(replacement, ctd.findPropertyDefinition(new QName("item10")));
+		assertNull(schema.findPropertyDefinitionByElementName(new QName(NS_TEST, "prop20")));
+		assertEquals(DOMUtil.XSD_INT, schema.findComplexTypeDefinition(new QName(NS_TEST, "BigType"))
+				.findPropertyDefinition(new QName(NS_TEST, "item10")).getTypeName());
+	}
+
+	@Test
+	public void test200Performance() throws SchemaException, SAXException, IOException {
+		System.out.println("\n\n===[ test200Performance ]===\n");
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+		List<ComplexTypeDefinition> ctds = new ArrayList<>();
+		List<QName> names = new ArrayList<>();
+		for (PrismSchema schema : prismContext.getSchemaRegistry().getSchemas()) {
+			if (schema == null) {
+				continue;	// not a prism schema
+			}
+			for (ComplexTypeDefinition ctd : schema.getComplexTypeDefinitions()) {
+				for (ItemDefinition itemDef : ctd.getDefinitions()) {
+					ctds.add(ctd);
+					names.add(itemDef.getName());
+				}
+			}
+		}
+
+		// WHEN
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+			for (int j = 0; j < names.size(); j++) {
+				findItemSequentially(ctds.get(j), names.get(j), false);
+			}
+		}
+		long sequential = System.currentTimeMillis();
+		for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+			for (int j = 0; j < names.size(); j++) {
+				ctds.get(j).findItemDefinition(names.get(j), ItemDefinition.class);
+			}
+		}
+		long indexed = System.currentTimeMillis();
+
+		// THEN
+		System.out.println(PERFORMANCE_ITERATIONS * names.size() + " complex type item lookups: sequential "
+				+ (sequential - start) + " ms, indexed " + (indexed - sequential) + " ms");
+	}
+
+	private ItemDefinition findItemSequentially(PrismSchema schema, QName name, boolean localNameOnly) {
+		for (Definition definition : schema.getDefinitions()) {
+			if (definition instanceof ItemDefinition) {
+				QName defName = ((ItemDefinition) definition).getName();
+				if (localNameOnly ? name.getLocalPart().equals(defName.getLocalPart()) : name.equals(defName)) {
+					return (ItemDefinition) definition;
+				}
+			}
+		}
+		return null;
+	}
+
+	private PrismContainerDefinition findContainerByTypeSequentially(PrismSchema schema, QName typeName) {
+		for (Definition definition : schema.getDefinitions()) {
+			if (definition instanceof PrismContainerDefinition && typeName.equals(definition.getTypeName())) {
+				return (PrismContainerDefinition) definition;
+			}
+		}
+		return null;
+	}
+
+	private ItemDefinition findItemSequentially(ComplexTypeDefinition ctd, QName name, boolean caseInsensitive) {
+		for (ItemDefinition definition : ctd.getDefinitions()) {
+			if (definition.isValidFor(name, ItemDefinition.class, caseInsensitive)) {
+				return definition;
+			}
+		}
+		return null;
+	}
+}
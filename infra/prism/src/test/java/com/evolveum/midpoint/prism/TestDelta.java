@@ -1305,6 +1305,124 @@ public class TestDelta {
         assert user != userSum : "User was not cloned";
         PrismAsserts.assertReferenceValues(userSum.findOrCreateReference(UserType.F_PARENT_ORG_REF), "oid1");
     }
+	@Test
+    public void testObjectDeltaCompactReplace() throws Exception {
+		System.out.println("\n\n===[ testObjectDeltaCompactReplace ]===\n");
+		// GIVEN
+		ObjectDelta<UserType> userDelta = createModifyDelta(
+				ObjectDelta.createModificationReplaceProperty(UserType.class, USER_FOO_OID,
+						UserType.F_FULL_NAME, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("foo")),
+				ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("baz")),
+				ObjectDelta.createModificationReplaceProperty(UserType.class, USER_FOO_OID,
+						UserType.F_FULL_NAME, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("bar")),
+				ObjectDelta.createModificationReplaceProperty(UserType.class, USER_FOO_OID,
+						UserType.F_FULL_NAME, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("baz")),
+				ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("qux")));
+		ObjectDelta<UserType> userDeltaOrig = userDelta.clone();
+		PropertyDelta<PolyString> firstFullNameDelta = userDelta.findPropertyDelta(UserType.F_FULL_NAME);
+
+		// WHEN
+		userDelta.compact();
+
+		// THEN
+		System.out.println("Compacted delta:\n" + userDelta.debugDump());
+		PrismAsserts.assertModifications(userDelta, 2);
+		PrismAsserts.assertReplace(userDelta.findPropertyDelta(UserType.F_FULL_NAME), PrismTestUtil.createPolyString("baz"));
+		PrismAsserts.assertAdd(userDelta.findPropertyDelta(UserType.F_ADDITIONAL_NAMES),
+				PrismTestUtil.createPolyString("baz"), PrismTestUtil.createPolyString("qux"));
+		PrismAsserts.assertReplace(firstFullNameDelta, PrismTestUtil.createPolyString("foo"));
+		assertCompactedEquivalent(userDeltaOrig, userDelta);
+    }
+
+	/**
+	 * Added and then deleted value has to be deleted, deleted and then added value has to be added.
+	 */
+	@Test
+    public void testObjectDeltaCompactAddDelete() throws Exception {
+		System.out.println("\n\n===[ testObjectDeltaCompactAddDelete ]===\n");
+		// GIVEN
+		ObjectDelta<UserType> userDelta = createModifyDelta(
+				ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("foobar")),
+				ObjectDelta.createModificationDeleteProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("baz")),
+				ObjectDelta.createModificationDeleteProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("foobar")),
+				ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("baz")),
+				ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+						UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext(), PrismTestUtil.createPolyString("baz")));
+		ObjectDelta<UserType> userDeltaOrig = userDelta.clone();
+
+		// WHEN
+		userDelta.compact();
+
+		// THEN
+		System.out.println("Compacted delta:\n" + userDelta.debugDump());
+		PrismAsserts.assertModifications(userDelta, 1);
+		PropertyDelta<PolyString> namesDelta = userDelta.findPropertyDelta(UserType.F_ADDITIONAL_NAMES);
+		PrismAsserts.assertAdd(namesDelta, PrismTestUtil.createPolyString("baz"));
+		PrismAsserts.assertDelete(namesDelta, PrismTestUtil.createPolyString("foobar"));
+		assertCompactedEquivalent(userDeltaOrig, userDelta);
+    }
+
+	/**
+	 * Modifications of the same item are not merged across a modification of its child (or parent) item.
+	 * Empty modifications are removed.
+	 */
+	@Test
+    public void testObjectDeltaCompactParentChild() throws Exception {
+		System.out.println("\n\n===[ testObjectDeltaCompactParentChild ]===\n");
+		// GIVEN
+		PrismContainerValue<AssignmentType> assignmentValue1 = new PrismContainerValue<AssignmentType>(PrismTestUtil.getPrismContext());
+		assignmentValue1.setId(USER_ASSIGNMENT_1_ID);
+		assignmentValue1.setPropertyRealValue(AssignmentType.F_DESCRIPTION, "first", PrismTestUtil.getPrismContext());
+		PrismContainerValue<AssignmentType> assignmentValue2 = new PrismContainerValue<AssignmentType>(PrismTestUtil.getPrismContext());
+		assignmentValue2.setId(USER_ASSIGNMENT_2_ID);
+		assignmentValue2.setPropertyRealValue(AssignmentType.F_DESCRIPTION, "second", PrismTestUtil.getPrismContext());
+		ObjectDelta<UserType> emptyDelta = ObjectDelta.createModificationAddProperty(UserType.class, USER_FOO_OID,
+				UserType.F_ADDITIONAL_NAMES, PrismTestUtil.getPrismContext());
+		ObjectDelta<UserType> userDelta = createModifyDelta(
+				ObjectDelta.createModificationAddContainer(UserType.class, USER_FOO_OID,
+						UserType.F_ASSIGNMENT, PrismTestUtil.getPrismContext(), assignmentValue1),
+				emptyDelta,
+				ObjectDelta.createModificationReplaceProperty(UserType.class, USER_FOO_OID,
+						new ItemPath(new NameItemPathSegment(UserType.F_ASSIGNMENT), new IdItemPathSegment(USER_ASSIGNMENT_1_ID),
+								new NameItemPathSegment(AssignmentType.F_DESCRIPTION)),
+						PrismTestUtil.getPrismContext(), "changed"),
+				ObjectDelta.createModificationAddContainer(UserType.class, USER_FOO_OID,
+						UserType.F_ASSIGNMENT, PrismTestUtil.getPrismContext(), assignmentValue2));
+		ObjectDelta<UserType> userDeltaOrig = userDelta.clone();
+
+		// WHEN
+		userDelta.compact();
+
+		// THEN
+		System.out.println("Compacted delta:\n" + userDelta.debugDump());
+		PrismAsserts.assertModifications(userDelta, 3);
+		assertCompactedEquivalent(userDeltaOrig, userDelta);
+    }
+
+	private ObjectDelta<UserType> createModifyDelta(ObjectDelta<UserType>... deltas) {
+		ObjectDelta<UserType> userDelta = new ObjectDelta<UserType>(UserType.class, ChangeType.MODIFY, PrismTestUtil.getPrismContext());
+		userDelta.setOid(USER_FOO_OID);
+		for (ObjectDelta<UserType> delta : deltas) {
+			// modifications of the same item are not merged here, just as when they are added to the list directly
+			((Collection) userDelta.getModifications()).addAll(delta.getModifications());
+		}
+		return userDelta;
+	}
+
+	private void assertCompactedEquivalent(ObjectDelta<UserType> originalDelta, ObjectDelta<UserType> compactedDelta) throws SchemaException {
+		PrismObject<UserType> user = createUser();
+		PrismObject<UserType> userOriginal = originalDelta.computeChangedObject(user);
+		PrismObject<UserType> userCompacted = compactedDelta.computeChangedObject(user);
+		ObjectDelta<UserType> diff = userOriginal.diff(userCompacted);
+		assertTrue("Compacted delta has different effect: " + diff, diff.isEmpty());
+	}
+
 	@Test
     public void testDeltaComplex() throws Exception {
 		System.out.println("\n\n===[ testDeltaComplex ]===\n");
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xjc.PrismForJAXBUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Tests immutable (frozen) prism objects. The performance test only prints the times and allocated memory
+ * (if the JVM can measure it), it does not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestImmutable {
+
+	private static final int LARGE_USER_ASSIGNMENTS = 2000;
+	private static final int PERFORMANCE_ITERATIONS = 100;
+
+	@BeforeSuite
+	public void setupDebug() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void test100ModifyImmutable() throws Exception {
+		System.out.println("\n\n===[ test100ModifyImmutable ]===\n");
+		// GIVEN
+		PrismObject<UserType> user = PrismTestUtil.parseObject(USER_JACK_FILE_XML);
+		final PrismObject<UserType> originalUser = user.clone();
+
+		// WHEN
+		user.setImmutable(true);
+
+		// THEN
+		assertTrue("User not immutable", user.isImmutable());
+		final PrismContainer<?> assignment = user.findContainer(USER_ASSIGNMENT_QNAME);
+		assertTrue("Assignment value not immutable", assignment.getValue(USER_ASSIGNMENT_1_ID).isImmutable());
+		final PrismProperty<String> fullName = user.findProperty(USER_FULLNAME_QNAME);
+		final PrismReference accountRef = user.findReference(USER_ACCOUNTREF_QNAME);
+		final PrismObject<UserType> frozenUser = user;
+
+		assertImmutable("setOid", new Modification() {
+			public void modify() throws Exception {
+				frozenUser.setOid("1234");
+			}
+		});
+		assertImmutable("setRealValue", new Modification() {
+			public void modify() throws Exception {
+				fullName.setRealValue("Jack");
+			}
+		});
+		assertImmutable("setValue of property value", new Modification() {
+			public void modify() throws Exception {
+				fullName.getValue().setValue("Jack");
+			}
+		});
+		assertImmutable("add container value", new Modification() {
+			public void modify() throws Exception {
+				assignment.add(new PrismContainerValue<>());
+			}
+		});
+		assertImmutable("remove item", new Modification() {
+			public void modify() throws Exception {
+				frozenUser.getValue().remove(fullName);
+			}
+		});
+		assertImmutable("create item", new Modification() {
+			public void modify() throws Exception {
+				frozenUser.findOrCreateProperty(USER_LOCALITY_QNAME).setRealValue("Caribbean");
+			}
+		});
+		assertImmutable("set reference OID", new Modification() {
+			public void modify() throws Exception {
+				accountRef.getValues().get(0).setOid("1234");
+			}
+		});
+		assertImmutable("set container value id", new Modification() {
+			public void modify() throws Exception {
+				assignment.getValue(USER_ASSIGNMENT_1_ID).setId(42L);
+			}
+		});
+		try {
+			fullName.getValues().clear();
+			fail("Values of immutable item modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			frozenUser.getValue().getItems().clear();
+			fail("Items of immutable container value modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+
+		assertTrue("Immutable user was changed: " + originalUser.diff(user), originalUser.equals(user));
+	}
+
+	/**
+	 * Immutable objects can be read in the usual ways, including the methods used by JAXB getters
+	 * that create missing items.
+	 */
+	@Test
+	public void test110ReadImmutable() throws Exception {
+		System.out.println("\n\n===[ test110ReadImmutable ]===\n");
+		// GIVEN
+		PrismObject<UserType> user = PrismTestUtil.parseObject(USER_JACK_FILE_XML);
+		PrismObject<UserType> originalUser = user.clone();
+		user.setImmutable(true);
+
+		// WHEN
+		List<String> additionalNames = PrismForJAXBUtil.getPropertyValues(user.getValue(), USER_ADDITIONALNAMES_QNAME, String.class);
+		List<String> localities = PrismForJAXBUtil.getPropertyValues(user.getValue(), USER_LOCALITY_QNAME, String.class);
+		PrismContainer<?> activation = PrismForJAXBUtil.getContainer(user.getValue(), USER_ACTIVATION_QNAME);
+		PrismReference accountRef = PrismForJAXBUtil.getReference(user.getValue(), USER_ACCOUNTREF_QNAME);
+
+		// THEN
+		assertEquals("Wrong additional names", 2, additionalNames.size());
+		assertTrue("Unexpected localities", localities.isEmpty());
+		assertFalse("No activation", activation.isEmpty());
+		assertEquals("Wrong account references", 3, accountRef.size());
+		assertEquals("Wrong full name", "cpt. Jack Sparrow", user.findProperty(USER_FULLNAME_QNAME).getRealValue());
+		assertEquals("Wrong assignment description", "Assignment 1", user.findContainer(USER_ASSIGNMENT_QNAME)
+				.getValue(USER_ASSIGNMENT_1_ID).findProperty(USER_DESCRIPTION_QNAME).getRealValue());
+		assertNull("Locality created in immutable object", user.findProperty(USER_LOCALITY_QNAME));
+		assertTrue("Immutable user was changed: " + originalUser.diff(user), originalUser.equals(user));
+	}
+
+	@Test
+	public void test120CloneImmutable() throws Exception {
+		System.out.println("\n\n===[ test120CloneImmutable ]===\n");
+		// GIVEN
+		PrismObject<UserType> user = PrismTestUtil.parseObject(USER_JACK_FILE_XML);
+
+		// WHEN
+		PrismObject<UserType> immutableClone = user.createImmutableClone();
+		PrismObject<UserType> mutableClone = immutableClone.clone();
+
+		// THEN
+		assertTrue("Clone not immutable", immutableClone.isImmutable());
+		assertFalse("Original user made immutable", user.isImmutable());
+		assertFalse("Clone of immutable user is immutable", mutableClone.isImmutable());
+		assertTrue("Clone differs", user.equals(immutableClone));
+		assertTrue("Clone differs", user.equals(mutableClone));
+
+		mutableClone.findProperty(USER_FULLNAME_QNAME).setRealValue("Jack");
+		mutableClone.findContainer(USER_ASSIGNMENT_QNAME).add(new PrismContainerValue<>());
+		assertEquals("Wrong full name in immutable clone", "cpt. Jack Sparrow",
+				immutableClone.findProperty(USER_FULLNAME_QNAME).getRealValue());
+		assertTrue("Immutable clone was changed", user.equals(immutableClone));
+
+		immutableClone.setImmutable(false);
+		immutableClone.findProperty(USER_FULLNAME_QNAME).setRealValue("Jack");
+		assertEquals("Wrong full name after making mutable", "Jack",
+				immutableClone.findProperty(USER_FULLNAME_QNAME).getRealValue());
+	}
+
+	/**
+	 * Compares the cost of taking a private copy of a large user (the usual defensive cloning)
+	 * with sharing one immutable copy.
+	 */
+	@Test
+	public void test200Performance() throws Exception {
+		System.out.println("\n\n===[ test200Performance ]===\n");
+		// GIVEN
+		PrismObject<UserType> user = createLargeUser();
+		user.clone();			// warm-up
+
+		// WHEN
+		long allocatedStart = getAllocatedBytes();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+			user.clone();
+		}
+		long cloned = System.currentTimeMillis();
+		long allocatedCloned = getAllocatedBytes();
+		PrismObject<UserType> immutableUser = user.createImmutableClone();
+		for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+			immutableUser.findContainer(USER_ASSIGNMENT_QNAME).getValue((long) i);
+		}
+		long shared = System.currentTimeMillis();
+		long allocatedShared = getAllocatedBytes();
+
+		// THEN
+		System.out.println("User with " + LARGE_USER_ASSIGNMENTS + " assignments, " + PERFORMANCE_ITERATIONS + " uses: clone each time "
+				+ (cloned - start) + " ms, " + perIteration(allocatedCloned - allocatedStart) + " KB/op; shared immutable copy "
+				+ (shared - cloned) + " ms, " + perIteration(allocatedShared - allocatedCloned) + " KB/op");
+	}
+
+	private PrismObject<UserType> createLargeUser() throws Exception {
+		PrismObject<UserType> user = PrismTestUtil.parseObject(USER_JACK_FILE_XML);
+		PrismContainer<?> assignment = user.findContainer(USER_ASSIGNMENT_QNAME);
+		assignment.clear();
+		for (int i = 0; i < LARGE_USER_ASSIGNMENTS; i++) {
+			PrismContainerValue<?> assignmentValue = assignment.createNewValue();
+			assignmentValue.setId((long) i);
+			assignmentValue.findOrCreateProperty(USER_DESCRIPTION_QNAME).setRealValue("Assignment " + i);
+		}
+		return user;
+	}
+
+	private String perIteration(long allocated) {
+		return allocated < 0 ? "?" : String.valueOf(allocated / 1024 / PERFORMANCE_ITERATIONS);
+	}
+
+	private long getAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private void assertImmutable(String message, Modification modification) throws Exception {
+		try {
+			modification.modify();
+			fail("Immutable object modified: " + message);
+		} catch (IllegalStateException e) {
+			System.out.println("Expected exception (" + message + "): " + e.getMessage());
+		}
+	}
+
+	private interface Modification {
+		void modify() throws Exception;
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.delta.DeltaSetTriple;
+import com.evolveum.midpoint.prism.delta.IndexedDeltaSetTriple;
+import com.evolveum.midpoint.prism.delta.PlusMinusZero;
+import com.evolveum.midpoint.prism.delta.PrismValueDeltaSetTriple;
+import com.evolveum.midpoint.prism.match.PolyStringNormMatchingRule;
+import com.evolveum.midpoint.prism.match.StringIgnoreCaseMatchingRule;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.util.Transformer;
+
+/**
+ * Checks that the indexed delta set triples find the same values as the sequential search.
+ * The performance test only prints the times, it does not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestIndexedDeltaSetTriple {
+
+	private static final int NUMBER_OF_VALUES = 200;
+	private static final int PERFORMANCE_VALUES = 10000;
+
+	private static final Transformer<ValueWithOrigin, PrismPropertyValue<Object>> VALUE_EXTRACTOR =
+			new Transformer<ValueWithOrigin, PrismPropertyValue<Object>>() {
+		@Override
+		public PrismPropertyValue<Object> transform(ValueWithOrigin in) {
+			return in.value;
+		}
+	};
+
+	@Test
+	public void test100FindEquivalent() throws Exception {
+		System.out.println("\n\n===[ test100FindEquivalent ]===\n");
+
+		// GIVEN
+		DeltaSetTriple<ValueWithOrigin> triple = createTriple(NUMBER_OF_VALUES);
+
+		// WHEN
+		IndexedDeltaSetTriple<ValueWithOrigin, PrismPropertyValue<Object>> indexedTriple =
+				IndexedDeltaSetTriple.copyOf(triple, VALUE_EXTRACTOR, null);
+
+		// THEN
+		List<PrismPropertyValue<Object>> distinctValues = indexedTriple.getDistinctValues();
+		assertEquals("Wrong number of distinct values", NUMBER_OF_VALUES * 3 / 2, distinctValues.size());
+		for (PrismPropertyValue<Object> value : distinctValues) {
+			for (PlusMinusZero whichSet : PlusMinusZero.values()) {
+				assertEquals("Wrong members for " + value + " in " + whichSet, findSequentially(triple.getSet(whichSet), value),
+						indexedTriple.findEquivalent(whichSet, value));
+			}
+		}
+		assertFalse(indexedTriple.presentEquivalent(PlusMinusZero.ZERO, new PrismPropertyValue<Object>("noSuchValue")));
+		assertFalse("Unindexed value found", indexedTriple.presentEquivalent(PlusMinusZero.ZERO, new PrismPropertyValue<Object>(1.5)));
+	}
+
+	@Test
+	public void test110MatchingRule() throws Exception {
+		System.out.println("\n\n===[ test110MatchingRule ]===\n");
+
+		// GIVEN
+		IndexedDeltaSetTriple<ValueWithOrigin, PrismPropertyValue<Object>> stringTriple =
+				new IndexedDeltaSetTriple<>(VALUE_EXTRACTOR, new StringIgnoreCaseMatchingRule());
+		IndexedDeltaSetTriple<ValueWithOrigin, PrismPropertyValue<Object>> polyStringTriple =
+				new IndexedDeltaSetTriple<>(VALUE_EXTRACTOR, new PolyStringNormMatchingRule());
+
+		// WHEN
+		for (int i = 0; i < NUMBER_OF_VALUES; i++) {
+			stringTriple.addToPlusSet(new ValueWithOrigin("Value" + i, "mapping1"));
+			polyStringTriple.addToPlusSet(new ValueWithOrigin(new PolyString("Value " + i, "value" + i), "mapping1"));
+		}
+		stringTriple.addToPlusSet(new ValueWithOrigin("VALUE10", "mapping2"));
+		polyStringTriple.addToPlusSet(new ValueWithOrigin(new PolyString("VALUE 10", "value10"), "mapping2"));
+
+		// THEN
+		assertEquals("Wrong number of matching strings", 2,
+				stringTriple.findEquivalent(PlusMinusZero.PLUS, new PrismPropertyValue<Object>("value10")).size());
+		assertEquals("Wrong number of matching polystrings", 2,
+				polyStringTriple.findEquivalent(PlusMinusZero.PLUS, new PrismPropertyValue<Object>(new PolyString("value 10", "value10"))).size());
+		assertEquals("Wrong number of distinct strings", NUMBER_OF_VALUES, stringTriple.getDistinctValues().size());
+		assertEquals("Wrong number of distinct polystrings", NUMBER_OF_VALUES, polyStringTriple.getDistinctValues().size());
+	}
+
+	/**
+	 * The sets may be modified directly, the index has to follow the changes.
+	 */
+	@Test
+	public void test120ModifySets() throws Exception {
+		System.out.println("\n\n===[ test120ModifySets ]===\n");
+
+		// GIVEN
+		IndexedDeltaSetTriple<ValueWithOrigin, PrismPropertyValue<Object>> triple =
+				IndexedDeltaSetTriple.copyOf(createTriple(NUMBER_OF_VALUES), VALUE_EXTRACTOR, null);
+		PrismPropertyValue<Object> value = new PrismPropertyValue<Object>("value151");
+		assertTrue(triple.presentEquivalent(PlusMinusZero.PLUS, value));
+
+		// WHEN
+		List<ValueWithOrigin> removed = triple.findEquivalent(PlusMinusZero.PLUS, value);
+		triple.getPlusSet().removeAll(removed);
+		triple.getZeroSet().add(new ValueWithOrigin("value151", "mapping3"));
+		triple.getMinusSet().clear();
+
+		// THEN
+		assertFalse("Removed value found", triple.presentEquivalent(PlusMinusZero.PLUS, value));
+		assertEquals("Wrong number of members in zero set", 2, triple.findEquivalent(PlusMinusZero.ZERO, value).size());
+		assertFalse("Value found in cleared set", triple.presentEquivalent(PlusMinusZero.MINUS, new PrismPropertyValue<Object>("value250")));
+	}
+
+	@Test
+	public void test130DiffLargeCollections() throws Exception {
+		System.out.println("\n\n===[ test130DiffLargeCollections ]===\n");
+
+		// GIVEN
+		List<PrismPropertyValue<String>> valuesOld = new ArrayList<>();
+		List<PrismPropertyValue<String>> valuesNew = new ArrayList<>();
+		for (int i = 0; i < NUMBER_OF_VALUES; i++) {
+			valuesOld.add(new PrismPropertyValue<String>("value" + i));
+			valuesNew.add(new PrismPropertyValue<String>("value" + (i + NUMBER_OF_VALUES / 2)));
+		}
+
+		// WHEN
+		PrismValueDeltaSetTriple<PrismPropertyValue<String>> triple =
+				PrismValueDeltaSetTriple.diffPrismValueDeltaSetTriple(valuesOld, valuesNew);
+
+		// THEN
+		assertEquals("Wrong zero set", valuesOld.subList(NUMBER_OF_VALUES / 2, NUMBER_OF_VALUES), triple.getZeroSet());
+		assertEquals("Wrong minus set", valuesOld.subList(0, NUMBER_OF_VALUES / 2), triple.getMinusSet());
+		assertEquals("Wrong plus set", valuesNew.subList(NUMBER_OF_VALUES / 2, NUMBER_OF_VALUES), triple.getPlusSet());
+	}
+
+	/**
+	 * Compares the sequential search used for consolidation of values produced by the mappings
+	 * with the indexed triple.
+	 */
+	@Test
+	public void test200Performance() throws Exception {
+		System.out.println("\n\n===[ test200Performance ]===\n");
+
+		// GIVEN
+		DeltaSetTriple<ValueWithOrigin> triple = createTriple(PERFORMANCE_VALUES * 2 / 5);
+
+		// WHEN
+		long start = System.currentTimeMillis();
+		int sequentialMembers = 0;
+		List<PrismPropertyValue<Object>> allValues = new ArrayList<>();
+		for (ValueWithOrigin member : triple.getAllValues()) {
+			if (!PrismValue.containsRealValue(allValues, member.value)) {
+				allValues.add(member.value);
+			}
+		}
+		for (PrismPropertyValue<Object> value : allValues) {
+			for (PlusMinusZero whichSet : PlusMinusZero.values()) {
+				sequentialMembers += findSequentially(triple.getSet(whichSet), value).size();
+			}
+		}
+		long sequential = System.currentTimeMillis();
+		int indexedMembers = 0;
+		IndexedDeltaSetTriple<ValueWithOrigin, PrismPropertyValue<Object>> indexedTriple =
+				IndexedDeltaSetTriple.copyOf(triple, VALUE_EXTRACTOR, null);
+		for (PrismPropertyValue<Object> value : indexedTriple.getDistinctValues()) {
+			for (PlusMinusZero whichSet : PlusMinusZero.values()) {
+				indexedMembers += indexedTriple.findEquivalent(whichSet, value).size();
+			}
+		}
+		long indexed = System.currentTimeMillis();
+
+		// THEN
+		assertEquals("Wrong number of members", sequentialMembers, indexedMembers);
+		System.out.println("Consolidation of " + triple.size() + " values: sequential " + (sequential - start)
+				+ " ms, indexed " + (indexed - sequential) + " ms");
+	}
+
+	/**
+	 * Creates a triple with 5n/2 members: values 0..n-1 in the zero set, every second of them produced also by another mapping,
+	 * values n/2..n-1 are added in plus set and values n..3n/2-1 are removed in minus set.
+	 */
+	private DeltaSetTriple<ValueWithOrigin> createTriple(int n) {
+		DeltaSetTriple<ValueWithOrigin> triple = new DeltaSetTriple<>();
+		for (int i = 0; i < n; i++) {
+			triple.addToZeroSet(new ValueWithOrigin("value" + i, "mapping1"));
+			if (i % 2 == 0) {
+				triple.addToZeroSet(new ValueWithOrigin("value" + i, "mapping2"));
+			}
+		}
+		for (int i = n / 2; i < n; i++) {
+			triple.addToPlusSet(new ValueWithOrigin("value" + i, "mapping3"));
+		}
+		for (int i = n; i < n * 3 / 2; i++) {
+			triple.addToMinusSet(new ValueWithOrigin("value" + i, "mapping3"));
+		}
+		return triple;
+	}
+
+	private List<ValueWithOrigin> findSequentially(Collection<ValueWithOrigin> set, PrismValue value) {
+		List<ValueWithOrigin> members = new ArrayList<>();
+		for (ValueWithOrigin member : set) {
+			if (member.value.equalsRealValue(value)) {
+				members.add(member);
+			}
+		}
+		return members;
+	}
+
+	private static class ValueWithOrigin {
+
+		private final PrismPropertyValue<Object> value;
+		private final String origin;
+
+		private ValueWithOrigin(Object realValue, String origin) {
+			this.value = new PrismPropertyValue<Object>(realValue);
+			this.origin = origin;
+		}
+
+		@Override
+		public String toString() {
+			return value + " (" + origin + ")";
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.delta.PropertyDelta;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Tests indexing of values of large multi-valued items and of items in large container values.
+ * The performance tests only print the times, they do not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestItemValueIndex {
+
+	private static final int LARGE = 1000;
+	private static final int[] PERFORMANCE_SIZES = { 10, 1000, 100000 };
+
+	@BeforeSuite
+	public void setupDebug() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void test100PropertyValues() throws Exception {
+		System.out.println("\n\n===[ test100PropertyValues ]===\n");
+		// GIVEN
+		PrismProperty<String> property = createProperty(LARGE);
+
+		// WHEN - THEN
+		assertFalse("Duplicate value added", property.add(new PrismPropertyValue<>("v500")));
+		assertEquals("Wrong number of values", LARGE, property.size());
+		assertTrue("Value not found", property.contains(new PrismPropertyValue<>("v999")));
+		assertFalse("Nonexistent value found", property.contains(new PrismPropertyValue<>("v1000")));
+
+		assertTrue("Value not removed", property.remove(new PrismPropertyValue<>("v10")));
+		assertFalse("Value removed twice", property.remove(new PrismPropertyValue<>("v10")));
+		assertEquals("Wrong number of values", LARGE - 1, property.size());
+		assertEquals("Order of values changed", "v11", property.getValue(10).getValue());
+
+		assertTrue("Value not added", property.add(new PrismPropertyValue<>("v10")));
+		assertEquals("Value not added at the end", "v10", property.getValue(-1).getValue());
+	}
+
+	@Test
+	public void test110DirectModifications() throws Exception {
+		System.out.println("\n\n===[ test110DirectModifications ]===\n");
+		// GIVEN
+		PrismProperty<String> property = createProperty(LARGE);
+		assertTrue("Value not found", property.contains(new PrismPropertyValue<>("v0")));
+
+		// WHEN - THEN
+		property.getValues().remove(0);
+		assertFalse("Value removed from the list was found", property.contains(new PrismPropertyValue<>("v0")));
+
+		PrismPropertyValue<String> value = property.getValue(0);
+		value.setValue("changed");
+		assertTrue("Changed value not found", property.contains(new PrismPropertyValue<>("changed")));
+		assertFalse("Original value found", property.contains(new PrismPropertyValue<>("v1")));
+	}
+
+	@Test
+	public void test120PolyStringAndUnindexedValues() throws Exception {
+		System.out.println("\n\n===[ test120PolyStringAndUnindexedValues ]===\n");
+		// GIVEN
+		PrismProperty<Object> property = new PrismProperty<>(USER_ADDITIONALNAMES_QNAME);
+		for (int i = 0; i < LARGE; i++) {
+			property.add(new PrismPropertyValue<Object>(new PolyString("p" + i, "p" + i)));
+		}
+		// values of other types are not indexed, but they must be found anyway
+		property.add(new PrismPropertyValue<Object>(3.14));
+
+		// WHEN - THEN
+		assertTrue("PolyString not found", property.contains(new PrismPropertyValue<Object>(new PolyString("p42", "p42"))));
+		assertFalse("PolyString with different norm found", property.contains(new PrismPropertyValue<Object>(new PolyString("p42", "other"))));
+		assertTrue("Unindexed value not found", property.contains(new PrismPropertyValue<Object>(3.14)));
+		assertFalse("Duplicate unindexed value added", property.add(new PrismPropertyValue<Object>(3.14)));
+		assertTrue("Unindexed value not removed", property.remove(new PrismPropertyValue<Object>(3.14)));
+		assertEquals("Wrong number of values", LARGE, property.size());
+	}
+
+	@Test
+	public void test130ReferenceValues() throws Exception {
+		System.out.println("\n\n===[ test130ReferenceValues ]===\n");
+		// GIVEN
+		PrismReference reference = new PrismReference(USER_ACCOUNTREF_QNAME);
+		for (int i = 0; i < LARGE; i++) {
+			reference.add(new PrismReferenceValue("oid" + i));
+		}
+
+		// WHEN - THEN
+		assertTrue("Reference not found", reference.contains(new PrismReferenceValue("oid7")));
+		PrismReferenceValue managerRef = new PrismReferenceValue("oid7");
+		managerRef.setRelation(new QName(NS_FOO, "manager"));
+		assertFalse("Reference with different relation found", reference.contains(managerRef));
+		assertTrue("Reference not removed", reference.remove(new PrismReferenceValue("oid7")));
+		assertFalse("Removed reference found", reference.contains(new PrismReferenceValue("oid7")));
+
+		reference.getValue(0).setOid("changed");
+		assertTrue("Changed reference not found", reference.contains(new PrismReferenceValue("changed")));
+	}
+
+	@Test
+	public void test140ContainerItems() throws Exception {
+		System.out.println("\n\n===[ test140ContainerItems ]===\n");
+		// GIVEN
+		PrismContainerValue<?> containerValue = new PrismContainerValue<>();
+		for (int i = 0; i < 30; i++) {
+			containerValue.add(new PrismProperty<String>(new QName(NS_FOO, "item" + i)));
+		}
+
+		// WHEN - THEN
+		assertNotNull("Item not found", containerValue.findItem(new QName(NS_FOO, "item20")));
+		assertNotNull("Item not found by unqualified name", containerValue.findItem(new QName("item20")));
+		assertNull("Item with other namespace found", containerValue.findItem(new QName("http://example.com/other", "item20")));
+		try {
+			containerValue.add(new PrismProperty<String>(new QName(NS_FOO, "item20")));
+			throw new AssertionError("Duplicate item was added");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		Item<?,?> item = containerValue.findItem(new QName(NS_FOO, "item5"));
+		item.setElementName(new QName(NS_FOO, "renamed"));
+		assertNull("Renamed item found by old name", containerValue.findItem(new QName(NS_FOO, "item5")));
+		assertSame("Renamed item not found", item, containerValue.findItem(new QName(NS_FOO, "renamed")));
+
+		containerValue.getItems().remove(item);
+		assertNull("Removed item found", containerValue.findItem(new QName(NS_FOO, "renamed")));
+	}
+
+	@Test
+	public void test145ConcurrentContainerReads() throws Exception {
+		System.out.println("\n\n===[ test145ConcurrentContainerReads ]===\n");
+		// GIVEN
+		final PrismContainerValue<?> containerValue = new PrismContainerValue<>();
+		for (int i = 0; i < 30; i++) {
+			containerValue.add(new PrismProperty<String>(new QName(NS_FOO, "item" + i)));
+		}
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		// WHEN
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int round = 0; round < 2000; round++) {
+							int i = round % 30;
+							Item<?,?> item = containerValue.findItem(new QName(NS_FOO, "item" + i));
+							if (item == null || !("item" + i).equals(item.getElementName().getLocalPart())) {
+								throw new AssertionError("Item item" + i + " not found, found " + item);
+							}
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			});
+		}
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				for (int round = 0; round < 2000; round++) {
+					containerValue.invalidateItemIndex();
+				}
+			}
+		});
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// THEN
+		assertTrue("Concurrent lookups failed: " + errors, errors.isEmpty());
+	}
+
+	@Test
+	public void test150DeltaValues() throws Exception {
+		System.out.println("\n\n===[ test150DeltaValues ]===\n");
+		// GIVEN
+		PropertyDelta<String> delta = new PropertyDelta<>(USER_ADDITIONALNAMES_QNAME, null, PrismTestUtil.getPrismContext());
+		for (int i = 0; i < 100; i++) {
+			delta.addValueToAdd(new PrismPropertyValue<>("v" + i));
+			delta.addValueToDelete(new PrismPropertyValue<>("d" + i));
+		}
+
+		// WHEN
+		delta.addValueToAdd(new PrismPropertyValue<>("v50"));
+		delta.addValueToDelete(new PrismPropertyValue<>("d50"));
+		delta.mergeValueToAdd(new PrismPropertyValue<>("d20"));
+
+		// THEN
+		assertEquals("Duplicate value to add was added", 100, delta.getValuesToAdd().size());
+		assertEquals("Wrong number of values to delete", 99, delta.getValuesToDelete().size());
+		assertFalse("Merged value not removed from values to delete", delta.isValueToDelete(new PrismPropertyValue<>("d20")));
+		assertTrue("Value to add not found", delta.isValueToAdd(new PrismPropertyValue<>("v99")));
+
+		PrismPropertyValue<String> value = delta.getValuesToAdd().iterator().next();
+		value.setValue("changed");
+		assertTrue("Changed value not found", delta.isValueToAdd(new PrismPropertyValue<>("changed")));
+		delta.addValueToAdd(new PrismPropertyValue<>("changed"));
+		assertEquals("Duplicate of a changed value was added", 100, delta.getValuesToAdd().size());
+	}
+
+	@Test
+	public void test200Performance() throws Exception {
+		System.out.println("\n\n===[ test200Performance ]===\n");
+		for (int size : PERFORMANCE_SIZES) {
+			long start = System.currentTimeMillis();
+			PrismProperty<String> property = createProperty(size);
+			long added = System.currentTimeMillis();
+			for (int i = 0; i < size; i++) {
+				assertTrue(property.contains(new PrismPropertyValue<>("v" + i)));
+			}
+			long checked = System.currentTimeMillis();
+
+			PropertyDelta<String> delta = new PropertyDelta<>(USER_ADDITIONALNAMES_QNAME, null, PrismTestUtil.getPrismContext());
+			List<PrismPropertyValue<String>> valuesToAdd = new ArrayList<>();
+			List<PrismPropertyValue<String>> valuesToDelete = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				valuesToAdd.add(new PrismPropertyValue<>("new" + i));
+				valuesToDelete.add(new PrismPropertyValue<>("v" + i));
+			}
+			delta.addValuesToAdd(valuesToAdd);
+			delta.addValuesToDelete(valuesToDelete);
+			long prepared = System.currentTimeMillis();
+			delta.applyToMatchingPath(property);
+			long applied = System.currentTimeMillis();
+			assertEquals("Wrong number of values after delta application", size, property.size());
+
+			for (int i = 0; i < size; i++) {
+				assertTrue(property.remove(new PrismPropertyValue<>("new" + i)));
+			}
+			long removed = System.currentTimeMillis();
+			assertEquals("Wrong number of values after removal", 0, property.size());
+
+			System.out.println(size + " values: add " + (added - start) + " ms, contains " + (checked - added)
+					+ " ms, delta " + (prepared - checked) + " ms, applyTo " + (applied - prepared) + " ms, remove " + (removed - applied) + " ms");
+		}
+	}
+
+	private PrismProperty<String> createProperty(int size) throws SchemaException {
+		PrismProperty<String> property = new PrismProperty<>(USER_ADDITIONALNAMES_QNAME);
+		for (int i = 0; i < size; i++) {
+			assertTrue("Value not added", property.add(new PrismPropertyValue<>("v" + i)));
+		}
+		return property;
+	}
+}
@@ -20,10 +20,15 @@ import static org.testng.AssertJUnit.assertEquals;
 import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
 
 import java.io.IOException;
+import java.text.Normalizer;
 import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
 
 import javax.xml.namespace.QName;
 
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
@@ -49,6 +54,9 @@ import com.evolveum.midpoint.util.exception.SchemaException;
  */
 public class TestPolyString {
 	
+	private static final int RANDOM_STRINGS = 100000;
+	private static final int PERFORMANCE_ITERATIONS = 100000;
+	
 	@BeforeSuite
 	public void setupDebug() throws SchemaException, SAXException, IOException {
 		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
@@ -91,6 +99,126 @@ public class TestPolyString {
 		assertEquals("wrong toString", orig, polyString.toString());
 	}
 	
+	@Test
+	public void testNormalizationSpecialCases() {
+		testNormalization("testNormalizationSpecialCases", "jack", "jack");
+		testNormalization("testNormalizationSpecialCases", "  Jack  Sparrow ", "jack sparrow");
+		testNormalization("testNormalizationSpecialCases", ". Jack\t\t-\n Sparrow .", " jack sparrow ");
+		testNormalization("testNormalizationSpecialCases", "\u00A0jack\u2003", " jack ");
+		testNormalization("testNormalizationSpecialCases", "jack_sparrow-123", "jack_sparrow123");
+		testNormalization("testNormalizationSpecialCases", "\uFB01sh \u2460", "fish 1");
+		testNormalization("testNormalizationSpecialCases", " . , ", "");
+		testNormalization("testNormalizationSpecialCases", "", "");
+	}
+	
+	/**
+	 * The normalizer has to produce exactly the same results as the original regexp-based implementation.
+	 */
+	@Test
+	public void testNormalizationCompatibility() {
+		System.out.println("===[ testNormalizationCompatibility ]===");
+		PolyStringNormalizer normalizer = new PrismDefaultPolyStringNormalizer();
+		Random random = new Random(42);
+		
+		for (int i = 0; i < RANDOM_STRINGS; i++) {
+			// GIVEN
+			String orig = randomString(random);
+			
+			// WHEN
+			String norm = normalizer.normalize(orig);
+			
+			// THEN
+			assertEquals("Wrong norm of '" + StringEscapeUtils.escapeJava(orig) + "'", normalizeByRegexp(orig), norm);
+		}
+	}
+	
+	@Test
+	public void testNormalizationTurkishLocale() {
+		System.out.println("===[ testNormalizationTurkishLocale ]===");
+		Locale originalLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("tr", "TR"));
+			PolyStringNormalizer normalizer = new PrismDefaultPolyStringNormalizer();
+			for (String orig : new String[] { "IGOR", "Iris Ivanov", "\u0130stanbul", "idil" }) {
+				assertEquals("Wrong norm of '" + orig + "'", normalizeByRegexp(orig), normalizer.normalize(orig));
+			}
+		} finally {
+			Locale.setDefault(originalLocale);
+		}
+	}
+	
+	@Test
+	public void testNormalizationPerformance() {
+		System.out.println("===[ testNormalizationPerformance ]===");
+		PolyStringNormalizer normalizer = new PrismDefaultPolyStringNormalizer();
+		String[] origs = { "jack", "Jack Sparrow", "  Captain  Jack Sparrow, Black Pearl ", 
+				"Gul\u00F4\u010Dka v jam\u00F4\u010Dke" };
+		for (String orig : origs) {
+			// warm-up
+			for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+				normalizeByRegexp(orig);
+				normalizer.normalize(orig);
+			}
+			
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+				normalizeByRegexp(orig);
+			}
+			long regexp = System.currentTimeMillis();
+			for (int i = 0; i < PERFORMANCE_ITERATIONS; i++) {
+				normalizer.normalize(orig);
+			}
+			long current = System.currentTimeMillis();
+			
+			System.out.println(PERFORMANCE_ITERATIONS + " normalizations of '" + orig + "': regexp " 
+					+ (regexp - start) + " ms, current " + (current - regexp) + " ms");
+		}
+	}
+	
+	/**
+	 * Random string mostly composed of the characters that are treated specially by the normalizer.
+	 */
+	private String randomString(Random random) {
+		int length = random.nextInt(20);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			switch (random.nextInt(6)) {
+				case 0:
+					sb.append((char) random.nextInt(0x80));			// ASCII including control characters
+					break;
+				case 1:
+					sb.append(" \t\n\u000B\f\r\u00A0\u2003".charAt(random.nextInt(8)));
+					break;
+				case 2:
+					sb.append((char) (0x80 + random.nextInt(0x200)));	// Latin supplement and extended, IPA
+					break;
+				case 3:
+					sb.append((char) (0x300 + random.nextInt(0x70)));	// combining diacritical marks
+					break;
+				case 4:
+					sb.appendCodePoint(random.nextInt(Character.MAX_CODE_POINT + 1));
+					break;
+				default:
+					sb.append((char) ('A' + random.nextInt(26)));
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * The original implementation of PrismDefaultPolyStringNormalizer.
+	 */
+	private String normalizeByRegexp(String orig) {
+		String s = StringUtils.trim(orig);
+		s = Normalizer.normalize(s, Normalizer.Form.NFKD);
+		s = s.replaceAll("[^\\w\\s\\d]", "");
+		s = s.replaceAll("\\s+", " ");
+		if (StringUtils.isBlank(s)) {
+			s = "";
+		}
+		return StringUtils.lowerCase(s);
+	}
+	
 	@Test
 	public void testRecompute() throws SchemaException, SAXException, IOException {
 		System.out.println("===[ testRecompute ]===");
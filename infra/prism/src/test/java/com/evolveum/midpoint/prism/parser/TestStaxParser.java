@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.parser;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismInternalTestUtil;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReference;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Compares the streaming (StAX) XML parsing and serialization with the DOM-based one.
+ * The performance test only prints the times (and allocated memory, if the JVM can measure it), it does not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestStaxParser {
+
+	private static final String[] FILE_BASENAMES = {
+		USER_JACK_FILE_BASENAME, USER_JACK_ADHOC_BASENAME, USER_BARBOSSA_FILE_BASENAME,
+		USER_WILL_FILE_BASENAME, RESOURCE_RUM_FILE_BASENAME };
+
+	private static final int LARGE_USER_REFERENCES = 10000;
+	private static final int PERFORMANCE_ITERATIONS = 100;
+
+	@BeforeSuite
+	public void setupDebug() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	@Test
+	public void test100ParseCompareWithDom() throws Exception {
+		System.out.println("\n\n===[ test100ParseCompareWithDom ]===\n");
+		for (String basename : FILE_BASENAMES) {
+			// GIVEN
+			String xml = readFile(basename);
+
+			// WHEN
+			PrismObject<Objectable> domObject = parse(xml, false);
+			PrismObject<Objectable> staxObject = parse(xml, true);
+
+			// THEN
+			assertEquivalent(basename, domObject, staxObject);
+		}
+	}
+
+	@Test
+	public void test110SerializeCompareWithDom() throws Exception {
+		System.out.println("\n\n===[ test110SerializeCompareWithDom ]===\n");
+		for (String basename : FILE_BASENAMES) {
+			// GIVEN
+			PrismObject<Objectable> object = parse(readFile(basename), false);
+
+			// WHEN
+			String domXml = serialize(object, false);
+			String staxXml = serialize(object, true);
+			System.out.println("Serialized " + basename + " (StAX):\n" + staxXml);
+
+			// THEN
+			assertEquivalent(basename + " serialized by StAX", object, parse(staxXml, false));
+			assertEquivalent(basename + " serialized by DOM, parsed by StAX", object, parse(domXml, true));
+			assertEquivalent(basename + " serialized and parsed by StAX", object, parse(staxXml, true));
+		}
+	}
+
+	@Test
+	public void test200Performance() throws Exception {
+		System.out.println("\n\n===[ test200Performance ]===\n");
+		PrismObject<Objectable> user = parse(readFile(USER_JACK_FILE_BASENAME), false);
+		PrismObject<Objectable> resource = parse(readFile(RESOURCE_RUM_FILE_BASENAME), false);
+		measure("user", user, PERFORMANCE_ITERATIONS);
+		measure("resource", resource, PERFORMANCE_ITERATIONS);
+		measure("large user", createLargeUser(), PERFORMANCE_ITERATIONS / 10);
+	}
+
+	private void measure(String label, PrismObject<Objectable> object, int iterations) throws Exception {
+		String xml = serialize(object, false);
+		for (boolean streaming : new boolean[] { false, true }) {
+			// warm-up
+			parse(xml, streaming);
+			serialize(object, streaming);
+
+			long allocatedStart = getAllocatedBytes();
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < iterations; i++) {
+				parse(xml, streaming);
+			}
+			long parsed = System.currentTimeMillis();
+			long allocatedParsed = getAllocatedBytes();
+			for (int i = 0; i < iterations; i++) {
+				serialize(object, streaming);
+			}
+			long serialized = System.currentTimeMillis();
+			long allocatedSerialized = getAllocatedBytes();
+
+			System.out.println(label + " (" + xml.length() + " chars), " + (streaming ? "StAX" : "DOM") + ": parse "
+					+ (parsed - start) + " ms, " + perIteration(allocatedParsed - allocatedStart, iterations)
+					+ " KB/op; serialize " + (serialized - parsed) + " ms, "
+					+ perIteration(allocatedSerialized - allocatedParsed, iterations) + " KB/op");
+		}
+	}
+
+	private String perIteration(long allocated, int iterations) {
+		return allocated < 0 ? "?" : String.valueOf(allocated / 1024 / iterations);
+	}
+
+	private long getAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * User with many account references, as a stand-in for large objects such as groups with many members.
+	 */
+	private PrismObject<Objectable> createLargeUser() throws Exception {
+		PrismObject<Objectable> user = parse(readFile(USER_BARBOSSA_FILE_BASENAME), false);
+		PrismReference accountRef = user.findOrCreateReference(USER_ACCOUNTREF_QNAME);
+		for (int i = 0; i < LARGE_USER_REFERENCES; i++) {
+			PrismReferenceValue refValue = new PrismReferenceValue(String.format("c0c010c0-d34d-b33f-f00d-%012d", i));
+			refValue.setTargetType(ACCOUNT_TYPE_QNAME);
+			accountRef.add(refValue);
+		}
+		return user;
+	}
+
+	private PrismObject<Objectable> parse(String xml, boolean streaming) throws SchemaException {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		DomParser parser = prismContext.getParserDom();
+		boolean original = parser.isStreaming();
+		parser.setStreaming(streaming);
+		try {
+			return prismContext.parseObject(xml, PrismContext.LANG_XML);
+		} finally {
+			parser.setStreaming(original);
+		}
+	}
+
+	private String serialize(PrismObject<Objectable> object, boolean streaming) throws SchemaException {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		DomParser parser = prismContext.getParserDom();
+		boolean original = parser.isStreaming();
+		parser.setStreaming(streaming);
+		try {
+			return prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
+		} finally {
+			parser.setStreaming(original);
+		}
+	}
+
+	private void assertEquivalent(String message, PrismObject<Objectable> expected, PrismObject<Objectable> actual) {
+		ObjectDelta<Objectable> diff = expected.diff(actual);
+		assertTrue(message + ": objects differ: " + diff, diff.isEmpty());
+	}
+
+	private String readFile(String basename) throws IOException {
+		File file = new File(COMMON_DIR_XML, basename + ".xml");
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+}
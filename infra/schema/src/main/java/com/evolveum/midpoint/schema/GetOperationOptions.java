@@ -99,6 +99,15 @@ public class GetOperationOptions implements Serializable, Cloneable {
 	 */
 	Boolean allowNotFound;
 
+	/**
+	 * Iterative search reads objects in batches ordered by oid, every batch starting after the last oid
+	 * of the previous one (keyset pagination), instead of using offset/limit batches. Objects are not
+	 * counted before the search and objects added or deleted during the search don't cause other objects
+	 * to be skipped or returned twice. If not set, repository configuration is used.
+	 * (Currently applicable only as a top-level option of repository iterative search.)
+	 */
+	private Boolean keysetPaging;
+
 	public RetrieveOption getRetrieve() {
 		return retrieve;
 	}
@@ -285,6 +294,27 @@ public class GetOperationOptions implements Serializable, Cloneable {
 		return opts;
 	}
 
+	public Boolean getKeysetPaging() {
+		return keysetPaging;
+	}
+
+	public void setKeysetPaging(Boolean keysetPaging) {
+		this.keysetPaging = keysetPaging;
+	}
+
+	public static Boolean getKeysetPaging(GetOperationOptions options) {
+		if (options == null) {
+			return null;
+		}
+		return options.keysetPaging;
+	}
+
+	public static GetOperationOptions createKeysetPaging() {
+		GetOperationOptions opts = new GetOperationOptions();
+		opts.setKeysetPaging(true);
+		return opts;
+	}
+
 	public RelationalValueSearchQuery getRelationalValueSearchQuery() {
 		return relationalValueSearchQuery;
 	}
@@ -299,6 +329,7 @@ public class GetOperationOptions implements Serializable, Cloneable {
 		int result = 1;
 		result = prime * result + ((allowNotFound == null) ? 0 : allowNotFound.hashCode());
 		result = prime * result + ((doNotDiscovery == null) ? 0 : doNotDiscovery.hashCode());
+		result = prime * result + ((keysetPaging == null) ? 0 : keysetPaging.hashCode());
 		result = prime * result + ((noFetch == null) ? 0 : noFetch.hashCode());
 		result = prime * result + ((raw == null) ? 0 : raw.hashCode());
 		result = prime * result
@@ -328,6 +359,11 @@ public class GetOperationOptions implements Serializable, Cloneable {
 				return false;
 		} else if (!doNotDiscovery.equals(other.doNotDiscovery))
 			return false;
+		if (keysetPaging == null) {
+			if (other.keysetPaging != null)
+				return false;
+		} else if (!keysetPaging.equals(other.keysetPaging))
+			return false;
 		if (noFetch == null) {
 			if (other.noFetch != null)
 				return false;
@@ -367,6 +403,7 @@ public class GetOperationOptions implements Serializable, Cloneable {
         clone.resolveNames = this.resolveNames;
         clone.retrieve = this.retrieve;
         clone.allowNotFound = this.allowNotFound;
+        clone.keysetPaging = this.keysetPaging;
         if (this.relationalValueSearchQuery != null) {
         	clone.relationalValueSearchQuery = this.relationalValueSearchQuery.clone();
         }
@@ -377,7 +414,7 @@ public class GetOperationOptions implements Serializable, Cloneable {
 	public String toString() {
 		return "GetOperationOptions(resolve=" + resolve + ", resolveNames=" + resolveNames + ",noFetch=" + noFetch
 				+ ", raw=" + raw + ", doNotDiscovery="+doNotDiscovery+", retrieve="+retrieve+", allowNotFound="+ allowNotFound 
-				+", relationalValueSearchQuery="+relationalValueSearchQuery+")";
+				+", keysetPaging="+keysetPaging+", relationalValueSearchQuery="+relationalValueSearchQuery+")";
 	}
 
 }
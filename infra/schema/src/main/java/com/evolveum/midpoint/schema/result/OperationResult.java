@@ -55,6 +55,9 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ParamsType;
  * in the invocations, retry or otherwise compensate for the errors or decide
  * how severe the error was and it is possible to proceed.
  * 
+ * Results of bulk operations (e.g. tasks that process many objects) may be switched to a lightweight
+ * mode, see {@link #setLightweight(int)}.
+ * 
  * @author lazyman
  * @author Radovan Semancik
  * 
@@ -106,6 +109,17 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	private boolean summarizeSuccesses;
 	private boolean minor = false;
 	
+	/**
+	 * Number of subresult levels that are kept under this result in the lightweight mode,
+	 * -1 if the result is not lightweight.
+	 */
+	private int lightweightDepth = -1;
+	
+	/**
+	 * Parent of a lightweight subresult that was not added to the parent (yet).
+	 */
+	private transient OperationResult detachedParent;
+	
 	private static final Trace LOGGER = TraceManager.getTrace(OperationResult.class);
 
 	public OperationResult(String operation) {
@@ -188,6 +202,16 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
 	public OperationResult createSubresult(String operation) {
 		OperationResult subresult = new OperationResult(operation);
+		if (isLightweight()) {
+			if (lightweightDepth == 0) {
+				// Too deep. The subresult is added to this result only if it fails.
+				subresult.lightweightDepth = 0;
+				subresult.detachedParent = this;
+				return subresult;
+			}
+			subresult.lightweightDepth = lightweightDepth - 1;
+			compactSubresults();
+		}
 		addSubresult(subresult);
 		return subresult;
 	}
@@ -222,6 +246,84 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		this.count++;
 	}
 
+	public boolean isLightweight() {
+		return lightweightDepth >= 0;
+	}
+
+	/**
+	 * Switches this result to a lightweight mode, meant for bulk operations. The mode is inherited by all
+	 * subresults that are created afterwards.
+	 * 
+	 * Subresults that are more than the specified number of levels below this result are not added to the
+	 * result tree at all, unless they end with an error or a warning. Until then, their params, context and
+	 * returns are not recorded. Other subresults are added, but when
+	 * they are finished successfully (SUCCESS or NOT_APPLICABLE), their params, context, returns and subresults
+	 * are dropped and they are aggregated to a single subresult per operation (see {@link #getCount()}).
+	 * Therefore the subresults that are used by the caller right after the operation (e.g. by
+	 * {@link #getLastSubresult()}) are still there, but the result does not grow with the number of
+	 * successful operations.
+	 * 
+	 * @param depth number of subresult levels that are kept, 0 means that only failed subresults are kept
+	 */
+	public void setLightweight(int depth) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("Negative depth of lightweight result: " + depth);
+		}
+		this.lightweightDepth = depth;
+	}
+
+	/**
+	 * Adds a detached lightweight subresult (and its detached parents) to the result tree.
+	 * Called when its status changes, it has no effect for successful results and the results that are
+	 * already in the tree.
+	 */
+	private void attachIfNeeded() {
+		if (detachedParent == null || status == OperationResultStatus.SUCCESS
+				|| status == OperationResultStatus.NOT_APPLICABLE || status == OperationResultStatus.UNKNOWN) {
+			return;
+		}
+		attach();
+	}
+
+	private void attach() {
+		OperationResult parent = detachedParent;
+		detachedParent = null;
+		if (parent.detachedParent != null) {
+			parent.attach();
+		}
+		parent.addSubresult(this);
+	}
+
+	/**
+	 * Aggregates finished successful subresults of a lightweight result. Subresults that are not finished
+	 * and subresults that failed are kept as they are.
+	 */
+	private void compactSubresults() {
+		if (subresults == null || subresults.size() < SUBRESULT_STRIP_THRESHOLD) {
+			return;
+		}
+		Map<OperationStatusKey, OperationResult> aggregated = new HashMap<OperationStatusKey, OperationResult>();
+		Iterator<OperationResult> iterator = subresults.iterator();
+		while (iterator.hasNext()) {
+			OperationResult subresult = iterator.next();
+			if (subresult.status != OperationResultStatus.SUCCESS && subresult.status != OperationResultStatus.NOT_APPLICABLE) {
+				continue;
+			}
+			OperationStatusKey key = new OperationStatusKey(subresult.operation, subresult.status);
+			OperationResult aggregate = aggregated.get(key);
+			if (aggregate == null) {
+				subresult.params = null;
+				subresult.context = null;
+				subresult.returns = null;
+				subresult.subresults = null;
+				aggregated.put(key, subresult);
+			} else {
+				aggregate.count += subresult.count;
+				iterator.remove();
+			}
+		}
+	}
+
 	public boolean isSummarizeErrors() {
 		return summarizeErrors;
 	}
@@ -330,6 +432,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
 	public void setStatus(OperationResultStatus status) {
 		this.status = status;
+		attachIfNeeded();
 	}
 
 	/**
@@ -447,7 +550,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	 * Computes operation result status based on subtask status.
 	 */
 	public void computeStatus() {
-		if (getSubresults().isEmpty()) {
+		if (subresults == null || subresults.isEmpty()) {
 			if (status == OperationResultStatus.UNKNOWN) {
 				status = OperationResultStatus.SUCCESS;
 			}
@@ -523,7 +626,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	 * result will be partial error. Handled error is considered a success.
 	 */
 	public void computeStatusComposite() {
-		if (getSubresults().isEmpty()) {
+		if (subresults == null || subresults.isEmpty()) {
 			if (status == OperationResultStatus.UNKNOWN) {
 				status = OperationResultStatus.NOT_APPLICABLE;
 			}
@@ -668,23 +771,39 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addParam(String paramName, Serializable paramValue) {
+		if (detachedParent != null) {
+			// lightweight result that is not kept (yet)
+			return;
+		}
 		getParams().put(paramName, paramValue);
 	}
 
     public void addArbitraryObjectAsParam(String paramName, Object paramValue) {
+        if (detachedParent != null) {
+            return;
+        }
         addParam(paramName, String.valueOf(paramValue));
     }
 
     // Copies a collection to a OperationResult's param field. Primarily used to overcome the fact that Collection is not Serializable
     public void addCollectionOfSerializablesAsParam(String paramName, Collection<? extends Serializable> paramValue) {
+        if (detachedParent != null) {
+            return;
+        }
         addParam(paramName, paramValue != null ? new ArrayList(paramValue) : null);
     }
 
     public void addCollectionOfSerializablesAsReturn(String name, Collection<? extends Serializable> value) {
+        if (detachedParent != null) {
+            return;
+        }
         addReturn(name, value != null ? new ArrayList(value) : null);
     }
 
     public void addArbitraryCollectionAsParam(String paramName, Collection values) {
+        if (detachedParent != null) {
+            return;
+        }
         if (values != null) {
             ArrayList<String> valuesAsStrings = new ArrayList<String>();
             for (Object value : values) {
@@ -721,6 +840,9 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addContext(String contextName, Serializable value) {
+		if (detachedParent != null) {
+			return;
+		}
 		getContext().put(contextName, value);
 	}
 
@@ -732,6 +854,9 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addReturn(String returnName, Serializable value) {
+		if (detachedParent != null) {
+			return;
+		}
 		getReturns().put(returnName, value);
 	}
 
@@ -799,6 +924,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
     public void recordInProgress() {
         status = OperationResultStatus.IN_PROGRESS;
+        attachIfNeeded();
     }
 
     public void recordUnknown() {
@@ -840,6 +966,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		// No other message was given, so use message from the exception
 		// not really correct, but better than nothing.
 		message = cause.getMessage();
+		attachIfNeeded();
 	}
 
 	public void recordFatalError(String message, Throwable cause) {
@@ -870,6 +997,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		this.status = status;
 		this.message = message;
 		this.cause = cause;
+		attachIfNeeded();
 	}
 
 	public void recordFatalError(String message) {
@@ -900,6 +1028,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	public void recordStatus(OperationResultStatus status, String message) {
 		this.status = status;
 		this.message = message;
+		attachIfNeeded();
 	}
 
 	/**
@@ -1500,6 +1629,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
         clone.summarizePartialErrors = summarizePartialErrors;
         clone.summarizeSuccesses = summarizeSuccesses;
         clone.minor = minor;
+        clone.lightweightDepth = lightweightDepth;
 
         return clone;
     }
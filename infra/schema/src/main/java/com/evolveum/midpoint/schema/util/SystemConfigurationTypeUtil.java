@@ -53,4 +53,33 @@ public class SystemConfigurationTypeUtil {
         }
         return sysconfigObject.asObjectable().getInternals().getMaxModelClicks();
     }
+
+    /**
+     * Returns number of threads used to load projections concurrently. Returns 1 (sequential loading) if not configured.
+     */
+    public static int getProjectionThreads(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null
+                || sysconfigObject.asObjectable().getInternals().getProjectionThreads() == null) {
+            return 1;
+        }
+        return sysconfigObject.asObjectable().getInternals().getProjectionThreads();
+    }
+
+    public static int getProjectionThreadsPerResource(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null
+                || sysconfigObject.asObjectable().getInternals().getProjectionThreadsPerResource() == null) {
+            return 1;
+        }
+        return sysconfigObject.asObjectable().getInternals().getProjectionThreadsPerResource();
+    }
+
+    /**
+     * Returns true if the changes of independent projections should be executed concurrently. Returns false if not configured.
+     */
+    public static boolean isConcurrentProjectionExecution(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null) {
+            return false;
+        }
+        return Boolean.TRUE.equals(sysconfigObject.asObjectable().getInternals().isConcurrentProjectionExecution());
+    }
 }
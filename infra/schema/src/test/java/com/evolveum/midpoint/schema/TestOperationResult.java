@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.schema;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+
+/**
+ * Tests the lightweight mode of operation result. The performance test only prints the times
+ * and allocated memory (if the JVM can measure it), it does not assert them.
+ *
+ * @author Radovan Semancik
+ */
+public class TestOperationResult {
+
+	private static final String OP_RECOMPUTE = "recompute";
+	private static final String OP_LOAD = "load";
+	private static final String OP_EVALUATE = "evaluate";
+	private static final String OP_EXECUTE = "execute";
+	private static final int PERFORMANCE_OBJECTS = 10000;
+	private static final int SUBOPERATIONS = 5;
+
+	@Test
+	public void test100DeepSubresults() throws Exception {
+		final String TEST_NAME = "test100DeepSubresults";
+		displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(OP_RECOMPUTE);
+		result.setLightweight(1);
+
+		// WHEN
+		OperationResult loadResult = result.createSubresult(OP_LOAD);
+		OperationResult deepSuccess = loadResult.createSubresult(OP_EVALUATE);
+		deepSuccess.addParam("object", "jack");
+		deepSuccess.recordSuccess();
+		OperationResult deepFailure = loadResult.createSubresult(OP_EVALUATE);
+		OperationResult deeperFailure = deepFailure.createSubresult(OP_EXECUTE);
+		deeperFailure.recordFatalError("Something went wrong");
+		deepFailure.computeStatus();
+		loadResult.computeStatus();
+		result.computeStatus();
+
+		// THEN
+		System.out.println(result.debugDump());
+		assertTrue("Subresult not lightweight", loadResult.isLightweight());
+		assertEquals("Wrong number of subresults", 1, result.getSubresults().size());
+		assertEquals("Wrong number of deep subresults", 1, loadResult.getSubresults().size());
+		assertSame("Failed subresult not kept", deepFailure, loadResult.getLastSubresult());
+		assertSame("Failed subresult not kept", deeperFailure, deepFailure.getLastSubresult());
+		assertEquals("Wrong status", OperationResultStatus.FATAL_ERROR, result.getStatus());
+		assertEquals("Wrong message", "Something went wrong", result.getMessage());
+	}
+
+	@Test
+	public void test110AggregateSuccesses() throws Exception {
+		final String TEST_NAME = "test110AggregateSuccesses";
+		displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(OP_RECOMPUTE);
+		result.setLightweight(2);
+
+		// WHEN
+		for (int i = 0; i < 1000; i++) {
+			OperationResult subresult = result.createSubresult(OP_LOAD);
+			subresult.addParam("object", "user" + i);
+			subresult.createSubresult(OP_EVALUATE).recordSuccess();
+			if (i == 500) {
+				subresult.recordWarning("Strange user");
+			} else {
+				subresult.recordSuccess();
+			}
+		}
+		OperationResult running = result.createSubresult(OP_EXECUTE);
+		result.computeStatus();
+
+		// THEN
+		System.out.println(result.debugDump());
+		int successes = 0;
+		OperationResult warning = null;
+		for (OperationResult subresult : result.getSubresults()) {
+			if (subresult.isSuccess()) {
+				successes += subresult.getCount();
+			} else if (subresult.isWarning()) {
+				warning = subresult;
+			}
+		}
+		assertTrue("Too many subresults: " + result.getSubresults().size(), result.getSubresults().size() <= 12);
+		assertEquals("Wrong number of aggregated successes", 999, successes);
+		assertNotNull("Warning not kept", warning);
+		assertEquals("Params of warning not kept", "user500", warning.getParams().get("object"));
+		assertSame("Running subresult not kept", running, result.getLastSubresult());
+		assertEquals("Wrong status", OperationResultStatus.WARNING, result.getStatus());
+	}
+
+	@Test
+	public void test120FullResultNotChanged() throws Exception {
+		final String TEST_NAME = "test120FullResultNotChanged";
+		displayTestTile(TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(OP_RECOMPUTE);
+
+		// WHEN
+		for (int i = 0; i < 100; i++) {
+			OperationResult subresult = result.createSubresult(OP_LOAD);
+			subresult.createSubresult(OP_EVALUATE).recordSuccess();
+			subresult.recordSuccess();
+		}
+		result.computeStatus();
+
+		// THEN
+		assertEquals("Wrong number of subresults", 100, result.getSubresults().size());
+		assertEquals("Wrong number of deep subresults", 1, result.getLastSubresult().getSubresults().size());
+		assertNull("Unexpected detached subresult", result.findSubresult(OP_EXECUTE));
+		assertEquals("Wrong status", OperationResultStatus.SUCCESS, result.getStatus());
+	}
+
+	/**
+	 * Simulates a recompute task: a result for each object with a few levels of subresults below it.
+	 * The per-object results are handled in the same way as in the search-iterative task handlers,
+	 * i.e. subresults of successful objects are removed and the task result is summarized.
+	 */
+	@Test
+	public void test200Performance() throws Exception {
+		final String TEST_NAME = "test200Performance";
+		displayTestTile(TEST_NAME);
+
+		// warm-up
+		recompute(PERFORMANCE_OBJECTS / 10, false);
+		recompute(PERFORMANCE_OBJECTS / 10, true);
+
+		for (boolean lightweight : new boolean[] { false, true }) {
+			// WHEN
+			long allocatedStart = getAllocatedBytes();
+			long start = System.currentTimeMillis();
+			OperationResult taskResult = recompute(PERFORMANCE_OBJECTS, lightweight);
+			long end = System.currentTimeMillis();
+			long allocatedEnd = getAllocatedBytes();
+
+			// THEN
+			assertEquals("Wrong status", OperationResultStatus.PARTIAL_ERROR, taskResult.getStatus());
+			System.out.println(PERFORMANCE_OBJECTS + " objects, " + (lightweight ? "lightweight" : "full") + " result: "
+					+ (end - start) + " ms, " + (allocatedEnd < 0 ? "?" : String.valueOf((allocatedEnd - allocatedStart) / PERFORMANCE_OBJECTS))
+					+ " bytes/object, " + countResults(taskResult) + " results kept in the task result");
+		}
+	}
+
+	private OperationResult recompute(int objects, boolean lightweight) {
+		OperationResult taskResult = new OperationResult(OP_RECOMPUTE + ".run");
+		taskResult.setSummarizeErrors(true);
+		taskResult.setSummarizeSuccesses(true);
+		for (int i = 0; i < objects; i++) {
+			OperationResult objectResult = taskResult.createSubresult(OP_RECOMPUTE);
+			if (lightweight) {
+				objectResult.setLightweight(1);
+			} else {
+				objectResult.addParam("object", "user" + i);
+			}
+			evaluate(objectResult, i, 3);
+			objectResult.computeStatus();
+			if (objectResult.isSuccess()) {
+				objectResult.getSubresults().clear();
+			} else if (lightweight) {
+				objectResult.addParam("object", "user" + i);
+			}
+			taskResult.summarize();
+		}
+		taskResult.computeStatus();
+		if (taskResult.isError()) {
+			taskResult.setStatus(OperationResultStatus.PARTIAL_ERROR);
+		}
+		return taskResult;
+	}
+
+	private void evaluate(OperationResult parentResult, int object, int depth) {
+		for (int i = 0; i < SUBOPERATIONS; i++) {
+			OperationResult result = parentResult.createSubresult(depth % 2 == 0 ? OP_EVALUATE : OP_LOAD);
+			result.addParam("index", i);
+			result.addContext("depth", depth);
+			if (depth > 1) {
+				evaluate(result, object, depth - 1);
+				result.computeStatus();
+			} else if (object % 1000 == 999 && i == 0) {
+				result.recordFatalError("Cannot evaluate object " + object);
+			} else {
+				result.addReturn("value", "value" + i);
+				result.recordSuccess();
+			}
+		}
+	}
+
+	private int countResults(OperationResult result) {
+		int count = 1;
+		for (OperationResult subresult : result.getSubresults()) {
+			count += countResults(subresult);
+		}
+		return count;
+	}
+
+	private long getAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private void displayTestTile(String testName) {
+		System.out.println("===[ " + testName + " ]====");
+	}
+}
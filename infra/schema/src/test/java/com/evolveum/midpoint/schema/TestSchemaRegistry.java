@@ -26,7 +26,11 @@ import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.xml.namespace.QName;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.validation.Schema;
@@ -227,6 +231,67 @@ public class TestSchemaRegistry {
 		assertTrue("'attributes' definition is not marked as runtime", attributesDef.isRuntimeSchema());
 	}
 	
+    /**
+     * Measures the schema initialization and the definition lookups on the full midPoint schema set.
+     * Only prints the times, does not assert them.
+     */
+    @Test
+	public void testLookupPerformance() throws SchemaException, SAXException, IOException {
+		final int ITERATIONS = 10000;
+
+		long start = System.currentTimeMillis();
+		PrismContext context = getContextFactory().createInitializedPrismContext();
+		System.out.println("Schema initialization: " + (System.currentTimeMillis() - start) + " ms");
+		SchemaRegistry schemaRegistry = context.getSchemaRegistry();
+
+		List<Class<? extends ObjectType>> classes = Arrays.asList(UserType.class, RoleType.class, ShadowType.class, ObjectType.class);
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (Class<? extends ObjectType> clazz : classes) {
+				assertNotNull(schemaRegistry.findObjectDefinitionByCompileTimeClass(clazz));
+				assertNotNull(schemaRegistry.findSchemaByCompileTimeClass(clazz));
+			}
+		}
+		printLookupTime("compile-time class", start, ITERATIONS * classes.size() * 2);
+
+		List<QName> typeNames = Arrays.asList(UserType.COMPLEX_TYPE, RoleType.COMPLEX_TYPE, ShadowType.COMPLEX_TYPE);
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (QName typeName : typeNames) {
+				assertNotNull(schemaRegistry.findComplexTypeDefinition(typeName));
+				assertNotNull(schemaRegistry.findObjectDefinitionByType(typeName));
+			}
+		}
+		printLookupTime("type name", start, ITERATIONS * typeNames.size() * 2);
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertNotNull(schemaRegistry.findObjectDefinitionByElementName(SchemaConstants.C_USER));
+			assertNotNull(schemaRegistry.findObjectDefinitionByElementName(new QName(SchemaConstants.C_USER.getLocalPart())));
+		}
+		printLookupTime("element name (qualified and unqualified)", start, ITERATIONS * 2);
+
+		PrismObjectDefinition<UserType> userDefinition = schemaRegistry.findObjectDefinitionByCompileTimeClass(UserType.class);
+		List<QName> itemNames = new ArrayList<>();
+		for (ItemDefinition itemDefinition : userDefinition.getDefinitions()) {
+			itemNames.add(itemDefinition.getName());
+			itemNames.add(new QName(itemDefinition.getName().getLocalPart()));
+		}
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (QName itemName : itemNames) {
+				assertNotNull(userDefinition.findItemDefinition(itemName));
+			}
+		}
+		printLookupTime("user item name (qualified and unqualified)", start, ITERATIONS * itemNames.size());
+	}
+
+	private void printLookupTime(String lookup, long startNanos, int lookups) {
+		long nanos = System.nanoTime() - startNanos;
+		System.out.println("Lookup by " + lookup + ": " + lookups + " lookups in " + nanos / 1000000 + " ms ("
+				+ nanos / lookups + " ns per lookup)");
+	}
+
 	private MidPointPrismContextFactory getContextFactory() {
 		return new MidPointPrismContextFactory();
 	}
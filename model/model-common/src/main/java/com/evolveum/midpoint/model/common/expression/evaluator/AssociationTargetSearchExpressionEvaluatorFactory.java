@@ -23,6 +23,7 @@ import javax.xml.namespace.QName;
 import com.evolveum.midpoint.model.api.ModelService;
 import com.evolveum.midpoint.model.common.expression.ExpressionEvaluator;
 import com.evolveum.midpoint.model.common.expression.ExpressionEvaluatorFactory;
+import com.evolveum.midpoint.model.common.expression.evaluator.caching.SharedAssociationSearchExpressionEvaluatorCache;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismContainerDefinition;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -49,6 +50,7 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
 	private ObjectResolver objectResolver;
 	private ModelService modelService;
     private SecurityEnforcer securityEnforcer;
+    private SharedAssociationSearchExpressionEvaluatorCache sharedCache;
 
 	public AssociationTargetSearchExpressionEvaluatorFactory(PrismContext prismContext, Protector protector, ObjectResolver objectResolver, ModelService modelService, SecurityEnforcer securityEnforcer) {
 		super();
@@ -59,6 +61,14 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
         this.securityEnforcer = securityEnforcer;
 	}
 
+	public SharedAssociationSearchExpressionEvaluatorCache getSharedCache() {
+		return sharedCache;
+	}
+
+	public void setSharedCache(SharedAssociationSearchExpressionEvaluatorCache sharedCache) {
+		this.sharedCache = sharedCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.common.expression.ExpressionEvaluatorFactory#getElementName()
 	 */
@@ -93,6 +103,7 @@ public class AssociationTargetSearchExpressionEvaluatorFactory implements Expres
         }
         AssociationTargetSearchExpressionEvaluator evaluator = new AssociationTargetSearchExpressionEvaluator((SearchObjectExpressionEvaluatorType)evaluatorTypeObject, 
         		(PrismContainerDefinition<ShadowAssociationType>) outputDefinition, protector, objectResolver, modelService, prismContext, securityEnforcer);
+        evaluator.setSharedCache(sharedCache);
         return (ExpressionEvaluator<V,D>) evaluator;
 	}
 
@@ -88,30 +88,28 @@ public class AssociationSearchExpressionEvaluatorCache
             return;
         }
         String resourceOid = resource.getOid();
-        ShadowKindType kind = null;
-        if (shadow != null) {
-            kind = shadow.asObjectable().getKind();
-        }
+        ShadowType shadowType = shadow != null ? shadow.asObjectable() : null;
 
         Set<Map.Entry<AssociationSearchQueryKey, AssociationSearchQueryResult>> entries = queries.entrySet();
         Iterator<Map.Entry<AssociationSearchQueryKey, AssociationSearchQueryResult>> iterator = entries.iterator();
         while (iterator.hasNext()) {
             Map.Entry<AssociationSearchQueryKey, AssociationSearchQueryResult> entry = iterator.next();
-            if (matches(entry, resourceOid, kind)) {
+            if (matches(entry.getValue(), resourceOid, shadowType)) {
                 LOGGER.trace("Invalidating query key {}", entry.getKey());
                 iterator.remove();
             }
         }
     }
 
-    private boolean matches(Map.Entry<AssociationSearchQueryKey, AssociationSearchQueryResult> entry, String resourceOid, ShadowKindType kind) {
-        AssociationSearchQueryResult result = entry.getValue();
+    // shadow may be null
+    protected boolean matches(AssociationSearchQueryResult result, String resourceOid, ShadowType shadow) {
         if (result.getResourceOid() == null) {
             return true;        // shouldn't occur
         }
         if (!result.getResourceOid().equals(resourceOid)) {
             return false;
         }
+        ShadowKindType kind = shadow != null ? shadow.getKind() : null;
         if (kind == null || result.getKind() == null) {
             return true;
         }
@@ -24,6 +24,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import org.apache.commons.lang.Validate;
 
+import javax.xml.namespace.QName;
+
 import java.util.List;
 
 /**
@@ -33,6 +35,7 @@ public class AssociationSearchQueryResult extends QueryResult<PrismContainerValu
 
     private String resourceOid;
     private ShadowKindType kind;
+    private QName objectClass;
 
     public AssociationSearchQueryResult(List<PrismContainerValue<ShadowAssociationType>> resultingList, List<PrismObject<ShadowType>> rawResultsList) {
         super(resultingList);
@@ -42,6 +45,7 @@ public class AssociationSearchQueryResult extends QueryResult<PrismContainerValu
 
         resourceOid = ShadowUtil.getResourceOid(shadow);
         kind = shadow.getKind();
+        objectClass = shadow.getObjectClass();
     }
 
     public String getResourceOid() {
@@ -51,4 +55,8 @@ public class AssociationSearchQueryResult extends QueryResult<PrismContainerValu
     public ShadowKindType getKind() {
         return kind;
     }
+
+    public QName getObjectClass() {
+        return objectClass;
+    }
 }
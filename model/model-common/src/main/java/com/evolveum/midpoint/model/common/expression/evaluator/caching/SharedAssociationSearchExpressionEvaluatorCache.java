@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.common.expression.evaluator.caching;
+
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+import com.evolveum.midpoint.model.common.expression.ExpressionEvaluationContext;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.CloneUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectSearchStrategyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Association search cache shared by all threads on this node. It is used by associationTargetSearch
+ * expressions that have sharedCache set to true, so the results survive single clockwork run.
+ *
+ * Entries are invalidated when a shadow of the same resource and object class is changed
+ * (it's the responsibility of the client to deliver the notifications by calling {@link #invalidate}).
+ * As not all the changes are visible to midPoint, entries also expire after time to live.
+ * Least recently used entries are evicted when the cache reaches its maximal size.
+ *
+ * @author Pavol Mederly
+ */
+public class SharedAssociationSearchExpressionEvaluatorCache extends AssociationSearchExpressionEvaluatorCache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SharedAssociationSearchExpressionEvaluatorCache.class);
+
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long timeToLive;
+    private final int maxEntries;
+
+    private final CachingStatistics statistics = new CachingStatistics();
+
+    /**
+     * Incremented on every invalidation. Result of a search that was started before an invalidation
+     * is not cached, because it might not reflect the change.
+     */
+    private final AtomicLong invalidationStamp = new AtomicLong();
+    private final ThreadLocal<Long> searchStamp = new ThreadLocal<>();
+
+    public SharedAssociationSearchExpressionEvaluatorCache() {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    public SharedAssociationSearchExpressionEvaluatorCache(long timeToLive, final int maxEntries) {
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.queries = new LinkedHashMap<AssociationSearchQueryKey, AssociationSearchQueryResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AssociationSearchQueryKey, AssociationSearchQueryResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public CachingStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public List<PrismContainerValue<ShadowAssociationType>> getQueryResult(Class<? extends ObjectType> type, ObjectQuery query,
+                                                                           ObjectSearchStrategyType searchStrategy,
+                                                                           ExpressionEvaluationContext params, PrismContext prismContext) {
+        // the stamp must be taken before the key is looked up; see putQueryResult
+        searchStamp.set(invalidationStamp.get());
+        statistics.recordRequest();
+
+        AssociationSearchQueryKey queryKey = createQueryKey(type, query, searchStrategy, params, prismContext);
+        if (queryKey == null) {
+            statistics.recordMiss();
+            return null;
+        }
+
+        TimedQueryResult result;
+        synchronized (this) {
+            result = (TimedQueryResult) queries.get(queryKey);
+            if (result != null && result.validUntil < System.currentTimeMillis()) {
+                LOGGER.trace("Cached result for {} expired", queryKey);
+                queries.remove(queryKey);
+                result = null;
+            }
+        }
+
+        if (result == null) {
+            statistics.recordMiss();
+            return null;
+        }
+        statistics.recordHit();
+        // caller clones the values, so they are not shared among threads
+        return result.getResultingList();
+    }
+
+    @Override
+    public <T extends ObjectType> void putQueryResult(Class<T> type, ObjectQuery query, ObjectSearchStrategyType searchStrategy,
+                                                      ExpressionEvaluationContext params,
+                                                      List<PrismContainerValue<ShadowAssociationType>> resultList,
+                                                      List<PrismObject<ShadowType>> rawResultList, PrismContext prismContext) {
+        Long stamp = searchStamp.get();
+        searchStamp.remove();
+        if (stamp == null || stamp != invalidationStamp.get()) {
+            LOGGER.trace("Not caching result of {}, the cache was invalidated during the search", query);
+            return;
+        }
+
+        AssociationSearchQueryKey queryKey = createQueryKey(type, query, searchStrategy, params, prismContext);
+        if (queryKey == null) {
+            return;
+        }
+        // result list is returned to the caller that may modify it
+        AssociationSearchQueryResult queryResult = new TimedQueryResult(CloneUtil.clone(resultList), rawResultList,
+                System.currentTimeMillis() + timeToLive);
+        synchronized (this) {
+            if (stamp != invalidationStamp.get()) {
+                return;
+            }
+            queries.put(queryKey, queryResult);
+        }
+    }
+
+    @Override
+    protected AssociationSearchQueryResult createQueryResult(List<PrismContainerValue<ShadowAssociationType>> resultList,
+                                                             List<PrismObject<ShadowType>> rawResultList) {
+        return new TimedQueryResult(resultList, rawResultList, System.currentTimeMillis() + timeToLive);
+    }
+
+    @Override
+    public synchronized void invalidate(PrismObject<ResourceType> resource, PrismObject<? extends ShadowType> shadow) {
+        invalidationStamp.incrementAndGet();
+        super.invalidate(resource, shadow);
+    }
+
+    // results are invalidated by object class, because it is known also for shadows without kind
+    @Override
+    protected boolean matches(AssociationSearchQueryResult result, String resourceOid, ShadowType shadow) {
+        if (result.getResourceOid() == null) {
+            return true;        // shouldn't occur
+        }
+        if (!result.getResourceOid().equals(resourceOid)) {
+            return false;
+        }
+        if (shadow == null || shadow.getObjectClass() == null || result.getObjectClass() == null) {
+            return true;
+        }
+        return result.getObjectClass().equals(shadow.getObjectClass());
+    }
+
+    public synchronized void clear() {
+        invalidationStamp.incrementAndGet();
+        queries.clear();
+    }
+
+    @Override
+    public synchronized String description() {
+        return "Q:" + queries.size() + "/" + maxEntries + ", " + statistics;
+    }
+
+    private static class TimedQueryResult extends AssociationSearchQueryResult {
+
+        private final long validUntil;
+
+        private TimedQueryResult(List<PrismContainerValue<ShadowAssociationType>> resultingList,
+                                 List<PrismObject<ShadowType>> rawResultsList, long validUntil) {
+            super(resultingList, rawResultsList);
+            this.validUntil = validUntil;
+        }
+    }
+}
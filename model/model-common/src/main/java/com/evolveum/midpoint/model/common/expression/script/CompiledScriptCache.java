@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.script;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
+
+/**
+ * Bounded cache of compiled scripts (expressions) used by script evaluators.
+ *
+ * When the cache is full, the least recently used entry is evicted. Therefore the cache
+ * does not grow without bounds even if the scripts are generated dynamically.
+ *
+ * The cache is thread-safe. Compilation itself is done outside of the cache, so the same
+ * script may be compiled concurrently by several threads. This is harmless, one of the
+ * results simply replaces the other.
+ *
+ * @author Radovan Semancik
+ */
+public class CompiledScriptCache<K, V> {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private final int maxSize;
+	private final Map<K, V> cache;
+	private final CachingStatistics statistics = new CachingStatistics();
+
+	public CompiledScriptCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public CompiledScriptCache(final int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Maximal size of script cache must be positive, but it is "+maxSize);
+		}
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns cached compiled script or null if the script is not cached.
+	 * Hits and misses are recorded in the statistics.
+	 */
+	public V get(K key) {
+		V value;
+		synchronized (cache) {
+			value = cache.get(key);
+		}
+		statistics.recordRequest();
+		if (value != null) {
+			statistics.recordHit();
+		} else {
+			statistics.recordMiss();
+		}
+		return value;
+	}
+
+	public void put(K key, V value) {
+		synchronized (cache) {
+			cache.put(key, value);
+		}
+	}
+
+	public void remove(K key) {
+		synchronized (cache) {
+			cache.remove(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public CachingStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledScriptCache(" + size() + "/" + maxSize + ", " + statistics + ")";
+	}
+
+}
@@ -15,10 +15,12 @@
  */
 package com.evolveum.midpoint.model.common.expression.script.xpath;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
 import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.functions.BasicExpressionFunctions;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
+import com.evolveum.midpoint.model.common.expression.script.CompiledScriptCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismConstants;
@@ -53,6 +55,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author Radovan Semancik
@@ -65,8 +69,20 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     
     private PrismContext prismContext;
 
+    /**
+     * Pools of compiled expressions. Compiled JAXP expression is neither thread-safe nor reentrant, therefore
+     * it is checked out of the pool for one evaluation and returned afterwards. If there is no idle expression
+     * in the pool (concurrent or recursive evaluation of the same code) then a new one is compiled.
+     */
+    private CompiledScriptCache<ExpressionCacheKey, Queue<CompiledXPathExpression>> expressionCache;
+
     public XPathScriptEvaluator(PrismContext prismContext) {
+		this(prismContext, CompiledScriptCache.DEFAULT_MAX_SIZE);
+	}
+
+    public XPathScriptEvaluator(PrismContext prismContext, int expressionCacheSize) {
 		this.prismContext = prismContext;
+		this.expressionCache = new CompiledScriptCache<ExpressionCacheKey, Queue<CompiledXPathExpression>>(expressionCacheSize);
 	}
 
     @Override
@@ -145,19 +161,24 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     		String contextDescription, OperationResult result)
             throws ExpressionEvaluationException, ObjectNotFoundException, ExpressionSyntaxException {
 
-        XPathExpressionCodeHolder codeHolder = new XPathExpressionCodeHolder(code);
-        //System.out.println("code " + code);
-        XPath xpath = factory.newXPath();
+        Queue<CompiledXPathExpression> pool = getExpressionPool(code, functions);
+        CompiledXPathExpression expr = pool.poll();
+        if (expr == null) {
+        	expr = compileExpression(code, functions, contextDescription);
+        }
+
         XPathVariableResolver variableResolver = new LazyXPathVariableResolver(variables, objectResolver, 
         		contextDescription, prismContext, result);
-        xpath.setXPathVariableResolver(variableResolver);
-        xpath.setNamespaceContext(new MidPointNamespaceContext(codeHolder.getNamespaceMap()));
-        xpath.setXPathFunctionResolver(getFunctionResolver(functions));
 
-        XPathExpression expr;
+        Object evaluatedExpression;
+        expr.variableResolver = variableResolver;
         try {
 
-            expr = xpath.compile(codeHolder.getExpressionAsString());
+            Object rootNode = determineRootNode(variableResolver, contextDescription);
+            evaluatedExpression = expr.expression.evaluate(rootNode, returnType);
+
+        } catch (SchemaException e) {
+        	throw new ExpressionSyntaxException(e.getMessage(), e);
 
         } catch (Exception e) {
             Throwable originalException = ExceptionUtil.lookForTunneledException(e);
@@ -174,19 +195,47 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
                 throw (RuntimeException) e;
             }
             throw new SystemException(e.getMessage(), e);
+        } finally {
+            expr.variableResolver = null;
+            pool.offer(expr);
         }
 
-        Object rootNode;
-		try {
-			rootNode = determineRootNode(variableResolver, contextDescription);
-		} catch (SchemaException e) {
-			throw new ExpressionSyntaxException(e.getMessage(), e);
-		}
-        Object evaluatedExpression;
+        if (evaluatedExpression == null) {
+            return null;
+        }
+
+        return evaluatedExpression;
+    }
+
+
+    private Queue<CompiledXPathExpression> getExpressionPool(String code, Collection<FunctionLibrary> functions) {
+    	ExpressionCacheKey key = new ExpressionCacheKey(code, functions);
+    	Queue<CompiledXPathExpression> pool = expressionCache.get(key);
+    	if (pool == null) {
+    		pool = new ConcurrentLinkedQueue<CompiledXPathExpression>();
+    		expressionCache.put(key, pool);
+    	}
+    	return pool;
+    }
+
+    private CompiledXPathExpression compileExpression(String code, Collection<FunctionLibrary> functions,
+    		String contextDescription) throws ExpressionEvaluationException, ObjectNotFoundException, ExpressionSyntaxException {
+        CompiledXPathExpression expr = new CompiledXPathExpression();
+        XPathExpressionCodeHolder codeHolder = new XPathExpressionCodeHolder(code);
+        //System.out.println("code " + code);
+        XPath xpath;
+        synchronized (factory) {
+        	// XPathFactory is not thread-safe
+        	xpath = factory.newXPath();
+        }
+        // the variables are bound at compile time, the expression resolves them using the current evaluation
+        xpath.setXPathVariableResolver(expr);
+        xpath.setNamespaceContext(new MidPointNamespaceContext(codeHolder.getNamespaceMap()));
+        xpath.setXPathFunctionResolver(getFunctionResolver(functions));
 
         try {
 
-            evaluatedExpression = expr.evaluate(rootNode, returnType);
+            expr.expression = xpath.compile(codeHolder.getExpressionAsString());
 
         } catch (Exception e) {
             Throwable originalException = ExceptionUtil.lookForTunneledException(e);
@@ -205,13 +254,12 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
             throw new SystemException(e.getMessage(), e);
         }
 
-        if (evaluatedExpression == null) {
-            return null;
-        }
-
-        return evaluatedExpression;
+        return expr;
     }
 
+    public CachingStatistics getExpressionCacheStatistics() {
+    	return expressionCache.getStatistics();
+    }
 
     private ExpressionEvaluationException createExpressionEvaluationException(Exception e, String contextDescription) {
         return new ExpressionEvaluationException(lookForMessage(e) + " in " + contextDescription, e);
@@ -417,4 +465,58 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
 		return XPATH_LANGUAGE_URL;
 	}
 
+	/**
+	 * Compiled expression together with variables of the evaluation that uses it. It is used by one
+	 * evaluation at a time, so the variables don't need to be bound to the thread.
+	 */
+	private static class CompiledXPathExpression implements XPathVariableResolver {
+
+		private XPathExpression expression;
+		private XPathVariableResolver variableResolver;
+
+		@Override
+		public Object resolveVariable(QName variableName) {
+			if (variableResolver == null) {
+				throw new IllegalStateException("No variables for XPath expression evaluation");
+			}
+			return variableResolver.resolveVariable(variableName);
+		}
+	}
+
+	/**
+	 * Compiled expression depends on the code, the namespace context and the functions. The namespace
+	 * context is derived from the namespace declarations in the code, so it is covered by the code.
+	 * Function libraries are compared by identity, they are created once by the expression factory.
+	 */
+	private static class ExpressionCacheKey {
+
+		private final String code;
+		private final List<FunctionLibrary> functions;
+
+		ExpressionCacheKey(String code, Collection<FunctionLibrary> functions) {
+			this.code = code;
+			this.functions = functions != null ? new ArrayList<FunctionLibrary>(functions) : null;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			ExpressionCacheKey that = (ExpressionCacheKey) o;
+
+			if (!code.equals(that.code)) return false;
+			if (functions != null ? !functions.equals(that.functions) : that.functions != null) return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = code.hashCode();
+			result = 31 * result + (functions != null ? functions.hashCode() : 0);
+			return result;
+		}
+	}
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.evaluator;
+
+import com.evolveum.midpoint.model.common.expression.evaluator.caching.SharedAssociationSearchExpressionEvaluatorCache;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectSearchStrategyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import javax.xml.namespace.QName;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * @author Pavol Mederly
+ */
+public class TestSharedAssociationSearchCache {
+
+	private static final String RESOURCE_OID = "10000000-0000-0000-0000-000000000004";
+	private static final String OTHER_RESOURCE_OID = "10000000-0000-0000-0000-000000000104";
+	private static final QName GROUP_OBJECT_CLASS = new QName(MidPointConstants.NS_RI, "GroupObjectClass");
+	private static final QName ACCOUNT_OBJECT_CLASS = new QName(MidPointConstants.NS_RI, "AccountObjectClass");
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100HitAndInvalidation() throws Exception {
+		final String TEST_NAME = "test100HitAndInvalidation";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		SharedAssociationSearchExpressionEvaluatorCache cache = new SharedAssociationSearchExpressionEvaluatorCache();
+		ObjectQuery query = createQuery();
+		assertNull("Unexpected result in empty cache", get(cache, query));
+		put(cache, query);
+
+		// WHEN, THEN
+		assertNotNull("Result was not cached", get(cache, query));
+
+		cache.invalidate(createResource(OTHER_RESOURCE_OID), createShadow(OTHER_RESOURCE_OID, GROUP_OBJECT_CLASS));
+		assertNotNull("Result was invalidated by change on other resource", get(cache, query));
+
+		cache.invalidate(createResource(RESOURCE_OID), createShadow(RESOURCE_OID, ACCOUNT_OBJECT_CLASS));
+		assertNotNull("Result was invalidated by change of other object class", get(cache, query));
+
+		cache.invalidate(createResource(RESOURCE_OID), createShadow(RESOURCE_OID, GROUP_OBJECT_CLASS));
+		assertNull("Result was not invalidated", get(cache, query));
+
+		System.out.println("Cache: " + cache.description());
+		assertEquals("Wrong number of hits", 3, cache.getStatistics().getHits());
+		assertEquals("Wrong number of misses", 2, cache.getStatistics().getMisses());
+	}
+
+	@Test
+	public void test110InvalidationDuringSearch() throws Exception {
+		final String TEST_NAME = "test110InvalidationDuringSearch";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		SharedAssociationSearchExpressionEvaluatorCache cache = new SharedAssociationSearchExpressionEvaluatorCache();
+		ObjectQuery query = createQuery();
+		assertNull("Unexpected result in empty cache", get(cache, query));
+
+		// WHEN
+		cache.invalidate(createResource(RESOURCE_OID), null);
+		put(cache, query);
+
+		// THEN
+		assertNull("Result of search overlapping with invalidation was cached", get(cache, query));
+	}
+
+	@Test
+	public void test120Expiration() throws Exception {
+		final String TEST_NAME = "test120Expiration";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		SharedAssociationSearchExpressionEvaluatorCache cache = new SharedAssociationSearchExpressionEvaluatorCache(100, 10);
+		ObjectQuery query = createQuery();
+		get(cache, query);
+		put(cache, query);
+		assertNotNull("Result was not cached", get(cache, query));
+
+		// WHEN
+		Thread.sleep(200);
+
+		// THEN
+		assertNull("Result did not expire", get(cache, query));
+	}
+
+	private List<PrismContainerValue<ShadowAssociationType>> get(SharedAssociationSearchExpressionEvaluatorCache cache,
+			ObjectQuery query) {
+		return cache.getQueryResult(ShadowType.class, query, ObjectSearchStrategyType.IN_REPOSITORY, null,
+				PrismTestUtil.getPrismContext());
+	}
+
+	private void put(SharedAssociationSearchExpressionEvaluatorCache cache, ObjectQuery query) throws SchemaException {
+		List<PrismContainerValue<ShadowAssociationType>> resultList = new ArrayList<>();
+		resultList.add(new ShadowAssociationType().asPrismContainerValue());
+		List<PrismObject<ShadowType>> rawResultList = new ArrayList<>();
+		rawResultList.add(createShadow(RESOURCE_OID, GROUP_OBJECT_CLASS));
+		cache.putQueryResult(ShadowType.class, query, ObjectSearchStrategyType.IN_REPOSITORY, null, resultList,
+				rawResultList, PrismTestUtil.getPrismContext());
+	}
+
+	private ObjectQuery createQuery() throws SchemaException {
+		return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_OID, GROUP_OBJECT_CLASS,
+				PrismTestUtil.getPrismContext());
+	}
+
+	private PrismObject<ResourceType> createResource(String oid) throws SchemaException {
+		ResourceType resource = new ResourceType();
+		resource.setOid(oid);
+		PrismTestUtil.getPrismContext().adopt(resource);
+		return resource.asPrismObject();
+	}
+
+	private PrismObject<ShadowType> createShadow(String resourceOid, QName objectClass) throws SchemaException {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		ShadowType shadow = new ShadowType();
+		prismContext.adopt(shadow);
+		ObjectReferenceType resourceRef = new ObjectReferenceType();
+		resourceRef.setOid(resourceOid);
+		resourceRef.setType(ResourceType.COMPLEX_TYPE);
+		shadow.setResourceRef(resourceRef);
+		shadow.setObjectClass(objectClass);
+		return shadow.asPrismObject();
+	}
+}
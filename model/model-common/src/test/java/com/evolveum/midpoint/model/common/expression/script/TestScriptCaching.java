@@ -15,6 +15,7 @@
  */
 package com.evolveum.midpoint.model.common.expression.script;
 
+import com.evolveum.midpoint.common.monitor.CachingStatistics;
 import com.evolveum.midpoint.common.monitor.InternalMonitor;
 import com.evolveum.midpoint.model.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
@@ -24,6 +25,7 @@ import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpression;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
 import com.evolveum.midpoint.model.common.expression.script.jsr223.Jsr223ScriptEvaluator;
+import com.evolveum.midpoint.model.common.expression.script.xpath.XPathScriptEvaluator;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.Objectable;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -67,6 +69,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -81,13 +87,18 @@ import static org.testng.AssertJUnit.*;
 public class TestScriptCaching {
 	
 	private static final File TEST_DIR = new File("src/test/resources/expression/groovy");
+	private static final File XPATH_TEST_DIR = new File("src/test/resources/expression/xpath");
 	protected static File OBJECTS_DIR = new File("src/test/resources/objects");
 	
 	private static final QName PROPERTY_NAME = new QName(MidPointConstants.NS_MIDPOINT_TEST_PREFIX, "whatever");
 	private static final String NS_WHATEVER = "http://whatever/xml/ns";
+	
+	private static final int CONCURRENT_THREADS = 8;
+	private static final int CONCURRENT_ROUNDS = 200;
 
 	 protected ScriptExpressionFactory scriptExpressionfactory;
 	 protected ScriptEvaluator evaluator;
+	 protected XPathScriptEvaluator xpathEvaluator;
 	
     @BeforeSuite
 	public void setup() throws SchemaException, SAXException, IOException {
@@ -108,6 +119,8 @@ public class TestScriptCaching {
         evaluator = new Jsr223ScriptEvaluator("groovy", prismContext, protector);
         String languageUrl = evaluator.getLanguageUrl();
         scriptExpressionfactory.registerEvaluator(languageUrl, evaluator);
+        xpathEvaluator = new XPathScriptEvaluator(prismContext);
+        scriptExpressionfactory.registerEvaluator(xpathEvaluator.getLanguageUrl(), xpathEvaluator);
     }
     
     @Test
@@ -147,15 +160,125 @@ public class TestScriptCaching {
     	assertTrue("Even Horatio was wrong! "+horatio1Time+" -> "+horatio2Time, horatio2Time <= horatio1Time);
     }
     	
+    @Test
+    public void testXPathExpressionCaching() throws Exception {
+    	final String TEST_NAME = "testXPathExpressionCaching";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	CachingStatistics statsBefore = xpathEvaluator.getExpressionCacheStatistics().clone();
+
+    	// WHEN, THEN
+    	executeScript(XPATH_TEST_DIR, "expression-string-variables.xml", "FOOBAR", "xpath first");
+    	assertCacheStats(statsBefore, xpathEvaluator.getExpressionCacheStatistics(), 0, 1, "xpath first");
+
+    	// Same expression, new variables. Should not compile.
+    	executeScript(XPATH_TEST_DIR, "expression-string-variables.xml", "FOOBAR", "xpath second");
+    	assertCacheStats(statsBefore, xpathEvaluator.getExpressionCacheStatistics(), 1, 1, "xpath second");
+
+    	// Different expression. Should compile.
+    	executeScript(XPATH_TEST_DIR, "expression-func-concatname.xml", "Horatio Torquemada Marley", "xpath horatio");
+    	assertCacheStats(statsBefore, xpathEvaluator.getExpressionCacheStatistics(), 1, 2, "xpath horatio");
+
+    	executeScript(XPATH_TEST_DIR, "expression-string-variables.xml", "FOOBAR", "xpath third");
+    	assertCacheStats(statsBefore, xpathEvaluator.getExpressionCacheStatistics(), 2, 2, "xpath third");
+    }
+
+    /**
+     * The same compiled XPath expression must not be used by several threads at once. Each thread
+     * evaluates the expression with its own variables, so mixed up variables give wrong results.
+     */
+    @Test
+    public void testXPathConcurrentEvaluation() throws Exception {
+    	final String TEST_NAME = "testXPathConcurrentEvaluation";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	final ScriptExpressionEvaluatorType scriptType = parseScriptType(XPATH_TEST_DIR, "expression-string-variables.xml");
+    	final ItemDefinition outputDefinition = new PrismPropertyDefinition(PROPERTY_NAME, DOMUtil.XSD_STRING, PrismTestUtil.getPrismContext());
+    	ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_THREADS);
+    	List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+    	// WHEN
+    	try {
+	    	for (int t = 0; t < CONCURRENT_THREADS; t++) {
+	    		final String desc = TEST_NAME + " thread " + t;
+	    		final String foo = "FOO" + t;
+	    		futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						ScriptExpression scriptExpression = scriptExpressionfactory.createScriptExpression(scriptType, outputDefinition, desc);
+						for (int i = 0; i < CONCURRENT_ROUNDS; i++) {
+							String bar = "BAR" + i;
+							ExpressionVariables variables = ExpressionVariables.create(
+									new QName(NS_WHATEVER, "foo"), foo,
+									new QName(NS_WHATEVER, "bar"), bar);
+							List<PrismPropertyValue<String>> results = scriptExpression.evaluate(variables, null, false, desc, 
+									new OperationResult(desc));
+							assertEquals("Wrong result in " + desc, foo + bar, asScalarString(results));
+						}
+						return null;
+					}
+				}));
+	    	}
+
+	    	// THEN
+	    	for (Future<Void> future : futures) {
+	    		// rethrows assertion errors of the thread
+	    		future.get();
+	    	}
+    	} finally {
+    		executor.shutdownNow();
+    	}
+    	System.out.println("XPath expression cache: " + xpathEvaluator.getExpressionCacheStatistics());
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+    	final String TEST_NAME = "testCacheEviction";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	CompiledScriptCache<String, String> cache = new CompiledScriptCache<String, String>(2);
+    	cache.put("a", "A");
+    	cache.put("b", "B");
+
+    	// WHEN
+    	assertEquals("A", cache.get("a"));		// "a" is now the most recently used one
+    	cache.put("c", "C");
+
+    	// THEN
+    	System.out.println("Cache: " + cache);
+    	assertEquals("Wrong cache size", 2, cache.size());
+    	assertEquals("A", cache.get("a"));
+    	assertNull("Least recently used entry was not evicted", cache.get("b"));
+    	assertEquals("C", cache.get("c"));
+    	assertEquals("Wrong number of hits", 3, cache.getStatistics().getHits());
+    	assertEquals("Wrong number of misses", 1, cache.getStatistics().getMisses());
+
+    	cache.remove("a");
+    	assertEquals("Wrong cache size after remove", 1, cache.size());
+    	assertNull("Removed entry found", cache.get("a"));
+    }
+
+    private void assertCacheStats(CachingStatistics before, CachingStatistics after, long expHits, long expMisses, String desc) {
+		assertEquals("Unexpected number of cache hits after "+desc, expHits, after.getHits() - before.getHits());
+		assertEquals("Unexpected number of cache misses after "+desc, expMisses, after.getMisses() - before.getMisses());
+	}
+
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
 		assertEquals("Unexpected number of script compilations after "+desc, expCompilations, InternalMonitor.getScriptCompileCount());
 		assertEquals("Unexpected number of script executions after "+desc, expExecutions, InternalMonitor.getScriptExecutionCount());
 	}
 
 	private long executeScript(String filname, String expectedResult, String desc) throws SchemaException, IOException, JAXBException, ExpressionEvaluationException, ObjectNotFoundException {
+		return executeScript(TEST_DIR, filname, expectedResult, desc);
+	}
+
+	private long executeScript(File testDir, String filname, String expectedResult, String desc) throws SchemaException, IOException, JAXBException, ExpressionEvaluationException, ObjectNotFoundException {
         // GIVEN
     	OperationResult result = new OperationResult(desc);
-    	ScriptExpressionEvaluatorType scriptType = parseScriptType(filname);
+    	ScriptExpressionEvaluatorType scriptType = parseScriptType(testDir, filname);
     	ItemDefinition outputDefinition = new PrismPropertyDefinition(PROPERTY_NAME, DOMUtil.XSD_STRING, PrismTestUtil.getPrismContext());
     	
     	ScriptExpression scriptExpression = scriptExpressionfactory.createScriptExpression(scriptType, outputDefinition, desc);
@@ -180,9 +303,9 @@ public class TestScriptCaching {
     	return (endTime - startTime);
     }
     
-    private ScriptExpressionEvaluatorType parseScriptType(String fileName) throws SchemaException, IOException, JAXBException {
+    private ScriptExpressionEvaluatorType parseScriptType(File testDir, String fileName) throws SchemaException, IOException, JAXBException {
 		ScriptExpressionEvaluatorType expressionType = PrismTestUtil.parseAtomicValue(
-                new File(TEST_DIR, fileName), ScriptExpressionEvaluatorType.COMPLEX_TYPE);
+                new File(testDir, fileName), ScriptExpressionEvaluatorType.COMPLEX_TYPE);
 		return expressionType;
 	}
     
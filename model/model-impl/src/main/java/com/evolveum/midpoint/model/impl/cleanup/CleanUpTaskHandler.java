@@ -120,7 +120,8 @@ public class CleanUpTaskHandler implements TaskHandler{
 		CleanupPolicyType auditCleanupPolicy = cleanupPolicies.getAuditRecords();
 		if (auditCleanupPolicy != null) {
 			try {
-				auditService.cleanupAudit(auditCleanupPolicy, opResult);
+				auditService.cleanupAudit(auditCleanupPolicy, task, opResult);
+				progress = task.getProgress();
 			} catch (Exception ex) {
 				LOGGER.error("Cleanup: {}", ex.getMessage(), ex);
 				opResult.recordFatalError(ex.getMessage(), ex);
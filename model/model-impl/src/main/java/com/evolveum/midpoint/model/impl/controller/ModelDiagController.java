@@ -82,6 +82,11 @@ public class ModelDiagController implements ModelDiagnosticService {
 	@Autowired(required = true)
 	@Qualifier("repositoryService")
 	private transient RepositoryService repositoryService;
+
+	// repository diag is taken via cache, so it contains statistics of the global cache
+	@Autowired(required = true)
+	@Qualifier("cacheRepositoryService")
+	private transient RepositoryService cacheRepositoryService;
 	
 	@Autowired(required = true)
 	private ProvisioningService provisioningService;
@@ -97,7 +102,7 @@ public class ModelDiagController implements ModelDiagnosticService {
 	 */
 	@Override
 	public RepositoryDiag getRepositoryDiag(Task task, OperationResult parentResult) {
-		return repositoryService.getRepositoryDiag();
+		return cacheRepositoryService.getRepositoryDiag();
 	}
 
 	/* (non-Javadoc)
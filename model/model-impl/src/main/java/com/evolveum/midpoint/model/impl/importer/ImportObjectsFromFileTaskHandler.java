@@ -21,6 +21,7 @@ import com.evolveum.midpoint.prism.PrismProperty;
 import com.evolveum.midpoint.prism.PrismPropertyDefinition;
 import com.evolveum.midpoint.provisioning.api.ChangeNotificationDispatcher;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectChangeListener;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.*;
@@ -31,8 +32,10 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ImportOptionsType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.NotImplementedException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -40,6 +43,9 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -67,6 +73,9 @@ public class ImportObjectsFromFileTaskHandler implements TaskHandler {
     
     @Autowired(required = true)
     private PrismContext prismContext;
+
+    @Autowired(required = true)
+    private ObjectImporter objectImporter;
     
     //private Map<Task,ImportAccountsFromResourceResultHandler> handlers;
     private PrismPropertyDefinition filenamePropertyDefinition;
@@ -180,9 +189,24 @@ public class ImportObjectsFromFileTaskHandler implements TaskHandler {
 
         File input = new File(filename);
 
-        // TODO: test file existence, etc.
+        ImportOptionsType options = new ImportOptionsType();
+        PrismProperty<Integer> workerThreadsProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+        if (workerThreadsProperty != null && workerThreadsProperty.getRealValue() != null) {
+            options.setWorkerThreads(workerThreadsProperty.getRealValue());
+        }
 
-        // TODO: do import
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(input);
+            objectImporter.importObjects(inputStream, options, task, opResult);
+        } catch (IOException e) {
+            LOGGER.error("Import: Cannot read file {}: {}", new Object[]{input, e.getMessage(), e});
+            opResult.recordFatalError("Cannot read file " + input + ": " + e.getMessage(), e);
+            runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
+            return runResult;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
 
         opResult.computeStatus("Errors during import");
         // TODO: runResult.setProgress(progress);
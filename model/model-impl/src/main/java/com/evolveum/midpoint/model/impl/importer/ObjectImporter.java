@@ -127,6 +127,8 @@ public class ObjectImporter {
 
     private void importObjectsInternal(InputStream input, final ImportOptionsType options, final boolean raw, final Task task, final OperationResult parentResult) {
 
+        final boolean parallel = options != null && options.getWorkerThreads() != null && options.getWorkerThreads() > 0;
+
         EventHandler handler = new EventHandler() {
 
             @Override
@@ -147,6 +149,9 @@ public class ObjectImporter {
                     return EventResult.skipObject(message);
                 }
                 PrismObject<? extends ObjectType> object = (PrismObject<? extends ObjectType>) prismObjectObjectable;
+
+                // worker threads cannot share the task, it is not thread-safe
+                Task objectTask = parallel ? createObjectTask(task) : task;
                 
                 if (LOGGER.isTraceEnabled()) {
                 	LOGGER.trace("IMPORTING object:\n{}", object.debugDump());
@@ -194,8 +199,8 @@ public class ObjectImporter {
             		String channel = SchemaConstants.CHANNEL_OBJECT_IMPORT_URI;
             		metaData.setCreateChannel(channel);
             		metaData.setCreateTimestamp(clock.currentTimeXMLGregorianCalendar());
-            		if (task.getOwner() != null) {
-            			metaData.setCreatorRef(ObjectTypeUtil.createObjectRef(task.getOwner()));
+            		if (objectTask.getOwner() != null) {
+            			metaData.setCreatorRef(ObjectTypeUtil.createObjectRef(objectTask.getOwner()));
             		}
             		object.asObjectable().setMetadata(metaData);
                 }
@@ -207,7 +212,7 @@ public class ObjectImporter {
                 
                 try {
 
-                    importObjectToRepository(object, options, raw, task, objectResult);
+                    importObjectToRepository(object, options, raw, objectTask, objectResult);
 
                     LOGGER.info("Imported object {}", object);
 
@@ -267,6 +272,10 @@ public class ObjectImporter {
 	        if (options.getStopAfterErrors() != null) {
 	            validator.setStopAfterErrors(options.getStopAfterErrors().longValue());
 	        }
+	        if (options.getWorkerThreads() != null) {
+	            // the handler is thread-safe, it keeps no state between objects and uses a task per object
+	            validator.setWorkerThreads(options.getWorkerThreads());
+	        }
 	        if (BooleanUtils.isTrue(options.isSummarizeErrors())) {
 	        	parentResult.setSummarizeErrors(true);
 	        }
@@ -279,6 +288,12 @@ public class ObjectImporter {
 
     }
 
+    private Task createObjectTask(Task task) {
+        Task objectTask = task.createSubtask();
+        objectTask.setChannel(task.getChannel());
+        return objectTask;
+    }
+
     private <T extends ObjectType> void importObjectToRepository(PrismObject<T> object, ImportOptionsType options, boolean raw,
                                          Task task, OperationResult objectResult) throws ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
 				ConfigurationException, PolicyViolationException, SecurityViolationException, SchemaException, ObjectAlreadyExistsException {
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.model.common.expression.script.CompiledScriptCache;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Node-wide cache of abstract roles (roles, orgs, ...) that are targets of assignments and inducements.
+ *
+ * Cached roles are immutable, therefore they are shared by all threads and by all the evaluated assignments
+ * without cloning. The cached role is used only if its version is still the same as the version in the repository,
+ * so the cache does not return stale roles even if they were modified on a different node. Getting the version
+ * is much cheaper than getting (and parsing) the whole role with all the inducements, especially for roles
+ * that are used by many users. Roles modified or deleted by this node are removed from the cache right away.
+ *
+ * Roles are read from the repository directly (not through the repository cache), so a stale role cannot get
+ * into this cache. The number of cached roles is limited, least recently used roles are evicted first.
+ *
+ * @author Radovan Semancik
+ *
+ */
+@Component
+public class AbstractRoleCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(AbstractRoleCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	private volatile CompiledScriptCache<String,PrismObject<? extends AbstractRoleType>> cache;
+
+	@Autowired(required = true)
+	@Qualifier("repositoryService")
+	private transient RepositoryService repositoryService;
+
+	AbstractRoleCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	AbstractRoleCache(int maxSize) {
+		cache = new CompiledScriptCache<String, PrismObject<? extends AbstractRoleType>>(maxSize);
+	}
+
+	public int getMaxSize() {
+		return cache.getMaxSize();
+	}
+
+	/**
+	 * Sets maximal number of cached roles. All the cached roles are dropped.
+	 */
+	public void setMaxSize(int maxSize) {
+		cache = new CompiledScriptCache<String, PrismObject<? extends AbstractRoleType>>(maxSize);
+	}
+
+	public static boolean isCacheable(Class<? extends ObjectType> type) {
+		return type != null && AbstractRoleType.class.isAssignableFrom(type);
+	}
+
+	/**
+	 * Returns the role, either the cached one (if it is up to date) or a fresh one from the repository.
+	 * The returned role is shared, it must not be modified.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public <R extends ObjectType> PrismObject<R> getReadOnly(Class<R> type, String oid, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+		PrismObject<? extends AbstractRoleType> cachedRole = cache.get(oid);
+		String version = null;
+		if (cachedRole != null && type.isAssignableFrom(cachedRole.getCompileTimeClass())) {
+			version = repositoryService.getVersion(type, oid, result);
+			if (version != null && version.equals(cachedRole.getVersion())) {
+				LOGGER.trace("Cache HIT for {}", cachedRole);
+				return (PrismObject) cachedRole;
+			}
+		}
+		LOGGER.trace("Cache MISS for {} {}", type.getSimpleName(), oid);
+		PrismObject<R> role = repositoryService.getObject(type, oid, null, result);
+		if (role == null || role.getVersion() == null || !AbstractRoleType.class.isAssignableFrom(role.getCompileTimeClass())) {
+			return role;
+		}
+		if (version != null && !version.equals(role.getVersion())) {
+			// modified in the meantime, the next call will read it again
+			LOGGER.trace("Not caching {}, version {} was expected", role, version);
+			return role;
+		}
+		PrismObject<R> roleToCache = role.createImmutableClone();
+		cache.put(oid, (PrismObject) roleToCache);
+		return roleToCache;
+	}
+
+	public void remove(String oid) {
+		if (oid != null) {
+			cache.remove(oid);
+		}
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Returns number of cached roles. FOR DIAGNOSTICS ONLY.
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+}
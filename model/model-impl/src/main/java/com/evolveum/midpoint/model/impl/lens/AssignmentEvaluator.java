@@ -94,6 +94,7 @@ public class AssignmentEvaluator<F extends FocusType> {
 	private static final Trace LOGGER = TraceManager.getTrace(AssignmentEvaluator.class);
 
 	private RepositoryService repository;
+	private AbstractRoleCache roleCache;
 	private ObjectDeltaObject<F> focusOdo;
 	private LensContext<F> lensContext;
 	private String channel;
@@ -113,6 +114,17 @@ public class AssignmentEvaluator<F extends FocusType> {
 	public void setRepository(RepositoryService repository) {
 		this.repository = repository;
 	}
+
+	public AbstractRoleCache getRoleCache() {
+		return roleCache;
+	}
+
+	/**
+	 * If set, the roles and orgs are taken from the cache instead of the repository.
+	 */
+	public void setRoleCache(AbstractRoleCache roleCache) {
+		this.roleCache = roleCache;
+	}
 	
 	public ObjectDeltaObject<F> getFocusOdo() {
 		return focusOdo;
@@ -404,7 +416,12 @@ public class AssignmentEvaluator<F extends FocusType> {
 			throw new SchemaException("Missing type in target reference in " + assignmentType + " in " + sourceDescription);
 		}
 		PrismObject<? extends ObjectType> target = null;
-        target = repository.getObject(clazz, oid, null, result);
+		if (roleCache != null && AbstractRoleCache.isCacheable(clazz)) {
+			// shared immutable instance, the evaluation only reads it
+			target = roleCache.getReadOnly(clazz, oid, result);
+		} else {
+			target = repository.getObject(clazz, oid, null, result);
+		}
         if (target == null) {
             throw new IllegalArgumentException("Got null target from repository, oid:"+oid+", class:"+clazz+" (should not happen, probably a bug) in "+sourceDescription);
         }
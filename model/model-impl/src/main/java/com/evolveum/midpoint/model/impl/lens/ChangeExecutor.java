@@ -65,6 +65,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.schema.util.SystemConfigurationTypeUtil;
 import com.evolveum.midpoint.schema.util.SynchronizationSituationUtil;
 import com.evolveum.midpoint.security.api.OwnerResolver;
 import com.evolveum.midpoint.security.api.SecurityEnforcer;
@@ -74,6 +75,7 @@ import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.Transformer;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -123,6 +125,12 @@ public class ChangeExecutor {
     @Autowired(required = true)
     private ProvisioningService provisioning;
     
+    @Autowired(required = true)
+    private AbstractRoleCache roleCache;
+    
+    @Autowired(required = true)
+    private ProjectionThreadPool projectionThreadPool;
+    
     @Autowired(required = true)
     private PrismContext prismContext;
     
@@ -214,7 +222,8 @@ public class ChangeExecutor {
         syncContext.checkAbortRequested();
 
 		boolean restartRequested = false;
-    	
+
+		List<ProjectionExecution> executions = new ArrayList<>();
         for (LensProjectionContext accCtx : syncContext.getProjectionContexts()) {
         	if (accCtx.getWave() != syncContext.getExecutionWave()) {
         		continue;
@@ -229,73 +238,49 @@ public class ChangeExecutor {
 				LOGGER.trace("Skipping ignored projection context {}", accCtx.toHumanReadableString());
 				continue;
 			}
+			
+			executions.add(new ProjectionExecution(accCtx));
+        }
+        
+        executeProjectionDeltasConcurrently(syncContext, executions, task);
+    	
+        for (ProjectionExecution execution : executions) {
+        	LensProjectionContext accCtx = execution.projectionContext;
+        	if (restartRequested && !execution.executed) {
+        		// we will process remaining projections when retrying the wave
+        		// (the projections that were already executed concurrently are finished, e.g. linked)
+        		continue;
+        	}
         	
-        	OperationResult subResult = result.createSubresult(OPERATION_EXECUTE_PROJECTION+"."+accCtx.getObjectTypeClass().getSimpleName());
-        	subResult.addContext("discriminator", accCtx.getResourceShadowDiscriminator());
-			if (accCtx.getResource() != null) {
-				subResult.addParam("resource", accCtx.getResource().getName());
-			}
+        	OperationResult subResult;
+        	if (execution.executed) {
+        		subResult = execution.result;
+        		result.addSubresult(subResult);
+        	} else {
+        		subResult = createProjectionResult(accCtx, result);
+        	}
 			try {
-
-                syncContext.checkAbortRequested();
-
-                syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION, accCtx.getResourceShadowDiscriminator(), ENTERING));
-
-				executeReconciliationScript(accCtx, syncContext, BeforeAfterType.BEFORE, task, subResult);
 				
-				ObjectDelta<ShadowType> accDelta = accCtx.getExecutableDelta();
-				if (accCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-					if (syncContext.getFocusContext() != null && syncContext.getFocusContext().getDelta() != null
-							&& syncContext.getFocusContext().getDelta().isDelete()
-							&& syncContext.getOptions() != null
-							&& ModelExecuteOptions.isForce(syncContext.getOptions())) {
-						if (accDelta == null) {
-							accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(),
-									accCtx.getOid(), prismContext);
-						}
-					}
-					if (accDelta != null && accDelta.isDelete()) {
-
-						executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
-
-					}
+				if (execution.executed) {
+					throwProjectionExecutionException(execution.exception);
 				} else {
 					
-					if (accDelta == null || accDelta.isEmpty()) {
-						if (LOGGER.isTraceEnabled()) {
-							LOGGER.trace("No change for account "
-									+ accCtx.getResourceShadowDiscriminator());
-						}
-						if (focusContext != null) {
-							updateLinks(focusContext, accCtx, task,
-                                    subResult);
-						}
-						
-						// Make sure post-reconcile delta is always executed, even if there is no change
-						executeReconciliationScript(accCtx, syncContext, BeforeAfterType.AFTER, task, subResult);
-						
-						subResult.computeStatus();
-						subResult.recordNotApplicableIfUnknown();
-						continue;
-						
-					} else if (accDelta.isDelete() && accCtx.getResourceShadowDiscriminator() != null && accCtx.getResourceShadowDiscriminator().getOrder() > 0) {
-						// HACK ... for higher-order context check if this was already deleted
-						LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(syncContext, accCtx);
-						if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
-							// We assume that this was already executed
-							subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
-							continue;
-						}
-					}
-
-					executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
-
+	                syncContext.checkAbortRequested();
+	
+	                syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION, accCtx.getResourceShadowDiscriminator(), ENTERING));
+	
+					execution.skipped = !executeProjectionDelta(accCtx, syncContext, task, subResult);
+					
+				}
+				if (execution.skipped) {
+					continue;
 				}
 
 				if (focusContext != null) {
 					updateLinks(focusContext, accCtx, task, subResult);
 				}
 				
+				// Make sure post-reconcile delta is always executed, even if there is no change
 				executeReconciliationScript(accCtx, syncContext, BeforeAfterType.AFTER, task, subResult);
 				
 				subResult.computeStatus();
@@ -327,7 +312,7 @@ public class ChangeExecutor {
 				subResult.recordSuccess();
 				subResult.muteLastSubresultError();
 				restartRequested = true;
-				break;		// we will process remaining projections when retrying the wave
+				continue;		// remaining projections are skipped, see above
 			} catch (CommunicationException e) {
 				recordProjectionExecutionException(e, accCtx, subResult, SynchronizationPolicyDecision.BROKEN);
 				continue;
@@ -417,6 +402,177 @@ public class ChangeExecutor {
 		}
 	}
 
+    private OperationResult createProjectionResult(LensProjectionContext accCtx, OperationResult parentResult) {
+    	String operation = OPERATION_EXECUTE_PROJECTION+"."+accCtx.getObjectTypeClass().getSimpleName();
+    	OperationResult subResult = parentResult != null ? parentResult.createSubresult(operation) : new OperationResult(operation);
+    	subResult.addContext("discriminator", accCtx.getResourceShadowDiscriminator());
+		if (accCtx.getResource() != null) {
+			subResult.addParam("resource", accCtx.getResource().getName());
+		}
+		return subResult;
+    }
+    
+    /**
+     * Executes the reconciliation scripts that precede the change and the change of the projection itself
+     * (i.e. the operations on the resource). Returns false if the processing of the projection should
+     * not continue (links and post-reconcile scripts).
+     */
+    private <O extends ObjectType> boolean executeProjectionDelta(LensProjectionContext accCtx, LensContext<O> syncContext,
+    		Task task, OperationResult subResult) throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException,
+    		CommunicationException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+    	
+		executeReconciliationScript(accCtx, syncContext, BeforeAfterType.BEFORE, task, subResult);
+		
+		ObjectDelta<ShadowType> accDelta = accCtx.getExecutableDelta();
+		if (accCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
+			if (syncContext.getFocusContext() != null && syncContext.getFocusContext().getDelta() != null
+					&& syncContext.getFocusContext().getDelta().isDelete()
+					&& syncContext.getOptions() != null
+					&& ModelExecuteOptions.isForce(syncContext.getOptions())) {
+				if (accDelta == null) {
+					accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(),
+							accCtx.getOid(), prismContext);
+				}
+			}
+			if (accDelta != null && accDelta.isDelete()) {
+
+				executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
+
+			}
+		} else {
+			
+			if (accDelta == null || accDelta.isEmpty()) {
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace("No change for account "
+							+ accCtx.getResourceShadowDiscriminator());
+				}
+				return true;
+				
+			} else if (accDelta.isDelete() && accCtx.getResourceShadowDiscriminator() != null && accCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+				// HACK ... for higher-order context check if this was already deleted
+				LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(syncContext, accCtx);
+				if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
+					// We assume that this was already executed
+					subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+					return false;
+				}
+			}
+
+			executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
+
+		}
+		return true;
+    }
+    
+    /**
+     * Executes the changes of independent projections concurrently, if enabled in system configuration.
+     * The projections are independent if they are not of higher order and there are no dependencies between
+     * the projections of this wave. Only the operations on the resources are executed concurrently (one at a time
+     * for each resource), the outcome (including the exceptions) is kept in the executions and it is processed
+     * by the calling thread in the original order of the projections. Therefore the links, post-reconcile scripts
+     * and error handling are the same as for sequential execution.
+     */
+    private <O extends ObjectType> void executeProjectionDeltasConcurrently(final LensContext<O> syncContext,
+    		List<ProjectionExecution> executions, final Task task) {
+    	if (executions.size() < 2 || !SystemConfigurationTypeUtil.isConcurrentProjectionExecution(syncContext.getSystemConfiguration())) {
+    		return;
+    	}
+    	int threads = SystemConfigurationTypeUtil.getProjectionThreads(syncContext.getSystemConfiguration());
+    	if (threads < 2) {
+    		return;
+    	}
+    	List<ProjectionExecution> concurrentExecutions = new ArrayList<>();
+    	for (ProjectionExecution execution : executions) {
+    		LensProjectionContext accCtx = execution.projectionContext;
+    		if (!accCtx.getDependencies().isEmpty()) {
+    			LOGGER.trace("Executing projections sequentially because {} has dependencies", accCtx.getHumanReadableName());
+    			return;
+    		}
+    		if (accCtx.getResourceShadowDiscriminator() != null && accCtx.getResourceShadowDiscriminator().getOrder() == 0) {
+    			concurrentExecutions.add(execution);
+    		}
+    	}
+    	if (concurrentExecutions.size() < 2) {
+    		return;
+    	}
+    	
+    	syncContext.checkAbortRequested();
+    	
+    	LOGGER.trace("Executing {} projections using {} threads", concurrentExecutions.size(), threads);
+    	for (ProjectionExecution execution : concurrentExecutions) {
+    		// Each projection has its own task, so the threads do not share the task state (e.g. the requestee).
+    		execution.task = task.createSubtask();
+    		execution.task.setChannel(task.getChannel());
+    		execution.result = createProjectionResult(execution.projectionContext, null);
+    		syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+    				execution.projectionContext.getResourceShadowDiscriminator(), ENTERING));
+    	}
+    	projectionThreadPool.processAll(concurrentExecutions, new Transformer<ProjectionExecution, String>() {
+    			@Override
+    			public String transform(ProjectionExecution execution) {
+    				ResourceType resource = execution.projectionContext.getResource();
+    				return resource != null ? resource.getOid() : null;
+    			}
+    		}, threads, 1,
+    		new ProjectionThreadPool.Processor<ProjectionExecution>() {
+    			@Override
+    			public void process(ProjectionExecution execution) {
+    				try {
+    					execution.skipped = !executeProjectionDelta(execution.projectionContext, syncContext, 
+    							execution.task, execution.result);
+    				} catch (CommonException | RuntimeException e) {
+    					execution.exception = e;
+    				} finally {
+    					execution.executed = true;
+    				}
+    			}
+    		});
+    }
+    
+    private void throwProjectionExecutionException(Exception e) throws ObjectAlreadyExistsException, ObjectNotFoundException,
+    		SchemaException, CommunicationException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+    	if (e == null) {
+    		return;
+    	} else if (e instanceof ObjectAlreadyExistsException) {
+    		throw (ObjectAlreadyExistsException) e;
+    	} else if (e instanceof ObjectNotFoundException) {
+    		throw (ObjectNotFoundException) e;
+    	} else if (e instanceof SchemaException) {
+    		throw (SchemaException) e;
+    	} else if (e instanceof CommunicationException) {
+    		throw (CommunicationException) e;
+    	} else if (e instanceof ConfigurationException) {
+    		throw (ConfigurationException) e;
+    	} else if (e instanceof SecurityViolationException) {
+    		throw (SecurityViolationException) e;
+    	} else if (e instanceof ExpressionEvaluationException) {
+    		throw (ExpressionEvaluationException) e;
+    	} else if (e instanceof RuntimeException) {
+    		throw (RuntimeException) e;
+    	} else {
+    		throw new SystemException(e.getMessage(), e);
+    	}
+    }
+    
+    /**
+     * Execution of one projection context in a wave. If the change is executed concurrently, the execution keeps
+     * the outcome until it is processed by the clockwork thread.
+     */
+    private static class ProjectionExecution {
+    	private final LensProjectionContext projectionContext;
+    	/** Set if the change was already executed (concurrently). */
+    	private volatile boolean executed;
+    	private volatile boolean skipped;
+    	/** Subtask used by the concurrent execution. */
+    	private Task task;
+    	private OperationResult result;
+    	private Exception exception;
+    	
+    	private ProjectionExecution(LensProjectionContext projectionContext) {
+    		this.projectionContext = projectionContext;
+    	}
+    }
+
 	private <P extends ObjectType> void recordProjectionExecutionException(Exception e, LensProjectionContext accCtx,
 			OperationResult subResult, SynchronizationPolicyDecision decision) {
 		subResult.recordFatalError(e);
@@ -1051,6 +1207,9 @@ public class ChangeExecutor {
         	}
         } else {
             cacheRepositoryService.deleteObject(objectTypeClass, oid, result);
+            if (AbstractRoleCache.isCacheable(objectTypeClass)) {
+            	roleCache.remove(oid);
+            }
         }
     }
 
@@ -1071,6 +1230,11 @@ public class ChangeExecutor {
         	
     	applyMetadata(change, objectContext, objectTypeClass, task, context, result);
         
+        if (!ObjectTypes.isClassManagedByProvisioning(objectTypeClass)) {
+        	// metadata deltas are appended to the modifications, so the same items may be modified more than once
+        	change.compact();
+        }
+        
         if (TaskType.class.isAssignableFrom(objectTypeClass)) {
             taskManager.modifyTask(change.getOid(), change.getModifications(), result);
         } else if (NodeType.class.isAssignableFrom(objectTypeClass)) {
@@ -1091,6 +1255,10 @@ public class ChangeExecutor {
         } else {
 			FocusConstraintsChecker.clearCacheForDelta(change.getModifications());
             cacheRepositoryService.modifyObject(objectTypeClass, change.getOid(), change.getModifications(), result);
+            if (AbstractRoleCache.isCacheable(objectTypeClass)) {
+            	// other nodes will notice the new version when they use the role next time
+            	roleCache.remove(change.getOid());
+            }
         }
     }
     
@@ -32,6 +32,7 @@ import com.evolveum.midpoint.model.api.hooks.HookRegistry;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.evaluator.caching.AbstractSearchExpressionEvaluatorCache;
 import com.evolveum.midpoint.model.common.expression.evaluator.caching.AssociationSearchExpressionEvaluatorCache;
+import com.evolveum.midpoint.model.common.expression.evaluator.caching.SharedAssociationSearchExpressionEvaluatorCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpression;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
 import com.evolveum.midpoint.model.impl.controller.ModelUtils;
@@ -107,6 +108,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
@@ -166,6 +168,9 @@ public class Clockwork {
     @Autowired
     private TaskManager taskManager;
 
+    @Autowired(required = false)
+    private SharedAssociationSearchExpressionEvaluatorCache sharedAssociationSearchExpressionEvaluatorCache;
+
     private LensDebugListener debugListener;
 	
 	public LensDebugListener getDebugListener() {
@@ -217,6 +222,18 @@ public class Clockwork {
 		}
 	}
 
+	// Shared cache is not bound to a clockwork run, so its invalidator is registered for the whole lifetime of the node
+	@PostConstruct
+	private void registerSharedAssociationSearchExpressionCacheInvalidator() {
+		if (sharedAssociationSearchExpressionEvaluatorCache == null) {
+			return;
+		}
+		AssociationSearchExpressionCacheInvalidator invalidator =
+				new AssociationSearchExpressionCacheInvalidator(sharedAssociationSearchExpressionEvaluatorCache);
+		changeNotificationDispatcher.registerNotificationListener((ResourceObjectChangeListener) invalidator);
+		changeNotificationDispatcher.registerNotificationListener((ResourceOperationListener) invalidator);
+	}
+
 	private void enterAssociationSearchExpressionEvaluatorCache() {
 		AssociationSearchExpressionEvaluatorCache cache = AssociationSearchExpressionEvaluatorCache.enterCache();
 		AssociationSearchExpressionCacheInvalidator invalidator = new AssociationSearchExpressionCacheInvalidator(cache);
@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -54,8 +53,10 @@ import com.evolveum.midpoint.model.impl.lens.projector.ValueMatcher;
 import com.evolveum.midpoint.model.impl.util.Utils;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.delta.DeltaSetTriple;
+import com.evolveum.midpoint.prism.delta.IndexedDeltaSetTriple;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.PlusMinusZero;
 import com.evolveum.midpoint.prism.delta.PrismValueDeltaSetTriple;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
@@ -75,6 +76,7 @@ import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.Transformer;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -234,7 +236,14 @@ public class LensUtil {
 					});
 		}
 		
-        Collection<V> allValues = collectAllValues(triple);
+        // The values are looked up in the triple for each of its values, so the triple is indexed first.
+        IndexedDeltaSetTriple<I,V> indexedTriple = IndexedDeltaSetTriple.copyOf(triple, new Transformer<I,V>() {
+			@Override
+			public V transform(I pvwo) {
+				return pvwo.getItemValue();
+			}
+		}, null);
+        Collection<V> allValues = indexedTriple.getDistinctValues();
         
         final MutableBoolean itemHasStrongMutable = new MutableBoolean(false);
         SimpleVisitor<I> visitor = new SimpleVisitor<I>() {
@@ -258,11 +267,11 @@ public class LensUtil {
         	// The first set that the value is present determines the result.
 			// TODO shouldn't we use valueMatcher here? [med]
             Collection<ItemValueWithOrigin<V,D>> zeroPvwos =
-                    collectPvwosFromSet(value, triple.getZeroSet());
+                    collectPvwosFromSet(value, indexedTriple, PlusMinusZero.ZERO);
             Collection<ItemValueWithOrigin<V,D>> plusPvwos =
-                    collectPvwosFromSet(value, triple.getPlusSet());
+                    collectPvwosFromSet(value, indexedTriple, PlusMinusZero.PLUS);
             Collection<ItemValueWithOrigin<V,D>> minusPvwos =
-                    collectPvwosFromSet(value, triple.getMinusSet());
+                    collectPvwosFromSet(value, indexedTriple, PlusMinusZero.MINUS);
             
             if (LOGGER.isTraceEnabled()) {
             	LOGGER.trace("PVWOs for value {}:\nzero = {}\nplus = {}\nminus = {}",
@@ -511,36 +520,9 @@ public class LensUtil {
 		}
 	}
 	
-	private static <V extends PrismValue, D extends ItemDefinition> Collection<V> collectAllValues(DeltaSetTriple<? extends ItemValueWithOrigin<V,D>> triple) {
-        Collection<V> allValues = new HashSet<>();
-        collectAllValuesFromSet(allValues, triple.getZeroSet());
-        collectAllValuesFromSet(allValues, triple.getPlusSet());
-        collectAllValuesFromSet(allValues, triple.getMinusSet());
-        return allValues;
-    }
-
-    private static <V extends PrismValue, D extends ItemDefinition> void collectAllValuesFromSet(Collection<V> allValues,
-            Collection<? extends ItemValueWithOrigin<V,D>> collection) {
-        if (collection == null) {
-            return;
-        }
-        for (ItemValueWithOrigin<V,D> pvwo : collection) {
-        	V pval = pvwo.getPropertyValue();
-        	if (!PrismValue.containsRealValue(allValues, pval)) {
-        		allValues.add(pval);
-        	}
-        }
-    }
-    
-    private static <V extends PrismValue, D extends ItemDefinition> Collection<ItemValueWithOrigin<V,D>> collectPvwosFromSet(V pvalue,
-            Collection<? extends ItemValueWithOrigin<V,D>> deltaSet) {
-    	Collection<ItemValueWithOrigin<V,D>> pvwos = new ArrayList<>();
-        for (ItemValueWithOrigin<V,D> setPvwo : deltaSet) {
-        	if (setPvwo.equalsRealValue(pvalue)) {
-        		pvwos.add(setPvwo);
-        	}
-        }
-        return pvwos;
+    private static <V extends PrismValue, D extends ItemDefinition, I extends ItemValueWithOrigin<V,D>> Collection<ItemValueWithOrigin<V,D>> collectPvwosFromSet(V pvalue,
+            IndexedDeltaSetTriple<I,V> triple, PlusMinusZero whichSet) {
+    	return new ArrayList<ItemValueWithOrigin<V,D>>(triple.findEquivalent(whichSet, pvalue));
     }
 
     public static PropertyDelta<XMLGregorianCalendar> createActivationTimestampDelta(ActivationStatusType status, XMLGregorianCalendar now,
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.util.Transformer;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Node-wide pool of threads that process projections concurrently, e.g. load the projections from their
+ * resources. The operations on projections are dominated by the connector round-trips, therefore processing
+ * projections on different resources concurrently makes the whole operation only as slow as the slowest resource.
+ *
+ * The items are split into groups (usually by resource) and each group is processed by a limited number of
+ * threads, so one operation does not overload a single resource. The calling thread waits until all the items
+ * are processed. The processor has to keep its results in the items (or other thread-confined data); the caller
+ * can then use them in the original order of the items, so the overall result does not depend on the timing.
+ *
+ * Security context of the calling thread is propagated to the pool threads.
+ *
+ * @author Radovan Semancik
+ *
+ */
+@Component
+public class ProjectionThreadPool {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ProjectionThreadPool.class);
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static final ThreadLocal<Boolean> POOL_THREAD = new ThreadLocal<>();
+
+	private ThreadPoolExecutor executor;
+
+	public interface Processor<T> {
+
+		/**
+		 * Processes one item. Checked exceptions should be stored in the item and handled by the caller
+		 * after all the items are processed.
+		 */
+		void process(T item);
+	}
+
+	/**
+	 * Processes all the items and returns after all of them are processed.
+	 *
+	 * @param threads maximum number of threads used by the pool. Values lower than 2 mean that the items
+	 *                are processed sequentially by the calling thread.
+	 * @param threadsPerGroup maximum number of threads that process items of one group at the same time
+	 * @param groupExtractor determines the group of the item, e.g. resource OID. May be null.
+	 */
+	public <T> void processAll(List<T> items, Transformer<T, String> groupExtractor, int threads, int threadsPerGroup,
+			final Processor<T> processor) {
+		if (threads < 2 || items.size() < 2 || Boolean.TRUE.equals(POOL_THREAD.get())) {
+			// Nested processing is sequential, waiting for the pool in a pool thread could block the pool.
+			for (T item : items) {
+				processor.process(item);
+			}
+			return;
+		}
+
+		List<List<T>> lanes = createLanes(items, groupExtractor, Math.max(threadsPerGroup, 1));
+		LOGGER.trace("Processing {} items in {} lanes", items.size(), lanes.size());
+		ThreadPoolExecutor executor = getExecutor(threads);
+		final SecurityContext securityContext = SecurityContextHolder.getContext();
+		List<Future<?>> futures = new ArrayList<>(lanes.size());
+		for (final List<T> lane : lanes) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					POOL_THREAD.set(Boolean.TRUE);
+					SecurityContextHolder.setContext(securityContext);
+					try {
+						for (T item : lane) {
+							processor.process(item);
+						}
+					} finally {
+						SecurityContextHolder.clearContext();
+						POOL_THREAD.remove();
+					}
+				}
+			}));
+		}
+
+		// Wait for all the lanes before throwing anything, so no item is processed after we return.
+		RuntimeException exception = null;
+		boolean interrupted = false;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (exception == null) {
+						Throwable cause = e.getCause();
+						exception = cause instanceof RuntimeException ? (RuntimeException) cause : new SystemException(cause.getMessage(), cause);
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Items of each group are dealt round-robin to at most threadsPerGroup lanes. Each lane is processed by one thread.
+	 */
+	private <T> List<List<T>> createLanes(List<T> items, Transformer<T, String> groupExtractor, int threadsPerGroup) {
+		Map<String, List<List<T>>> groups = new LinkedHashMap<>();
+		Map<String, Integer> groupSizes = new LinkedHashMap<>();
+		List<List<T>> lanes = new ArrayList<>();
+		for (T item : items) {
+			String group = groupExtractor != null ? groupExtractor.transform(item) : null;
+			if (group == null) {
+				List<T> lane = new ArrayList<>(1);
+				lane.add(item);
+				lanes.add(lane);
+				continue;
+			}
+			List<List<T>> groupLanes = groups.get(group);
+			if (groupLanes == null) {
+				groupLanes = new ArrayList<>();
+				groups.put(group, groupLanes);
+				groupSizes.put(group, 0);
+			}
+			int groupSize = groupSizes.get(group);
+			if (groupLanes.size() < threadsPerGroup) {
+				List<T> lane = new ArrayList<>();
+				groupLanes.add(lane);
+				lanes.add(lane);
+			}
+			groupLanes.get(groupSize % threadsPerGroup).add(item);
+			groupSizes.put(group, groupSize + 1);
+		}
+		return lanes;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor(int threads) {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ProjectionThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		} else if (executor.getMaximumPoolSize() != threads) {
+			// the configuration was changed
+			LOGGER.debug("Changing number of projection threads from {} to {}", executor.getMaximumPoolSize(), threads);
+			if (threads > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(threads);
+				executor.setCorePoolSize(threads);
+			} else {
+				executor.setCorePoolSize(threads);
+				executor.setMaximumPoolSize(threads);
+			}
+		}
+		return executor;
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private static class ProjectionThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "midpoint-projection-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
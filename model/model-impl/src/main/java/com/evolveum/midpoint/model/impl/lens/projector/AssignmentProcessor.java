@@ -44,6 +44,7 @@ import com.evolveum.midpoint.model.common.expression.ObjectDeltaObject;
 import com.evolveum.midpoint.model.common.mapping.Mapping;
 import com.evolveum.midpoint.model.common.mapping.MappingFactory;
 import com.evolveum.midpoint.model.impl.controller.ModelUtils;
+import com.evolveum.midpoint.model.impl.lens.AbstractRoleCache;
 import com.evolveum.midpoint.model.impl.lens.AssignmentEvaluator;
 import com.evolveum.midpoint.model.impl.lens.AssignmentPath;
 import com.evolveum.midpoint.model.impl.lens.AssignmentPathSegment;
@@ -142,6 +143,9 @@ public class AssignmentProcessor {
     @Qualifier("cacheRepositoryService")
     private RepositoryService repositoryService;
 
+    @Autowired(required = true)
+    private AbstractRoleCache roleCache;
+
     @Autowired(required = true)
     private ObjectResolver objectResolver;
 
@@ -264,6 +268,7 @@ public class AssignmentProcessor {
         // assignments (roles).
         AssignmentEvaluator<F> assignmentEvaluator = new AssignmentEvaluator<>();
         assignmentEvaluator.setRepository(repositoryService);
+        assignmentEvaluator.setRoleCache(roleCache);
         assignmentEvaluator.setFocusOdo(focusContext.getObjectDeltaObject());
         assignmentEvaluator.setLensContext(context);
         assignmentEvaluator.setChannel(context.getChannel());
@@ -17,6 +17,7 @@ package com.evolveum.midpoint.model.impl.lens.projector;
 
 import static com.evolveum.midpoint.common.InternalsConfig.consistencyChecks;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -40,6 +41,7 @@ import com.evolveum.midpoint.model.impl.lens.LensFocusContext;
 import com.evolveum.midpoint.model.impl.lens.LensObjectDeltaOperation;
 import com.evolveum.midpoint.model.impl.lens.LensProjectionContext;
 import com.evolveum.midpoint.model.impl.lens.LensUtil;
+import com.evolveum.midpoint.model.impl.lens.ProjectionThreadPool;
 import com.evolveum.midpoint.model.impl.lens.SynchronizationIntent;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -60,8 +62,10 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.schema.util.SystemConfigurationTypeUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.Transformer;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
@@ -93,8 +97,13 @@ public class ContextLoader {
 	@Autowired(required = true)
 	private PrismContext prismContext;
 	
+	@Autowired(required = true)
+	private ProjectionThreadPool projectionThreadPool;
+	
 	private static final Trace LOGGER = TraceManager.getTrace(ContextLoader.class);
 	
+	private static final String OPERATION_LOAD_PROJECTION = ContextLoader.class.getName() + ".loadProjection";
+	
 	public <F extends ObjectType> void load(LensContext<F> context, String activityDescription, 
 			Task task, OperationResult result) 
 			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException, 
@@ -150,9 +159,20 @@ public class ContextLoader {
     	    	
     	if (consistencyChecks) context.checkConsistence();
 		
+    	List<ProjectionLoad> projectionLoads = new ArrayList<>();
     	for (LensProjectionContext projectionContext: context.getProjectionContexts()) {
             context.checkAbortRequested();
-    		finishLoadOfProjectionContext(context, projectionContext, result);
+            ProjectionLoad projectionLoad = startLoadOfProjectionContext(context, projectionContext);
+            if (projectionLoad != null) {
+            	projectionLoads.add(projectionLoad);
+            }
+		}
+    	
+    	fetchProjectionObjects(context, projectionLoads, result);
+    	
+    	for (ProjectionLoad projectionLoad: projectionLoads) {
+            context.checkAbortRequested();
+    		finishLoadOfProjectionContext(context, projectionLoad, result);
 		}
         
         if (consistencyChecks) context.checkConsistence();
@@ -910,16 +930,14 @@ public class ContextLoader {
 	}
 	
 	/**
-	 * Check reconcile flag in account sync context and set accountOld
-     * variable if it's not set (from provisioning), load resource (if not set already), etc.
+	 * Check reconcile flag in account sync context and determine whether accountOld has to be loaded
+     * (from provisioning). Returns null if the context is not to be loaded at all.
 	 */
-	private <F extends ObjectType> void finishLoadOfProjectionContext(LensContext<F> context, 
-			LensProjectionContext projContext, OperationResult result)
-			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
-			SecurityViolationException {
+	private <F extends ObjectType> ProjectionLoad startLoadOfProjectionContext(LensContext<F> context, 
+			LensProjectionContext projContext) {
 
 		if (projContext.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-			return;
+			return null;
 		}
 
 		// MID-2436 (volatile objects) - as a quick but effective hack, we set reconciliation:=TRUE for volatile accounts
@@ -930,62 +948,130 @@ public class ContextLoader {
 		}
 
 		// Remember OID before the object could be wiped
-		String projectionObjectOid = projContext.getOid();
+		ProjectionLoad projectionLoad = new ProjectionLoad(projContext, projContext.getOid());
 		if (projContext.isDoReconciliation() && !projContext.isFullShadow()) {
 			// The current object is useless here. So lets just wipe it so it will get loaded
 			projContext.setObjectCurrent(null);
 		}
 		
 		// Load current object
-		PrismObject<ShadowType> projectionObject = projContext.getObjectCurrent();
+		projectionLoad.projectionObject = projContext.getObjectCurrent();
 		if (projContext.getObjectCurrent() == null || needToReload(context, projContext)) {
 			if (projContext.isAdd()) {
 				// No need to load old object, there is none
 				projContext.setExists(false);
 				projContext.recompute();
-				projectionObject = projContext.getObjectNew();
-			} else {
-				if (projectionObjectOid == null) {
-					projContext.setExists(false);
-					if (projContext.getResourceShadowDiscriminator() == null || projContext.getResourceShadowDiscriminator().getResourceOid() == null) {								
-						throw new SystemException(
-								"Projection with null OID, no representation and no resource OID in account sync context "+projContext);
-					}
-				} else {
-					projContext.setExists(true);
-					GetOperationOptions rootOptions = projContext.isDoReconciliation() ? 
-							GetOperationOptions.createDoNotDiscovery() : GetOperationOptions.createNoFetch();
-					rootOptions.setAllowNotFound(true);
-					Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(rootOptions);
-					try{
-						PrismObject<ShadowType> objectOld = provisioningService.getObject(
-								projContext.getObjectTypeClass(), projectionObjectOid, options, null, result);
-						projContext.setLoadedObject(objectOld);
-                        ShadowType oldShadow = objectOld.asObjectable();
-						if (projContext.isDoReconciliation()) {
-	                        projContext.determineFullShadowFlag(oldShadow.getFetchResult());
-						} else {
-							projContext.setFullShadow(false);
-						}
-						projectionObject = objectOld;
-					} catch (ObjectNotFoundException ex){
-						projContext.setSynchronizationPolicyDecision(SynchronizationPolicyDecision.BROKEN);
-						LOGGER.warn("Could not find object with oid " + projectionObjectOid + ". Context for these object is marked as broken");
-						return;
-					} catch (SchemaException ex){
-						projContext.setSynchronizationPolicyDecision(SynchronizationPolicyDecision.BROKEN);
-						LOGGER.warn("Schema problem while getting object with oid " + projectionObjectOid + ". Context for these object is marked as broken");
-						return;
-					}
+				projectionLoad.projectionObject = projContext.getObjectNew();
+				projContext.setFresh(true);
+			} else if (projectionLoad.oid == null) {
+				projContext.setExists(false);
+				if (projContext.getResourceShadowDiscriminator() == null || projContext.getResourceShadowDiscriminator().getResourceOid() == null) {								
+					throw new SystemException(
+							"Projection with null OID, no representation and no resource OID in account sync context "+projContext);
 				}
 				projContext.setFresh(true);
+			} else {
+				projContext.setExists(true);
+				GetOperationOptions rootOptions = projContext.isDoReconciliation() ? 
+						GetOperationOptions.createDoNotDiscovery() : GetOperationOptions.createNoFetch();
+				rootOptions.setAllowNotFound(true);
+				projectionLoad.options = SelectorOptions.createCollection(rootOptions);
 			}
 		} else {
-			projectionObject = projContext.getObjectCurrent();
-			if (projectionObjectOid != null) {
+			if (projectionLoad.oid != null) {
 				projContext.setExists(true);
 			}
 		}
+		return projectionLoad;
+	}
+	
+	/**
+	 * Gets the objects of the projections from provisioning. The objects may be read from the resources, so the
+	 * projections are loaded concurrently if it is enabled in system configuration. Each load has its own operation
+	 * result, the results are added to the parent result in the order of the projection contexts.
+	 */
+	private <F extends ObjectType> void fetchProjectionObjects(LensContext<F> context, List<ProjectionLoad> projectionLoads,
+			OperationResult result) {
+		List<ProjectionLoad> fetches = new ArrayList<>();
+		for (ProjectionLoad projectionLoad: projectionLoads) {
+			if (projectionLoad.options != null) {
+				fetches.add(projectionLoad);
+			}
+		}
+		int threads = SystemConfigurationTypeUtil.getProjectionThreads(context.getSystemConfiguration());
+		if (threads < 2 || fetches.size() < 2) {
+			for (ProjectionLoad fetch: fetches) {
+				fetchProjectionObject(fetch, result);
+			}
+			return;
+		}
+		
+		LOGGER.trace("Loading {} projections using {} threads", fetches.size(), threads);
+		for (ProjectionLoad fetch: fetches) {
+			fetch.result = new OperationResult(OPERATION_LOAD_PROJECTION);
+		}
+		projectionThreadPool.processAll(fetches, new Transformer<ProjectionLoad, String>() {
+				@Override
+				public String transform(ProjectionLoad fetch) {
+					return fetch.getResourceOid();
+				}
+			}, threads, SystemConfigurationTypeUtil.getProjectionThreadsPerResource(context.getSystemConfiguration()),
+			new ProjectionThreadPool.Processor<ProjectionLoad>() {
+				@Override
+				public void process(ProjectionLoad fetch) {
+					fetchProjectionObject(fetch, fetch.result);
+				}
+			});
+		for (ProjectionLoad fetch: fetches) {
+			for (OperationResult subresult: fetch.result.getSubresults()) {
+				result.addSubresult(subresult);
+			}
+		}
+	}
+	
+	private void fetchProjectionObject(ProjectionLoad fetch, OperationResult result) {
+		try {
+			fetch.projectionObject = provisioningService.getObject(
+					fetch.projectionContext.getObjectTypeClass(), fetch.oid, fetch.options, null, result);
+		} catch (ObjectNotFoundException | CommunicationException | SchemaException | ConfigurationException
+				| SecurityViolationException e) {
+			fetch.exception = e;
+		}
+	}
+	
+	/**
+	 * Set accountOld (loaded by {@link #fetchProjectionObjects(LensContext, List, OperationResult)}),
+	 * load resource (if not set already), etc.
+	 */
+	private <F extends ObjectType> void finishLoadOfProjectionContext(LensContext<F> context, 
+			ProjectionLoad projectionLoad, OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException {
+
+		LensProjectionContext projContext = projectionLoad.projectionContext;
+		String projectionObjectOid = projectionLoad.oid;
+		PrismObject<ShadowType> projectionObject = projectionLoad.projectionObject;
+		if (projectionLoad.options != null) {
+			if (projectionLoad.exception instanceof ObjectNotFoundException) {
+				projContext.setSynchronizationPolicyDecision(SynchronizationPolicyDecision.BROKEN);
+				LOGGER.warn("Could not find object with oid " + projectionObjectOid + ". Context for these object is marked as broken");
+				return;
+			} else if (projectionLoad.exception instanceof SchemaException) {
+				projContext.setSynchronizationPolicyDecision(SynchronizationPolicyDecision.BROKEN);
+				LOGGER.warn("Schema problem while getting object with oid " + projectionObjectOid + ". Context for these object is marked as broken");
+				return;
+			} else if (projectionLoad.exception != null) {
+				throwFetchException(projectionLoad.exception);
+			}
+			projContext.setLoadedObject(projectionObject);
+            ShadowType oldShadow = projectionObject.asObjectable();
+			if (projContext.isDoReconciliation()) {
+                projContext.determineFullShadowFlag(oldShadow.getFetchResult());
+			} else {
+				projContext.setFullShadow(false);
+			}
+			projContext.setFresh(true);
+		}
 		
 	
 		// Determine Resource
@@ -1045,6 +1131,47 @@ public class ContextLoader {
 		setPrimaryDeltaOldValue(projContext);
 	}
 	
+	private void throwFetchException(Exception e) throws CommunicationException, ConfigurationException,
+			SecurityViolationException {
+		if (e instanceof CommunicationException) {
+			throw (CommunicationException) e;
+		} else if (e instanceof ConfigurationException) {
+			throw (ConfigurationException) e;
+		} else if (e instanceof SecurityViolationException) {
+			throw (SecurityViolationException) e;
+		} else {
+			throw new SystemException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Projection context with its object that is loaded from provisioning. The object is loaded by a different thread
+	 * if the projections are loaded concurrently, therefore it only keeps the results (including the exception)
+	 * and they are applied to the context later.
+	 */
+	private static class ProjectionLoad {
+		private final LensProjectionContext projectionContext;
+		private final String oid;
+		private PrismObject<ShadowType> projectionObject;
+		/** Set if the object has to be loaded from provisioning. */
+		private Collection<SelectorOptions<GetOperationOptions>> options;
+		private OperationResult result;
+		private Exception exception;
+		
+		private ProjectionLoad(LensProjectionContext projectionContext, String oid) {
+			this.projectionContext = projectionContext;
+			this.oid = oid;
+		}
+		
+		private String getResourceOid() {
+			if (projectionContext.getResource() != null) {
+				return projectionContext.getResource().getOid();
+			}
+			ResourceShadowDiscriminator discr = projectionContext.getResourceShadowDiscriminator();
+			return discr != null ? discr.getResourceOid() : null;
+		}
+	}
+	
 	private <F extends ObjectType> boolean needToReload(LensContext<F> context,
 			LensProjectionContext projContext) {
 		ResourceShadowDiscriminator discr = projContext.getResourceShadowDiscriminator();
@@ -24,6 +24,7 @@ import com.evolveum.midpoint.model.common.expression.ItemDeltaItem;
 import com.evolveum.midpoint.model.common.expression.ObjectDeltaObject;
 import com.evolveum.midpoint.model.common.mapping.MappingFactory;
 import com.evolveum.midpoint.model.impl.UserComputer;
+import com.evolveum.midpoint.model.impl.lens.AbstractRoleCache;
 import com.evolveum.midpoint.model.impl.lens.AssignmentEvaluator;
 import com.evolveum.midpoint.model.impl.lens.LensContext;
 import com.evolveum.midpoint.model.impl.lens.LensContextPlaceholder;
@@ -78,6 +79,9 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
     @Autowired(required = true)
     private transient RepositoryService repositoryService;
     
+    @Autowired(required = true)
+    private AbstractRoleCache roleCache;
+    
     @Autowired(required = true)
     private ObjectResolver objectResolver;
     
@@ -166,6 +170,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 		
 		AssignmentEvaluator<UserType> assignmentEvaluator = new AssignmentEvaluator<>();
         assignmentEvaluator.setRepository(repositoryService);
+        assignmentEvaluator.setRoleCache(roleCache);
         assignmentEvaluator.setFocusOdo(new ObjectDeltaObject<UserType>(userType.asPrismObject(), null, userType.asPrismObject()));
         assignmentEvaluator.setChannel(null);
         assignmentEvaluator.setObjectResolver(objectResolver);
@@ -64,6 +64,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	private boolean stopOnError;
 	private boolean logObjectProgress;
 	private boolean logErrors = true;
+	private Integer lightweightResultDepth;
 	private BlockingQueue<ProcessingRequest> requestQueue;
 	private AtomicBoolean stopRequestedByAnyWorker = new AtomicBoolean(false);
 	private final long startTime;
@@ -84,6 +85,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.taskManager = taskManager;
 		stopOnError = true;
 		startTime = System.currentTimeMillis();
+		lightweightResultDepth = getLightweightResultDepth(coordinatorTask);
 	}
 
 	protected String getProcessShortName() {
@@ -256,7 +258,12 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		PrismObject<O> object = request.object;
 
 		OperationResult result = parentResult.createSubresult(taskOperationPrefix + ".handle");
-		result.addParam("object", object);
+		if (lightweightResultDepth != null) {
+			// object is recorded only if the processing fails (see processError)
+			result.setLightweight(lightweightResultDepth);
+		} else {
+			result.addParam("object", object);
+		}
 
 		boolean cont;
 
@@ -362,6 +369,9 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		if (result.isUnknown() || result.isInProgress()) {
 			result.recordFatalError("Failed to "+getProcessShortName()+": "+ex.getMessage(), ex);
 		}
+		if (result.isLightweight()) {
+			result.addParam("object", object);
+		}
 		result.summarize();
 		return !isStopOnError();
 	}
@@ -387,6 +397,18 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.stopOnError = stopOnError;
 	}
 
+	public Integer getLightweightResultDepth() {
+		return lightweightResultDepth;
+	}
+
+	/**
+	 * Keeps only the specified number of subresult levels in the results of processed objects
+	 * (see {@link OperationResult#setLightweight(int)}). Null means full results.
+	 */
+	public void setLightweightResultDepth(Integer lightweightResultDepth) {
+		this.lightweightResultDepth = lightweightResultDepth;
+	}
+
 	public boolean isLogErrors() {
 		return logErrors;
 	}
@@ -432,6 +454,18 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		}
 	}
 
+	private Integer getLightweightResultDepth(Task task) {
+		if (task == null) {
+			return null;
+		}
+		PrismProperty<Integer> depthProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_LIGHTWEIGHT_RESULT_DEPTH);
+		if (depthProperty != null && depthProperty.getRealValue() != null) {
+			return depthProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
 	protected Integer getWorkerThreadsCount(Task task) {
 		PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
 		if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
@@ -20,6 +20,8 @@ import static com.evolveum.midpoint.prism.delta.PlusMinusZero.PLUS;
 import static com.evolveum.midpoint.prism.delta.PlusMinusZero.ZERO;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
 import static com.evolveum.midpoint.test.IntegrationTestTools.*;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
@@ -39,6 +41,7 @@ import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
@@ -69,14 +72,19 @@ import com.evolveum.midpoint.prism.path.NameItemPathSegment;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.util.ObjectResolver;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 
 /**
  * @author semancik
@@ -88,6 +96,10 @@ public class TestAssignmentEvaluator extends AbstractLensTest {
 
 	@Autowired(required=true)
 	private RepositoryService repositoryService;
+
+	@Autowired(required=true)
+	@Qualifier("cacheRepositoryService")
+	private RepositoryService cacheRepositoryService;
 	
 	@Autowired(required=true)
 	private ObjectResolver objectResolver;
@@ -101,6 +113,12 @@ public class TestAssignmentEvaluator extends AbstractLensTest {
 	@Autowired(required=true)
 	private MappingFactory mappingFactory;
 
+	@Autowired(required=true)
+	private AbstractRoleCache roleCache;
+
+	private static final int DEEP_HIERARCHY_DEPTH = 20;
+	private static final int DEEP_HIERARCHY_EVALUATIONS = 100;
+
     @Override
     public void initSystem(Task initTask, OperationResult initResult) throws Exception {
         super.initSystem(initTask, initResult);
@@ -632,6 +650,231 @@ public class TestAssignmentEvaluator extends AbstractLensTest {
         assertNoConstruction(evaluatedAssignment, MINUS, "location");
     }
 
+    /**
+     * Same as testRoleEngineer, but the roles are taken from the role cache. The second evaluation
+     * has to use the cached (immutable) roles and it has to give the same results.
+     */
+    @Test
+    public void testRoleEngineerCached() throws Exception {
+        final String TEST_NAME = "testRoleEngineerCached";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        roleCache.clear();
+
+        AssignmentType assignmentType = getAssignmentType(ASSIGNMENT_ROLE_ENGINEER_FILE);
+
+        ObjectDeltaObject<UserType> userOdo = new ObjectDeltaObject<>(userTypeJack.asPrismObject(), null, null);
+        userOdo.recompute();
+
+        ItemDeltaItem<PrismContainerValue<AssignmentType>,PrismContainerDefinition<AssignmentType>> assignmentIdi = new ItemDeltaItem<>();
+        assignmentIdi.setItemOld(LensUtil.createAssignmentSingleValueContainerClone(assignmentType));
+        assignmentIdi.recompute();
+
+        AssignmentEvaluator<UserType> assignmentEvaluator = createAssignmentEvaluator();
+        assignmentEvaluator.setRoleCache(roleCache);
+        EvaluatedAssignmentImpl<UserType> firstEvaluatedAssignment = assignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+        int cachedRoles = roleCache.size();
+        display("Cached roles", cachedRoles);
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        EvaluatedAssignmentImpl<UserType> evaluatedAssignment = assignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+        evaluatedAssignment.evaluateConstructions(userOdo, task, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        assertNotNull(evaluatedAssignment);
+        display("Evaluated assignment",evaluatedAssignment.debugDump());
+        assertTrue("No roles cached", cachedRoles > 0);
+        assertEquals("Roles cached again", cachedRoles, roleCache.size());
+        assertSame("Cached role not used", firstEvaluatedAssignment.getTarget(), evaluatedAssignment.getTarget());
+        assertTrue("Cached role is not immutable", evaluatedAssignment.getTarget().isImmutable());
+        assertEquals(4, evaluatedAssignment.getConstructions().size());
+        PrismAsserts.assertParentConsistency(userTypeJack.asPrismObject());
+
+        assertConstruction(evaluatedAssignment, ZERO, "title", ZERO, "Employee", "Engineer");
+        assertConstruction(evaluatedAssignment, ZERO, "location", ZERO, "Caribbean");
+        assertNoConstruction(evaluatedAssignment, PLUS, "title");
+        assertNoConstruction(evaluatedAssignment, MINUS, "title");
+    }
+
+    /**
+     * Modified role must not be taken from the cache, even if the cache was not notified about the modification.
+     */
+    @Test
+    public void testRoleCacheModifiedRole() throws Exception {
+        final String TEST_NAME = "testRoleCacheModifiedRole";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        PrismObject<RoleType> cachedRole = roleCache.getReadOnly(RoleType.class, ROLE_CORP_ENGINEER_OID, result);
+
+        ObjectDelta<RoleType> roleDelta = ObjectDelta.createModificationReplaceProperty(RoleType.class, ROLE_CORP_ENGINEER_OID,
+                RoleType.F_DESCRIPTION, prismContext, "Modified engineer");
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        repositoryService.modifyObject(RoleType.class, ROLE_CORP_ENGINEER_OID, roleDelta.getModifications(), result);
+        PrismObject<RoleType> role = roleCache.getReadOnly(RoleType.class, ROLE_CORP_ENGINEER_OID, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        assertNotSame("Stale role returned from cache", cachedRole, role);
+        assertEquals("Wrong description", "Modified engineer", role.asObjectable().getDescription());
+        assertSame("Modified role not cached", role, roleCache.getReadOnly(RoleType.class, ROLE_CORP_ENGINEER_OID, result));
+    }
+
+    /**
+     * Role modified by a different node stays in the global repository cache for a while.
+     * The role cache must not take it from there.
+     */
+    @Test
+    public void testRoleCacheStaleGlobalCache() throws Exception {
+        final String TEST_NAME = "testRoleCacheStaleGlobalCache";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        roleCache.remove(ROLE_CORP_MANAGER_OID);
+        // the global cache is used only by callers which entered the thread-local cache
+        RepositoryCache.enter();
+        try {
+            cacheRepositoryService.getObject(RoleType.class, ROLE_CORP_MANAGER_OID, null, result);
+        } finally {
+            RepositoryCache.exit();
+        }
+
+        ObjectDelta<RoleType> roleDelta = ObjectDelta.createModificationReplaceProperty(RoleType.class, ROLE_CORP_MANAGER_OID,
+                RoleType.F_DESCRIPTION, prismContext, "Modified manager");
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        repositoryService.modifyObject(RoleType.class, ROLE_CORP_MANAGER_OID, roleDelta.getModifications(), result);
+        PrismObject<RoleType> role = roleCache.getReadOnly(RoleType.class, ROLE_CORP_MANAGER_OID, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        assertEquals("Stale role returned from cache", "Modified manager", role.asObjectable().getDescription());
+        assertSame("Modified role not cached", role, roleCache.getReadOnly(RoleType.class, ROLE_CORP_MANAGER_OID, result));
+    }
+
+    @Test
+    public void testRoleCacheMaxSize() throws Exception {
+        final String TEST_NAME = "testRoleCacheMaxSize";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        roleCache.setMaxSize(2);
+        try {
+
+            // WHEN
+            TestUtil.displayWhen(TEST_NAME);
+            roleCache.getReadOnly(RoleType.class, ROLE_CORP_EMPLOYEE_OID, result);
+            PrismObject<RoleType> engineer = roleCache.getReadOnly(RoleType.class, ROLE_CORP_ENGINEER_OID, result);
+            roleCache.getReadOnly(RoleType.class, ROLE_CORP_EMPLOYEE_OID, result);
+            roleCache.getReadOnly(RoleType.class, ROLE_CORP_MANAGER_OID, result);
+
+            // THEN
+            TestUtil.displayThen(TEST_NAME);
+            result.computeStatus();
+            TestUtil.assertSuccess(result);
+
+            assertEquals("Wrong number of cached roles", 2, roleCache.size());
+            assertNotSame("Least recently used role not evicted", engineer,
+                    roleCache.getReadOnly(RoleType.class, ROLE_CORP_ENGINEER_OID, result));
+        } finally {
+            roleCache.setMaxSize(AbstractRoleCache.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    /**
+     * Evaluates an assignment of the top role of a deep hierarchy of roles (each role induces the role below it)
+     * repeatedly, as a recompute of many users that have that role would do. The times are only printed.
+     */
+    @Test
+    public void testDeepRoleHierarchyPerformance() throws Exception {
+        final String TEST_NAME = "testDeepRoleHierarchyPerformance";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(TestAssignmentEvaluator.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        String topRoleOid = createRoleHierarchy(DEEP_HIERARCHY_DEPTH, result);
+
+        AssignmentType assignmentType = new AssignmentType();
+        assignmentType.setTargetRef(ObjectTypeUtil.createObjectRef(topRoleOid, ObjectTypes.ROLE));
+        ItemDeltaItem<PrismContainerValue<AssignmentType>,PrismContainerDefinition<AssignmentType>> assignmentIdi = new ItemDeltaItem<>();
+        assignmentIdi.setItemOld(LensUtil.createAssignmentSingleValueContainerClone(assignmentType));
+        assignmentIdi.recompute();
+
+        AssignmentEvaluator<UserType> assignmentEvaluator = createAssignmentEvaluator();
+        AssignmentEvaluator<UserType> cachedAssignmentEvaluator = createAssignmentEvaluator();
+        cachedAssignmentEvaluator.setRoleCache(roleCache);
+        // warm-up
+        assignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+        cachedAssignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        long start = System.currentTimeMillis();
+        EvaluatedAssignmentImpl<UserType> evaluatedAssignment = null;
+        for (int i = 0; i < DEEP_HIERARCHY_EVALUATIONS; i++) {
+            evaluatedAssignment = assignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+        }
+        long repository = System.currentTimeMillis();
+        EvaluatedAssignmentImpl<UserType> cachedEvaluatedAssignment = null;
+        for (int i = 0; i < DEEP_HIERARCHY_EVALUATIONS; i++) {
+            cachedEvaluatedAssignment = cachedAssignmentEvaluator.evaluate(assignmentIdi, false, userTypeJack, TEST_NAME, task, result);
+        }
+        long cached = System.currentTimeMillis();
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        assertEquals("Wrong number of roles", DEEP_HIERARCHY_DEPTH, evaluatedAssignment.getRoles().size());
+        assertEquals("Wrong number of roles (cached)", DEEP_HIERARCHY_DEPTH, cachedEvaluatedAssignment.getRoles().size());
+        display("Evaluation of " + DEEP_HIERARCHY_DEPTH + " roles deep hierarchy, " + DEEP_HIERARCHY_EVALUATIONS
+                + " times: repository " + (repository - start) + " ms, role cache " + (cached - repository) + " ms");
+    }
+
+    /**
+     * Creates a chain of roles, each role induces the previous one. Returns OID of the last (top) role.
+     */
+    private String createRoleHierarchy(int depth, OperationResult result) throws Exception {
+        String previousOid = null;
+        for (int i = 0; i < depth; i++) {
+            PrismObject<RoleType> role = prismContext.createObject(RoleType.class);
+            RoleType roleType = role.asObjectable();
+            roleType.setName(new PolyStringType("deep-role-" + i));
+            if (previousOid != null) {
+                AssignmentType inducement = new AssignmentType();
+                inducement.setTargetRef(ObjectTypeUtil.createObjectRef(previousOid, ObjectTypes.ROLE));
+                roleType.getInducement().add(inducement);
+            }
+            previousOid = repositoryService.addObject(role, null, result);
+        }
+        return previousOid;
+    }
+
     private void assertNoConstruction(EvaluatedAssignmentImpl<UserType> evaluatedAssignment, PlusMinusZero constructionSet, String attributeName) {
         Collection<Construction<UserType>> constructions = evaluatedAssignment.getConstructionSet(constructionSet);
         for (Construction construction : constructions) {
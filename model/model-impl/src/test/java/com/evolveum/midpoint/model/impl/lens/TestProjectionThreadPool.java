@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.util.Transformer;
+
+/**
+ * Tests the pool that processes projections concurrently. The items simulate slow connector operations.
+ *
+ * @author Radovan Semancik
+ *
+ */
+public class TestProjectionThreadPool {
+
+	private static final int RESOURCES = 3;
+	private static final int ITEMS_PER_RESOURCE = 4;
+	private static final long OPERATION_MILLIS = 100;
+
+	private static final Transformer<Item, String> RESOURCE_EXTRACTOR = new Transformer<Item, String>() {
+		@Override
+		public String transform(Item item) {
+			return item.resourceOid;
+		}
+	};
+
+	private ProjectionThreadPool pool = new ProjectionThreadPool();
+
+	@AfterClass
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void test100Sequential() throws Exception {
+		final String TEST_NAME = "test100Sequential";
+		System.out.println("===[ " + TEST_NAME + " ]===");
+
+		// GIVEN
+		List<Item> items = createItems();
+		SlowProcessor processor = new SlowProcessor();
+
+		// WHEN
+		pool.processAll(items, RESOURCE_EXTRACTOR, 1, 1, processor);
+
+		// THEN
+		assertProcessed(items);
+		assertEquals("Concurrent processing", 1, processor.maxConcurrent.get());
+		for (Item item : items) {
+			assertEquals("Item processed by other thread", Thread.currentThread().getName(), item.threadName);
+		}
+	}
+
+	@Test
+	public void test110Parallel() throws Exception {
+		final String TEST_NAME = "test110Parallel";
+		System.out.println("===[ " + TEST_NAME + " ]===");
+
+		// GIVEN
+		List<Item> items = createItems();
+		SlowProcessor processor = new SlowProcessor();
+
+		// WHEN
+		long start = System.currentTimeMillis();
+		pool.processAll(items, RESOURCE_EXTRACTOR, 10, 2, processor);
+		long duration = System.currentTimeMillis() - start;
+
+		// THEN
+		System.out.println(items.size() + " items processed in " + duration + " ms");
+		assertProcessed(items);
+		assertEquals("Wrong number of concurrently processed items", RESOURCES * 2, processor.maxConcurrent.get());
+		for (AtomicInteger maxConcurrent : processor.maxConcurrentPerResource.values()) {
+			assertEquals("Wrong number of concurrently processed items on one resource", 2, maxConcurrent.get());
+		}
+		assertTrue("Processing took too long: " + duration + " ms",
+				duration < items.size() * OPERATION_MILLIS);
+	}
+
+	@Test
+	public void test120Exception() throws Exception {
+		final String TEST_NAME = "test120Exception";
+		System.out.println("===[ " + TEST_NAME + " ]===");
+
+		// GIVEN
+		List<Item> items = createItems();
+		final Item failingItem = items.get(1);
+		final SlowProcessor processor = new SlowProcessor();
+
+		// WHEN
+		try {
+			pool.processAll(items, RESOURCE_EXTRACTOR, 10, 1, new ProjectionThreadPool.Processor<Item>() {
+				@Override
+				public void process(Item item) {
+					if (item == failingItem) {
+						throw new IllegalStateException("Failed " + item);
+					}
+					processor.process(item);
+				}
+			});
+			fail("Unexpected success");
+		} catch (IllegalStateException e) {
+			// THEN
+			System.out.println("Expected exception: " + e.getMessage());
+		}
+		for (Item item : items) {
+			if (item.resourceOid.equals(failingItem.resourceOid)) {
+				// the items on the same resource after the failing one are not processed
+				continue;
+			}
+			assertTrue("Item " + item + " not processed", item.processed);
+		}
+	}
+
+	@Test
+	public void test130Nested() throws Exception {
+		final String TEST_NAME = "test130Nested";
+		System.out.println("===[ " + TEST_NAME + " ]===");
+
+		// GIVEN
+		List<Item> items = createItems();
+		final List<Item> nestedItems = createItems();
+		final SlowProcessor processor = new SlowProcessor();
+
+		// WHEN
+		pool.processAll(items, RESOURCE_EXTRACTOR, 2, 1, new ProjectionThreadPool.Processor<Item>() {
+			@Override
+			public void process(Item item) {
+				processor.process(item);
+				if (item.resourceOid.equals("resource0") && item.index == 0) {
+					// must not wait for the (busy) pool
+					pool.processAll(nestedItems, RESOURCE_EXTRACTOR, 2, 1, processor);
+				}
+			}
+		});
+
+		// THEN
+		assertProcessed(items);
+		assertProcessed(nestedItems);
+	}
+
+	private List<Item> createItems() {
+		List<Item> items = new ArrayList<>();
+		for (int i = 0; i < ITEMS_PER_RESOURCE; i++) {
+			for (int r = 0; r < RESOURCES; r++) {
+				items.add(new Item("resource" + r, i));
+			}
+		}
+		return items;
+	}
+
+	private void assertProcessed(List<Item> items) {
+		for (Item item : items) {
+			assertTrue("Item " + item + " not processed", item.processed);
+		}
+	}
+
+	private static class Item {
+		private final String resourceOid;
+		private final int index;
+		private volatile boolean processed;
+		private volatile String threadName;
+
+		private Item(String resourceOid, int index) {
+			this.resourceOid = resourceOid;
+			this.index = index;
+		}
+
+		@Override
+		public String toString() {
+			return resourceOid + ":" + index;
+		}
+	}
+
+	private static class SlowProcessor implements ProjectionThreadPool.Processor<Item> {
+
+		private final AtomicInteger concurrent = new AtomicInteger();
+		private final AtomicInteger maxConcurrent = new AtomicInteger();
+		private final ConcurrentMap<String, AtomicInteger> concurrentPerResource = new ConcurrentHashMap<>();
+		private final ConcurrentMap<String, AtomicInteger> maxConcurrentPerResource = new ConcurrentHashMap<>();
+
+		@Override
+		public void process(Item item) {
+			concurrentPerResource.putIfAbsent(item.resourceOid, new AtomicInteger());
+			maxConcurrentPerResource.putIfAbsent(item.resourceOid, new AtomicInteger());
+			updateMax(maxConcurrent, concurrent.incrementAndGet());
+			updateMax(maxConcurrentPerResource.get(item.resourceOid), concurrentPerResource.get(item.resourceOid).incrementAndGet());
+			try {
+				Thread.sleep(OPERATION_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			concurrentPerResource.get(item.resourceOid).decrementAndGet();
+			concurrent.decrementAndGet();
+			item.threadName = Thread.currentThread().getName();
+			item.processed = true;
+		}
+
+		private void updateMax(AtomicInteger max, int value) {
+			int current;
+			do {
+				current = max.get();
+			} while (value > current && !max.compareAndSet(current, value));
+		}
+	}
+}
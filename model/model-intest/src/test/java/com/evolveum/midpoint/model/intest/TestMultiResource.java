@@ -16,10 +16,16 @@
 package com.evolveum.midpoint.model.intest;
 
 import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
@@ -29,14 +35,18 @@ import org.testng.annotations.Test;
 
 import com.evolveum.icf.dummy.resource.BreakMode;
 import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.model.api.PolicyViolationException;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
 import com.evolveum.midpoint.prism.PrismContainerValue;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismReference;
 import com.evolveum.midpoint.prism.PrismReferenceValue;
 import com.evolveum.midpoint.prism.delta.ChangeType;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.schema.ObjectDeltaOperation;
@@ -58,10 +68,13 @@ import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentPolicyEnforcementType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.InternalsConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 /**
@@ -117,6 +130,16 @@ public class TestMultiResource extends AbstractInitializedModelIntegrationTest {
 
 	private static final String USER_FIELD_NAME = "field";
 	
+	private static final String USER_CONCURRENT_NAME = "concurrent";
+	private static final String USER_CONCURRENT_ERROR_NAME = "concurrenterror";
+	private static final String USER_SEQUENTIAL_NAME = "sequential";
+	private static final String USER_CONCURRENT_FULL_NAME = "Concurrent Pirate";
+	private static final int PROJECTION_THREADS = 4;
+	private static final String OPERATION_EXECUTE_PROJECTION = ChangeExecutor.class.getName() + ".execute.projection";
+	
+	private static ErrorOutcome sequentialErrorOutcome;
+	private static ErrorOutcome concurrentErrorOutcome;
+	
 	protected static DummyResource dummyResourceYellow;
 	protected static DummyResourceContoller dummyResourceCtlYellow;
 	protected ResourceType resourceDummyYellowType;
@@ -1850,4 +1873,199 @@ public class TestMultiResource extends AbstractInitializedModelIntegrationTest {
 			throw ex;
 		}
 	}
+
+	/**
+	 * Default dummy and blue dummy have no dependencies, so the accounts are created concurrently.
+	 */
+	@Test
+    public void test500AssignDummyAndBlueConcurrently() throws Exception {
+		final String TEST_NAME = "test500AssignDummyAndBlueConcurrently";
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestMultiResource.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        assumeAssignmentPolicy(AssignmentPolicyEnforcementType.RELATIVE);
+        dummyResource.resetBreakMode();
+        String userOid = addUser(USER_CONCURRENT_NAME, task, result);
+        setConcurrentProjectionExecution(true, task, result);
+        try {
+        	
+        	// WHEN
+        	assignDummyAndBlue(userOid, task, result);
+        	
+        } finally {
+        	setConcurrentProjectionExecution(false, task, result);
+        }
+        
+        // THEN
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+        
+        PrismObject<UserType> user = getUser(userOid);
+        assertLinks(user, 2);
+        getLinkRefOid(user, RESOURCE_DUMMY_OID);
+        getLinkRefOid(user, RESOURCE_DUMMY_BLUE_OID);
+        assertDummyAccount(null, USER_CONCURRENT_NAME, USER_CONCURRENT_FULL_NAME, true);
+        assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, USER_CONCURRENT_NAME, USER_CONCURRENT_FULL_NAME, true);
+        assertEquals("Wrong projection results", 
+        		Arrays.asList(OperationResultStatus.SUCCESS, OperationResultStatus.SUCCESS), getProjectionResultStatuses(result));
+        
+        display("Audit", dummyAuditService);
+        dummyAuditService.assertSimpleRecordSanity();
+        dummyAuditService.assertAnyRequestDeltas();
+        assertEquals("Wrong audited shadow additions", 
+        		Arrays.asList("ADD ShadowType SUCCESS", "ADD ShadowType SUCCESS"), getAuditedExecutionDeltas(ShadowType.class));
+        dummyAuditService.assertExecutionSuccess();
+	}
+	
+	/**
+	 * Blue dummy fails. The outcome is recorded to be compared with the concurrent execution.
+	 */
+	@Test
+    public void test510AssignDummyAndBlueErrorSequentially() throws Exception {
+		final String TEST_NAME = "test510AssignDummyAndBlueErrorSequentially";
+		assignDummyAndBlueError(TEST_NAME, USER_SEQUENTIAL_NAME, false);
+	}
+	
+	/**
+	 * Blue dummy fails while the default dummy account is created concurrently. The outcome has to be
+	 * the same as if the accounts were created one after another.
+	 */
+	@Test
+    public void test511AssignDummyAndBlueErrorConcurrently() throws Exception {
+		final String TEST_NAME = "test511AssignDummyAndBlueErrorConcurrently";
+		assignDummyAndBlueError(TEST_NAME, USER_CONCURRENT_ERROR_NAME, true);
+		
+		assertEquals("Result differs from sequential execution", sequentialErrorOutcome.resultStatus, concurrentErrorOutcome.resultStatus);
+		assertEquals("Links differ from sequential execution", sequentialErrorOutcome.links, concurrentErrorOutcome.links);
+		assertEquals("Projection results differ from sequential execution", 
+				sequentialErrorOutcome.projectionResultStatuses, concurrentErrorOutcome.projectionResultStatuses);
+		assertEquals("Audit differs from sequential execution", 
+				sequentialErrorOutcome.auditedDeltas, concurrentErrorOutcome.auditedDeltas);
+	}
+	
+	private void assignDummyAndBlueError(final String TEST_NAME, String username, boolean concurrent) throws Exception {
+		TestUtil.displayTestTile(this, TEST_NAME);
+		
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestMultiResource.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+        assumeAssignmentPolicy(AssignmentPolicyEnforcementType.RELATIVE);
+        dummyResource.resetBreakMode();
+        String userOid = addUser(username, task, result);
+        setConcurrentProjectionExecution(concurrent, task, result);
+        dummyResourceBlue.setAddBreakMode(BreakMode.UNSUPPORTED);
+        try {
+        	
+        	// WHEN
+        	assignDummyAndBlue(userOid, task, result);
+        	
+        } finally {
+        	dummyResourceBlue.resetBreakMode();
+        	setConcurrentProjectionExecution(false, task, result);
+        }
+        
+        // THEN
+        result.computeStatus();
+        display(result);
+        assertFalse("Unexpected success", result.isSuccess());
+        
+        PrismObject<UserType> user = getUser(userOid);
+        getLinkRefOid(user, RESOURCE_DUMMY_OID);
+        assertDummyAccount(null, username, USER_CONCURRENT_FULL_NAME, true);
+        assertNoDummyAccount(RESOURCE_DUMMY_BLUE_NAME, username);
+        List<OperationResultStatus> projectionResultStatuses = getProjectionResultStatuses(result);
+        assertEquals("Wrong number of projection results", 2, projectionResultStatuses.size());
+        assertTrue("No failed projection", projectionResultStatuses.contains(OperationResultStatus.FATAL_ERROR));
+        
+        display("Audit", dummyAuditService);
+        dummyAuditService.assertSimpleRecordSanity();
+        
+        ErrorOutcome outcome = new ErrorOutcome();
+        outcome.resultStatus = result.getStatus();
+        outcome.links = user.asObjectable().getLinkRef().size();
+        outcome.projectionResultStatuses = projectionResultStatuses;
+        outcome.auditedDeltas = getAuditedExecutionDeltas(ObjectType.class);
+        if (concurrent) {
+        	concurrentErrorOutcome = outcome;
+        } else {
+        	sequentialErrorOutcome = outcome;
+        }
+	}
+	
+	private String addUser(String username, Task task, OperationResult result) throws Exception {
+		PrismObject<UserType> user = createUser(username, USER_CONCURRENT_FULL_NAME, true);
+		addObject(user, task, result);
+		dummyAuditService.clear();
+		return user.getOid();
+	}
+	
+	private void assignDummyAndBlue(String userOid, Task task, OperationResult result) throws Exception {
+		Collection<ItemDelta<?,?>> modifications = new ArrayList<>();
+		modifications.add(createAssignmentModification(RESOURCE_DUMMY_OID, ShadowKindType.ACCOUNT, null, true));
+		modifications.add(createAssignmentModification(RESOURCE_DUMMY_BLUE_OID, ShadowKindType.ACCOUNT, null, true));
+		ObjectDelta<UserType> userDelta = ObjectDelta.createModifyDelta(userOid, modifications, UserType.class, prismContext);
+		modelService.executeChanges(MiscSchemaUtil.createCollection(userDelta), null, task, result);
+	}
+	
+	private void setConcurrentProjectionExecution(boolean concurrent, Task task, OperationResult result) throws Exception {
+		OperationResult subresult = result.createSubresult(TestMultiResource.class.getName() + ".setConcurrentProjectionExecution");
+		ItemPath internalsPath = new ItemPath(SystemConfigurationType.F_INTERNALS);
+		if (concurrent) {
+			modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, 
+					internalsPath.subPath(InternalsConfigurationType.F_PROJECTION_THREADS), task, subresult, PROJECTION_THREADS);
+			modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, 
+					internalsPath.subPath(InternalsConfigurationType.F_CONCURRENT_PROJECTION_EXECUTION), task, subresult, true);
+		} else {
+			modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, 
+					internalsPath.subPath(InternalsConfigurationType.F_PROJECTION_THREADS), task, subresult);
+			modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, 
+					internalsPath.subPath(InternalsConfigurationType.F_CONCURRENT_PROJECTION_EXECUTION), task, subresult);
+		}
+		subresult.computeStatus();
+		TestUtil.assertSuccess(subresult);
+	}
+	
+	/**
+	 * Statuses of the results of projection executions, in the order in which they are in the result.
+	 */
+	private List<OperationResultStatus> getProjectionResultStatuses(OperationResult result) {
+		List<OperationResultStatus> statuses = new ArrayList<>();
+		collectProjectionResultStatuses(result, statuses);
+		return statuses;
+	}
+	
+	private void collectProjectionResultStatuses(OperationResult result, List<OperationResultStatus> statuses) {
+		if (result.getOperation().startsWith(OPERATION_EXECUTE_PROJECTION)) {
+			statuses.add(result.getStatus());
+			return;
+		}
+		for (OperationResult subresult : result.getSubresults()) {
+			collectProjectionResultStatuses(subresult, statuses);
+		}
+	}
+	
+	private List<String> getAuditedExecutionDeltas(Class<? extends ObjectType> type) {
+		List<String> deltas = new ArrayList<>();
+		for (AuditEventRecord record : dummyAuditService.getExecutionRecords()) {
+			for (ObjectDeltaOperation<? extends ObjectType> deltaOp : record.getDeltas()) {
+				ObjectDelta<? extends ObjectType> delta = deltaOp.getObjectDelta();
+				if (type.isAssignableFrom(delta.getObjectTypeClass())) {
+					OperationResult executionResult = deltaOp.getExecutionResult();
+					deltas.add(delta.getChangeType() + " " + delta.getObjectTypeClass().getSimpleName() + " "
+							+ (executionResult != null ? executionResult.getStatus() : null));
+				}
+			}
+		}
+		Collections.sort(deltas);
+		return deltas;
+	}
+	
+	private static class ErrorOutcome {
+		private OperationResultStatus resultStatus;
+		private int links;
+		private List<OperationResultStatus> projectionResultStatuses;
+		private List<String> auditedDeltas;
+	}
 }
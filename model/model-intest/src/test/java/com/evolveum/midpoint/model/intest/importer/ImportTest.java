@@ -85,6 +85,11 @@ public class ImportTest extends AbstractConfiguredModelIntegrationTest {
 	private static final File TEST_FOLDER_COMMON = new File("./src/test/resources/common");
 	private static final File IMPORT_USERS_FILE = new File(TEST_FILE_DIRECTORY, "import-users.xml");
 	private static final File IMPORT_USERS_OVERWRITE_FILE = new File(TEST_FILE_DIRECTORY, "import-users-overwrite.xml");
+	private static final File IMPORT_USERS_WORKERS_FILE = new File(TEST_FILE_DIRECTORY, "import-users-workers.xml");
+	private static final String[] IMPORT_USERS_WORKERS_OIDS = {
+			"c0c010c0-d34d-b33f-f00d-111111112001", "c0c010c0-d34d-b33f-f00d-111111112002",
+			"c0c010c0-d34d-b33f-f00d-111111112003", "c0c010c0-d34d-b33f-f00d-111111112004",
+			"c0c010c0-d34d-b33f-f00d-111111112005", "c0c010c0-d34d-b33f-f00d-111111112006" };
 	private static final String USER_JACK_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
 	private static final String USER_WILL_OID = "c0c010c0-d34d-b33f-f00d-111111111112";
 	private static final File CONNECTOR_DBTABLE_FILE = new File(TEST_FOLDER_COMMON, "connector-dbtable.xml");
@@ -653,6 +658,47 @@ public class ImportTest extends AbstractConfiguredModelIntegrationTest {
         dummyAuditService.assertExecutionSuccess();
 	}
 	
+	/**
+	 * Objects are imported by worker threads. They need the security context and a task of their own.
+	 */
+	@Test
+	public void test050ImportUsersWorkerThreads() throws Exception {
+		final String TEST_NAME = "test050ImportUsersWorkerThreads";
+		TestUtil.displayTestTile(this,TEST_NAME);
+		// GIVEN
+		Task task = taskManager.createTaskInstance();
+		task.setOwner(getUser(USER_ADMINISTRATOR_OID));
+		OperationResult result = new OperationResult(ImportTest.class.getName() + "." + TEST_NAME);
+		FileInputStream stream = new FileInputStream(IMPORT_USERS_WORKERS_FILE);
+
+		ImportOptionsType importOptions = getDefaultImportOptions();
+		importOptions.setWorkerThreads(2);
+
+		dummyAuditService.clear();
+
+		// WHEN
+		modelService.importObjectsFromStream(stream, importOptions, task, result);
+
+		// THEN
+		result.computeStatus();
+		display("Result after import with worker threads", result);
+		TestUtil.assertSuccess("Import has failed (result)", result);
+
+		for (String oid : IMPORT_USERS_WORKERS_OIDS) {
+			UserType user = repositoryService.getObject(UserType.class, oid, null, result).asObjectable();
+			assertNotNull("No metadata in " + user, user.getMetadata());
+			assertNotNull("No creator in " + user, user.getMetadata().getCreatorRef());
+			assertEquals("Wrong creator in " + user, USER_ADMINISTRATOR_OID, user.getMetadata().getCreatorRef().getOid());
+		}
+
+		assertUsers(6 + IMPORT_USERS_WORKERS_OIDS.length);
+
+		// Check audit
+        display("Audit", dummyAuditService);
+        dummyAuditService.assertRecords(2 * IMPORT_USERS_WORKERS_OIDS.length);
+        dummyAuditService.assertSimpleRecordSanity();
+	}
+
 	private void assertDummyResource(PrismObject<ResourceType> resource, boolean fromRepo) {
 		PrismContainer<Containerable> configurationPropertiesContainer = assertResource(resource, "Dummy Resource", RESOURCE_DUMMY_NAMESPACE, 
 				dummyConnector.getOid(), fromRepo);
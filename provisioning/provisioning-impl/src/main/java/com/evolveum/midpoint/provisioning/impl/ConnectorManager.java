@@ -85,6 +85,8 @@ public class ConnectorManager {
 	private ConnectorFactory connectorFactory;
 	@Autowired(required = true)
 	private PrismContext prismContext;
+	@Autowired(required = true)
+	private ResourceCache resourceCache;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ConnectorManager.class);
 
@@ -208,7 +210,10 @@ public class ConnectorManager {
 					connectorTypeCache.put(connOid, connectorType);
 				}
 			}
-			resourceType.setConnector(connectorType);
+			if (!resourceCache.isCached(resourceType.asPrismObject())) {
+				// Resource instance shared by the cache must not be modified. Connector is cached here anyway.
+				resourceType.setConnector(connectorType);
+			}
 		}
 		if (connectorType.getConnectorHost() == null && connectorType.getConnectorHostRef() != null) {
 			// We need to resolve the connector host
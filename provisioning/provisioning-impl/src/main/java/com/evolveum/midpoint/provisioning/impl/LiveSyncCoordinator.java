@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Coordinates processing of changes detected by live synchronization.
+ *
+ * Changes are processed either directly in the thread that fetches them or by worker threads
+ * (lightweight subtasks of the synchronization task). All changes of one resource object are
+ * processed by the same worker, so they are processed in the order in which they were detected.
+ *
+ * Changes are numbered in the order in which they were received. The sync token is advanced only
+ * to the token of a change that was processed together with all the changes received before it.
+ * Such token is periodically stored in the task (checkpoint), so an interrupted or failed run
+ * continues from the last checkpoint instead of processing all the changes again.
+ *
+ * @author Radovan Semancik
+ */
+class LiveSyncCoordinator {
+
+	private static final Trace LOGGER = TraceManager.getTrace(LiveSyncCoordinator.class);
+
+	private static final long WORKER_THREAD_WAIT_FOR_REQUEST = 500;
+	private static final int WORKER_QUEUE_SIZE = 100;
+
+	private final ShadowCache shadowCache;
+	private final ProvisioningContext ctx;
+	private final Task coordinatorTask;
+	private final TaskManager taskManager;
+	private final int checkpointInterval;
+
+	// used only by the thread that submits changes
+	private long lastSequenceNumber = 0;
+	private int changesSinceCheckpoint = 0;
+	private PrismProperty<?> savedToken;
+
+	private List<BlockingQueue<ProcessingRequest>> requestQueues;
+	private List<OperationResult> workerSpecificResults;
+	private volatile boolean allChangesSubmitted = false;
+
+	private final AtomicInteger processedChanges = new AtomicInteger();
+	private final AtomicReference<Exception> exception = new AtomicReference<>();
+
+	// guarded by this
+	private final Map<Long, PrismProperty<?>> completedChanges = new HashMap<>();
+	private long completedSequenceNumber = 0;
+	private PrismProperty<?> safeToken;
+
+	LiveSyncCoordinator(ShadowCache shadowCache, ProvisioningContext ctx, TaskManager taskManager, int checkpointInterval) {
+		this.shadowCache = shadowCache;
+		this.ctx = ctx;
+		this.coordinatorTask = ctx.getTask();
+		this.taskManager = taskManager;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Starts the worker threads. If the number of threads is zero then the changes are processed
+	 * directly in the thread that submits them.
+	 */
+	void startWorkers(int threadsCount) {
+		if (threadsCount <= 0) {
+			return;
+		}
+
+		requestQueues = new ArrayList<>(threadsCount);
+		workerSpecificResults = new ArrayList<>(threadsCount);
+		for (int i = 0; i < threadsCount; i++) {
+			BlockingQueue<ProcessingRequest> requestQueue = new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE);
+			requestQueues.add(requestQueue);
+
+			// worker specific result is not put under main operation result until the processing is done
+			OperationResult workerSpecificResult = new OperationResult(ShadowCache.class.getName() + ".synchronize.worker");
+			workerSpecificResult.addContext("subtask", i);
+			workerSpecificResults.add(workerSpecificResult);
+
+			Task subtask = coordinatorTask.createSubtask(new WorkerHandler(requestQueue, workerSpecificResult));
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(ShadowCache.class.getName() + ".synchronize.executeWorker",
+					OperationResultStatus.IN_PROGRESS, null));
+			subtask.setName("Worker thread " + (i+1) + " of " + threadsCount);
+			subtask.startLightweightHandler();
+			LOGGER.trace("Worker subtask {} created", subtask);
+		}
+	}
+
+	/**
+	 * Submits the change for processing. It is called by the thread that fetches the changes.
+	 *
+	 * @return false if the processing should stop (because of an error or because the task was suspended)
+	 */
+	boolean submit(Change<ShadowType> change, OperationResult parentResult) {
+		if (exception.get() != null) {
+			return false;
+		}
+		if (!coordinatorTask.canRun()) {
+			LOGGER.debug("Live synchronization of {} was interrupted", ctx.getResourceOid());
+			return false;
+		}
+
+		long sequenceNumber = ++lastSequenceNumber;
+		if (requestQueues == null) {
+			process(sequenceNumber, change, coordinatorTask, parentResult);
+		} else {
+			BlockingQueue<ProcessingRequest> requestQueue = requestQueues.get(getWorkerIndex(change));
+			ProcessingRequest request = new ProcessingRequest(sequenceNumber, change);
+			try {
+				while (!requestQueue.offer(request, WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS)) {
+					if (exception.get() != null || !coordinatorTask.canRun()) {
+						return false;
+					}
+				}
+			} catch (InterruptedException e) {
+				LOGGER.debug("Interrupted while submitting change {}", change);
+				return false;
+			}
+		}
+
+		if (++changesSinceCheckpoint >= checkpointInterval) {
+			try {
+				saveCheckpoint(parentResult);
+			} catch (ObjectNotFoundException | SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+				exception.compareAndSet(null, e);
+			}
+		}
+
+		return exception.get() == null;
+	}
+
+	/**
+	 * Waits until all submitted changes are processed and stores the checkpoint. The checkpoint is
+	 * stored also if the processing has failed, so the next run does not repeat the processed changes.
+	 */
+	void finish(OperationResult parentResult) {
+		allChangesSubmitted = true;
+		if (requestQueues != null) {
+			taskManager.waitForTransientChildren(coordinatorTask, parentResult);
+			for (OperationResult workerSpecificResult : workerSpecificResults) {
+				workerSpecificResult.computeStatus();
+				workerSpecificResult.summarize();
+				parentResult.addSubresult(workerSpecificResult);
+			}
+		}
+		try {
+			saveCheckpoint(parentResult);
+		} catch (ObjectNotFoundException | SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+			LoggingUtils.logException(LOGGER, "Couldn't save sync token checkpoint in {}", e, coordinatorTask);
+		}
+	}
+
+	/**
+	 * Stores the token of the last change that was processed together with all the changes before it.
+	 */
+	private void saveCheckpoint(OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+		changesSinceCheckpoint = 0;
+		PrismProperty<?> token;
+		synchronized (this) {
+			token = safeToken;
+		}
+		if (token == null || token == savedToken) {
+			return;
+		}
+		LOGGER.trace("Saving sync token checkpoint {}", token);
+		coordinatorTask.setExtensionProperty(token);
+		coordinatorTask.savePendingModifications(parentResult);
+		savedToken = token;
+	}
+
+	/**
+	 * Returns the exception that stopped the processing (if any).
+	 */
+	Exception getException() {
+		return exception.get();
+	}
+
+	int getProcessedChanges() {
+		return processedChanges.get();
+	}
+
+	long getSubmittedChanges() {
+		return lastSequenceNumber;
+	}
+
+	private void process(long sequenceNumber, Change<ShadowType> change, Task workerTask, OperationResult parentResult) {
+		if (exception.get() != null) {
+			// Processing is stopping, this change will be processed by the next run.
+			return;
+		}
+		boolean processed;
+		try {
+			processed = shadowCache.processSynchronizationChange(ctx, change, workerTask, parentResult);
+		} catch (Exception e) {
+			LOGGER.debug("Processing of change {} failed: {}", change, e.getMessage());
+			exception.compareAndSet(null, e);
+			return;
+		}
+		if (processed) {
+			processedChanges.incrementAndGet();
+		}
+		recordCompleted(sequenceNumber, processed ? change.getToken() : null);
+	}
+
+	private synchronized void recordCompleted(long sequenceNumber, PrismProperty<?> token) {
+		completedChanges.put(sequenceNumber, token);
+		while (completedChanges.containsKey(completedSequenceNumber + 1)) {
+			completedSequenceNumber++;
+			PrismProperty<?> completedToken = completedChanges.remove(completedSequenceNumber);
+			if (completedToken != null) {
+				safeToken = completedToken;
+			}
+		}
+	}
+
+	private int getWorkerIndex(Change<ShadowType> change) {
+		int hash = 0;
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (identifiers != null) {
+			for (ResourceAttribute<?> identifier : identifiers) {
+				hash += identifier.getElementName().hashCode() ^ identifier.getRealValues().hashCode();
+			}
+		}
+		return (hash & Integer.MAX_VALUE) % requestQueues.size();
+	}
+
+	private static class ProcessingRequest {
+		private final long sequenceNumber;
+		private final Change<ShadowType> change;
+
+		ProcessingRequest(long sequenceNumber, Change<ShadowType> change) {
+			this.sequenceNumber = sequenceNumber;
+			this.change = change;
+		}
+	}
+
+	private class WorkerHandler implements LightweightTaskHandler {
+
+		private final BlockingQueue<ProcessingRequest> requestQueue;
+		private final OperationResult workerSpecificResult;
+
+		WorkerHandler(BlockingQueue<ProcessingRequest> requestQueue, OperationResult workerSpecificResult) {
+			this.requestQueue = requestQueue;
+			this.workerSpecificResult = workerSpecificResult;
+		}
+
+		@Override
+		public void run(Task workerTask) {
+			while (workerTask.canRun()) {
+				ProcessingRequest request;
+				try {
+					request = requestQueue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for next change", e);
+					return;
+				}
+				if (request != null) {
+					process(request.sequenceNumber, request.change, workerTask, workerSpecificResult);
+				} else if (allChangesSubmitted) {
+					LOGGER.trace("Queue is empty and nothing more is expected - exiting");
+					return;
+				}
+			}
+		}
+	}
+}
@@ -104,7 +104,8 @@ public class ProvisioningContext {
 			if (resourceOid == null) {
 				throw new SchemaException("Null resource OID "+getDesc());
 			}
-			resource = resourceManager.getResource(resourceOid, parentResult).asObjectable();
+			// Resource is used only for reading here, so the instance shared by the resource cache is good enough
+			resource = resourceManager.getResource(resourceOid, true, parentResult).asObjectable();
 		}
 		return resource;
 	}
@@ -15,43 +15,49 @@
  */
 package com.evolveum.midpoint.provisioning.impl;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Element;
 
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
-import com.evolveum.midpoint.prism.schema.PrismSchema;
-import com.evolveum.midpoint.schema.processor.ResourceSchema;
-import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
-import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingMetadataType;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.XmlSchemaType;
 
 /**
  * Class for caching ResourceType instances with a parsed schemas.
  * 
+ * The cache may be used by many threads concurrently. Resources are kept in a ConcurrentHashMap, so reads
+ * don't lock. Cached resources are private copies that are made immutable before they are published,
+ * so any attempt to modify a shared instance fails instead of corrupting it. Parsed resource schema and
+ * refined schema are created before the resource is published, therefore all copies of one resource
+ * version share the same schema instances and readers never modify the cached resource.
+ * 
+ * Concurrent puts of one resource are not serialized: the last one wins. A resource is returned only
+ * if its version matches the requested one, so a reader never gets a version other than the one it asked for.
+ * 
  * @author Radovan Semancik
  *
  */
 @Component
 public class ResourceCache {
 
-	private Map<String,PrismObject<ResourceType>> cache;
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceCache.class);
+
+	private ConcurrentMap<String,PrismObject<ResourceType>> cache;
     @Autowired(required = true)
 	private PrismContext prismContext;
 
     ResourceCache() {
-        cache = new HashMap<String, PrismObject<ResourceType>>();
+        cache = new ConcurrentHashMap<String, PrismObject<ResourceType>>();
     }
 	
-	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+	public void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
 		if (oid == null) {
 			throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -63,16 +69,26 @@ public class ResourceCache {
 		}
 		
 		PrismObject<ResourceType> cachedResource = cache.get(oid);
-		if (cachedResource == null) {
-			cache.put(oid, resource.clone());
-		} else {
-			if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
-				// We already have equivalent resource, nothing to do
-				return;
-			} else {
-				cache.put(oid, resource.clone());
-			}
+		if (cachedResource != null && compareVersion(version, cachedResource.getVersion())) {
+			// We already have equivalent resource, nothing to do
+			return;
+		}
+		
+		PrismObject<ResourceType> resourceToCache = resource.clone();
+		// Schemas are stored in user data of the resource. Parse them now, so they are not
+		// parsed (and user data are not modified) when the cached resource is already shared.
+		try {
+			RefinedResourceSchema.getResourceSchema(resourceToCache, prismContext);
+			RefinedResourceSchema.getRefinedSchema(resourceToCache, prismContext);
+		} catch (SchemaException e) {
+			// The error will be reported when the schema is used. Resource is not cached as it is not usable anyway.
+			LOGGER.debug("Not caching {} because its schema cannot be parsed: {}", resource, e.getMessage());
+			cache.remove(oid);
+			return;
 		}
+		resourceToCache.setImmutable(true);
+		
+		cache.put(oid, resourceToCache);
 	}
 	
 	private boolean compareVersion(String version1, String version2) {
@@ -85,11 +101,28 @@ public class ResourceCache {
 		return version1.equals(version2);
 	}
 
-	public synchronized PrismObject<ResourceType> get(PrismObject<ResourceType> resource) throws SchemaException {
+	public PrismObject<ResourceType> get(PrismObject<ResourceType> resource) throws SchemaException {
 		return get(resource.getOid(), resource.getVersion());
 	}
 	
-	public synchronized PrismObject<ResourceType> get(String oid, String version) throws SchemaException {
+	/**
+	 * Returns a copy of the cached resource. The copy can be freely modified by the caller.
+	 * Parsed schemas are shared with the cached resource.
+	 */
+	public PrismObject<ResourceType> get(String oid, String version) throws SchemaException {
+		PrismObject<ResourceType> cachedResource = getReadOnly(oid, version);
+		if (cachedResource == null) {
+			return null;
+		}
+		
+		return cachedResource.clone();
+	}
+	
+	/**
+	 * Returns the cached resource itself, without cloning. The returned resource is shared by all
+	 * threads, therefore it is immutable.
+	 */
+	public PrismObject<ResourceType> getReadOnly(String oid, String version) {
 		if (oid == null) {
 			return null;
 		}
@@ -103,7 +136,15 @@ public class ResourceCache {
 			return null;
 		}
 		
-		return cachedResource.clone();
+		return cachedResource;
+	}
+	
+	/**
+	 * Returns true if the resource is the instance that is shared by the cache,
+	 * i.e. it was returned by {@link #getReadOnly(String, String)}.
+	 */
+	public boolean isCached(PrismObject<ResourceType> resource) {
+		return resource.getOid() != null && cache.get(resource.getOid()) == resource;
 	}
 	
 	/**
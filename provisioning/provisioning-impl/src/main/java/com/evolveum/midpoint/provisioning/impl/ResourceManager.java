@@ -135,10 +135,18 @@ public class ResourceManager {
 	}
 	
 	public PrismObject<ResourceType> getResource(String oid, OperationResult parentResult) throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException{
+		return getResource(oid, false, parentResult);
+	}
+	
+	/**
+	 * @param readOnly if true then the resource instance from the cache is returned without cloning.
+	 *                 Such resource is shared by all threads and it MUST NOT be modified.
+	 */
+	public PrismObject<ResourceType> getResource(String oid, boolean readOnly, OperationResult parentResult) throws ObjectNotFoundException, SchemaException, CommunicationException, ConfigurationException{
 		InternalMonitor.getResourceCacheStats().recordRequest();
 		
 		String version = repositoryService.getVersion(ResourceType.class, oid, parentResult);
-		PrismObject<ResourceType> cachedResource = resourceCache.get(oid, version);
+		PrismObject<ResourceType> cachedResource = readOnly ? resourceCache.getReadOnly(oid, version) : resourceCache.get(oid, version);
 		if (cachedResource != null) {
 			InternalMonitor.getResourceCacheStats().recordHit();
 			if (LOGGER.isTraceEnabled()){
@@ -692,6 +700,11 @@ public class ResourceManager {
 	public void modifyResourceAvailabilityStatus(PrismObject<ResourceType> resource, AvailabilityStatusType status, OperationResult result){
 			ResourceType resourceType = resource.asObjectable();
 			
+			if (resourceType.getOperationalState() != null && resourceType.getOperationalState().getLastAvailabilityStatus() == status) {
+				// Nothing to do. The resource may be shared by the cache, so it must not be touched at all.
+				return;
+			}
+			
 			if (resourceType.getOperationalState() == null || resourceType.getOperationalState().getLastAvailabilityStatus() == null || resourceType.getOperationalState().getLastAvailabilityStatus() != status) {
 				List<PropertyDelta<?>> modifications = new ArrayList<PropertyDelta<?>>();
 				PropertyDelta<?> statusDelta = createResourceAvailabilityStatusDelta(resource, status);
@@ -708,6 +721,11 @@ public class ResourceManager {
 					throw new SystemException(ex);
 				}
 			}
+			if (resourceCache.isCached(resource)) {
+				// Shared instance cannot be modified. It is outdated now anyway, as the repository version has changed.
+				resourceCache.remove(resource.getOid());
+				return;
+			}
 			if (resourceType.getOperationalState() == null){
 				OperationalStateType operationalState = new OperationalStateType();
 				operationalState.setLastAvailabilityStatus(status);
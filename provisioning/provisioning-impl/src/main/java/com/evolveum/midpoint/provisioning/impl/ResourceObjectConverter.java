@@ -66,6 +66,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
@@ -1441,91 +1442,139 @@ public class ResourceObjectConverter {
 		return new ItemPath(ShadowType.F_ATTRIBUTES).equivalent(itemDelta.getParentPath());
 	}
 
-	public List<Change<ShadowType>> fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken,
-			OperationResult parentResult) throws SchemaException,
+	/**
+	 * Fetches changes from the resource and passes them to the handler one by one, as they are
+	 * received from the connector. Changes are completed (current shadow is fetched if needed, etc.)
+	 * before they are passed to the handler.
+	 * 
+	 * @return last token received from the connector or null if there is no such token
+	 *         or if the handler has stopped the processing
+	 */
+	public PrismProperty<?> fetchChanges(final ProvisioningContext ctx, PrismProperty<?> lastToken,
+			final ChangeHandler<ShadowType> handler, final OperationResult parentResult) throws SchemaException,
 			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException {
 		Validate.notNull(parentResult, "Operation result must not be null.");
 
 		LOGGER.trace("START fetch changes, objectClass: {}", ctx.getObjectClassDefinition());
-		AttributesToReturn attrsToReturn = null;
+		AttributesToReturn attrs = null;
 		if (!ctx.isWildcard()) {
-			attrsToReturn = ProvisioningUtil.createAttributesToReturn(ctx);
+			attrs = ProvisioningUtil.createAttributesToReturn(ctx);
 		}
+		final AttributesToReturn attrsToReturn = attrs;
 		
-		ConnectorInstance connector = ctx.getConnector(parentResult);
+		final ConnectorInstance connector = ctx.getConnector(parentResult);
 		
-		// get changes from the connector
-		List<Change<ShadowType>> changes = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, parentResult);
-
-		Iterator<Change<ShadowType>> iterator = changes.iterator();
-		while (iterator.hasNext()) {
-			Change<ShadowType> change = iterator.next();
-			LOGGER.trace("Original change:\n{}", change.debugDump());
-			if (change.isTokenOnly()) {
-				continue;
-			}
-			ProvisioningContext shadowCtx = ctx;
-			AttributesToReturn shadowAttrsToReturn = attrsToReturn;
-			PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
-			ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-			if (changeObjectClassDefinition == null) {
-				if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-					throw new SchemaException("No object class definition in change "+change);
+		final Holder<Integer> countHolder = new Holder<>(0);
+		final Holder<Exception> exceptionHolder = new Holder<>();
+		ChangeHandler<ShadowType> connectorHandler = new ChangeHandler<ShadowType>() {
+			@Override
+			public boolean handle(Change<ShadowType> change) {
+				try {
+					if (!completeChange(ctx, connector, attrsToReturn, change, parentResult)) {
+						return true;
+					}
+				} catch (SchemaException | CommunicationException | ConfigurationException
+						| SecurityViolationException | GenericFrameworkException | ObjectNotFoundException e) {
+					exceptionHolder.setValue(e);
+					return false;
 				}
+				countHolder.setValue(countHolder.getValue() + 1);
+				return handler.handle(change);
 			}
-			if (ctx.isWildcard() && changeObjectClassDefinition != null) {
-				shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				if (shadowCtx.isWildcard()) {
-					String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
-					parentResult.recordFatalError(message);
-					throw new SchemaException(message);
-				}
-				change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
-				
-				shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		};
+		
+		// get changes from the connector
+		PrismProperty<?> lastReceivedToken = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, 
+				attrsToReturn, connectorHandler, parentResult);
+
+		Exception ex = exceptionHolder.getValue();
+		if (ex != null) {
+			if (ex instanceof SchemaException) {
+				throw (SchemaException) ex;
+			} else if (ex instanceof CommunicationException) {
+				throw (CommunicationException) ex;
+			} else if (ex instanceof ConfigurationException) {
+				throw (ConfigurationException) ex;
+			} else if (ex instanceof SecurityViolationException) {
+				throw (SecurityViolationException) ex;
+			} else if (ex instanceof GenericFrameworkException) {
+				throw (GenericFrameworkException) ex;
+			} else {
+				throw (ObjectNotFoundException) ex;
 			}
+		}
+
+		parentResult.recordSuccess();
+		LOGGER.trace("END fetch changes ({} changes)", countHolder.getValue());
+		return lastReceivedToken;
+	}
+	
+	/**
+	 * Completes the change received from the connector.
+	 * 
+	 * @return false if the change should be skipped
+	 */
+	private boolean completeChange(ProvisioningContext ctx, ConnectorInstance connector, AttributesToReturn attrsToReturn,
+			Change<ShadowType> change, OperationResult parentResult) throws SchemaException, CommunicationException,
+			ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException {
+		LOGGER.trace("Original change:\n{}", change.debugDump());
+		ProvisioningContext shadowCtx = ctx;
+		AttributesToReturn shadowAttrsToReturn = attrsToReturn;
+		PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		if (changeObjectClassDefinition == null) {
+			if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+				throw new SchemaException("No object class definition in change "+change);
+			}
+		}
+		if (ctx.isWildcard() && changeObjectClassDefinition != null) {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+			if (shadowCtx.isWildcard()) {
+				String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
+				parentResult.recordFatalError(message);
+				throw new SchemaException(message);
+			}
+			change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
 			
-			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-				if (currentShadow == null) {
-					// There is no current shadow in a change. Add it by fetching it explicitly.
-					try {
-						
-						LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
-						currentShadow = fetchResourceObject(shadowCtx, 
-								change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
-					}
-				} else {
-					if (ctx.isWildcard()) {
-						if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
-							// re-fetch the shadow if necessary (if attributesToGet does not match)
-							ResourceObjectIdentification identification = new ResourceObjectIdentification(shadowCtx.getObjectClassDefinition(), change.getIdentifiers());
-							LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
-							currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, parentResult);
-						}
-						
+			shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+		
+		if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+			if (currentShadow == null) {
+				// There is no current shadow in a change. Add it by fetching it explicitly.
+				try {
+					
+					LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
+					currentShadow = fetchResourceObject(shadowCtx, 
+							change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
+					change.setCurrentShadow(currentShadow);
+					
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					// TODO: Maybe change to DELETE instead of this?
+					return false;
+				}
+			} else {
+				if (ctx.isWildcard()) {
+					if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
+						// re-fetch the shadow if necessary (if attributesToGet does not match)
+						ResourceObjectIdentification identification = new ResourceObjectIdentification(shadowCtx.getObjectClassDefinition(), change.getIdentifiers());
+						LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
+						currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, parentResult);
 					}
-							
-					PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
-							currentShadow, true, parentResult);
-					change.setCurrentShadow(processedCurrentShadow);
+					
 				}
+						
+				PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
+						currentShadow, true, parentResult);
+				change.setCurrentShadow(processedCurrentShadow);
 			}
-			LOGGER.trace("Processed change\n:{}", change.debugDump());
 		}
-
-		parentResult.recordSuccess();
-		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
-		return changes;
+		LOGGER.trace("Processed change\n:{}", change.debugDump());
+		return true;
 	}
 	
 	/**
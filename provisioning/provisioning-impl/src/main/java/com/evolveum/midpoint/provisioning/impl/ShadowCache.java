@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -75,6 +76,7 @@ import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler.FailedOperation;
 import com.evolveum.midpoint.provisioning.consistency.impl.ErrorHandlerFactory;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.ucf.api.PropertyModificationOperation;
@@ -181,6 +183,16 @@ public abstract class ShadowCache {
 	private ProvisioningContextFactory ctxFactory;
 
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
+	
+	/**
+	 * Number of changes after which the sync token is stored in the task during live synchronization.
+	 */
+	private static final int SYNC_TOKEN_CHECKPOINT_INTERVAL = 100;
+
+	/**
+	 * Number of resource objects found by a search for which the shadows are looked up in the repository at once.
+	 */
+	private static final int SEARCH_PAGE_SIZE = 100;
 
 	public ShadowCache() {
 		repositoryService = null;
@@ -722,55 +734,103 @@ public abstract class ShadowCache {
 		
         ObjectQuery attributeQuery = createAttributeQuery(query);
 
+        // The resource objects are processed in pages, so the corresponding shadows can be looked up
+        // in the repository by a single query for the whole page.
+        final int pageSize = readFromRepository ? SEARCH_PAGE_SIZE : 1;
+        final List<PrismObject<ShadowType>> page = new ArrayList<>(pageSize);
+        final boolean[] stopped = new boolean[1];
+
 		ResultHandler<ShadowType> resultHandler = new ResultHandler<ShadowType>() {
 
 			@Override
 			public boolean handle(PrismObject<ShadowType> resourceShadow) {
 				LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
-				PrismObject<ShadowType> resultShadow;
-				try {
-					ProvisioningContext shadowCtx = reapplyDefinitions(ctx, resourceShadow);
-					// Try to find shadow that corresponds to the resource object
-					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(shadowCtx, resourceShadow, 
-								parentResult); 
-						
-						applyAttributesDefinition(shadowCtx, repoShadow);
-						
-						forceRenameIfNeeded(shadowCtx, resourceShadow.asObjectable(), repoShadow.asObjectable(), parentResult);
-
-						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
-
-					} else {
-						resultShadow = resourceShadow;
-					}
-
-					// TODO: better error handling
-				} catch (SchemaException e) {
-					parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException 
-						| SecurityViolationException | GenericConnectorException e) {
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
+				page.add(resourceShadow);
+				if (page.size() < pageSize) {
+					return true;
+				}
+				if (!processSearchPage(ctx, page, readFromRepository, handler, parentResult)) {
+					stopped[0] = true;
 					return false;
 				}
-				
-				return handler.handle(resultShadow.asObjectable());
+				return true;
 			}
 
 		};
 
         boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
 		
-		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler,
+		SearchResultMetadata metadata = resouceObjectConverter.searchResourceObjects(ctx, resultHandler,
                 attributeQuery, fetchAssociations, parentResult);
 		
+		if (!stopped[0] && !page.isEmpty()) {
+			processSearchPage(ctx, page, readFromRepository, handler, parentResult);
+		}
+		
+		return metadata;
+	}
+
+	/**
+	 * Processes one page of resource objects found by the search: looks up (or creates) their shadows
+	 * and passes them to the handler in the order in which they were found.
+	 * 
+	 * @return false if the processing should stop (error or the handler asked for it)
+	 */
+	private boolean processSearchPage(ProvisioningContext ctx, List<PrismObject<ShadowType>> page, boolean readFromRepository,
+			ShadowHandler<ShadowType> handler, OperationResult parentResult) {
+		try {
+			List<ProvisioningContext> shadowCtxs = new ArrayList<>(page.size());
+			for (PrismObject<ShadowType> resourceShadow : page) {
+				shadowCtxs.add(reapplyDefinitions(ctx, resourceShadow));
+			}
+			
+			Map<String, List<PrismObject<ShadowType>>> repoShadows = null;
+			if (readFromRepository) {
+				// Try to find shadows that correspond to the resource objects
+				repoShadows = shadowManager.lookupShadowsInRepository(ctx, shadowCtxs, page, parentResult);
+			}
+			
+			for (int i = 0; i < page.size(); i++) {
+				PrismObject<ShadowType> resourceShadow = page.get(i);
+				ProvisioningContext shadowCtx = shadowCtxs.get(i);
+				PrismObject<ShadowType> resultShadow;
+				if (readFromRepository) {
+					PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(shadowCtx, resourceShadow, 
+							repoShadows, parentResult); 
+					
+					applyAttributesDefinition(shadowCtx, repoShadow);
+					
+					forceRenameIfNeeded(shadowCtx, resourceShadow.asObjectable(), repoShadow.asObjectable(), parentResult);
+
+					resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+
+				} else {
+					resultShadow = resourceShadow;
+				}
+				
+				if (!handler.handle(resultShadow.asObjectable())) {
+					return false;
+				}
+			}
+			return true;
+
+			// TODO: better error handling
+		} catch (SchemaException e) {
+			parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
+			LOGGER.error("Schema error: {}", e.getMessage(), e);
+			return false;
+		} catch (ConfigurationException e) {
+			parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+			LOGGER.error("Configuration error: {}", e.getMessage(), e);
+			return false;
+		} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException 
+				| SecurityViolationException | GenericConnectorException e) {
+			parentResult.recordFatalError(e.getMessage(), e);
+			LOGGER.error("{}", e.getMessage(), e);
+			return false;
+		} finally {
+			page.clear();
+		}
 	}
 
     ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
@@ -885,7 +945,44 @@ public abstract class ShadowCache {
 			OperationResult parentResult) 
 					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, SecurityViolationException, GenericConnectorException {
 		PrismObject<ShadowType> repoShadow = shadowManager.lookupShadowInRepository(ctx, resourceShadow, parentResult);
+		return createShadowInRepositoryIfNeeded(ctx, resourceShadow, repoShadow, parentResult);
+	}
 
+	/**
+	 * Variant that takes the shadow from the result of batch lookup (see ShadowManager.lookupShadowsInRepository).
+	 * Newly created shadows are added to the lookup result, so they are found if the same resource object appears
+	 * again in the same page.
+	 */
+	private PrismObject<ShadowType> lookupOrCreateShadowInRepository(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			Map<String, List<PrismObject<ShadowType>>> repoShadows, OperationResult parentResult) 
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, SecurityViolationException, GenericConnectorException {
+		String key = shadowManager.getShadowLookupKey(ctx, resourceShadow);
+		List<PrismObject<ShadowType>> shadows = repoShadows.get(key);
+		if (shadows == null) {
+			shadows = new ArrayList<>(1);
+			repoShadows.put(key, shadows);
+		}
+		if (shadows.isEmpty() && repoShadows.containsKey(null)) {
+			// Some of the shadows found were not matched to the resource objects, e.g. because the repository
+			// compares the values differently. Let the repository decide.
+			return lookupOrCreateShadowInRepository(ctx, resourceShadow, parentResult);
+		}
+		if (shadows.size() > 1) {
+			LOGGER.error("More than one shadow found in repository for " + resourceShadow);
+			// TODO: Better error handling later
+			throw new IllegalStateException("More than one shadow found for " + resourceShadow);
+		}
+		PrismObject<ShadowType> repoShadow = shadows.isEmpty() ? null : shadows.get(0);
+		repoShadow = createShadowInRepositoryIfNeeded(ctx, resourceShadow, repoShadow, parentResult);
+		if (shadows.isEmpty()) {
+			shadows.add(repoShadow);
+		}
+		return repoShadow;
+	}
+
+	private PrismObject<ShadowType> createShadowInRepositoryIfNeeded(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			PrismObject<ShadowType> repoShadow, OperationResult parentResult) 
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, SecurityViolationException, GenericConnectorException {
 		if (repoShadow == null) {
 			if (LOGGER.isTraceEnabled()) {
 				LOGGER.trace(
@@ -1045,7 +1142,7 @@ public abstract class ShadowCache {
 	///////////////////////////////////////////////////////////////////////////
 	
 	public int synchronize(ResourceShadowDiscriminator shadowCoordinates, PrismProperty<?> lastToken,  
-			Task task, OperationResult parentResult)
+			Task task, final OperationResult parentResult)
 			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
 			ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException {
 
@@ -1053,79 +1150,43 @@ public abstract class ShadowCache {
 
 		final ProvisioningContext ctx = ctxFactory.create(shadowCoordinates, task, parentResult);
 		
-		List<Change<ShadowType>> changes = null;
 		try {
 
-			changes = resouceObjectConverter.fetchChanges(ctx, lastToken, parentResult);
-
-			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
-
-			int processedChanges = 0;
-			
-			for (Change<ShadowType> change: changes) {	
-				
-				if (change.isTokenOnly()) {
-					LOGGER.trace("Found token-only change: {}", change);
-					task.setExtensionProperty(change.getToken());
-					continue;
-				}
-				
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-				
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {				
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change, parentResult);
-						}
-						if (oldShadow == null) {
-							LOGGER.debug("No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event", change);
-							continue;
-						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
-					}
-				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
-				
-				processChange(shadowCtx, change, oldShadow, parentResult);
-				
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					LOGGER.debug("Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
-
-				if (isSuccess) {
-//					// get updated token from change,
-//					// create property modification from new token
-//					// and replace old token with the new one
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
+			// Changes are processed as they are received from the connector, they are not collected in memory.
+			// Sync token is stored periodically, so the next run continues from the last checkpoint if this one fails.
+			final LiveSyncCoordinator coordinator = new LiveSyncCoordinator(this, ctx, taskManager, SYNC_TOKEN_CHECKPOINT_INTERVAL);
+			ChangeHandler<ShadowType> handler = new ChangeHandler<ShadowType>() {
+				@Override
+				public boolean handle(Change<ShadowType> change) {
+					return coordinator.submit(change, parentResult);
 				}
+			};
+			
+			coordinator.startWorkers(getWorkerThreadsCount(task));
+			PrismProperty<?> newToken;
+			try {
+				newToken = resouceObjectConverter.fetchChanges(ctx, lastToken, handler, parentResult);
+			} finally {
+				coordinator.finish(parentResult);
 			}
 			
-			// also if no changes was detected, update token
-			if (changes.isEmpty() && lastToken != null) {
+			Exception processingException = coordinator.getException();
+			if (processingException != null) {
+				throwProcessingException(processingException);
+			}
+
+			LOGGER.trace("Processed {} of {} change(s)", coordinator.getProcessedChanges(), coordinator.getSubmittedChanges());
+			
+			if (newToken != null) {
+				LOGGER.trace("Setting last received token: {}", newToken);
+				task.setExtensionProperty(newToken);
+			} else if (coordinator.getSubmittedChanges() == 0 && lastToken != null) {
+				// also if no changes was detected, update token
 				LOGGER.trace("No changes to synchronize on " + ctx.getResource());
 				task.setExtensionProperty(lastToken);
 			}
 			task.savePendingModifications(parentResult);
-			return processedChanges;
+			return coordinator.getProcessedChanges();
 
 		} catch (SchemaException ex) {
 			parentResult.recordFatalError("Schema error: " + ex.getMessage(), ex);
@@ -1148,6 +1209,86 @@ public abstract class ShadowCache {
 		}
 	}
 	
+	
+	/**
+	 * Processes one change detected by live synchronization.
+	 * 
+	 * @return true if the change was processed and the sync token may be moved to the token of this change
+	 */
+	boolean processSynchronizationChange(ProvisioningContext ctx, Change<ShadowType> change, Task workerTask, 
+			OperationResult parentResult) throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, 
+			SchemaException, ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException {
+		
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {				
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change, parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug("No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event", change);
+					return false;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
+			}
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+		shadowCtx.setTask(workerTask);
+		
+		processChange(shadowCtx, change, oldShadow, parentResult);
+		
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug("Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return true;
+		}
+		return processSynchronization(shadowCtx, change, parentResult);
+	}
+	
+	private void throwProcessingException(Exception ex) throws ObjectNotFoundException, CommunicationException, 
+			GenericFrameworkException, SchemaException, ConfigurationException, SecurityViolationException, 
+			ObjectAlreadyExistsException {
+		if (ex instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) ex;
+		} else if (ex instanceof CommunicationException) {
+			throw (CommunicationException) ex;
+		} else if (ex instanceof GenericFrameworkException) {
+			throw (GenericFrameworkException) ex;
+		} else if (ex instanceof SchemaException) {
+			throw (SchemaException) ex;
+		} else if (ex instanceof ConfigurationException) {
+			throw (ConfigurationException) ex;
+		} else if (ex instanceof SecurityViolationException) {
+			throw (SecurityViolationException) ex;
+		} else if (ex instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) ex;
+		} else if (ex instanceof RuntimeException) {
+			throw (RuntimeException) ex;
+		} else {
+			throw new SystemException("Unexpected exception during synchronization: " + ex.getMessage(), ex);
+		}
+	}
+	
+	private int getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsProperty != null && workerThreadsProperty.getRealValue() != null) {
+			return workerThreadsProperty.getRealValue();
+		}
+		return 0;
+	}
+	
 	@SuppressWarnings("rawtypes") boolean processSynchronization(ProvisioningContext ctx, Change<ShadowType> change, OperationResult result) throws SchemaException, ObjectNotFoundException,
 			ObjectAlreadyExistsException, CommunicationException, ConfigurationException {
 			ResourceObjectShadowChangeDescription shadowChangeDescription = createResourceShadowChangeDescription(
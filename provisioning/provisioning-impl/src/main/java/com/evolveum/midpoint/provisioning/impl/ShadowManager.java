@@ -19,7 +19,11 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 
@@ -28,6 +32,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import com.evolveum.midpoint.common.monitor.InternalMonitor;
 import com.evolveum.midpoint.common.refinery.RefinedAttributeDefinition;
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
 import com.evolveum.midpoint.prism.ItemDefinition;
@@ -162,6 +167,7 @@ public class ShadowManager {
 //		PagingType paging = new PagingType();
 
 		// TODO: check for errors
+		 InternalMonitor.recordShadowLookup();
 		 List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
 		 MiscSchemaUtil.reduceSearchResult(results);
 
@@ -182,6 +188,96 @@ public class ShadowManager {
 		return results.get(0);
 	}
 
+	/**
+	 * Locates the shadows in repository that correspond to the provided resource objects (e.g. one page of search results).
+	 * All the shadows are searched by a single repository query. The resource objects must be from the resource of the
+	 * provided context, each of them has its own context (see reapplyDefinitions in ShadowCache).
+	 * 
+	 * @return shadows found, indexed by the lookup keys of the resource objects (see getShadowLookupKey).
+	 *         Shadows that do not match any key, e.g. because the repository compares the values differently,
+	 *         are stored under null key. 
+	 */
+	public Map<String, List<PrismObject<ShadowType>>> lookupShadowsInRepository(ProvisioningContext ctx,
+			List<ProvisioningContext> shadowCtxs, List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult) 
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
+		
+		Map<String, List<PrismObject<ShadowType>>> shadowMap = new HashMap<>();
+		Set<QName> identifierNames = new HashSet<>();
+		List<ObjectFilter> identifierFilters = new ArrayList<>();
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			PrismProperty identifier = getSingleValuedIdentifier(resourceShadows.get(i));
+			List<PrismPropertyValue> normalizedValues = getNormalizedValue(identifier, shadowCtxs.get(i).getObjectClassDefinition());
+			String key = createShadowLookupKey(identifier.getElementName(), normalizedValues.get(0).getValue());
+			if (shadowMap.containsKey(key)) {
+				continue;
+			}
+			shadowMap.put(key, new ArrayList<PrismObject<ShadowType>>(1));
+			identifierNames.add(identifier.getElementName());
+			PrismPropertyDefinition def = identifier.getDefinition();
+			identifierFilters.add(EqualFilter.createEqual(new ItemPath(ShadowType.F_ATTRIBUTES, def.getName()), def, normalizedValues));
+		}
+		if (identifierFilters.isEmpty()) {
+			return shadowMap;
+		}
+
+		ObjectFilter identifierFilter;
+		if (identifierFilters.size() > 1) {
+			identifierFilter = OrFilter.createOr(identifierFilters);
+		} else {
+			identifierFilter = identifierFilters.get(0);
+		}
+		ObjectQuery query = ObjectQuery.createObjectQuery(AndFilter.createAnd(
+				RefFilter.createReferenceEqual(ShadowType.F_RESOURCE_REF, ShadowType.class, ctx.getResource()), identifierFilter));
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Searching for {} shadows using filter:\n{}", identifierFilters.size(), query.debugDump());
+		}
+
+		InternalMonitor.recordShadowLookup();
+		List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+		MiscSchemaUtil.reduceSearchResult(results);
+
+		LOGGER.trace("lookupShadows found {} objects", results.size());
+
+		for (PrismObject<ShadowType> repoShadow : results) {
+			boolean matched = false;
+			for (QName identifierName : identifierNames) {
+				PrismProperty<?> repoIdentifier = repoShadow.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierName));
+				if (repoIdentifier == null) {
+					continue;
+				}
+				for (PrismPropertyValue<?> repoValue : repoIdentifier.getValues()) {
+					List<PrismObject<ShadowType>> shadows = shadowMap.get(createShadowLookupKey(identifierName, repoValue.getValue()));
+					if (shadows != null) {
+						shadows.add(repoShadow);
+						matched = true;
+					}
+				}
+			}
+			if (!matched) {
+				List<PrismObject<ShadowType>> unmatchedShadows = shadowMap.get(null);
+				if (unmatchedShadows == null) {
+					unmatchedShadows = new ArrayList<>();
+					shadowMap.put(null, unmatchedShadows);
+				}
+				unmatchedShadows.add(repoShadow);
+			}
+		}
+		return shadowMap;
+	}
+
+	/**
+	 * Returns the key under which the shadow of the resource object is stored in the result of lookupShadowsInRepository.
+	 */
+	public String getShadowLookupKey(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow) throws SchemaException {
+		PrismProperty identifier = getSingleValuedIdentifier(resourceShadow);
+		List<PrismPropertyValue> normalizedValues = getNormalizedValue(identifier, ctx.getObjectClassDefinition());
+		return createShadowLookupKey(identifier.getElementName(), normalizedValues.get(0).getValue());
+	}
+
+	private String createShadowLookupKey(QName identifierName, Object normalizedValue) {
+		return identifierName + "=" + normalizedValue;
+	}
+
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, ResourceAttributeContainer identifierContainer,
 			OperationResult parentResult) 
 					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
@@ -575,20 +671,7 @@ public class ShadowManager {
 
 	private ObjectQuery createSearchShadowQuery(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow, 
 			PrismContext prismContext, OperationResult parentResult) throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException {
-		ResourceAttributeContainer attributesContainer = ShadowUtil
-				.getAttributesContainer(resourceShadow);
-		PrismProperty identifier = attributesContainer.getIdentifier();
-
-		Collection<PrismPropertyValue<Object>> idValues = identifier.getValues();
-		// Only one value is supported for an identifier
-		if (idValues.size() > 1) {
-			// TODO: This should probably be switched to checked exception later
-			throw new IllegalArgumentException("More than one identifier value is not supported");
-		}
-		if (idValues.size() < 1) {
-			// TODO: This should probably be switched to checked exception later
-			throw new IllegalArgumentException("The identifier has no value");
-		}
+		PrismProperty identifier = getSingleValuedIdentifier(resourceShadow);
 
 		// We have all the data, we can construct the filter now
 		ObjectFilter filter = null;
@@ -607,6 +690,24 @@ public class ShadowManager {
 		return query;
 	}
 	
+	private PrismProperty getSingleValuedIdentifier(PrismObject<ShadowType> resourceShadow) {
+		ResourceAttributeContainer attributesContainer = ShadowUtil
+				.getAttributesContainer(resourceShadow);
+		PrismProperty identifier = attributesContainer.getIdentifier();
+
+		Collection<PrismPropertyValue<Object>> idValues = identifier.getValues();
+		// Only one value is supported for an identifier
+		if (idValues.size() > 1) {
+			// TODO: This should probably be switched to checked exception later
+			throw new IllegalArgumentException("More than one identifier value is not supported");
+		}
+		if (idValues.size() < 1) {
+			// TODO: This should probably be switched to checked exception later
+			throw new IllegalArgumentException("The identifier has no value");
+		}
+		return identifier;
+	}
+	
 	public SearchResultMetadata searchObjectsIterativeRepository(
 			ProvisioningContext ctx, ObjectQuery query,
 			Collection<SelectorOptions<GetOperationOptions>> options,
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.ucf.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Classes implementing this interface are used to handle changes fetched from the resource
+ * one by one, as they are received from the connector.
+ *
+ * @author Radovan Semancik
+ */
+public interface ChangeHandler<T extends ShadowType> {
+
+    /**
+     * Handle a single change. Changes are passed to the handler in the order in which
+     * they were detected on the resource.
+     *
+     * @param change Change to process. It is never a token-only change.
+     * @return true if the operation should proceed, false if it should stop
+     */
+    public boolean handle(Change<T> change);
+
+}
@@ -307,7 +307,21 @@ public interface ConnectorInstance {
 	 */
 	public <T extends ShadowType> List<Change<T>> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, 
 			AttributesToReturn attrsToReturn, OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
-	
+
+	/**
+	 * Streaming variant of fetchChanges. Changes are passed to the handler as they are received
+	 * from the connector, they are not collected in memory. Token-only changes are not passed
+	 * to the handler, the last token received from the connector is returned instead.
+	 *
+	 * Token may be null. That means "from the beginning of history".
+	 *
+	 * @return last token received from the connector or null if the connector has not provided any
+	 *         or if the handler has stopped the operation
+	 */
+	public <T extends ShadowType> PrismProperty<?> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken,
+			AttributesToReturn attrsToReturn, ChangeHandler<T> handler, OperationResult parentResult)
+					throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
+
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 	
 	//public void applyConfiguration(ResourceConfiguration newConfiguration) throws MisconfigurationException;
@@ -117,6 +117,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteScriptArgument;
@@ -2026,7 +2027,30 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			AttributesToReturn attrsToReturn, OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
 
-		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
+		final List<Change<T>> changeList = new ArrayList<Change<T>>();
+		ChangeHandler<T> handler = new ChangeHandler<T>() {
+			@Override
+			public boolean handle(Change<T> change) {
+				return changeList.add(change);
+			}
+		};
+
+		PrismProperty<?> lastReceivedToken = fetchChanges(objectClass, lastToken, attrsToReturn, handler, parentResult);
+
+		if (lastReceivedToken != null) {
+			Change<T> lastChange = new Change((ObjectDelta)null, lastReceivedToken);
+			LOGGER.trace("Adding last change: {}", lastChange);
+			changeList.add(lastChange);
+		}
+		return changeList;
+	}
+
+	@Override
+	public <T extends ShadowType> PrismProperty<?> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken,
+			AttributesToReturn attrsToReturn, final ChangeHandler<T> handler, OperationResult parentResult)
+					throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException {
+
+		final OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
 		result.addContext("objectClass", objectClass);
 		result.addParam("lastToken", lastToken);
@@ -2041,9 +2065,8 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<SyncDelta>();
 		// get icf object class
-		ObjectClass icfObjectClass;
+		final ObjectClass icfObjectClass;
 		if (objectClass == null) {
 			icfObjectClass = ObjectClass.ALL;
 		} else {
@@ -2055,12 +2078,37 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			convertToIcfAttrsToGet(objectClass, attrsToReturn, optionsBuilder);
 		}
 		OperationOptions options = optionsBuilder.build();
-		
+
+		final QName objectClassName = icfNameMapper.objectClassToQname(icfObjectClass, getSchemaNamespace(), legacySchema);
+		final ObjectClassComplexTypeDefinition objectClassDefinition;
+		if (objectClassName != null) {
+			objectClassDefinition = (ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(objectClassName);
+		} else {
+			objectClassDefinition = null;
+		}
+
+		// Changes are converted and passed to the handler one by one, as the connector reports them.
+		// Exceptions cannot be thrown through the connector framework, the processing is stopped instead.
+		final Holder<Integer> countHolder = new Holder<>(0);
+		final Holder<Boolean> stoppedHolder = new Holder<>(false);
+		final Holder<Exception> exceptionHolder = new Holder<>();
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 			@Override
 			public boolean handle(SyncDelta delta) {
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
+				Change<T> change;
+				try {
+					change = getChangeFromSyncDelta(icfObjectClass, objectClassName, objectClassDefinition, delta);
+				} catch (SchemaException | GenericFrameworkException ex) {
+					exceptionHolder.setValue(ex);
+					return false;
+				}
+				countHolder.setValue(countHolder.getValue() + 1);
+				if (!handler.handle(change)) {
+					stoppedHolder.setValue(true);
+					return false;
+				}
+				return true;
 			}
 		};
 
@@ -2076,7 +2124,7 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			lastReceivedToken = icfConnectorFacade.sync(icfObjectClass, syncToken, syncHandler,
 					options);
 			icfResult.recordSuccess();
-			icfResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			icfResult.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
 		} catch (Throwable ex) {
 			Throwable midpointEx = processIcfException(ex, this, icfResult);
 			result.computeStatus();
@@ -2096,24 +2144,29 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change<T>> changeList;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
-			result.recordFatalError(ex.getMessage(), ex);
-			throw new SchemaException(ex.getMessage(), ex);
-		}
-		
-		if (lastReceivedToken != null) {
-			Change<T> lastChange = new Change((ObjectDelta)null, getToken(lastReceivedToken));
-			LOGGER.trace("Adding last change: {}", lastChange);
-			changeList.add(lastChange);
+
+		Exception conversionEx = exceptionHolder.getValue();
+		if (conversionEx != null) {
+			result.recordFatalError(conversionEx.getMessage(), conversionEx);
+			if (conversionEx instanceof SchemaException) {
+				throw new SchemaException(conversionEx.getMessage(), conversionEx);
+			} else {
+				throw (GenericFrameworkException) conversionEx;
+			}
 		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
+
+		if (stoppedHolder.getValue()) {
+			// The token returned by the connector may be beyond the last processed change
+			LOGGER.trace("Change processing was stopped by the handler after {} changes", countHolder.getValue());
+			return null;
+		}
+		if (lastReceivedToken == null) {
+			return null;
+		}
+		return getToken(lastReceivedToken);
 	}
 
 	@Override
@@ -2607,102 +2660,89 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 		attributes.add(ab.build());
 	}
 
-	private <T extends ShadowType> List<Change<T>> getChangesFromSyncDeltas(ObjectClass icfObjClass, Collection<SyncDelta> icfDeltas, PrismSchema schema,
-																			OperationResult parentResult)
+	private <T extends ShadowType> Change<T> getChangeFromSyncDelta(ObjectClass icfObjClass, QName objectClassName,
+			ObjectClassComplexTypeDefinition objectClassDefinition, SyncDelta icfDelta)
 			throws SchemaException, GenericFrameworkException {
-		List<Change<T>> changeList = new ArrayList<Change<T>>();
 
-		QName objectClass = icfNameMapper.objectClassToQname(icfObjClass, getSchemaNamespace(), legacySchema);
-		ObjectClassComplexTypeDefinition objClassDefinition = null;
-		if (objectClass != null) {
-			objClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(objectClass);
-		}
-		
-		Validate.notNull(icfDeltas, "Sync result must not be null.");
-		for (SyncDelta icfDelta : icfDeltas) {
-
-			ObjectClass deltaIcfObjClass = icfObjClass;
-			QName deltaObjectClass = objectClass;
-			ObjectClassComplexTypeDefinition deltaObjClassDefinition = objClassDefinition;
-			if (objectClass == null) {
-				deltaIcfObjClass = icfDelta.getObjectClass();
-				deltaObjectClass = icfNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
-				if (deltaIcfObjClass != null) {
-					deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(deltaObjectClass);
-				}
+		ObjectClass deltaIcfObjClass = icfObjClass;
+		QName deltaObjectClass = objectClassName;
+		ObjectClassComplexTypeDefinition deltaObjClassDefinition = objectClassDefinition;
+		if (objectClassName == null) {
+			deltaIcfObjClass = icfDelta.getObjectClass();
+			deltaObjectClass = icfNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
+			if (deltaIcfObjClass != null) {
+				deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(deltaObjectClass);
 			}
-			if (deltaObjClassDefinition == null) {
-				if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
-					// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
-				} else {
-					throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
-				}
+		}
+		if (deltaObjClassDefinition == null) {
+			if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
+				// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
+			} else {
+				throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
 			}
+		}
+		
+		SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
+		if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
+			LOGGER.trace("START creating delta of type DELETE");
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
+					ShadowType.class, ChangeType.DELETE, prismContext);
+			ResourceAttribute<String> uidAttribute = IcfUtil.createUidAttribute(
+					icfDelta.getUid(),
+					IcfUtil.getUidDefinition(deltaObjClassDefinition, resourceSchema));
+			Collection<ResourceAttribute<?>> identifiers = new ArrayList<ResourceAttribute<?>>(1);
+			identifiers.add(uidAttribute);
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type DELETE");
+			return change;
+
+		} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
 			
-			SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
-			if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
-				LOGGER.trace("START creating delta of type DELETE");
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
-						ShadowType.class, ChangeType.DELETE, prismContext);
-				ResourceAttribute<String> uidAttribute = IcfUtil.createUidAttribute(
-						icfDelta.getUid(),
-						IcfUtil.getUidDefinition(deltaObjClassDefinition, resourceSchema));
-				Collection<ResourceAttribute<?>> identifiers = new ArrayList<ResourceAttribute<?>>(1);
-				identifiers.add(uidAttribute);
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type DELETE");
-
-			} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
-				
-				LOGGER.trace("START creating delta of type CREATE");
-				PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames);
+			LOGGER.trace("START creating delta of type CREATE");
+			PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames);
 
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
-
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
-				
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
-						ShadowType.class, ChangeType.ADD, prismContext);
-				objectDelta.setObjectToAdd(currentShadow);
-
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type CREATE");
-
-			} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) || 
-					SyncDeltaType.UPDATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
-				
-				LOGGER.trace("START creating delta of type {}", icfDeltaType);
-				PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames);
-
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
+			}
 
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
+			
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
+					ShadowType.class, ChangeType.ADD, prismContext);
+			objectDelta.setObjectToAdd(currentShadow);
+
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type CREATE");
+			return change;
+
+		} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) || 
+				SyncDeltaType.UPDATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
+			
+			LOGGER.trace("START creating delta of type {}", icfDeltaType);
+			PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames);
 
-				Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
-				
-			} else {
-				throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
 			}
 
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getIdentifiers(currentShadow);
+
+			Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
+			return change;
+			
+		} else {
+			throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
 		}
-		return changeList;
 	}
 
 	private SyncToken getSyncToken(PrismProperty tokenProperty) throws SchemaException {
@@ -32,10 +32,17 @@ import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -45,6 +52,8 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.OrFilter;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -93,6 +102,8 @@ import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.impl.ConnectorFactoryIcfImpl;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.CapabilityUtil;
 import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.schema.GetOperationOptions;
@@ -145,6 +156,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.XmlSchemaType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ActivationCapabilityType;
 import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CredentialsCapabilityType;
@@ -189,6 +201,10 @@ public class TestDummy extends AbstractDummyTest {
 	private String corsairsIcfUid;
 	private String corsairsShadowOid;
 
+	@Autowired(required = true)
+	@Qualifier("repositoryService")
+	private RepositoryService plainRepositoryService;
+
 	protected MatchingRule<String> getUidMatchingRule() {
 		return null;
 	}
@@ -1311,6 +1327,7 @@ public class TestDummy extends AbstractDummyTest {
 			}
 		};
 		rememberShadowFetchOperationCount();
+		rememberShadowLookupCount();
 
 		// WHEN
 		provisioningService.searchObjectsIterative(ShadowType.class, query, null, handler, result);
@@ -1320,6 +1337,8 @@ public class TestDummy extends AbstractDummyTest {
 		display("searchObjectsIterative result", result);
 		TestUtil.assertSuccess(result);
 		assertShadowFetchOperationCountIncrement(1);
+		// all the shadows are looked up in the repository at once
+		assertShadowLookupCountIncrement(1);
 
 		assertEquals(4, foundObjects.size());
 		checkConsistency(foundObjects);
@@ -1332,6 +1351,7 @@ public class TestDummy extends AbstractDummyTest {
 
 		foundObjects.clear();
 		rememberShadowFetchOperationCount();
+		rememberShadowLookupCount();
 
 		// WHEN
 		provisioningService.searchObjectsIterative(ShadowType.class, query, null, handler, result);
@@ -1339,6 +1359,7 @@ public class TestDummy extends AbstractDummyTest {
 		// THEN
 
 		assertShadowFetchOperationCountIncrement(1);
+		assertShadowLookupCountIncrement(1);
 		
 		display("Found shadows", foundObjects);
 		
@@ -4177,8 +4198,329 @@ public class TestDummy extends AbstractDummyTest {
 		assertSteadyResource();
 	}
 	
+	// the same as in ShadowCache
+	private static final int SEARCH_PAGE_SIZE = 100;
+	private static final String PAGING_ACCOUNT_PREFIX = "pager";
+	private static final String PAGING_DUPLICATE_ACCOUNT_NAME = "pagerdup";
+	
+	private static int pagingAccounts = 0;
+	private static Set<String> pagingShadowOids = null;
+	
+	/**
+	 * Two full pages of resource objects. The shadows are looked up once per page.
+	 */
+	@Test
+	public void test700SearchIterativePages() throws Exception {
+		final String TEST_NAME = "test700SearchIterativePages";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		
+		int existingAccounts = dummyResource.listAccounts().size();
+		assertTrue("Too many accounts on the resource: " + existingAccounts, existingAccounts < SEARCH_PAGE_SIZE);
+		addPagingAccounts(2 * SEARCH_PAGE_SIZE - existingAccounts);
+		
+		rememberShadowLookupCount();
+		
+		// WHEN
+		List<PrismObject<ShadowType>> foundObjects = searchAccountsIterative(0, result);
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of found objects", 2 * SEARCH_PAGE_SIZE, foundObjects.size());
+		assertShadowLookupCountIncrement(2);
+		Set<String> oids = getOids(foundObjects);
+		assertEquals("Shadows are shared", 2 * SEARCH_PAGE_SIZE, oids.size());
+		
+		// And again, now all the shadows exist ...
+		rememberShadowLookupCount();
+		
+		// WHEN
+		foundObjects = searchAccountsIterative(0, result);
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertShadowLookupCountIncrement(2);
+		assertEquals("Shadows have changed", oids, getOids(foundObjects));
+		
+		// One more object starts a new page
+		addPagingAccounts(1);
+		rememberShadowLookupCount();
+		
+		// WHEN
+		foundObjects = searchAccountsIterative(0, result);
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of found objects", 2 * SEARCH_PAGE_SIZE + 1, foundObjects.size());
+		assertShadowLookupCountIncrement(3);
+		pagingShadowOids = getOids(foundObjects);
+		assertEquals("Shadows are shared", 2 * SEARCH_PAGE_SIZE + 1, pagingShadowOids.size());
+		assertTrue("Shadows have changed", pagingShadowOids.containsAll(oids));
+		
+		assertSteadyResource();
+	}
+	
+	/**
+	 * The handler stops the search. The rest of the page is not processed
+	 * and no other page is looked up.
+	 */
+	@Test
+	public void test701SearchIterativeStop() throws Exception {
+		final String TEST_NAME = "test701SearchIterativeStop";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		rememberShadowLookupCount();
+		
+		// WHEN
+		List<PrismObject<ShadowType>> foundObjects = searchAccountsIterative(SEARCH_PAGE_SIZE + SEARCH_PAGE_SIZE / 2, result);
+		
+		// THEN
+		assertEquals("Wrong number of found objects", SEARCH_PAGE_SIZE + SEARCH_PAGE_SIZE / 2, foundObjects.size());
+		assertShadowLookupCountIncrement(2);
+		assertTrue("Unknown shadows", pagingShadowOids.containsAll(getOids(foundObjects)));
+		
+		// Stop exactly at the end of the page
+		rememberShadowLookupCount();
+		
+		// WHEN
+		foundObjects = searchAccountsIterative(SEARCH_PAGE_SIZE, result);
+		
+		// THEN
+		assertEquals("Wrong number of found objects", SEARCH_PAGE_SIZE, foundObjects.size());
+		assertShadowLookupCountIncrement(1);
+		assertTrue("Unknown shadows", pagingShadowOids.containsAll(getOids(foundObjects)));
+		
+		assertSteadyResource();
+	}
+	
+	/**
+	 * The page lookup returns a shadow that cannot be matched to any resource object
+	 * (e.g. the repository compares the identifiers differently). The shadow of such object
+	 * is looked up individually instead of creating a new one.
+	 */
+	@Test
+	public void test702SearchIterativeUnmatchedShadow() throws Exception {
+		final String TEST_NAME = "test702SearchIterativeUnmatchedShadow";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		String unmatchedShadowOid = findPagingShadowOid(getPagingAccountName(0), result);
+		
+		RepositoryCache repositoryCache = (RepositoryCache) repositoryService;
+		repositoryCache.setRepository(createUnmatchingRepository(plainRepositoryService, unmatchedShadowOid), prismContext);
+		List<PrismObject<ShadowType>> foundObjects;
+		try {
+			
+			// WHEN
+			foundObjects = searchAccountsIterative(0, result);
+			
+		} finally {
+			repositoryCache.setRepository(plainRepositoryService, prismContext);
+		}
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of found objects", 2 * SEARCH_PAGE_SIZE + 1, foundObjects.size());
+		assertEquals("Shadows have changed", pagingShadowOids, getOids(foundObjects));
+		assertEquals("Wrong shadow of unmatched object", unmatchedShadowOid, findPagingShadowOid(getPagingAccountName(0), result));
+		
+		assertSteadyResource();
+	}
+	
+	@Test
+	public void test703DeletePagingAccounts() throws Exception {
+		final String TEST_NAME = "test703DeletePagingAccounts";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		
+		// WHEN
+		for (int i = 0; i < pagingAccounts; i++) {
+			dummyResource.deleteAccountByName(getPagingAccountName(i));
+		}
+		List<PrismObject<ShadowType>> foundObjects = searchAccountsIterative(0, result);
+		for (String oid : pagingShadowOids) {
+			if (!getOids(foundObjects).contains(oid)) {
+				repositoryService.deleteObject(ShadowType.class, oid, result);
+			}
+		}
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertTrue("Too many accounts on the resource: " + foundObjects.size(), foundObjects.size() < SEARCH_PAGE_SIZE / 2);
+		checkAllShadows();
+		
+		assertSteadyResource();
+	}
+	
+	/**
+	 * The resource returns every account twice, so both occurrences are in the same page.
+	 * Only one shadow is created for the new account.
+	 */
+	@Test
+	public void test705SearchIterativeDuplicateInPage() throws Exception {
+		final String TEST_NAME = "test705SearchIterativeDuplicateInPage";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+		Set<String> oidsBefore = getOids(searchAccountsIterative(0, result));
+		
+		DummyAccount newAccount = new DummyAccount(PAGING_DUPLICATE_ACCOUNT_NAME);
+		newAccount.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Pirate Twice");
+		newAccount.setEnabled(true);
+		dummyResource.addAccount(newAccount);
+		
+		dummyResource.setDuplicateAccountsInSearch(true);
+		rememberShadowLookupCount();
+		List<PrismObject<ShadowType>> foundObjects;
+		try {
+			
+			// WHEN
+			foundObjects = searchAccountsIterative(0, result);
+			
+		} finally {
+			dummyResource.setDuplicateAccountsInSearch(false);
+		}
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong number of found objects", 2 * (oidsBefore.size() + 1), foundObjects.size());
+		assertShadowLookupCountIncrement(1);
+		Map<String, Integer> occurrences = new HashMap<>();
+		for (PrismObject<ShadowType> foundObject : foundObjects) {
+			Integer count = occurrences.get(foundObject.getOid());
+			occurrences.put(foundObject.getOid(), count == null ? 1 : count + 1);
+		}
+		assertEquals("Wrong number of shadows", oidsBefore.size() + 1, occurrences.size());
+		assertTrue("Shadows have changed", occurrences.keySet().containsAll(oidsBefore));
+		for (Map.Entry<String, Integer> entry : occurrences.entrySet()) {
+			assertEquals("Wrong number of occurrences of " + entry.getKey(), (Integer) 2, entry.getValue());
+		}
+		checkAllShadows();
+		
+		// Clean up
+		dummyResource.deleteAccountByName(PAGING_DUPLICATE_ACCOUNT_NAME);
+		occurrences.keySet().removeAll(oidsBefore);
+		repositoryService.deleteObject(ShadowType.class, occurrences.keySet().iterator().next(), result);
+		
+		assertSteadyResource();
+	}
+	
+	private void addPagingAccounts(int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			DummyAccount newAccount = new DummyAccount(getPagingAccountName(pagingAccounts));
+			newAccount.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Pirate " + pagingAccounts);
+			newAccount.setEnabled(true);
+			dummyResource.addAccount(newAccount);
+			pagingAccounts++;
+		}
+	}
+	
+	private String getPagingAccountName(int i) {
+		return String.format(PAGING_ACCOUNT_PREFIX + "%03d", i);
+	}
+	
+	private String findPagingShadowOid(String accountName, OperationResult result) throws Exception {
+		for (PrismObject<ShadowType> shadow : searchAccountsIterative(0, result)) {
+			if (accountName.equalsIgnoreCase(shadow.asObjectable().getName().getOrig())) {
+				return shadow.getOid();
+			}
+		}
+		AssertJUnit.fail("No shadow for " + accountName);
+		return null;
+	}
+	
+	/**
+	 * Searches all the accounts on the dummy resource. The handler stops the search after stopAfter objects (if positive).
+	 */
+	private List<PrismObject<ShadowType>> searchAccountsIterative(final int stopAfter, OperationResult result) throws Exception {
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID, 
+				new QName(ResourceTypeUtil.getResourceNamespace(resourceType),
+						ConnectorFactoryIcfImpl.ACCOUNT_OBJECT_CLASS_LOCAL_NAME), prismContext);
+		final List<PrismObject<ShadowType>> foundObjects = new ArrayList<PrismObject<ShadowType>>();
+		ResultHandler<ShadowType> handler = new ResultHandler<ShadowType>() {
+
+			@Override
+			public boolean handle(PrismObject<ShadowType> object, OperationResult parentResult) {
+				foundObjects.add(object);
+				return stopAfter <= 0 || foundObjects.size() < stopAfter;
+			}
+		};
+		provisioningService.searchObjectsIterative(ShadowType.class, query, null, handler, result);
+		return foundObjects;
+	}
+	
+	private Set<String> getOids(List<PrismObject<ShadowType>> objects) {
+		Set<String> oids = new HashSet<>();
+		for (PrismObject<ShadowType> object : objects) {
+			oids.add(object.getOid());
+		}
+		return oids;
+	}
+	
+	/**
+	 * Repository that strips the primary identifier of the given shadow in the results
+	 * of the page lookups (i.e. search for shadows with more identifiers).
+	 */
+	private RepositoryService createUnmatchingRepository(final RepositoryService repository, final String unmatchedShadowOid) {
+		return (RepositoryService) Proxy.newProxyInstance(RepositoryService.class.getClassLoader(), 
+				new Class<?>[] { RepositoryService.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object returnValue;
+				try {
+					returnValue = method.invoke(repository, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				if ("searchObjects".equals(method.getName()) && ShadowType.class.equals(args[0]) 
+						&& isPageLookup((ObjectQuery) args[1])) {
+					for (PrismObject<?> shadow : (List<PrismObject<?>>) returnValue) {
+						if (unmatchedShadowOid.equals(shadow.getOid())) {
+							shadow.removeProperty(SchemaTestConstants.ICFS_UID_PATH);
+						}
+					}
+				}
+				return returnValue;
+			}
+		});
+	}
+	
+	private boolean isPageLookup(ObjectQuery query) {
+		if (query == null || !(query.getFilter() instanceof AndFilter)) {
+			return false;
+		}
+		for (ObjectFilter condition : ((AndFilter) query.getFilter()).getConditions()) {
+			if (condition instanceof OrFilter) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	static Task syncTokenTask = null;
 	
+	// more than the checkpoint interval of live sync, i.e. the sync token is stored twice during the run
+	private static final int LIVE_SYNC_ACCOUNTS = 230;
+	private static final int LIVE_SYNC_FAILING_ACCOUNT = 150;
+	private static final int LIVE_SYNC_WORKER_THREADS = 3;
+	// the same as in ShadowCache
+	private static final int SYNC_TOKEN_CHECKPOINT_INTERVAL = 100;
+	
 	@Test
 	public void test800LiveSyncInit() throws Exception {
 		final String TEST_NAME = "test800LiveSyncInit";
@@ -4358,6 +4700,352 @@ public class TestDummy extends AbstractDummyTest {
 		assertSteadyResource();
 	}
 
+	/**
+	 * Changes are processed one by one as they are received from the connector.
+	 * All of them should be processed and the token should be moved after the last one.
+	 */
+	@Test
+	public void test805LiveSyncAddDeleteMultipleAccounts() throws Exception {
+		final String TEST_NAME = "test805LiveSyncAddDeleteMultipleAccounts";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+
+		syncServiceMock.reset();
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+		for (int i = 0; i < 5; i++) {
+			DummyAccount newAccount = new DummyAccount("pirate" + i);
+			newAccount.addAttributeValues("fullname", "Pirate " + i);
+			newAccount.setEnabled(true);
+			dummyResource.addAccount(newAccount);
+		}
+
+		ResourceShadowDiscriminator coords = new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, 
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+		
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		int changesAdd = provisioningService.synchronize(coords, syncTokenTask, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Synchronization result", result);
+		TestUtil.assertSuccess("Synchronization result is not OK", result);
+		assertEquals("Wrong number of processed changes", 5, changesAdd);
+		assertEquals("Wrong number of notified changes", 5, syncServiceMock.getCallCount());
+		
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		syncServiceMock.reset();
+		for (int i = 0; i < 5; i++) {
+			dummyResource.deleteAccountByName("pirate" + i);
+		}
+		int changesDelete = provisioningService.synchronize(coords, syncTokenTask, result);
+		
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess("Synchronization result is not OK", result);
+		assertEquals("Wrong number of processed changes", 5, changesDelete);
+		assertEquals("Wrong number of notified changes", 5, syncServiceMock.getCallCount());
+		
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		syncServiceMock.reset();
+		provisioningService.synchronize(coords, syncTokenTask, result);
+		
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess("Synchronization result is not OK", result);
+		syncServiceMock.assertNoNotifyChange();
+
+		checkAllShadows();
+		
+		assertSteadyResource();
+	}
+
+	/**
+	 * More changes than the checkpoint interval are processed inline and the processing of one change
+	 * in the middle fails. The token of the last checkpoint has to be stored in the task when the failing
+	 * change is processed. The run stops at the failing change, the next run continues with it and every
+	 * change is processed exactly once.
+	 */
+	@Test
+	public void test806LiveSyncCheckpointsAndFailure() throws Exception {
+		final String TEST_NAME = "test806LiveSyncCheckpointsAndFailure";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+
+		syncServiceMock.reset();
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+		int firstToken = dummyResource.getLatestSyncToken() + 1;
+		addLiveSyncAccounts("corsair");
+		LiveSyncRecorder recorder = new LiveSyncRecorder("corsair", firstToken, LIVE_SYNC_FAILING_ACCOUNT);
+		syncServiceMock.setChangeChecker(recorder);
+
+		ResourceShadowDiscriminator coords = new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, 
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+		try {
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			try {
+				provisioningService.synchronize(coords, syncTokenTask, result);
+				AssertJUnit.fail("Synchronization was expected to fail");
+			} catch (SystemException e) {
+				display("Expected exception", e);
+			}
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			assertEquals("Wrong token stored when the failing change was processed",
+					(Integer) (firstToken + SYNC_TOKEN_CHECKPOINT_INTERVAL - 1), recorder.tokenAtFailure);
+			assertEquals("Wrong token after failed synchronization", firstToken + LIVE_SYNC_FAILING_ACCOUNT - 1, getSyncToken());
+			recorder.assertProcessedOnce(0, LIVE_SYNC_FAILING_ACCOUNT);
+			recorder.assertNotProcessed(LIVE_SYNC_FAILING_ACCOUNT, LIVE_SYNC_ACCOUNTS);
+
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			result = new OperationResult(TestDummy.class.getName() + "." + TEST_NAME);
+			int changes = provisioningService.synchronize(coords, syncTokenTask, result);
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			result.computeStatus();
+			TestUtil.assertSuccess("Synchronization result is not OK", result);
+			assertEquals("Wrong number of processed changes", LIVE_SYNC_ACCOUNTS - LIVE_SYNC_FAILING_ACCOUNT, changes);
+			assertEquals("Wrong token after synchronization", dummyResource.getLatestSyncToken(), getSyncToken());
+			recorder.assertProcessedOnce(0, LIVE_SYNC_ACCOUNTS);
+			recorder.assertNoTokenViolation();
+		} finally {
+			syncServiceMock.setChangeChecker(null);
+		}
+
+		deleteLiveSyncAccounts("corsair", coords, result);
+		assertSteadyResource();
+	}
+
+	/**
+	 * More changes than the checkpoint interval are processed by worker threads. The token stored in the task
+	 * must never point past a change which was not processed yet and every change is processed exactly once.
+	 */
+	@Test
+	public void test807LiveSyncWorkers() throws Exception {
+		final String TEST_NAME = "test807LiveSyncWorkers";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+
+		syncServiceMock.reset();
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+		int firstToken = dummyResource.getLatestSyncToken() + 1;
+		addLiveSyncAccounts("buccaneer");
+		LiveSyncRecorder recorder = new LiveSyncRecorder("buccaneer", firstToken, -1);
+		syncServiceMock.setChangeChecker(recorder);
+
+		ResourceShadowDiscriminator coords = new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, 
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+		setLiveSyncWorkerThreads(LIVE_SYNC_WORKER_THREADS);
+		try {
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			int changes = provisioningService.synchronize(coords, syncTokenTask, result);
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			result.computeStatus();
+			display("Synchronization result", result);
+			TestUtil.assertSuccess("Synchronization result is not OK", result);
+			assertEquals("Wrong number of processed changes", LIVE_SYNC_ACCOUNTS, changes);
+			assertEquals("Wrong token after synchronization", dummyResource.getLatestSyncToken(), getSyncToken());
+			recorder.assertProcessedOnce(0, LIVE_SYNC_ACCOUNTS);
+			recorder.assertNoTokenViolation();
+		} finally {
+			setLiveSyncWorkerThreads(0);
+			syncServiceMock.setChangeChecker(null);
+		}
+
+		deleteLiveSyncAccounts("buccaneer", coords, result);
+		assertSteadyResource();
+	}
+
+	/**
+	 * Processing of one change by worker threads fails. Workers process changes of different accounts concurrently,
+	 * so changes received after the failing one may have been processed already. The stored token must be
+	 * before the failing change, so no change is skipped. Changes up to the stored token are processed exactly
+	 * once, only changes after the failing one can be processed again by the next run.
+	 */
+	@Test
+	public void test808LiveSyncWorkersFailure() throws Exception {
+		final String TEST_NAME = "test808LiveSyncWorkersFailure";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummy.class.getName()
+				+ "." + TEST_NAME);
+
+		syncServiceMock.reset();
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+		int firstToken = dummyResource.getLatestSyncToken() + 1;
+		addLiveSyncAccounts("privateer");
+		LiveSyncRecorder recorder = new LiveSyncRecorder("privateer", firstToken, LIVE_SYNC_FAILING_ACCOUNT);
+		syncServiceMock.setChangeChecker(recorder);
+
+		ResourceShadowDiscriminator coords = new ResourceShadowDiscriminator(RESOURCE_DUMMY_OID, 
+				ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
+		setLiveSyncWorkerThreads(LIVE_SYNC_WORKER_THREADS);
+		try {
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			try {
+				provisioningService.synchronize(coords, syncTokenTask, result);
+				AssertJUnit.fail("Synchronization was expected to fail");
+			} catch (SystemException e) {
+				display("Expected exception", e);
+			}
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			int storedToken = getSyncToken();
+			display("Token after failed synchronization", storedToken);
+			assertTrue("Token " + storedToken + " stored after the failing change", 
+					storedToken < firstToken + LIVE_SYNC_FAILING_ACCOUNT);
+			recorder.assertProcessedOnce(0, storedToken - firstToken + 1);
+			recorder.assertNoTokenViolation();
+
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			result = new OperationResult(TestDummy.class.getName() + "." + TEST_NAME);
+			provisioningService.synchronize(coords, syncTokenTask, result);
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			result.computeStatus();
+			TestUtil.assertSuccess("Synchronization result is not OK", result);
+			assertEquals("Wrong token after synchronization", dummyResource.getLatestSyncToken(), getSyncToken());
+			recorder.assertProcessedOnce(0, storedToken - firstToken + 1);
+			recorder.assertProcessedOnce(LIVE_SYNC_FAILING_ACCOUNT, LIVE_SYNC_FAILING_ACCOUNT + 1);
+			recorder.assertProcessedAtLeastOnce(0, LIVE_SYNC_ACCOUNTS);
+			recorder.assertNoTokenViolation();
+		} finally {
+			setLiveSyncWorkerThreads(0);
+			syncServiceMock.setChangeChecker(null);
+		}
+
+		deleteLiveSyncAccounts("privateer", coords, result);
+		assertSteadyResource();
+	}
+
+	private void addLiveSyncAccounts(String prefix) throws Exception {
+		for (int i = 0; i < LIVE_SYNC_ACCOUNTS; i++) {
+			DummyAccount newAccount = new DummyAccount(prefix + i);
+			newAccount.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Pirate " + i);
+			newAccount.setEnabled(true);
+			dummyResource.addAccount(newAccount);
+		}
+	}
+
+	private void deleteLiveSyncAccounts(String prefix, ResourceShadowDiscriminator coords, OperationResult result) 
+			throws Exception {
+		syncServiceMock.reset();
+		for (int i = 0; i < LIVE_SYNC_ACCOUNTS; i++) {
+			dummyResource.deleteAccountByName(prefix + i);
+		}
+		result = new OperationResult(TestDummy.class.getName() + ".deleteLiveSyncAccounts");
+		int changes = provisioningService.synchronize(coords, syncTokenTask, result);
+		result.computeStatus();
+		TestUtil.assertSuccess("Synchronization result is not OK", result);
+		assertEquals("Wrong number of processed changes", LIVE_SYNC_ACCOUNTS, changes);
+		assertEquals("Wrong token after synchronization", dummyResource.getLatestSyncToken(), getSyncToken());
+		checkAllShadows();
+	}
+
+	private void setLiveSyncWorkerThreads(int threads) throws SchemaException {
+		if (syncTokenTask.getOwner() == null) {
+			// worker threads set up security context for the task owner
+			PrismObject<UserType> owner = prismContext.createObject(UserType.class);
+			owner.asObjectable().setName(PrismTestUtil.createPolyStringType("syncOwner"));
+			syncTokenTask.setOwner(owner);
+		}
+		syncTokenTask.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS, threads);
+	}
+
+	private int getSyncToken() {
+		PrismProperty<Integer> token = syncTokenTask.getExtensionProperty(SchemaConstants.SYNC_TOKEN);
+		assertNotNull("No sync token in task", token);
+		return token.getRealValue();
+	}
+
+	/**
+	 * Counts notified changes of live sync accounts. Token of account N is first token + N.
+	 * Whenever a change is notified, all changes up to the token stored in the task have to be notified already.
+	 */
+	private class LiveSyncRecorder implements ObjectChecker<Object> {
+
+		private final String prefix;
+		private final int firstToken;
+		private final int failingAccount;
+		private final int[] notifications = new int[LIVE_SYNC_ACCOUNTS];
+		private final List<String> tokenViolations = new ArrayList<>();
+		private Integer tokenAtFailure;
+
+		LiveSyncRecorder(String prefix, int firstToken, int failingAccount) {
+			this.prefix = prefix;
+			this.firstToken = firstToken;
+			this.failingAccount = failingAccount;
+		}
+
+		@Override
+		public synchronized void check(Object object) {
+			if (!(object instanceof ResourceObjectShadowChangeDescription)) {
+				return;
+			}
+			ResourceObjectShadowChangeDescription change = (ResourceObjectShadowChangeDescription) object;
+			String name = getIcfName((PrismObject<ShadowType>) change.getCurrentShadow());
+			assertTrue("Unexpected account " + name, name.startsWith(prefix));
+			int account = Integer.parseInt(name.substring(prefix.length()));
+
+			int storedToken = getSyncToken();
+			for (int i = 0; i < LIVE_SYNC_ACCOUNTS && firstToken + i <= storedToken; i++) {
+				if (notifications[i] == 0) {
+					tokenViolations.add("Token " + storedToken + " stored before account " + i + " was processed");
+				}
+			}
+
+			if (account == failingAccount && tokenAtFailure == null) {
+				tokenAtFailure = storedToken;
+				throw new IllegalStateException("Simulated failure of change of " + name);
+			}
+			notifications[account]++;
+		}
+
+		synchronized void assertProcessedOnce(int from, int to) {
+			for (int i = from; i < to; i++) {
+				assertEquals("Wrong number of notifications of account " + prefix + i, 1, notifications[i]);
+			}
+		}
+
+		synchronized void assertProcessedAtLeastOnce(int from, int to) {
+			for (int i = from; i < to; i++) {
+				assertTrue("Account " + prefix + i + " was not notified", notifications[i] > 0);
+			}
+		}
+
+		synchronized void assertNotProcessed(int from, int to) {
+			for (int i = from; i < to; i++) {
+				assertEquals("Account " + prefix + i + " was notified", 0, notifications[i]);
+			}
+		}
+
+		synchronized void assertNoTokenViolation() {
+			assertTrue("Token stored too early: " + tokenViolations, tokenViolations.isEmpty());
+		}
+	}
+
 	@Test
 	public void test810LiveSyncAddDrakeDumbObjectClass() throws Exception {
 		testLiveSyncAddDrake("test810LiveSyncAddDrakeDumbObjectClass", DummySyncStyle.DUMB, ProvisioningTestUtil.getDefaultAccountObjectClass(resourceType));
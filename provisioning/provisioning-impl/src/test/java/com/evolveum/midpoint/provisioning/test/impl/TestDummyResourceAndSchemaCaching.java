@@ -31,12 +31,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -65,6 +67,7 @@ import com.evolveum.midpoint.prism.schema.PrismSchema;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.provisioning.ProvisioningTestUtil;
+import com.evolveum.midpoint.provisioning.impl.ResourceManager;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.impl.ConnectorFactoryIcfImpl;
 import com.evolveum.midpoint.schema.CapabilityUtil;
@@ -115,6 +118,12 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 
 	private static final Trace LOGGER = TraceManager.getTrace(TestDummyResourceAndSchemaCaching.class);
 	
+	private static final int CONCURRENT_THREADS = 4;
+	private static final int CONCURRENT_ITERATIONS = 500;
+	
+	@Autowired(required = true)
+	private ResourceManager resourceManager;
+	
 	
 	
 	@Test
@@ -294,6 +303,48 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 	}
 	
 	
+	/**
+	 * Read-only resources are shared by all threads without cloning. Also compare the throughput
+	 * of read-only and cloned resource retrieval.
+	 */
+	@Test
+	public void test015GetResourceReadOnly() throws Exception {
+		final String TEST_NAME = "test015GetResourceReadOnly";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyResourceAndSchemaCaching.class.getName()
+				+ "." + TEST_NAME);
+		
+		// WHEN
+		PrismObject<ResourceType> resourceReadOnly1 = resourceManager.getResource(RESOURCE_DUMMY_OID, true, result);
+		PrismObject<ResourceType> resourceReadOnly2 = resourceManager.getResource(RESOURCE_DUMMY_OID, true, result);
+		PrismObject<ResourceType> resourceClone = resourceManager.getResource(RESOURCE_DUMMY_OID, false, result);
+		
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		
+		assertTrue("Read-only resource is not shared", resourceReadOnly1 == resourceReadOnly2);
+		assertTrue("Cloned resource is shared", resourceReadOnly1 != resourceClone);
+		assertTrue("Refined schema is not shared", RefinedResourceSchema.getRefinedSchema(resourceReadOnly1) 
+				== RefinedResourceSchema.getRefinedSchema(resourceClone));
+		assertRefinedResourceSchemaUnchanged(RefinedResourceSchema.getRefinedSchema(resourceReadOnly1));
+		assertResourceSchemaParseCountIncrement(0);
+		
+		display("Resource cache", InternalMonitor.getResourceCacheStats());
+		assertResourceCacheHitsIncrement(3);
+		assertResourceCacheMissesIncrement(0);
+		
+		long readOnlyTime = getResourceConcurrently(true);
+		long cloneTime = getResourceConcurrently(false);
+		LOGGER.info("Resource retrieval by {} threads ({} each), read-only: {}ms, cloned: {}ms",
+				new Object[]{CONCURRENT_THREADS, CONCURRENT_ITERATIONS, readOnlyTime, cloneTime});
+		
+		assertResourceSchemaParseCountIncrement(0);
+		assertResourceCacheMissesIncrement(0);
+		rememberResourceCacheStats();
+	}
+	
 	/**
 	 * Change something that is not important. The cached resource should be refreshed, the schema re-parsed
 	 * but the connector should still be cached.
@@ -622,6 +673,40 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 		assertConnectorInstanceChanged(resourceProvisioning);
 	}
 	
+	private long getResourceConcurrently(final boolean readOnly) throws Exception {
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < CONCURRENT_THREADS; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					OperationResult result = new OperationResult(TestDummyResourceAndSchemaCaching.class.getName()
+							+ ".getResourceConcurrently");
+					try {
+						for (int j = 0; j < CONCURRENT_ITERATIONS; j++) {
+							PrismObject<ResourceType> resource = resourceManager.getResource(RESOURCE_DUMMY_OID, readOnly, result);
+							RefinedResourceSchema.getRefinedSchema(resource).getDefaultRefinedDefinition(ShadowKindType.ACCOUNT);
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+		}
+		
+		long start = System.currentTimeMillis();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long time = System.currentTimeMillis() - start;
+		
+		assertTrue("Errors while getting resource: " + errors, errors.isEmpty());
+		return time;
+	}
+	
 	private String addAccount(String filename) throws SchemaException, ObjectAlreadyExistsException, CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, IOException {
 		Task task = taskManager.createTaskInstance(TestDummyResourceAndSchemaCaching.class.getName()
 				+ ".addAccount");
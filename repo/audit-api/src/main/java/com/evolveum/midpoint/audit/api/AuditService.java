@@ -32,11 +32,12 @@ public interface AuditService {
 	public void audit(AuditEventRecord record, Task task);
 
     /**
-     * Clean up audit records that are older than specified.
+     * Clean up audit records that are older than specified or exceed maximal number of records.
      *
      * @param policy Records will be deleted base on this policy.
+     * @param task   Task executing the cleanup, used to report progress and to check if cleanup can continue.
      */
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult);
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult);
 
     public List<AuditEventRecord> listRecords(String query, Map<String, Object> params);
     
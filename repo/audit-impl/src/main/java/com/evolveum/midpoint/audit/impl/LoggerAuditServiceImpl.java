@@ -62,7 +62,7 @@ public class LoggerAuditServiceImpl implements AuditService {
 	}
 
     @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         //nothing to cleanup
     }
 
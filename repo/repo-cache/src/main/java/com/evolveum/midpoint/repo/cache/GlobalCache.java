@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.LabeledString;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide cache of objects shared by all threads. {@link RepositoryCache} uses it when object is not found
+ * in thread-local {@link Cache}, i.e. only for callers which entered the thread-local cache. Only types with
+ * configured {@link GlobalCachePolicy} are cached.
+ * <p/>
+ * Cached object is returned without asking repository during its time to live. After that its version
+ * is read from repository. If it wasn't changed, object is used for another time to live, otherwise it is
+ * removed. Local changes remove objects from this cache immediately. Changes made directly in the database
+ * are visible at most after time to live. If this isn't acceptable for some type, set its time to live to 0:
+ * version of the object is then read from repository on every hit, which is still much cheaper than reading
+ * and parsing the whole object.
+ * <p/>
+ * Nodes don't notify each other about changes, therefore the cache stays disabled when midPoint runs
+ * in a cluster (task manager is clustered), otherwise nodes would read objects changed by other nodes
+ * up to time to live ago.
+ * <p/>
+ * Configuration (in midpoint.repository section):
+ * <pre>
+ * globalCache.enabled                 - false by default
+ * globalCache.&lt;TypeName&gt;.timeToLive   - milliseconds, {@link #DEFAULT_TIME_TO_LIVE} by default,
+ *                                       0 means that version is checked on every hit
+ * globalCache.&lt;TypeName&gt;.maxEntries   - {@link #DEFAULT_MAX_ENTRIES} by default, 0 disables caching of the type
+ * globalCache.&lt;TypeName&gt;.maxWeight    - length of serialized objects, unlimited (0) by default
+ * </pre>
+ * If enabled, {@link #DEFAULT_TYPES} are cached. Other types are cached if they are configured.
+ *
+ * @author Radovan Semancik
+ */
+public class GlobalCache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(GlobalCache.class);
+
+    public static final String CONFIGURATION_PREFIX = "globalCache";
+    public static final String CONFIGURATION_ENABLED = "enabled";
+    public static final String CONFIGURATION_TIME_TO_LIVE = "timeToLive";
+    public static final String CONFIGURATION_MAX_ENTRIES = "maxEntries";
+    public static final String CONFIGURATION_MAX_WEIGHT = "maxWeight";
+
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    public static final List<Class<? extends ObjectType>> DEFAULT_TYPES = Collections.unmodifiableList(
+            Arrays.<Class<? extends ObjectType>>asList(SystemConfigurationType.class, RoleType.class, OrgType.class,
+                    ResourceType.class, ObjectTemplateType.class));
+
+    private static final String DETAILS_PREFIX = "globalCache.";
+
+    /**
+     * Immutable map replaced as a whole when policies change, so readers don't need any locking.
+     */
+    private volatile Map<Class<? extends ObjectType>, TypeCache> caches = Collections.emptyMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Incremented on every local modification. Object read from repository is not cached if there was
+     * a modification during the read, because it might be an older version of the modified object.
+     */
+    private final AtomicLong modificationStamp = new AtomicLong();
+
+    private PrismContext prismContext;
+
+    /**
+     * @param clustered true if this node is part of a cluster, the cache is not used then
+     */
+    public synchronized void configure(Configuration configuration, boolean clustered, PrismContext prismContext) {
+        this.prismContext = prismContext;
+        caches = Collections.emptyMap();
+
+        Configuration config = configuration != null ? configuration.subset(CONFIGURATION_PREFIX) : null;
+        if (config == null || !config.getBoolean(CONFIGURATION_ENABLED, false)) {
+            LOGGER.debug("Global repository cache is disabled.");
+            return;
+        }
+        if (clustered) {
+            LOGGER.warn("Global repository cache can't be used in a cluster, because nodes don't invalidate "
+                    + "objects cached by other nodes. The cache stays disabled.");
+            return;
+        }
+
+        for (ObjectTypes objectType : ObjectTypes.values()) {
+            Class<? extends ObjectType> type = objectType.getClassDefinition();
+            Configuration typeConfig = config.subset(type.getSimpleName());
+            if (!DEFAULT_TYPES.contains(type) && typeConfig.isEmpty()) {
+                continue;
+            }
+            if (TaskType.class.equals(type)) {
+                LOGGER.warn("Tasks can't be cached in global repository cache, ignoring configuration.");
+                continue;
+            }
+
+            GlobalCachePolicy policy = new GlobalCachePolicy(
+                    typeConfig.getLong(CONFIGURATION_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE),
+                    typeConfig.getInt(CONFIGURATION_MAX_ENTRIES, DEFAULT_MAX_ENTRIES),
+                    typeConfig.getLong(CONFIGURATION_MAX_WEIGHT, 0));
+            setPolicy(type, policy);
+        }
+    }
+
+    public synchronized void setPolicy(Class<? extends ObjectType> type, GlobalCachePolicy policy) {
+        Map<Class<? extends ObjectType>, TypeCache> newCaches = new HashMap<>(caches);
+        if (policy == null || policy.getMaxEntries() <= 0) {
+            newCaches.remove(type);
+        } else {
+            LOGGER.debug("Global repository cache policy for {}: {}", type.getSimpleName(), policy);
+            newCaches.put(type, new TypeCache(policy));
+        }
+        caches = Collections.unmodifiableMap(newCaches);
+    }
+
+    public boolean isCacheable(Class<? extends ObjectType> type) {
+        return caches.containsKey(type);
+    }
+
+    /**
+     * @return clone of cached object or null if object is not cached or it was changed in repository
+     */
+    public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid, RepositoryService repository,
+                                                           OperationResult result) throws SchemaException {
+        TypeCache cache = caches.get(type);
+        if (cache == null) {
+            return null;
+        }
+
+        Entry entry = cache.get(oid);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= entry.validUntil) {
+            versionChecks.incrementAndGet();
+
+            String version;
+            try {
+                version = repository.getVersion(type, oid, result);
+            } catch (ObjectNotFoundException ex) {
+                // object was deleted, probably on other node. Caller will find it out by itself.
+                version = null;
+            }
+
+            if (version == null || !version.equals(entry.object.getVersion())) {
+                LOGGER.trace("Object {} was changed (version {} -> {}), removing it from global cache.",
+                        new Object[]{oid, entry.object.getVersion(), version});
+                cache.remove(oid, entry);
+                invalidations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+
+            entry.validUntil = now + cache.policy.getTimeToLive();
+        }
+
+        hits.incrementAndGet();
+        return (PrismObject<T>) entry.object.clone();
+    }
+
+    public long getModificationStamp() {
+        return modificationStamp.get();
+    }
+
+    /**
+     * @param stamp value of {@link #getModificationStamp()} taken before object was read from repository
+     */
+    public <T extends ObjectType> void putObject(PrismObject<T> object, long stamp) {
+        if (object == null || object.getOid() == null || object.getVersion() == null) {
+            return;
+        }
+        if (stamp != modificationStamp.get()) {
+            LOGGER.trace("Not caching object {}, some object was modified while it was read.", object);
+            return;
+        }
+
+        TypeCache cache = caches.get(object.getCompileTimeClass());
+        if (cache == null) {
+            return;
+        }
+
+        PrismObject<? extends ObjectType> clone = object.clone();
+        long weight = 0;
+        if (cache.policy.getMaxWeight() > 0) {
+            weight = computeWeight(clone);
+            if (weight < 0 || weight > cache.policy.getMaxWeight()) {
+                return;
+            }
+        }
+
+        Entry entry = new Entry(clone, weight, System.currentTimeMillis() + cache.policy.getTimeToLive());
+        evictions.addAndGet(cache.put(object.getOid(), entry));
+    }
+
+    /**
+     * Object type used for modification may be a supertype (e.g. {@link ObjectType}), therefore object
+     * is removed from caches of all types.
+     */
+    public void removeObject(String oid) {
+        if (oid == null) {
+            return;
+        }
+
+        modificationStamp.incrementAndGet();
+        for (TypeCache cache : caches.values()) {
+            if (cache.remove(oid, null)) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        for (TypeCache cache : caches.values()) {
+            cache.clear();
+        }
+    }
+
+    public List<LabeledString> getStatistics() {
+        List<LabeledString> details = new ArrayList<>();
+        Map<Class<? extends ObjectType>, TypeCache> currentCaches = caches;
+        if (currentCaches.isEmpty()) {
+            return details;
+        }
+
+        int size = 0;
+        for (TypeCache cache : currentCaches.values()) {
+            size += cache.size();
+        }
+
+        details.add(new LabeledString(DETAILS_PREFIX + "hits", Long.toString(hits.get())));
+        details.add(new LabeledString(DETAILS_PREFIX + "misses", Long.toString(misses.get())));
+        details.add(new LabeledString(DETAILS_PREFIX + "versionChecks", Long.toString(versionChecks.get())));
+        details.add(new LabeledString(DETAILS_PREFIX + "evictions", Long.toString(evictions.get())));
+        details.add(new LabeledString(DETAILS_PREFIX + "invalidations", Long.toString(invalidations.get())));
+        details.add(new LabeledString(DETAILS_PREFIX + "size", Integer.toString(size)));
+
+        return details;
+    }
+
+    private long computeWeight(PrismObject<? extends ObjectType> object) {
+        if (prismContext == null) {
+            return 0;
+        }
+
+        try {
+            String xml = prismContext.serializeObjectToString((PrismObject) object, PrismContext.LANG_XML);
+            return StringUtils.length(xml);
+        } catch (SchemaException | RuntimeException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't serialize object {} to compute its weight, "
+                    + "object will not be cached", ex, object);
+            return -1;
+        }
+    }
+
+    private static class Entry {
+
+        private final PrismObject<? extends ObjectType> object;
+        private final long weight;
+        private volatile long validUntil;
+
+        private Entry(PrismObject<? extends ObjectType> object, long weight, long validUntil) {
+            this.object = object;
+            this.weight = weight;
+            this.validUntil = validUntil;
+        }
+    }
+
+    /**
+     * LRU map of objects of one type.
+     */
+    private static class TypeCache {
+
+        private final GlobalCachePolicy policy;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        private TypeCache(GlobalCachePolicy policy) {
+            this.policy = policy;
+        }
+
+        private synchronized Entry get(String oid) {
+            return entries.get(oid);
+        }
+
+        /**
+         * @return number of evicted entries
+         */
+        private synchronized int put(String oid, Entry entry) {
+            Entry old = entries.put(oid, entry);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entry.weight;
+
+            int evicted = 0;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext() && (entries.size() > policy.getMaxEntries()
+                    || (policy.getMaxWeight() > 0 && weight > policy.getMaxWeight()))) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                weight -= eldest.weight;
+                evicted++;
+            }
+
+            return evicted;
+        }
+
+        /**
+         * @param expected if not null, entry is removed only if it wasn't replaced in the meantime
+         */
+        private synchronized boolean remove(String oid, Entry expected) {
+            Entry entry = entries.get(oid);
+            if (entry == null || (expected != null && entry != expected)) {
+                return false;
+            }
+
+            entries.remove(oid);
+            weight -= entry.weight;
+            return true;
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
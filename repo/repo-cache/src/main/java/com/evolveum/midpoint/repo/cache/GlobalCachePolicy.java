@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import java.io.Serializable;
+
+/**
+ * Caching policy of one object type in {@link GlobalCache}.
+ *
+ * @author Radovan Semancik
+ */
+public class GlobalCachePolicy implements Serializable {
+
+    /**
+     * Time (in milliseconds) when cached object is returned without asking repository. After that
+     * object version is checked and object is either used for another time to live or removed.
+     * Zero means that version is checked on every hit.
+     */
+    private long timeToLive;
+
+    /**
+     * Maximal number of cached objects of the type, least recently used objects are evicted first.
+     */
+    private int maxEntries;
+
+    /**
+     * Maximal summary weight of cached objects of the type. Weight of object is length of its
+     * serialized form. Zero means no limit (weight is not computed at all).
+     */
+    private long maxWeight;
+
+    public GlobalCachePolicy(long timeToLive, int maxEntries, long maxWeight) {
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "GlobalCachePolicy(timeToLive=" + timeToLive + ", maxEntries=" + maxEntries
+                + ", maxWeight=" + maxWeight + ")";
+    }
+}
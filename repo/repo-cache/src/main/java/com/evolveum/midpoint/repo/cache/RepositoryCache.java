@@ -23,6 +23,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.LabeledString;
 import com.evolveum.midpoint.schema.RelationalValueSearchType;
 import com.evolveum.midpoint.schema.RepositoryDiag;
 import com.evolveum.midpoint.schema.ResultHandler;
@@ -43,6 +44,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 import org.apache.commons.lang.Validate;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -68,8 +70,15 @@ public class RepositoryCache implements RepositoryService {
 
 	private PrismContext prismContext;
 
+	private GlobalCache globalCache = new GlobalCache();
+
 	public RepositoryCache() {
     }
+
+	public void setGlobalCache(GlobalCache globalCache) {
+		Validate.notNull(globalCache, "Global cache must not be null.");
+		this.globalCache = globalCache;
+	}
 	
     public void setRepository(RepositoryService service, PrismContext prismContext) {
         Validate.notNull(service, "Repository service must not be null.");
@@ -114,18 +123,35 @@ public class RepositoryCache implements RepositoryService {
 		}
 		Cache cache = getCache();
 		if (cache == null) {
+			// caller didn't opt into caching, so it must not get objects from the global cache either
 			log("Cache: NULL {} ({})", oid, type.getSimpleName());
-		} else {
-			PrismObject<T> object = (PrismObject) cache.getObject(oid);
-			if (object != null) {
-				// TODO: result?
-				log("Cache: HIT {} ({})", oid, type.getSimpleName());
-				return object.clone();
-			}
-			log("Cache: MISS {} ({})", oid, type.getSimpleName());
+			return repository.getObject(type, oid, null, parentResult);
+		}
+		PrismObject<T> cachedObject = (PrismObject) cache.getObject(oid);
+		if (cachedObject != null) {
+			// TODO: result?
+			log("Cache: HIT {} ({})", oid, type.getSimpleName());
+			return cachedObject.clone();
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		log("Cache: MISS {} ({})", oid, type.getSimpleName());
+		if (!globalCache.isCacheable(type)) {
+			PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+			cacheObject(cache, object);
+			return object;
+		}
+
+		PrismObject<T> object = globalCache.getObject(type, oid, repository, parentResult);
+		if (object != null) {
+			log("Cache: GLOBAL HIT {} ({})", oid, type.getSimpleName());
+			cacheObject(cache, object);
+			return object;
+		}
+		log("Cache: GLOBAL MISS {} ({})", oid, type.getSimpleName());
+
+		long stamp = globalCache.getModificationStamp();
+		object = repository.getObject(type, oid, null, parentResult);
 		cacheObject(cache, object);
+		globalCache.putObject(object, stamp);
 		return object;
 	}
 
@@ -143,6 +169,7 @@ public class RepositoryCache implements RepositoryService {
 	public <T extends ObjectType> String addObject(PrismObject<T> object, RepoAddOptions options, OperationResult parentResult)
 			throws ObjectAlreadyExistsException, SchemaException {
 		String oid = repository.addObject(object, options, parentResult);
+		globalCache.removeObject(oid);
 		Cache cache = getCache();
 		// DON't cache the object here. The object may not have proper "JAXB" form, e.g. some pieces may be
 		// DOM element instead of JAXB elements. Not to cache it is safer and the performance loss
@@ -216,9 +243,13 @@ public class RepositoryCache implements RepositoryService {
 	@Override
 	public <T extends ObjectType> void modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
 			OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
-		repository.modifyObject(type, oid, modifications, parentResult);
-		// this changes the object. We are too lazy to apply changes ourselves, so just invalidate
-		// the object in cache
+		try {
+			repository.modifyObject(type, oid, modifications, parentResult);
+		} finally {
+			// this changes the object. We are too lazy to apply changes ourselves, so just invalidate
+			// the object in cache
+			globalCache.removeObject(oid);
+		}
 		Cache cache = getCache();
 		if (cache != null) {
 			cache.removeObject(oid);
@@ -229,7 +260,11 @@ public class RepositoryCache implements RepositoryService {
 	@Override
 	public <T extends ObjectType> void deleteObject(Class<T> type, String oid, OperationResult parentResult)
 			throws ObjectNotFoundException {
-		repository.deleteObject(type, oid, parentResult);
+		try {
+			repository.deleteObject(type, oid, parentResult);
+		} finally {
+			globalCache.removeObject(oid);
+		}
 		Cache cache = getCache();
 		if (cache != null) {
 			cache.removeObject(oid);
@@ -311,7 +346,17 @@ public class RepositoryCache implements RepositoryService {
 	 */
 	@Override
 	public RepositoryDiag getRepositoryDiag() {
-		return repository.getRepositoryDiag();
+		RepositoryDiag diag = repository.getRepositoryDiag();
+		List<LabeledString> statistics = globalCache.getStatistics();
+		if (diag != null && !statistics.isEmpty()) {
+			List<LabeledString> details = new ArrayList<>();
+			if (diag.getAdditionalDetails() != null) {
+				details.addAll(diag.getAdditionalDetails());
+			}
+			details.addAll(statistics);
+			diag.setAdditionalDetails(details);
+		}
+		return diag;
 	}
 
 	/* (non-Javadoc)
@@ -16,22 +16,45 @@
 
 package com.evolveum.midpoint.repo.cache;
 
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author lazyman
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    private static final String TASK_MANAGER_CONFIGURATION = "midpoint.taskManager";
+    private static final String CLUSTERED = "clustered";
+
+    @Autowired
+    private PrismContext prismContext;
+    @Autowired(required = false)
+    private MidpointConfiguration midpointConfiguration;
+
+    private final GlobalCache globalCache = new GlobalCache();
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        globalCache.clear();
     }
 
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        globalCache.configure(configuration, isClustered(), prismContext);
+    }
+
+    private boolean isClustered() {
+        if (midpointConfiguration == null) {
+            return false;
+        }
+        Configuration taskManagerConfig = midpointConfiguration.getConfiguration(TASK_MANAGER_CONFIGURATION);
+        return taskManagerConfig != null && taskManagerConfig.getBoolean(CLUSTERED, false);
     }
 
     @Override
@@ -47,6 +70,8 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache cache = new RepositoryCache();
+        cache.setGlobalCache(globalCache);
+        return cache;
     }
 }
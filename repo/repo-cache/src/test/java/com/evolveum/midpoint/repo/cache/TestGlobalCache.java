@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.LabeledString;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.RepositoryDiag;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+
+/**
+ * Tests {@link GlobalCache} used by {@link RepositoryCache}. The repository is a simple in-memory fake
+ * that counts the calls, so the tests can check which reads were served by the cache.
+ */
+public class TestGlobalCache {
+
+	private static final String ROLE_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+
+	private PrismContext prismContext;
+	private FakeRepository fakeRepository;
+	private GlobalCache globalCache;
+	private RepositoryCache repositoryCache;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void initCache() throws Exception {
+		prismContext = PrismTestUtil.getPrismContext();
+		fakeRepository = new FakeRepository();
+		fakeRepository.add(createRole(ROLE_OID, "1"));
+
+		globalCache = new GlobalCache();
+		globalCache.setPolicy(RoleType.class, new GlobalCachePolicy(60000, 10, 0));
+
+		repositoryCache = new RepositoryCache();
+		repositoryCache.setGlobalCache(globalCache);
+		repositoryCache.setRepository((RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RepositoryService.class }, fakeRepository), prismContext);
+	}
+
+	@Test
+	public void test100MissAndHit() throws Exception {
+		OperationResult result = new OperationResult("test100MissAndHit");
+
+		PrismObject<RoleType> first = getRole(result);
+		PrismObject<RoleType> second = getRole(result);
+
+		assertEquals("Wrong number of repository reads", 1, fakeRepository.getObjectCount);
+		assertEquals("Wrong number of version checks", 0, fakeRepository.getVersionCount);
+		assertEquals(first, second);
+		assertTrue("Cached object is not cloned", first != second);
+		assertStatistics("hits", 1);
+		assertStatistics("misses", 1);
+		assertStatistics("size", 1);
+	}
+
+	@Test
+	public void test110TimeToLiveExpired() throws Exception {
+		OperationResult result = new OperationResult("test110TimeToLiveExpired");
+		globalCache.setPolicy(RoleType.class, new GlobalCachePolicy(50, 10, 0));
+
+		getRole(result);
+		Thread.sleep(100);
+		getRole(result);
+
+		// version was not changed, the object is still used
+		assertEquals("Wrong number of repository reads", 1, fakeRepository.getObjectCount);
+		assertEquals("Wrong number of version checks", 1, fakeRepository.getVersionCount);
+
+		// modification on other node, i.e. not via this cache
+		fakeRepository.modify(ROLE_OID);
+		Thread.sleep(100);
+		PrismObject<RoleType> role = getRole(result);
+
+		assertEquals("Wrong number of repository reads", 2, fakeRepository.getObjectCount);
+		assertEquals("Wrong number of version checks", 2, fakeRepository.getVersionCount);
+		assertEquals("Stale object returned", "2", role.getVersion());
+		assertStatistics("invalidations", 1);
+	}
+
+	@Test
+	public void test120ZeroTimeToLiveChecksEveryHit() throws Exception {
+		OperationResult result = new OperationResult("test120ZeroTimeToLiveChecksEveryHit");
+		globalCache.setPolicy(RoleType.class, new GlobalCachePolicy(0, 10, 0));
+
+		getRole(result);
+		getRole(result);
+		fakeRepository.modify(ROLE_OID);
+		PrismObject<RoleType> role = getRole(result);
+
+		assertEquals("Wrong number of version checks", 2, fakeRepository.getVersionCount);
+		assertEquals("Wrong number of repository reads", 2, fakeRepository.getObjectCount);
+		assertEquals("Stale object returned", "2", role.getVersion());
+	}
+
+	@Test
+	public void test130InvalidateOnLocalModify() throws Exception {
+		OperationResult result = new OperationResult("test130InvalidateOnLocalModify");
+
+		getRole(result);
+		repositoryCache.modifyObject(RoleType.class, ROLE_OID, new ArrayList<ItemDelta>(), result);
+		PrismObject<RoleType> role = getRole(result);
+
+		assertEquals("Wrong number of repository reads", 2, fakeRepository.getObjectCount);
+		assertEquals("Stale object returned", "2", role.getVersion());
+		assertStatistics("invalidations", 1);
+	}
+
+	@Test
+	public void test140InvalidateOnLocalDelete() throws Exception {
+		OperationResult result = new OperationResult("test140InvalidateOnLocalDelete");
+
+		getRole(result);
+		repositoryCache.deleteObject(RoleType.class, ROLE_OID, result);
+		try {
+			getRole(result);
+			fail("Deleted object was returned");
+		} catch (ObjectNotFoundException e) {
+			// expected
+		}
+		assertEquals("Wrong number of repository reads", 2, fakeRepository.getObjectCount);
+	}
+
+	@Test
+	public void test150ModificationDuringRead() throws Exception {
+		OperationResult result = new OperationResult("test150ModificationDuringRead");
+
+		// other thread modifies some object while this thread reads the role
+		fakeRepository.onRead = new Runnable() {
+			@Override
+			public void run() {
+				fakeRepository.onRead = null;
+				globalCache.removeObject(ROLE_OID);
+			}
+		};
+		getRole(result);
+		getRole(result);
+		getRole(result);
+
+		// the first read was not cached, the second one was
+		assertEquals("Wrong number of repository reads", 2, fakeRepository.getObjectCount);
+		assertStatistics("hits", 1);
+	}
+
+	@Test
+	public void test160Eviction() throws Exception {
+		OperationResult result = new OperationResult("test160Eviction");
+		globalCache.setPolicy(RoleType.class, new GlobalCachePolicy(60000, 2, 0));
+		for (int i = 0; i < 3; i++) {
+			fakeRepository.add(createRole("c0c010c0-d34d-b33f-f00d-22222222222" + i, "1"));
+			getObject("c0c010c0-d34d-b33f-f00d-22222222222" + i, result);
+		}
+
+		assertStatistics("evictions", 1);
+		assertStatistics("size", 2);
+	}
+
+	@Test
+	public void test170NoThreadLocalCache() throws Exception {
+		OperationResult result = new OperationResult("test170NoThreadLocalCache");
+
+		getRole(result);
+		// caller which didn't enter the thread-local cache reads the repository
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+		repositoryCache.getObject(RoleType.class, ROLE_OID, null, result);
+
+		assertEquals("Wrong number of repository reads", 3, fakeRepository.getObjectCount);
+		assertStatistics("hits", 0);
+		assertStatistics("misses", 1);
+	}
+
+	@Test
+	public void test180DisabledInCluster() throws Exception {
+		Configuration configuration = new BaseConfiguration();
+		configuration.setProperty(GlobalCache.CONFIGURATION_PREFIX + "." + GlobalCache.CONFIGURATION_ENABLED, true);
+
+		globalCache.configure(configuration, false, prismContext);
+		assertTrue("Roles are not cached", globalCache.isCacheable(RoleType.class));
+
+		globalCache.configure(configuration, true, prismContext);
+		assertFalse("Roles are cached in cluster", globalCache.isCacheable(RoleType.class));
+	}
+
+	private PrismObject<RoleType> getRole(OperationResult result) throws ObjectNotFoundException, SchemaException {
+		return getObject(ROLE_OID, result);
+	}
+
+	// every read is a separate operation with its own thread-local cache, so it gets to the global cache
+	private PrismObject<RoleType> getObject(String oid, OperationResult result) throws ObjectNotFoundException, SchemaException {
+		RepositoryCache.enter();
+		try {
+			return repositoryCache.getObject(RoleType.class, oid, null, result);
+		} finally {
+			RepositoryCache.exit();
+		}
+	}
+
+	private PrismObject<RoleType> createRole(String oid, String version) throws SchemaException {
+		PrismObject<RoleType> role = prismContext.createObject(RoleType.class);
+		role.setOid(oid);
+		role.setVersion(version);
+		role.asObjectable().setDescription("role " + oid);
+		return role;
+	}
+
+	private void assertStatistics(String name, long expected) {
+		RepositoryDiag diag = repositoryCache.getRepositoryDiag();
+		assertNotNull("No repository diag", diag);
+		for (LabeledString detail : diag.getAdditionalDetails()) {
+			if (detail.getLabel().equals("globalCache." + name)) {
+				assertEquals("Wrong " + name, Long.toString(expected), detail.getData());
+				return;
+			}
+		}
+		fail("No " + name + " in repository diag");
+	}
+
+	/**
+	 * Implements only the repository operations used by the cache.
+	 */
+	private static class FakeRepository implements InvocationHandler {
+
+		private final Map<String, PrismObject<RoleType>> objects = new HashMap<>();
+		private int getObjectCount;
+		private int getVersionCount;
+		private Runnable onRead;
+
+		private void add(PrismObject<RoleType> object) {
+			objects.put(object.getOid(), object);
+		}
+
+		private void modify(String oid) throws ObjectNotFoundException {
+			PrismObject<RoleType> object = find(oid);
+			object.setVersion(Integer.toString(Integer.parseInt(object.getVersion()) + 1));
+		}
+
+		private PrismObject<RoleType> find(String oid) throws ObjectNotFoundException {
+			PrismObject<RoleType> object = objects.get(oid);
+			if (object == null) {
+				throw new ObjectNotFoundException("Object " + oid + " doesn't exist");
+			}
+			return object;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "getObject":
+					getObjectCount++;
+					if (onRead != null) {
+						onRead.run();
+					}
+					return find((String) args[1]).clone();
+				case "getVersion":
+					getVersionCount++;
+					return find((String) args[1]).getVersion();
+				case "modifyObject":
+					modify((String) args[1]);
+					return null;
+				case "deleteObject":
+					find((String) args[1]);
+					objects.remove(args[1]);
+					return null;
+				case "getRepositoryDiag":
+					return new RepositoryDiag();
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests {@link AsyncAuditWriter} and compares throughput of synchronous and asynchronous audit.
+ *
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AsyncAuditTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditTest.class);
+
+    private static final File SPILL_FILE = new File("./target/audit-spill.dat");
+
+    private static final int BENCHMARK_RECORDS = 500;
+
+    @Autowired
+    private SqlRepositoryFactory repositoryFactory;
+
+    @Test
+    public void test010AsyncWrite() throws Exception {
+        long records = countRecords(RAuditEventRecord.class);
+        long deltas = countRecords(RObjectDeltaOperation.class);
+
+        SPILL_FILE.delete();
+        AsyncAuditWriter writer = new AsyncAuditWriter(10, 7, 100, SPILL_FILE);
+        SqlAuditServiceImpl service = createService(writer);
+        try {
+            for (int i = 0; i < 50; i++) {
+                service.audit(createRecord(i), new SimpleTaskAdapter());
+            }
+            writer.flush();
+
+            AssertJUnit.assertEquals(records + 50, countRecords(RAuditEventRecord.class));
+            AssertJUnit.assertEquals(deltas + 50, countRecords(RObjectDeltaOperation.class));
+        } finally {
+            writer.shutdown();
+        }
+        AssertJUnit.assertEquals("Spill file was not truncated", 0, SPILL_FILE.length());
+    }
+
+    @Test
+    public void test020ShutdownWritesQueuedRecords() throws Exception {
+        long records = countRecords(RAuditEventRecord.class);
+
+        // records wait in queue, batch is not filled and flush interval is not reached
+        AsyncAuditWriter writer = new AsyncAuditWriter(100, 100, 60000, null);
+        SqlAuditServiceImpl service = createService(writer);
+        for (int i = 0; i < 5; i++) {
+            service.audit(createRecord(i), new SimpleTaskAdapter());
+        }
+        writer.shutdown();
+
+        AssertJUnit.assertEquals(records + 5, countRecords(RAuditEventRecord.class));
+    }
+
+    @Test
+    public void test030ReplaySpillFile() throws Exception {
+        long records = countRecords(RAuditEventRecord.class);
+
+        SPILL_FILE.delete();
+        AsyncAuditWriter writer = new AsyncAuditWriter(100, 100, 60000, SPILL_FILE);
+        SqlAuditServiceImpl service = createService(writer);
+        for (int i = 0; i < 3; i++) {
+            service.audit(createRecord(i), new SimpleTaskAdapter());
+        }
+        writer.abort();
+
+        AssertJUnit.assertEquals(records, countRecords(RAuditEventRecord.class));
+        AssertJUnit.assertTrue("Spill file is empty", SPILL_FILE.length() > 0);
+
+        writer = new AsyncAuditWriter(100, 100, 60000, SPILL_FILE);
+        // spill file is replayed when writer is started
+        service = createService(writer);
+        service.audit(createRecord(3), new SimpleTaskAdapter());
+        writer.shutdown();
+
+        AssertJUnit.assertEquals(records + 4, countRecords(RAuditEventRecord.class));
+    }
+
+    @Test
+    public void test040FailedBatchIsWrittenOnce() throws Exception {
+        long records = countRecords(RAuditEventRecord.class);
+
+        SPILL_FILE.delete();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        AsyncAuditWriter writer = new AsyncAuditWriter(100, 100, 50, SPILL_FILE);
+        SqlAuditServiceImpl service = createService(createFailingService(failing), writer);
+        for (int i = 0; i < 5; i++) {
+            service.audit(createRecord(i), new SimpleTaskAdapter());
+        }
+        writer.flush();
+
+        AssertJUnit.assertEquals(records, countRecords(RAuditEventRecord.class));
+        long pendingLength = SPILL_FILE.length();
+        AssertJUnit.assertTrue("Spill file doesn't contain failed records", pendingLength > 0);
+
+        // failed records are written with next batch, spill file is truncated afterwards
+        failing.set(false);
+        service.audit(createRecord(5), new SimpleTaskAdapter());
+        writer.flush();
+
+        AssertJUnit.assertEquals(records + 6, countRecords(RAuditEventRecord.class));
+        AssertJUnit.assertEquals("Spill file was not truncated", 0, SPILL_FILE.length());
+
+        // failed again, spill file contains only the new pending records
+        failing.set(true);
+        for (int i = 6; i < 8; i++) {
+            service.audit(createRecord(i), new SimpleTaskAdapter());
+        }
+        writer.flush();
+        writer.abort();
+
+        AssertJUnit.assertEquals(records + 6, countRecords(RAuditEventRecord.class));
+        AssertJUnit.assertTrue("Spill file contains written records", SPILL_FILE.length() < pendingLength);
+
+        // restart replays only pending records
+        writer = new AsyncAuditWriter(100, 100, 50, SPILL_FILE);
+        createService(writer);
+        writer.shutdown();
+
+        AssertJUnit.assertEquals(records + 8, countRecords(RAuditEventRecord.class));
+        AssertJUnit.assertEquals("Spill file was not truncated", 0, SPILL_FILE.length());
+    }
+
+    @Test
+    public void test100Benchmark() throws Exception {
+        SqlAuditServiceImpl syncService = createService(null);
+        long syncTime = auditRecords(syncService, null);
+
+        AsyncAuditWriter writer = new AsyncAuditWriter(1000, 100, 200, null);
+        SqlAuditServiceImpl asyncService = createService(writer);
+        long asyncTime;
+        try {
+            asyncTime = auditRecords(asyncService, writer);
+        } finally {
+            writer.shutdown();
+        }
+
+        LOGGER.info("Audit of {} records, synchronous: {}ms ({} records/s), asynchronous: {}ms ({} records/s), {}",
+                new Object[]{BENCHMARK_RECORDS, syncTime, perSecond(syncTime), asyncTime, perSecond(asyncTime),
+                        writer.getStatistics()});
+    }
+
+    /**
+     * @return time in milliseconds until all records were stored
+     */
+    private long auditRecords(SqlAuditServiceImpl service, AsyncAuditWriter writer) throws Exception {
+        long records = countRecords(RAuditEventRecord.class);
+
+        long start = System.currentTimeMillis();
+        long maxLatency = 0;
+        for (int i = 0; i < BENCHMARK_RECORDS; i++) {
+            AuditEventRecord record = createRecord(i);
+
+            long auditStart = System.nanoTime();
+            service.audit(record, new SimpleTaskAdapter());
+            maxLatency = Math.max(maxLatency, System.nanoTime() - auditStart);
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        long time = System.currentTimeMillis() - start;
+
+        LOGGER.info("{} audit: max. latency of audit call {}us", writer != null ? "Asynchronous" : "Synchronous",
+                maxLatency / 1000);
+        AssertJUnit.assertEquals(records + BENCHMARK_RECORDS, countRecords(RAuditEventRecord.class));
+
+        return time;
+    }
+
+    private long perSecond(long time) {
+        return time > 0 ? BENCHMARK_RECORDS * 1000L / time : BENCHMARK_RECORDS;
+    }
+
+    private SqlAuditServiceImpl createService(AsyncAuditWriter writer) {
+        return createService(new SqlAuditServiceImpl(repositoryFactory), writer);
+    }
+
+    private SqlAuditServiceImpl createService(SqlAuditServiceImpl service, AsyncAuditWriter writer) {
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+        service.setAsyncWriter(writer);
+        if (writer != null) {
+            // the same as in SqlAuditServiceFactory
+            writer.start(service);
+        }
+
+        return service;
+    }
+
+    private SqlAuditServiceImpl createFailingService(final AtomicBoolean failing) {
+        return new SqlAuditServiceImpl(repositoryFactory) {
+
+            @Override
+            void auditBatch(List<RAuditEventRecord> records) {
+                if (failing.get()) {
+                    throw new SystemException("Simulated failure of audit batch.");
+                }
+                super.auditBatch(records);
+            }
+        };
+    }
+
+    private AuditEventRecord createRecord(int i) throws Exception {
+        AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+        record.setTimestamp(System.currentTimeMillis());
+        record.setChannel("http://midpoint.evolveum.com/xml/ns/public/provisioning/channels-3#import");
+
+        ObjectDeltaOperation delta = new ObjectDeltaOperation();
+        delta.setExecutionResult(new OperationResult("audit"));
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType("user" + i));
+        delta.setObjectDelta(ObjectDelta.createAddDelta(user.asPrismObject()));
+        record.addDelta(delta);
+
+        return record;
+    }
+
+    private long countRecords(Class<?> type) {
+        Session session = open();
+        try {
+            Query query = session.createQuery("select count(*) from " + type.getSimpleName());
+            return (Long) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+}
@@ -179,7 +179,8 @@ public class BaseSQLRepoTest extends AbstractTestNGSpringContextTests {
 
         LOGGER.info("QUERY TYPE TO CONVERT : {}", (query.getFilter() != null ? query.getFilter().debugDump(3) : null));
 
-        QueryEngine engine = new QueryEngine(repositoryService.getConfiguration(), prismContext);
+        QueryEngine engine = new QueryEngine(repositoryService.getConfiguration(), prismContext,
+                repositoryService.getQueryPlanCache());
         RQuery rQuery = engine.interpret(query, type, null, interpretCount, session);
         //just test if DB will handle it or throws some exception
         if (interpretCount) {
@@ -21,6 +21,7 @@ import com.evolveum.midpoint.prism.Objectable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
 import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
 import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
 import com.evolveum.midpoint.schema.ObjectDeltaOperation;
@@ -122,7 +123,7 @@ public class CleanupTest extends BaseSQLRepoTest {
         CleanupPolicyType policy = createPolicy(calendar, NOW);
 
         OperationResult result = new OperationResult("Cleanup audit");
-        auditService.cleanupAudit(policy, result);
+        auditService.cleanupAudit(policy, new SimpleTaskAdapter(), result);
         result.recomputeStatus();
 
         //THEN
@@ -152,6 +153,65 @@ public class CleanupTest extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void testAuditCleanupMaxRecords() throws Exception {
+        //GIVEN
+        for (int i = 0; i < 5; i++) {
+            AuditEventRecord record = new AuditEventRecord();
+            record.addDelta(createObjectDeltaOperation(i));
+            record.setTimestamp(System.currentTimeMillis());
+
+            auditService.audit(record, new SimpleTaskAdapter());
+        }
+
+        //WHEN
+        CleanupPolicyType policy = new CleanupPolicyType();
+        policy.setMaxRecords(2);
+
+        OperationResult result = new OperationResult("Cleanup audit");
+        auditService.cleanupAudit(policy, new SimpleTaskAdapter(), result);
+        result.recomputeStatus();
+
+        //THEN
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+
+            Query query = session.createQuery("from " + RAuditEventRecord.class.getSimpleName() + " r order by r.id");
+            List<RAuditEventRecord> records = query.list();
+            AssertJUnit.assertEquals(2, records.size());
+
+            query = session.createQuery("select max(r.id) from " + RAuditEventRecord.class.getSimpleName() + " r");
+            Long maxId = (Long) query.uniqueResult();
+            AssertJUnit.assertEquals("Newest record was deleted", (long) maxId, records.get(1).getId());
+
+            query = session.createQuery("select count(*) from " + RObjectDeltaOperation.class.getSimpleName());
+            AssertJUnit.assertEquals(2L, (long) (Long) query.uniqueResult());
+
+            session.getTransaction().commit();
+        } finally {
+            session.close();
+        }
+
+        //cleanup everything, other tests expect empty audit
+        policy.setMaxRecords(0);
+        auditService.cleanupAudit(policy, new SimpleTaskAdapter(), new OperationResult("Cleanup audit"));
+
+        session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            AssertJUnit.assertEquals(0L, (long) (Long) query.uniqueResult());
+
+            session.getTransaction().commit();
+        } finally {
+            session.close();
+        }
+    }
+
     private ObjectDeltaOperation createObjectDeltaOperation(int i) throws Exception {
         ObjectDeltaOperation delta = new ObjectDeltaOperation();
         delta.setExecutionResult(new OperationResult("asdf"));
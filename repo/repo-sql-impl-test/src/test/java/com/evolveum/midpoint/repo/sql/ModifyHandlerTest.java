@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.PropertyDelta;
+import com.evolveum.midpoint.prism.delta.ReferenceDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.SynchronizationSituationUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares results of modifications written by {@link com.evolveum.midpoint.repo.sql.handler.ModifyHandler}s
+ * with results of the same modifications written through entity merge.
+ *
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ModifyHandlerTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ModifyHandlerTest.class);
+
+    private static final File TEST_DIR = new File("src/test/resources/modify");
+
+    @AfterMethod
+    public void restoreConfiguration() {
+        repositoryService.getConfiguration().setUseModifyHandlers(true);
+    }
+
+    @Test
+    public void test010TaskProgress() throws Exception {
+        final OperationResult taskResult = new OperationResult("test010TaskProgress");
+        taskResult.recordSuccess();
+
+        String[] oids = modifyAndCompare(TaskType.class, new File(TEST_DIR, "task.xml"), new DeltaFactory<TaskType>() {
+
+            @Override
+            public List<ItemDelta> create(PrismObject<TaskType> object) throws Exception {
+                List<ItemDelta> modifications = new ArrayList<>();
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(TaskType.F_PROGRESS), object.getDefinition(), 42L));
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(TaskType.F_EXPECTED_TOTAL), object.getDefinition(), 100L));
+
+                OperationResultType result = taskResult.createOperationResultType();
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(TaskType.F_RESULT), object.getDefinition(), result));
+                return modifications;
+            }
+        });
+
+        assertColumnsEqual("select t.status from RTask t where t.oid = :oid", oids);
+    }
+
+    @Test
+    public void test020ShadowSynchronizationSituation() throws Exception {
+        final XMLGregorianCalendar timestamp = XmlTypeConverter.createXMLGregorianCalendar(System.currentTimeMillis());
+
+        String[] oids = modifyAndCompare(ShadowType.class, new File(TEST_DIR, "account-synchronization-situation.xml"),
+                new DeltaFactory<ShadowType>() {
+
+                    @Override
+                    public List<ItemDelta> create(PrismObject<ShadowType> object) throws Exception {
+                        List<ItemDelta> modifications = new ArrayList<>();
+                        modifications.addAll(SynchronizationSituationUtil.createSynchronizationSituationDescriptionDelta(
+                                object, SynchronizationSituationType.LINKED, timestamp, null, true));
+                        modifications.add(SynchronizationSituationUtil.createSynchronizationTimestampDelta(
+                                object, ShadowType.F_SYNCHRONIZATION_TIMESTAMP, timestamp));
+                        modifications.add(SynchronizationSituationUtil.createSynchronizationTimestampDelta(
+                                object, ShadowType.F_FULL_SYNCHRONIZATION_TIMESTAMP, timestamp));
+                        modifications.add(PropertyDelta.createReplaceDelta(object.getDefinition(),
+                                ShadowType.F_SYNCHRONIZATION_SITUATION, SynchronizationSituationType.LINKED));
+                        return modifications;
+                    }
+                });
+
+        assertColumnsEqual("select s.synchronizationSituation, s.synchronizationTimestamp, "
+                + "s.fullSynchronizationTimestamp from RShadow s where s.oid = :oid", oids);
+    }
+
+    @Test
+    public void test030UserMetadata() throws Exception {
+        final XMLGregorianCalendar timestamp = XmlTypeConverter.createXMLGregorianCalendar(System.currentTimeMillis());
+
+        String[] oids = modifyAndCompare(UserType.class, new File(TEST_DIR, "user.xml"), new DeltaFactory<UserType>() {
+
+            @Override
+            public List<ItemDelta> create(PrismObject<UserType> object) throws Exception {
+                List<ItemDelta> modifications = new ArrayList<>();
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(ObjectType.F_METADATA, MetadataType.F_MODIFY_CHANNEL),
+                        object.getDefinition(), "http://midpoint.evolveum.com/xml/ns/public/provisioning/channels-3#import"));
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(ObjectType.F_METADATA, MetadataType.F_MODIFY_TIMESTAMP),
+                        object.getDefinition(), timestamp));
+
+                PrismReferenceValue modifier = new PrismReferenceValue("00000000-0000-0000-0000-000000000002");
+                modifier.setTargetType(UserType.COMPLEX_TYPE);
+                modifications.add(ReferenceDelta.createModificationReplace(
+                        new ItemPath(ObjectType.F_METADATA, MetadataType.F_MODIFIER_REF),
+                        object.getDefinition(), modifier));
+                return modifications;
+            }
+        });
+
+        assertColumnsEqual("select o.modifyChannel, o.modifyTimestamp, o.modifierRef.targetOid "
+                + "from RObject o where o.oid = :oid", oids);
+    }
+
+    /**
+     * Modifications which can't be handled by handlers (name) must be written through merge even
+     * if they are mixed with modifications supported by handlers.
+     */
+    @Test
+    public void test040MixedModifications() throws Exception {
+        String[] oids = modifyAndCompare(TaskType.class, new File(TEST_DIR, "task.xml"), new DeltaFactory<TaskType>() {
+
+            @Override
+            public List<ItemDelta> create(PrismObject<TaskType> object) throws Exception {
+                List<ItemDelta> modifications = new ArrayList<>();
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(TaskType.F_PROGRESS), object.getDefinition(), 7L));
+                modifications.add(PropertyDelta.createModificationReplaceProperty(
+                        new ItemPath(ObjectType.F_NAME), object.getDefinition(),
+                        new PolyString(object.getName().getOrig() + " renamed")));
+                return modifications;
+            }
+        });
+
+        OperationResult result = new OperationResult("test040MixedModifications");
+        PrismObject<TaskType> task = repositoryService.getObject(TaskType.class, oids[0], null, result);
+        AssertJUnit.assertTrue(task.getName().getOrig().endsWith(" renamed"));
+    }
+
+    /**
+     * Adds two copies of object from file, modifies first one using modify handlers and second one
+     * using entity merge. Objects must be equal afterwards (except oid and name).
+     *
+     * @return oids of both objects, first is oid of object modified by handlers
+     */
+    private <T extends ObjectType> String[] modifyAndCompare(Class<T> type, File file, DeltaFactory<T> factory)
+            throws Exception {
+        OperationResult result = new OperationResult("modifyAndCompare");
+
+        String handlerOid = addCopy(type, file, "handler", result);
+        String mergeOid = addCopy(type, file, "merge", result);
+
+        repositoryService.getConfiguration().setUseModifyHandlers(true);
+        modify(type, handlerOid, factory, result);
+
+        repositoryService.getConfiguration().setUseModifyHandlers(false);
+        modify(type, mergeOid, factory, result);
+
+        PrismObject<T> handlerObject = repositoryService.getObject(type, handlerOid, null, result);
+        PrismObject<T> mergeObject = repositoryService.getObject(type, mergeOid, null, result);
+        LOGGER.debug("Modified by handlers:\n{}\nModified by merge:\n{}",
+                handlerObject.debugDump(), mergeObject.debugDump());
+
+        AssertJUnit.assertEquals("Versions differ", mergeObject.getVersion(), handlerObject.getVersion());
+        AssertJUnit.assertEquals("Version was not incremented", "1", handlerObject.getVersion());
+
+        mergeObject.setOid(handlerOid);
+        mergeObject.asObjectable().setName(handlerObject.asObjectable().getName());
+
+        ObjectDelta<T> diff = handlerObject.diff(mergeObject);
+        AssertJUnit.assertTrue("Objects differ: " + diff, diff == null || diff.isEmpty());
+
+        return new String[]{handlerOid, mergeOid};
+    }
+
+    private <T extends ObjectType> String addCopy(Class<T> type, File file, String suffix, OperationResult result)
+            throws Exception {
+        PrismObject<T> object = prismContext.parseObject(file);
+        object.setOid(UUID.randomUUID().toString());
+        object.asObjectable().setName(new PolyStringType(
+                object.getName().getOrig() + " " + suffix + " " + object.getOid()));
+        object.asObjectable().setVersion(null);
+
+        return repositoryService.addObject(object, null, result);
+    }
+
+    private <T extends ObjectType> void modify(Class<T> type, String oid, DeltaFactory<T> factory,
+                                               OperationResult result) throws Exception {
+        PrismObject<T> object = repositoryService.getObject(type, oid, null, result);
+        Collection<ItemDelta> modifications = factory.create(object);
+        repositoryService.modifyObject(type, oid, modifications, result);
+    }
+
+    private void assertColumnsEqual(String hql, String[] oids) {
+        Session session = open();
+        try {
+            Query query = session.createQuery(hql);
+
+            query.setString("oid", oids[0]);
+            Object handler = query.uniqueResult();
+            query.setString("oid", oids[1]);
+            Object merge = query.uniqueResult();
+
+            LOGGER.debug("Columns for handlers: {}, merge: {}", toList(handler), toList(merge));
+            AssertJUnit.assertEquals(toList(merge), toList(handler));
+        } finally {
+            close(session);
+        }
+    }
+
+    private List<Object> toList(Object row) {
+        if (row instanceof Object[]) {
+            return Arrays.asList((Object[]) row);
+        }
+        return Arrays.asList(row);
+    }
+
+    private interface DeltaFactory<T extends ObjectType> {
+
+        List<ItemDelta> create(PrismObject<T> object) throws Exception;
+    }
+}
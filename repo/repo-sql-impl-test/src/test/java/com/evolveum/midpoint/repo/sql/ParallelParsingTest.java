@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests parsing of search results by {@link ObjectParsingPool} and compares search latency of sequential
+ * and concurrent parsing for different result sizes and object sizes.
+ *
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ParallelParsingTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ParallelParsingTest.class);
+
+    private static final int PARSING_THREADS = 4;
+    private static final int[] BENCHMARK_COUNTS = {10, 100, 500};
+    private static final int[] BENCHMARK_DESCRIPTION_SIZES = {0, 20000};
+    private static final int BENCHMARK_ROUNDS = 3;
+
+    @Test
+    public void test100SearchSameResults() throws Exception {
+        addUsers("parsing-search", 50, 100);
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldThreads = config.getParsingThreads();
+        int oldThreshold = config.getParsingThreshold();
+        try {
+            config.setParsingThreads(0);
+            List<PrismObject<UserType>> expected = search("parsing-search");
+            AssertJUnit.assertEquals(50, expected.size());
+
+            config.setParsingThreads(PARSING_THREADS);
+            config.setParsingThreshold(2);
+            List<PrismObject<UserType>> real = search("parsing-search");
+
+            AssertJUnit.assertEquals("Wrong number of objects", expected.size(), real.size());
+            for (int i = 0; i < expected.size(); i++) {
+                AssertJUnit.assertEquals("Wrong object on position " + i, expected.get(i), real.get(i));
+            }
+
+            // small result is parsed by thread which executes search
+            config.setParsingThreshold(100);
+            AssertJUnit.assertEquals(expected, search("parsing-search"));
+        } finally {
+            config.setParsingThreads(oldThreads);
+            config.setParsingThreshold(oldThreshold);
+        }
+    }
+
+    @Test
+    public void test110IterativeSearch() throws Exception {
+        addUsers("parsing-iterative", 23, 100);
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldThreads = config.getParsingThreads();
+        int oldThreshold = config.getParsingThreshold();
+        try {
+            config.setParsingThreads(0);
+            List<String> expected = iterate("parsing-iterative", Integer.MAX_VALUE);
+            AssertJUnit.assertEquals(23, expected.size());
+
+            config.setParsingThreads(PARSING_THREADS);
+            for (int threshold : new int[]{1, 5, 23, 100}) {
+                config.setParsingThreshold(threshold);
+                AssertJUnit.assertEquals("Wrong objects for threshold " + threshold, expected,
+                        iterate("parsing-iterative", Integer.MAX_VALUE));
+            }
+
+            config.setParsingThreshold(5);
+            AssertJUnit.assertEquals(expected.subList(0, 7), iterate("parsing-iterative", 7));
+        } finally {
+            config.setParsingThreads(oldThreads);
+            config.setParsingThreshold(oldThreshold);
+        }
+    }
+
+    /**
+     * Prints average search latency for sequential and concurrent parsing, doesn't assert anything about times.
+     */
+    @Test
+    public void test200Benchmark() throws Exception {
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldThreads = config.getParsingThreads();
+        int oldThreshold = config.getParsingThreshold();
+        try {
+            config.setParsingThreshold(10);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("Search latency (objects, description size, sequential ms, concurrent ms):\n");
+            for (int descriptionSize : BENCHMARK_DESCRIPTION_SIZES) {
+                for (int count : BENCHMARK_COUNTS) {
+                    String costCenter = "parsing-benchmark-" + descriptionSize + "-" + count;
+                    addUsers(costCenter, count, descriptionSize);
+
+                    config.setParsingThreads(0);
+                    search(costCenter);     // warm up
+                    long sequential = measureSearch(costCenter, count);
+
+                    config.setParsingThreads(PARSING_THREADS);
+                    search(costCenter);
+                    long concurrent = measureSearch(costCenter, count);
+
+                    sb.append(count).append('\t').append(descriptionSize).append('\t')
+                            .append(sequential).append('\t').append(concurrent).append('\n');
+                }
+            }
+            LOGGER.info(sb.toString());
+            System.out.println(sb.toString());
+        } finally {
+            config.setParsingThreads(oldThreads);
+            config.setParsingThreshold(oldThreshold);
+        }
+    }
+
+    /**
+     * @return average search time in milliseconds
+     */
+    private long measureSearch(String costCenter, int count) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            AssertJUnit.assertEquals(count, search(costCenter).size());
+        }
+        return (System.currentTimeMillis() - start) / BENCHMARK_ROUNDS;
+    }
+
+    private void addUsers(String costCenter, int count, int descriptionSize) throws Exception {
+        OperationResult result = new OperationResult("add users");
+        for (int i = 0; i < count; i++) {
+            UserType user = new UserType();
+            prismContext.adopt(user);
+            user.setName(new PolyStringType(costCenter + "-" + StringUtils.leftPad(Integer.toString(i), 4, "0")));
+            user.setCostCenter(costCenter);
+            if (descriptionSize > 0) {
+                user.setDescription(StringUtils.repeat("x", descriptionSize));
+            }
+            for (int j = 0; j < 10; j++) {
+                user.getEmployeeType().add("type" + j);
+            }
+
+            repositoryService.addObject(user.asPrismObject(), null, result);
+        }
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+    }
+
+    private ObjectQuery createQuery(String costCenter) throws Exception {
+        EqualFilter filter = EqualFilter.createEqual(UserType.F_COST_CENTER, UserType.class, prismContext, costCenter);
+        ObjectQuery query = ObjectQuery.createObjectQuery(filter);
+        query.setPaging(ObjectPaging.createPaging(null, null, ObjectType.F_NAME, OrderDirection.ASCENDING));
+        return query;
+    }
+
+    private List<PrismObject<UserType>> search(String costCenter) throws Exception {
+        OperationResult result = new OperationResult("search");
+        List<PrismObject<UserType>> objects = repositoryService.searchObjects(UserType.class, createQuery(costCenter),
+                null, result);
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        return objects;
+    }
+
+    /**
+     * @return oids of objects in order as they were handled
+     */
+    private List<String> iterate(String costCenter, final int stopAfterObjects) throws Exception {
+        OperationResult result = new OperationResult("search iterative");
+
+        final List<String> oids = new ArrayList<>();
+        ResultHandler<UserType> handler = new ResultHandler<UserType>() {
+
+            @Override
+            public boolean handle(PrismObject<UserType> object, OperationResult parentResult) {
+                oids.add(object.getOid());
+                return oids.size() < stopAfterObjects;
+            }
+        };
+
+        repositoryService.searchObjectsIterative(UserType.class, createQuery(costCenter), handler, null, result);
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        return oids;
+    }
+}
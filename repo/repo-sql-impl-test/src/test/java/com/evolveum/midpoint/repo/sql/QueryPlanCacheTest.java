@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.AndFilter;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.prism.query.LessFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrFilter;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.prism.query.RefFilter;
+import com.evolveum.midpoint.repo.sql.query.QueryInterpreter;
+import com.evolveum.midpoint.repo.sql.query.QueryPlanCache;
+import com.evolveum.midpoint.repo.sql.type.XMLGregorianCalendarType;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Session;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests that queries of the same shape interpreted via {@link QueryPlanCache} are the same as queries interpreted
+ * without it and compares translation time of queries with and without the cache.
+ *
+ * @author lazyman
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class QueryPlanCacheTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryPlanCacheTest.class);
+
+    private static final int BENCHMARK_ROUNDS = 2000;
+
+    @Test
+    public void test100SameShapeSameQuery() throws Exception {
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldSize = config.getQueryPlanCacheSize();
+
+        Session session = open();
+        try {
+            config.setQueryPlanCacheSize(0);
+            AssertJUnit.assertNull(repositoryService.getQueryPlanCache());
+            String expected = getInterpretedQuery(session, UserType.class, createQuery("cc1", "oid1"));
+            String expectedCount = getInterpretedQuery(session, UserType.class, createQuery("cc1", "oid1"), true);
+
+            config.setQueryPlanCacheSize(100);
+            QueryPlanCache cache = repositoryService.getQueryPlanCache();
+            AssertJUnit.assertNotNull(cache);
+            AssertJUnit.assertEquals(100, cache.getMaxSize());
+            AssertJUnit.assertEquals(0, cache.size());
+
+            String real = getInterpretedQuery(session, UserType.class, createQuery("cc1", "oid1"));
+            AssertJUnit.assertEquals(expected, real);
+            AssertJUnit.assertEquals(0, cache.getHits());
+            AssertJUnit.assertEquals(1, cache.getMisses());
+
+            real = getInterpretedQuery(session, UserType.class, createQuery("cc2", "oid2"));
+            AssertJUnit.assertEquals(expected, real);
+            real = getInterpretedQuery(session, UserType.class, createQuery("cc3", "oid3"), true);
+            AssertJUnit.assertEquals(expectedCount, real);
+
+            LOGGER.info("Query plan cache: {}", cache);
+            AssertJUnit.assertEquals(2, cache.getHits());
+            AssertJUnit.assertEquals(1, cache.getMisses());
+            AssertJUnit.assertEquals(1, cache.size());
+        } finally {
+            close(session);
+            config.setQueryPlanCacheSize(oldSize);
+        }
+    }
+
+    @Test
+    public void test110ValuesAreBound() throws Exception {
+        addUser("plan-user-1", "plan-cc-1");
+        addUser("plan-user-2", "plan-cc-2");
+        addUser("plan-user-3", "plan-cc-2");
+
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldSize = config.getQueryPlanCacheSize();
+        try {
+            config.setQueryPlanCacheSize(100);
+            QueryPlanCache cache = repositoryService.getQueryPlanCache();
+            cache.clear();
+
+            AssertJUnit.assertEquals(1, search("plan-cc-1").size());
+            AssertJUnit.assertEquals(2, search("plan-cc-2").size());
+            AssertJUnit.assertEquals(0, search("plan-cc-3").size());
+            AssertJUnit.assertTrue(cache.getHits() >= 2);
+        } finally {
+            config.setQueryPlanCacheSize(oldSize);
+        }
+    }
+
+    @Test
+    public void test120DifferentShapes() throws Exception {
+        ObjectQuery query = createQuery("cc1", "oid1");
+        String key = QueryPlanCache.createShapeKey(query, UserType.class);
+        AssertJUnit.assertEquals(key, QueryPlanCache.createShapeKey(createQuery("cc2", "oid2"), UserType.class));
+
+        AssertJUnit.assertFalse(key.equals(QueryPlanCache.createShapeKey(query, FocusType.class)));
+
+        ObjectQuery other = createQuery("cc1", "oid1");
+        other.setPaging(ObjectPaging.createPaging(null, null, ObjectType.F_NAME, OrderDirection.DESCENDING));
+        AssertJUnit.assertFalse(key.equals(QueryPlanCache.createShapeKey(other, UserType.class)));
+
+        ObjectQuery name = ObjectQuery.createObjectQuery(
+                EqualFilter.createEqual(UserType.F_EMPLOYEE_NUMBER, UserType.class, prismContext, "cc1"));
+        ObjectQuery costCenter = ObjectQuery.createObjectQuery(
+                EqualFilter.createEqual(UserType.F_COST_CENTER, UserType.class, prismContext, "cc1"));
+        AssertJUnit.assertFalse(QueryPlanCache.createShapeKey(name, UserType.class)
+                .equals(QueryPlanCache.createShapeKey(costCenter, UserType.class)));
+    }
+
+    /**
+     * Prints average translation time of query (from object query to hibernate criteria), doesn't assert
+     * anything about times.
+     */
+    @Test
+    public void test200Benchmark() throws Exception {
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldSize = config.getQueryPlanCacheSize();
+
+        Session session = open();
+        try {
+            config.setQueryPlanCacheSize(0);
+            measureTranslation(session, BENCHMARK_ROUNDS);      // warm up
+            long uncached = measureTranslation(session, BENCHMARK_ROUNDS);
+
+            config.setQueryPlanCacheSize(100);
+            repositoryService.getQueryPlanCache().clear();
+            measureTranslation(session, BENCHMARK_ROUNDS);
+            long cached = measureTranslation(session, BENCHMARK_ROUNDS);
+
+            String message = "Query translation time per query (uncached, cached): " + uncached / 1000 + " us, "
+                    + cached / 1000 + " us; " + repositoryService.getQueryPlanCache();
+            LOGGER.info(message);
+            System.out.println(message);
+        } finally {
+            close(session);
+            config.setQueryPlanCacheSize(oldSize);
+        }
+    }
+
+    /**
+     * @return average translation time in nanoseconds
+     */
+    private long measureTranslation(Session session, int rounds) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            QueryInterpreter interpreter = new QueryInterpreter(repositoryService.getConfiguration(),
+                    repositoryService.getQueryPlanCache());
+            interpreter.interpret(createQuery("cc" + i, "oid" + i), UserType.class, null, prismContext, false,
+                    session);
+        }
+        return (System.nanoTime() - start) / rounds;
+    }
+
+    private ObjectQuery createQuery(String costCenter, String linkOid) throws Exception {
+        PrismObjectDefinition<UserType> userDef = prismContext.getSchemaRegistry()
+                .findObjectDefinitionByCompileTimeClass(UserType.class);
+        XMLGregorianCalendar timestamp = XMLGregorianCalendarType.asXMLGregorianCalendar(new Date());
+
+        OrFilter activation = OrFilter.createOr(
+                LessFilter.createLess(new ItemPath(FocusType.F_ACTIVATION, ActivationType.F_VALID_FROM), userDef,
+                        timestamp, true),
+                LessFilter.createLess(new ItemPath(FocusType.F_ASSIGNMENT, FocusType.F_ACTIVATION,
+                        ActivationType.F_VALID_TO), userDef, timestamp, true));
+
+        AndFilter filter = AndFilter.createAnd(
+                EqualFilter.createEqual(UserType.F_COST_CENTER, UserType.class, prismContext, costCenter),
+                RefFilter.createReferenceEqual(UserType.F_LINK_REF, UserType.class, prismContext, linkOid),
+                activation);
+
+        ObjectQuery query = ObjectQuery.createObjectQuery(filter);
+        query.setPaging(ObjectPaging.createPaging(0, 10, ObjectType.F_NAME, OrderDirection.ASCENDING));
+        return query;
+    }
+
+    private void addUser(String name, String costCenter) throws Exception {
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        user.setName(new PolyStringType(name));
+        user.setCostCenter(costCenter);
+
+        OperationResult result = new OperationResult("add user");
+        repositoryService.addObject(user.asPrismObject(), null, result);
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+    }
+
+    private List<PrismObject<UserType>> search(String costCenter) throws Exception {
+        ObjectQuery query = ObjectQuery.createObjectQuery(
+                EqualFilter.createEqual(UserType.F_COST_CENTER, UserType.class, prismContext, costCenter));
+        query.setPaging(ObjectPaging.createPaging(null, null, ObjectType.F_NAME, OrderDirection.ASCENDING));
+
+        OperationResult result = new OperationResult("search");
+        List<PrismObject<UserType>> objects = repositoryService.searchObjects(UserType.class, query, null, result);
+        result.recomputeStatus();
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        return objects;
+    }
+}
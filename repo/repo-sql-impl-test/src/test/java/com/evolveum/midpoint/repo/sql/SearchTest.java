@@ -26,8 +26,10 @@ import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -42,6 +44,7 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -157,6 +160,66 @@ public class SearchTest extends BaseSQLRepoTest {
         AssertJUnit.assertEquals(size, objects.size());
     }
 
+    @Test
+    public void iterateSetByKeyset() throws Exception {
+        SqlRepositoryConfiguration config = repositoryService.getConfiguration();
+        int oldBatch = config.getIterativeSearchByPagingBatchSize();
+        try {
+            List<String> expected = iterateByKeyset(null, Integer.MAX_VALUE);
+            AssertJUnit.assertEquals(3, expected.size());
+
+            for (int batch : new int[]{1, 2, 3, 10}) {
+                config.setIterativeSearchByPagingBatchSize(batch);
+                AssertJUnit.assertEquals("Wrong objects for batch size " + batch, expected,
+                        iterateByKeyset(null, Integer.MAX_VALUE));
+            }
+
+            config.setIterativeSearchByPagingBatchSize(1);
+            AssertJUnit.assertEquals(expected.subList(0, 2), iterateByKeyset(null, 2));
+            AssertJUnit.assertEquals(expected.subList(0, 2), iterateByKeyset(2, Integer.MAX_VALUE));
+        } finally {
+            config.setIterativeSearchByPagingBatchSize(oldBatch);
+        }
+    }
+
+    /**
+     * @param maxSize         paging max size, null if query paging should not be used
+     * @param stopAfterObjects handler returns false after this count of objects
+     * @return oids of objects found, in order as they were handled
+     */
+    private List<String> iterateByKeyset(Integer maxSize, final int stopAfterObjects) throws Exception {
+        OperationResult result = new OperationResult("search by keyset");
+
+        final List<String> oids = new ArrayList<>();
+        ResultHandler handler = new ResultHandler() {
+
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                AssertJUnit.assertFalse("Object handled twice", oids.contains(object.getOid()));
+                oids.add(object.getOid());
+                return oids.size() < stopAfterObjects;
+            }
+        };
+
+        ObjectQuery query = null;
+        if (maxSize != null) {
+            query = new ObjectQuery();
+            query.setPaging(ObjectPaging.createPaging(null, maxSize));
+        }
+
+        repositoryService.searchObjectsIterative(UserType.class, query, handler,
+                SelectorOptions.createCollection(GetOperationOptions.createKeysetPaging()), result);
+        result.recomputeStatus();
+
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        List<String> sorted = new ArrayList<>(oids);
+        Collections.sort(sorted);
+        AssertJUnit.assertEquals("Objects are not ordered by oid", sorted, oids);
+
+        return oids;
+    }
+
     @Test
     public void caseSensitiveSearchTest() throws Exception {
         final String existingNameOrig = "Test UserX00003";
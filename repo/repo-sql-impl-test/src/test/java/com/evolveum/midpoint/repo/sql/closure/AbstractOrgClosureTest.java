@@ -1056,6 +1056,20 @@ public abstract class AbstractOrgClosureTest extends BaseSQLRepoTest {
         LOGGER.info("Finish.");
     }
 
+    // thorough check compares incrementally maintained closure with the one computed by bulk rebuild
+    protected void _test500RebuildClosure() throws Exception {
+        OperationResult opResult = new OperationResult("===[ test500RebuildClosure ]===");
+
+        long start = System.currentTimeMillis();
+        repositoryService.getClosureManager().checkAndOrRebuild(repositoryService, true, true, false, false, opResult);
+        info("Closure table checked and rebuilt in " + (System.currentTimeMillis() - start) + " ms: " + opResult.getMessage());
+        assertTrue("Rebuilt closure differs from the incrementally maintained one: " + opResult.getMessage(), opResult.isSuccess());
+
+        Query q = getSession().createSQLQuery("select count(*) from m_org_closure");
+        assertEquals("Wrong closure size after rebuild", closureSize, Long.parseLong(q.list().get(0).toString()));
+        checkClosureUnconditional(getVertices());
+    }
+
     protected void info(String s) {
         System.out.println(s);
         LOGGER.info(s);
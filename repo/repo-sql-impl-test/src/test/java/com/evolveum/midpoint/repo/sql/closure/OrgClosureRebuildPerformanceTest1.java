@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.closure;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+/**
+ * @author mederly
+ */
+@ContextConfiguration(locations = {"../../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class OrgClosureRebuildPerformanceTest1 extends AbstractOrgClosureTest {
+
+    // deep and narrow graph, many parents per org
+    private static final int[] ORG_CHILDREN_IN_LEVEL  = { 1, 2, 2, 2, 2, 2, 2, 2, 0 };
+    private static final int[] USER_CHILDREN_IN_LEVEL = null;
+    private static final int[] PARENTS_IN_LEVEL       = { 0, 1, 2, 3, 3, 3, 3, 3, 3 };
+
+    private OrgClosureTestConfiguration configuration;
+
+    public OrgClosureRebuildPerformanceTest1() {
+        configuration = new OrgClosureTestConfiguration();
+        configuration.setCheckChildrenSets(false);
+        configuration.setCheckClosureMatrix(false);
+        configuration.setOrgChildrenInLevel(ORG_CHILDREN_IN_LEVEL);
+        configuration.setUserChildrenInLevel(USER_CHILDREN_IN_LEVEL);
+        configuration.setParentsInLevel(PARENTS_IN_LEVEL);
+    }
+
+    @Test(enabled = true) public void test100LoadOrgStructure() throws Exception { _test100LoadOrgStructure(); }
+    @Test(enabled = true) public void test150CheckClosure() throws Exception { _test150CheckClosure(); }
+    @Test(enabled = true) public void test500RebuildClosure() throws Exception { _test500RebuildClosure(); }
+    @Test(enabled = true) public void test900RandomUnloadOrgStructure() throws Exception { _test410RandomUnloadOrgStructure(); }
+
+    @Override
+    public OrgClosureTestConfiguration getConfiguration() {
+        return configuration;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.closure;
+
+import com.evolveum.midpoint.repo.sql.OrgClosureManager;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import org.jgrapht.alg.TransitiveClosure;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+
+/**
+ * Runs the closure correctness scenarios with orgClosureRowLocking switched on, i.e. with affected
+ * m_org rows locked instead of the whole closure table. On H2 the row locks degrade to a table lock,
+ * so this test checks the code path and the sets of locked orgs, not the concurrency itself
+ * (that is done by OrgClosureConcurrencyTest on Oracle or SQL Server, see testng-db-specific.xml).
+ */
+@ContextConfiguration(locations = {"../../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class OrgClosureRowLockingTest extends AbstractOrgClosureTest {
+
+    private static final int[] ORG_CHILDREN_IN_LEVEL  = { 4, 3, 3  };
+    private static final int[] USER_CHILDREN_IN_LEVEL = null;
+    private static final int[] PARENTS_IN_LEVEL       = { 0, 2, 2  };
+    private static final int[] LINK_ROUNDS_FOR_LEVELS = { 0, 5, 10 };
+    private static final int[] NODE_ROUNDS_FOR_LEVELS = { 1, 5, 10 };
+
+    private OrgClosureTestConfiguration configuration;
+
+    private boolean originalRowLocking;
+
+    public OrgClosureRowLockingTest() {
+        configuration = new OrgClosureTestConfiguration();
+        configuration.setCheckChildrenSets(true);
+        configuration.setCheckClosureMatrix(true);
+        configuration.setDeletionsToClosureTest(1);
+        configuration.setOrgChildrenInLevel(ORG_CHILDREN_IN_LEVEL);
+        configuration.setUserChildrenInLevel(USER_CHILDREN_IN_LEVEL);
+        configuration.setParentsInLevel(PARENTS_IN_LEVEL);
+        configuration.setLinkRoundsForLevel(LINK_ROUNDS_FOR_LEVELS);
+        configuration.setNodeRoundsForLevel(NODE_ROUNDS_FOR_LEVELS);
+    }
+
+    @BeforeClass
+    public void enableRowLocking() {
+        originalRowLocking = repositoryService.getConfiguration().isOrgClosureRowLocking();
+        repositoryService.getConfiguration().setOrgClosureRowLocking(true);
+    }
+
+    @AfterClass
+    public void restoreRowLocking() {
+        repositoryService.getConfiguration().setOrgClosureRowLocking(originalRowLocking);
+    }
+
+    @Test(enabled = true) public void test100LoadOrgStructure() throws Exception { _test100LoadOrgStructure(); }
+    @Test(enabled = true) public void test150CheckClosure() throws Exception { _test150CheckClosure(); }
+
+    @Test
+    public void test160LockedOrgsOnLinkChange() throws Exception {
+        OperationResult opResult = new OperationResult("===[ test160LockedOrgsOnLinkChange ]===");
+        OrgClosureManager closureManager = repositoryService.getClosureManager();
+
+        String childOid = orgsByLevels.get(1).get(0);
+        OrgType child = repositoryService.getObject(OrgType.class, childOid, null, opResult).asObjectable();
+        ObjectReferenceType parentOrgRef = child.getParentOrgRef().get(0);
+        String parentOid = parentOrgRef.getOid();
+
+        Set<String> expectedDescendants = getExpectedDescendants(childOid);
+        Set<String> expectedAncestors = getExpectedAncestors(parentOid);
+        expectedAncestors.removeAll(expectedDescendants);
+
+        removeObjectParent(child, parentOrgRef, false, opResult);
+        assertEquals("Wrong locked descendants on link removal", expectedDescendants, closureManager.getLastLockedDescendants());
+        assertEquals("Wrong locked ancestors on link removal", expectedAncestors, closureManager.getLastLockedAncestors());
+
+        child = repositoryService.getObject(OrgType.class, childOid, null, opResult).asObjectable();
+        ObjectReferenceType newParentOrgRef = new ObjectReferenceType();
+        newParentOrgRef.setOid(parentOid);
+        newParentOrgRef.setType(OrgType.COMPLEX_TYPE);
+        addOrgParent(child, newParentOrgRef, false, opResult);
+        assertEquals("Wrong locked descendants on link addition", expectedDescendants, closureManager.getLastLockedDescendants());
+        assertEquals("Wrong locked ancestors on link addition", expectedAncestors, closureManager.getLastLockedAncestors());
+        assertFalse("No ancestors were locked", closureManager.getLastLockedAncestors().isEmpty());
+
+        checkClosure(getVertices());
+    }
+
+    @Test(enabled = true) public void test200AddRemoveLinks() throws Exception { _test200AddRemoveLinks(); }
+    @Test(enabled = true) public void test200AddRemoveLinksUsingReplace() throws Exception { _test200AddRemoveLinks(true); }
+    @Test(enabled = true) public void test300AddRemoveOrgs() throws Exception { _test300AddRemoveOrgs(); }
+    @Test(enabled = true) public void test390CyclePrevention() throws Exception { _test390CyclePrevention(); }
+    @Test(enabled = true) public void test410RandomUnloadOrgStructure() throws Exception { _test410RandomUnloadOrgStructure(); }
+
+    // the org itself and all its descendants, according to the in-memory graph
+    private Set<String> getExpectedDescendants(String oid) {
+        SimpleDirectedGraph<String, DefaultEdge> tc = getTransitiveClosure();
+        Set<String> rv = new HashSet<>();
+        rv.add(oid);
+        for (DefaultEdge edge : tc.incomingEdgesOf(oid)) {
+            rv.add(tc.getEdgeSource(edge));
+        }
+        return rv;
+    }
+
+    // the org itself and all its ancestors, according to the in-memory graph
+    private Set<String> getExpectedAncestors(String oid) {
+        SimpleDirectedGraph<String, DefaultEdge> tc = getTransitiveClosure();
+        Set<String> rv = new HashSet<>();
+        rv.add(oid);
+        for (DefaultEdge edge : tc.outgoingEdgesOf(oid)) {
+            rv.add(tc.getEdgeTarget(edge));
+        }
+        return rv;
+    }
+
+    private SimpleDirectedGraph<String, DefaultEdge> getTransitiveClosure() {
+        SimpleDirectedGraph<String, DefaultEdge> tc = (SimpleDirectedGraph) orgGraph.clone();
+        TransitiveClosure.INSTANCE.closeSimpleDirectedGraph(tc);
+        return tc;
+    }
+
+    @Override
+    public OrgClosureTestConfiguration getConfiguration() {
+        return configuration;
+    }
+}
@@ -59,6 +59,8 @@ import java.util.Set;
  */
 public class SimpleTaskAdapter implements Task {
 
+    private long progress;
+
     @Override
     public void addDependent(String taskIdentifier) {
         throw new UnsupportedOperationException("not implemented yet.");
@@ -358,12 +360,12 @@ public class SimpleTaskAdapter implements Task {
 
     @Override
     public long getProgress() {
-        throw new UnsupportedOperationException("not implemented yet.");
+        return progress;
     }
 
     @Override
     public void setProgress(long value) {
-        throw new UnsupportedOperationException("not implemented yet.");
+        progress = value;
     }
 
     @Override
@@ -394,7 +396,7 @@ public class SimpleTaskAdapter implements Task {
 
     @Override
     public boolean canRun() {
-        throw new UnsupportedOperationException("not implemented yet.");
+        return true;
     }
 
     @Override
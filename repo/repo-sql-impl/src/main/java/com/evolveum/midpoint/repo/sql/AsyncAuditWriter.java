@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes audit records asynchronously. Records are put to bounded queue by {@link SqlAuditServiceImpl#audit}
+ * and one writer thread stores them in batches (up to batch size records in one transaction, or what was
+ * queued during flush interval). When queue is full, callers are blocked until writer makes room in it.
+ * <p/>
+ * If spill file is configured, every record is appended to it before it is queued. Spill file is truncated
+ * when writer stored everything what was queued. Records of failed batches are kept as pending, they are
+ * written again before next batch and spill file is rewritten to contain only them. Records found in spill
+ * file during start (e.g. after crash) are written before any new record, therefore records stored just
+ * before crash can be stored twice.
+ *
+ * @author lazyman
+ */
+public class AsyncAuditWriter {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AsyncAuditWriter.class);
+
+    private static final String THREAD_NAME = "midpoint-audit-writer";
+    private static final long SHUTDOWN_TIMEOUT = 60000;
+    private static final long POLL_INTERVAL = 100;
+
+    private final int batchSize;
+    private final long flushInterval;
+    private final File spillFile;
+
+    private final BlockingQueue<RAuditEventRecord> queue;
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private final Object flushMonitor = new Object();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private long processed;
+
+    private SqlAuditServiceImpl auditService;
+    private FileOutputStream spillStream;
+    private DataOutputStream spillOutput;
+    // records of failed batches, they are the only records kept in spill file once the queue is empty
+    private final List<RAuditEventRecord> pendingRecords = new ArrayList<>();
+
+    private volatile boolean running;
+    private volatile boolean aborted;
+    private Thread thread;
+
+    public AsyncAuditWriter(int queueSize, int batchSize, long flushInterval, File spillFile) {
+        if (queueSize <= 0 || batchSize <= 0 || flushInterval <= 0) {
+            throw new IllegalArgumentException("Queue size (" + queueSize + "), batch size (" + batchSize
+                    + ") and flush interval (" + flushInterval + ") must be positive.");
+        }
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.spillFile = spillFile;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Replays spill file (if there is any) and starts writer thread. Does nothing if writer is already running.
+     */
+    public synchronized void start(SqlAuditServiceImpl auditService) {
+        if (running) {
+            return;
+        }
+        LOGGER.info("Starting asynchronous audit writer (queue size {}, batch size {}, flush interval {}ms).",
+                new Object[]{queue.remainingCapacity() + queue.size(), batchSize, flushInterval});
+        this.auditService = auditService;
+
+        if (spillFile != null) {
+            replaySpillFile();
+            openSpillFile();
+            truncateSpillFile();
+        }
+
+        aborted = false;
+        running = true;
+        thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops accepting new records, writes all queued records and stops writer thread.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        LOGGER.info("Shutting down asynchronous audit writer, {} records in queue.", queue.size());
+        // writer thread isn't interrupted, interrupt could break JDBC connection it's just using
+        running = false;
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOGGER.warn("Asynchronous audit writer didn't finish in {}ms, {} records weren't written{}.",
+                    new Object[]{SHUTDOWN_TIMEOUT, queue.size(), spillFile != null ? " (they stay in spill file)" : ""});
+        } else {
+            if (!pendingRecords.isEmpty()) {
+                LOGGER.warn("{} audit records of failed batches weren't written{}.", pendingRecords.size(),
+                        spillFile != null ? ", they stay in spill file" : "");
+            }
+            truncateSpillFile();
+        }
+        closeSpillFile();
+        LOGGER.info("Asynchronous audit writer stopped, {}.", getStatistics());
+    }
+
+    /**
+     * Stops writer thread without writing queued records, used to simulate crash in tests.
+     * Queued records are only in spill file afterwards.
+     */
+    synchronized void abort() {
+        aborted = true;
+        running = false;
+        queue.clear();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        closeSpillFile();
+    }
+
+    public void enqueue(RAuditEventRecord record) {
+        if (!running) {
+            throw new SystemException("Asynchronous audit writer is not running.");
+        }
+        byte[] data = spillFile != null ? serialize(record) : null;
+
+        spillLock.lock();
+        try {
+            if (!running) {
+                throw new SystemException("Asynchronous audit writer is not running.");
+            }
+            if (data != null) {
+                if (spillOutput == null) {
+                    throw new SystemException("Audit spill file " + spillFile + " is not open.");
+                }
+                spillOutput.writeInt(data.length);
+                spillOutput.write(data);
+                spillOutput.flush();
+            }
+            // queued under spill lock, so spill file can't be truncated between append and put
+            queue.put(record);
+            enqueued.incrementAndGet();
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't append audit record to spill file " + spillFile
+                    + ", reason: " + ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for space in audit queue.", ex);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all records queued before this call are processed by writer thread.
+     */
+    public void flush() {
+        long target = enqueued.get();
+        synchronized (flushMonitor) {
+            while (processed < target && running) {
+                try {
+                    flushMonitor.wait(flushInterval);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public String getStatistics() {
+        return "enqueued: " + enqueued.get() + ", written: " + written.get() + ", failed batches: " + failed.get()
+                + ", batches: " + batches.get() + ", queued: " + queue.size();
+    }
+
+    private void writeRecords() {
+        List<RAuditEventRecord> batch = new ArrayList<>(batchSize);
+        while ((running || !queue.isEmpty()) && !aborted) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException ex) {
+                LOGGER.debug("Asynchronous audit writer was interrupted.");
+            }
+
+            if (!batch.isEmpty() && !aborted) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+
+        if (!aborted) {
+            writePendingRecords();
+        }
+    }
+
+    private void collectBatch(List<RAuditEventRecord> batch) throws InterruptedException {
+        // waiting is split to short intervals, so shutdown doesn't have to wait for whole flush interval
+        RAuditEventRecord first = queue.poll(Math.min(flushInterval, POLL_INTERVAL), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + flushInterval;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+
+            long wait = deadline - System.currentTimeMillis();
+            if (batch.size() >= batchSize || wait <= 0 || !running) {
+                return;
+            }
+
+            RAuditEventRecord next = queue.poll(Math.min(wait, POLL_INTERVAL), TimeUnit.MILLISECONDS);
+            if (next != null) {
+                batch.add(next);
+            }
+        }
+    }
+
+    private void writeBatch(List<RAuditEventRecord> batch) {
+        // pending records are older, they are written first
+        writePendingRecords();
+        if (!tryWrite(batch)) {
+            pendingRecords.addAll(batch);
+        }
+
+        truncateSpillFile();
+
+        synchronized (flushMonitor) {
+            processed += batch.size();
+            flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Writes pending records in batches, stops with first batch which fails again.
+     */
+    private void writePendingRecords() {
+        while (!pendingRecords.isEmpty()) {
+            List<RAuditEventRecord> batch = pendingRecords.subList(0, Math.min(batchSize, pendingRecords.size()));
+            if (!tryWrite(batch)) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean tryWrite(List<RAuditEventRecord> batch) {
+        try {
+            auditService.auditBatch(batch);
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+            return true;
+        } catch (RuntimeException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't write batch of {} audit records", ex, batch.size());
+            failed.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * When queue is empty, spill file contains only records which were written or are pending. It's truncated
+     * if nothing is pending, otherwise it's replaced by file with pending records only.
+     */
+    private void truncateSpillFile() {
+        if (spillFile == null || !queue.isEmpty()) {
+            return;
+        }
+        try {
+            // caller blocked on full queue holds the lock, therefore we don't wait for it forever
+            if (!spillLock.tryLock(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            return;
+        }
+        try {
+            if (queue.isEmpty() && spillStream != null) {
+                if (pendingRecords.isEmpty()) {
+                    spillStream.getChannel().truncate(0);
+                } else {
+                    rewriteSpillFile();
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't truncate audit spill file {}", ex, spillFile);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Pending records are written to temporary file which replaces spill file, so they are not lost
+     * if midPoint crashes during rewrite. Has to be called with spill lock held.
+     */
+    private void rewriteSpillFile() throws IOException {
+        File tmpFile = new File(spillFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tmpFile))) {
+            for (RAuditEventRecord record : pendingRecords) {
+                byte[] data = serialize(record);
+                output.writeInt(data.length);
+                output.write(data);
+            }
+        }
+
+        closeSpillFile();
+        try {
+            Files.move(tmpFile.toPath(), spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            openSpillFile();
+        }
+    }
+
+    private void openSpillFile() {
+        try {
+            spillStream = new FileOutputStream(spillFile, true);
+            spillOutput = new DataOutputStream(spillStream);
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't open audit spill file " + spillFile + ", reason: "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    private void closeSpillFile() {
+        spillLock.lock();
+        try {
+            if (spillOutput != null) {
+                spillOutput.close();
+            }
+        } catch (IOException ex) {
+            LoggingUtils.logException(LOGGER, "Couldn't close audit spill file {}", ex, spillFile);
+        } finally {
+            spillOutput = null;
+            spillStream = null;
+            spillLock.unlock();
+        }
+    }
+
+    private void replaySpillFile() {
+        // pending records of previous run are in spill file too
+        pendingRecords.clear();
+        if (!spillFile.exists() || spillFile.length() == 0) {
+            return;
+        }
+
+        List<RAuditEventRecord> records = readSpillFile();
+        LOGGER.info("Writing {} audit records found in spill file {}.", records.size(), spillFile);
+        // records which can't be written now stay pending, spill file is truncated or rewritten after it's opened
+        pendingRecords.addAll(records);
+        writePendingRecords();
+    }
+
+    private List<RAuditEventRecord> readSpillFile() {
+        List<RAuditEventRecord> records = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new FileInputStream(spillFile))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+
+                if (length <= 0 || length > spillFile.length()) {
+                    throw new IOException("Invalid length of record (" + length + ")");
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                records.add(deserialize(data));
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            // last record could be written only partially before crash
+            LOGGER.warn("Couldn't read audit record no. {} from spill file {}, skipping rest of file, reason: {}",
+                    new Object[]{records.size() + 1, spillFile, ex.getMessage()});
+        }
+        return records;
+    }
+
+    private byte[] serialize(RAuditEventRecord record) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(record);
+            }
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new SystemException("Couldn't serialize audit record, reason: " + ex.getMessage(), ex);
+        }
+    }
+
+    private RAuditEventRecord deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        InputStream bytes = new ByteArrayInputStream(data);
+        try (ObjectInputStream input = new ObjectInputStream(bytes)) {
+            return (RAuditEventRecord) input.readObject();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parses (unzips, parses XML) rows loaded from database on shared fork-join pool. Only the parsing which doesn't
+ * need hibernate session is done here, rest of the processing of loaded objects (e.g. loading of shadow attribute
+ * definitions or lookup table rows) has to be done by the thread which owns the session.
+ * <p/>
+ * Rows are split recursively to small chunks, so all threads of the pool are used even for small results.
+ * Parsed objects are always returned in the same order as rows.
+ *
+ * @author lazyman
+ */
+public class ObjectParsingPool {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ObjectParsingPool.class);
+
+    private static final String THREAD_NAME_PREFIX = "midpoint-repo-parser-";
+
+    /**
+     * Chunks with this number of rows (or less) are parsed by one thread.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    private final ForkJoinPool pool;
+
+    public interface RowParser<R, T> {
+
+        T parse(R row) throws SchemaException;
+    }
+
+    public ObjectParsingPool(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism (" + parallelism + ") must be positive.");
+        }
+        LOGGER.info("Creating pool for parsing of objects with parallelism {}.", parallelism);
+        pool = new ForkJoinPool(parallelism, new ParserThreadFactory(), null, false);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Parses all rows and waits until they are parsed.
+     *
+     * @return parsed objects in the same order as rows
+     * @throws SchemaException first schema exception thrown by parser (remaining rows are not parsed then)
+     */
+    public <R, T> List<T> parseAll(List<R> rows, RowParser<R, T> parser) throws SchemaException {
+        return submit(rows, parser).get();
+    }
+
+    /**
+     * Starts parsing of rows and returns immediately, so caller can e.g. fetch next rows from database meanwhile.
+     */
+    public <R, T> Batch<T> submit(List<R> rows, RowParser<R, T> parser) {
+        Batch<T> batch = new Batch<>(rows.size());
+        // task has to be set before it's started, parse tasks check whether it was cancelled
+        batch.task = new ParseTask<>(rows, parser, batch, 0, rows.size());
+        pool.execute(batch.task);
+        return batch;
+    }
+
+    /**
+     * Rows which are being parsed are parsed to the end, nothing is interrupted.
+     */
+    public void shutdown() {
+        LOGGER.info("Shutting down pool for parsing of objects.");
+        pool.shutdown();
+    }
+
+    /**
+     * Rows submitted for parsing.
+     */
+    public static class Batch<T> {
+
+        private final Object[] objects;
+        private final AtomicReference<SchemaException> exception = new AtomicReference<>();
+        private ForkJoinTask<?> task;
+
+        private Batch(int size) {
+            objects = new Object[size];
+        }
+
+        /**
+         * Waits until all rows are parsed.
+         *
+         * @return parsed objects in the same order as rows
+         */
+        @SuppressWarnings("unchecked")
+        public List<T> get() throws SchemaException {
+            task.join();
+            if (exception.get() != null) {
+                throw exception.get();
+            }
+            return (List<T>) Arrays.asList(objects);
+        }
+
+        /**
+         * Rows which weren't parsed yet will be skipped.
+         */
+        public void cancel() {
+            task.cancel(false);
+        }
+    }
+
+    private static class ParseTask<R, T> extends RecursiveAction {
+
+        private final List<R> rows;
+        private final RowParser<R, T> parser;
+        private final Batch<T> batch;
+        private final int from;
+        private final int to;
+
+        private ParseTask(List<R> rows, RowParser<R, T> parser, Batch<T> batch, int from, int to) {
+            this.rows = rows;
+            this.parser = parser;
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                parse();
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask<>(rows, parser, batch, from, middle),
+                    new ParseTask<>(rows, parser, batch, middle, to));
+        }
+
+        private void parse() {
+            for (int i = from; i < to; i++) {
+                if (batch.exception.get() != null || batch.task.isCancelled()) {
+                    return;
+                }
+
+                try {
+                    batch.objects[i] = parser.parse(rows.get(i));
+                } catch (SchemaException ex) {
+                    batch.exception.compareAndSet(null, ex);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class ParserThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -19,10 +19,8 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismReferenceValue;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
-import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.sql.data.common.ROrgClosure;
 import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
-import com.evolveum.midpoint.schema.ResultHandler;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.util.Holder;
@@ -48,6 +46,7 @@ import org.hibernate.type.StringType;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -80,6 +79,11 @@ public class OrgClosureManager {
     static final String CLOSURE_TABLE_NAME = "m_org_closure";
     public static final String TEMP_DELTA_TABLE_NAME_FOR_ORACLE = "m_org_closure_temp_delta";
 
+    // number of closure records inserted in one JDBC batch when rebuilding the table
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    // max number of org rows locked by one statement (in row locking mode)
+    private static final int LOCK_CHUNK_SIZE = 500;
+
     private SqlRepositoryConfiguration repoConfiguration;
 
     public OrgClosureManager(SqlRepositoryConfiguration repoConfiguration) {
@@ -89,6 +93,10 @@ public class OrgClosureManager {
     // only for single-thread performance testing
     long lastOperationDuration;
 
+    // only for single-thread testing of the row locking mode
+    private Set<String> lastLockedDescendants = new HashSet<>();
+    private Set<String> lastLockedAncestors = new HashSet<>();
+
     //region Public interface
     /**
      * Main method called from SQL repository service to update the closure table during an operation.
@@ -123,6 +131,10 @@ public class OrgClosureManager {
 
         List<ReferenceDelta> deltas = filterParentRefDeltas(modifications);
 
+        if (isRowLocking()) {
+            lockAffectedOrgs(oid, deltas, originalObject, operation, session);
+        }
+
         switch (operation) {
             case ADD:
                 handleAdd(oid, deltas, closureContext, session);
@@ -152,7 +164,7 @@ public class OrgClosureManager {
             return null;
         }
         // we have to be ready for closure-related operation even if there are no known parents (because there may be orphans pointing to this org!)
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
     public <T extends ObjectType> Context onBeginTransactionModify(Session session, Class<T> type, String oid, Collection<? extends ItemDelta> modifications) {
@@ -165,20 +177,23 @@ public class OrgClosureManager {
         if (filterParentRefDeltas(modifications).isEmpty()) {
             return null;
         }
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
     public <T extends ObjectType> Context onBeginTransactionDelete(Session session, Class<T> type, String oid) {
         if (!isEnabled() || !(OrgType.class.isAssignableFrom(type))) {
             return null;
         }
-        return onBeginTransaction(session);
+        return onBeginTransaction(session, false);
     }
 
-    private Context onBeginTransaction(Session session) {
+    // in row locking mode, the table is locked only if explicitly requested (when rebuilding the table)
+    private Context onBeginTransaction(Session session, boolean lockWholeTable) {
         // table locking
         if (isH2() || isOracle() || isSQLServer()) {
-            lockClosureTable(session);
+            if (lockWholeTable || !isRowLocking()) {
+                lockClosureTable(session);
+            }
         }
         // other
         Context ctx = new Context();
@@ -367,7 +382,7 @@ public class OrgClosureManager {
             session.getTransaction().begin();
             if (rebuild || (check && !quickCheckOnly)) {
                 // thorough check requires the temporary table as well
-                context = onBeginTransaction(session);
+                context = onBeginTransaction(session, true);
             }
 
             if (quickCheckOnly) {
@@ -446,23 +461,7 @@ public class OrgClosureManager {
         deleteQuery.executeUpdate();
         LOGGER.trace("Closure table content deleted");
 
-        final int orgsTotal = service.countObjects(OrgType.class, new ObjectQuery(), result);
-        final MutableInt orgsProcessed = new MutableInt(0);
-
-        ResultHandler<OrgType> handler = new ResultHandler<OrgType>() {
-            @Override
-            public boolean handle(PrismObject<OrgType> object, OperationResult parentResult) {
-                LOGGER.trace("Processing {}", object);
-                handleAdd(object.getOid(), getParentOidsFromObject(object), context, session);
-                orgsProcessed.add(1);
-                int currentState = orgsProcessed.intValue();
-                if (currentState % 100 == 0) {
-                    LOGGER.info("{} organizations processed (out of {})", currentState, orgsTotal);
-                }
-                return true;
-            }
-        };
-        service.searchObjectsIterative(OrgType.class, new ObjectQuery(), handler, null, result);
+        int orgsTotal = computeAndInsertClosure(session);
 
         LOGGER.info("Org closure table was successfully recomputed (not committed yet); all {} organizations processed", orgsTotal);
 
@@ -480,6 +479,145 @@ public class OrgClosureManager {
         }
     }
 
+    /**
+     * Computes the whole closure in memory and inserts it into (empty) closure table using JDBC batches.
+     * This is much faster than adding orgs one by one, as each org is read only once and the closure
+     * rows are never read back from the database.
+     *
+     * Orgs are processed in topological order (parents before children). Closure of an org is the union
+     * of closures of its parents (numbers of paths being summed) plus the self-record. Closure of an org
+     * is kept in memory only until all its children are processed.
+     *
+     * @return number of orgs processed
+     */
+    private int computeAndInsertClosure(Session session) {
+        long start = System.currentTimeMillis();
+
+        List<String> orgs = session.createQuery("select o.oid from ROrg o").list();
+        Set<String> orgSet = new HashSet<>(orgs);
+
+        // edges pointing to non-org (or non-existing) objects are irrelevant, as such objects have no closure records
+        final Map<String, Set<String>> parents = new HashMap<>();
+        final Map<String, List<String>> children = new HashMap<>();
+        Query edgesQuery = session.createQuery("select distinct parentRef.ownerOid, parentRef.targetOid from RObjectReference as parentRef" +
+                " join parentRef.owner as owner where parentRef.referenceType=0" +
+                " and owner.objectTypeClass = :orgType");
+        edgesQuery.setParameter("orgType", RObjectType.ORG);
+        int edges = 0;
+        for (Object[] edge : (List<Object[]>) edgesQuery.list()) {
+            String child = (String) edge[0];
+            String parent = (String) edge[1];
+            if (!orgSet.contains(parent) || child.equals(parent)) {
+                continue;
+            }
+            Set<String> childParents = parents.get(child);
+            if (childParents == null) {
+                childParents = new HashSet<>();
+                parents.put(child, childParents);
+            }
+            if (!childParents.add(parent)) {
+                continue;
+            }
+            List<String> parentChildren = children.get(parent);
+            if (parentChildren == null) {
+                parentChildren = new ArrayList<>();
+                children.put(parent, parentChildren);
+            }
+            parentChildren.add(child);
+            edges++;
+        }
+        LOGGER.debug("{} orgs and {} edges read in {} ms", new Object[]{orgs.size(), edges, System.currentTimeMillis() - start});
+
+        final Map<String, Integer> unprocessedParents = new HashMap<>();
+        final Map<String, Integer> unprocessedChildren = new HashMap<>();
+        final Deque<String> ready = new ArrayDeque<>();
+        for (String oid : orgs) {
+            Set<String> orgParents = parents.get(oid);
+            if (orgParents == null) {
+                ready.add(oid);
+            } else {
+                unprocessedParents.put(oid, orgParents.size());
+            }
+            List<String> orgChildren = children.get(oid);
+            if (orgChildren != null) {
+                unprocessedChildren.put(oid, orgChildren.size());
+            }
+        }
+
+        final MutableInt processed = new MutableInt(0);
+        final MutableInt rows = new MutableInt(0);
+        final int orgsTotal = orgs.size();
+        session.doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                Map<String, Map<String, Integer>> closures = new HashMap<>();
+                try (PreparedStatement insert = connection.prepareStatement("insert into " + CLOSURE_TABLE_NAME +
+                        " (descendant_oid, ancestor_oid, val) values (?, ?, ?)")) {
+                    int batchSize = 0;
+                    while (!ready.isEmpty()) {
+                        String oid = ready.poll();
+                        Map<String, Integer> closure = new HashMap<>();
+                        closure.put(oid, 1);
+                        Set<String> orgParents = parents.get(oid);
+                        if (orgParents != null) {
+                            for (String parent : orgParents) {
+                                for (Map.Entry<String, Integer> entry : closures.get(parent).entrySet()) {
+                                    Integer count = closure.get(entry.getKey());
+                                    closure.put(entry.getKey(), count != null ? count + entry.getValue() : entry.getValue());
+                                }
+                                int remaining = unprocessedChildren.get(parent) - 1;
+                                if (remaining == 0) {
+                                    unprocessedChildren.remove(parent);
+                                    closures.remove(parent);
+                                } else {
+                                    unprocessedChildren.put(parent, remaining);
+                                }
+                            }
+                        }
+                        if (unprocessedChildren.containsKey(oid)) {
+                            closures.put(oid, closure);
+                            for (String child : children.get(oid)) {
+                                int remaining = unprocessedParents.get(child) - 1;
+                                if (remaining == 0) {
+                                    unprocessedParents.remove(child);
+                                    ready.add(child);
+                                } else {
+                                    unprocessedParents.put(child, remaining);
+                                }
+                            }
+                        }
+
+                        for (Map.Entry<String, Integer> entry : closure.entrySet()) {
+                            insert.setString(1, oid);
+                            insert.setString(2, entry.getKey());
+                            insert.setInt(3, entry.getValue());
+                            insert.addBatch();
+                            if (++batchSize == REBUILD_BATCH_SIZE) {
+                                insert.executeBatch();
+                                batchSize = 0;
+                            }
+                        }
+                        rows.add(closure.size());
+                        processed.add(1);
+                        if (processed.intValue() % 1000 == 0) {
+                            LOGGER.info("{} organizations processed (out of {})", processed.intValue(), orgsTotal);
+                        }
+                    }
+                    if (batchSize > 0) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+        });
+
+        if (processed.intValue() != orgsTotal) {
+            throw new IllegalStateException("Org closure couldn't be computed, because there is a cycle in org structure graph. "
+                    + "Orgs that are in a cycle or below it: " + unprocessedParents.keySet());
+        }
+        LOGGER.debug("{} closure records computed and inserted in {} ms", rows.intValue(), System.currentTimeMillis() - start);
+        return orgsTotal;
+    }
+
     private void compareOrgClosureTables(List existingEntries, List recomputedEntries, boolean rebuild, OperationResult result) {
         Set<List> existing = convertEntries(existingEntries);
         Set<List> recomputed = convertEntries(recomputedEntries);
@@ -994,6 +1132,120 @@ public class OrgClosureManager {
 
     }
 
+    /**
+     * Row locking mode is used instead of locking the whole closure table. It is supported for
+     * Oracle, SQL Server and H2 (other databases either don't need the table lock or don't support row locking
+     * in a way we could rely on). H2 without MVCC locks the whole m_org table on SELECT FOR UPDATE,
+     * so it gains no concurrency here; it is supported mainly to have this code path covered by regular tests.
+     */
+    private boolean isRowLocking() {
+        return repoConfiguration.isOrgClosureRowLocking() && (isOracle() || isSQLServer() || isH2());
+    }
+
+    /**
+     * Locks rows (in m_org table) of orgs whose closure records can be affected by the operation, i.e.
+     * descendants of the org (exclusively) and ancestors of its parents (shared, where supported).
+     * Concurrent operations on disjoint parts of the org structure don't block each other; operations
+     * on overlapping parts are serialized, as they lock at least one common org.
+     *
+     * The sets are re-read after locking, because they could have been changed by a transaction that held
+     * the locks before us. This is repeated until no new orgs are found. Rows are locked in the order of OIDs
+     * to minimize the chance of deadlocks (these are handled by the repository by retrying the operation).
+     */
+    private void lockAffectedOrgs(String oid, List<ReferenceDelta> deltas, PrismObject<? extends ObjectType> originalObject,
+                                  Operation operation, Session session) {
+        lastLockedDescendants = new HashSet<>();
+        lastLockedAncestors = new HashSet<>();
+        if (operation == Operation.MODIFY && deltas.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+
+        Set<String> descendantRoots = new HashSet<>();
+        descendantRoots.add(oid);
+        Set<String> parents = new HashSet<>();
+        switch (operation) {
+            case ADD:
+                // orphans pointing to this org will get new ancestors
+                descendantRoots.addAll(getChildren(oid, session));
+                parents.addAll(getParentOidsToAdd(deltas, null));
+                break;
+            case DELETE:
+                parents.addAll(getParents(oid, session));
+                break;
+            case MODIFY:
+                parents.addAll(getParentOidsToAdd(deltas, originalObject));
+                parents.addAll(getParentOidsToDelete(deltas, originalObject));
+        }
+
+        Set<String> lockedDescendants = new HashSet<>();
+        Set<String> lockedAncestors = new HashSet<>();
+        for (;;) {
+            Set<String> descendants = new HashSet<>(descendantRoots);
+            descendants.addAll(getDescendants(descendantRoots, session));
+            descendants.removeAll(lockedDescendants);
+
+            Set<String> ancestors = new HashSet<>(parents);
+            ancestors.addAll(getAncestors(parents, session));
+            ancestors.removeAll(lockedAncestors);
+            ancestors.removeAll(lockedDescendants);
+            ancestors.removeAll(descendants);
+
+            if (descendants.isEmpty() && ancestors.isEmpty()) {
+                break;
+            }
+            lockOrgRows(descendants, true, session);
+            lockOrgRows(ancestors, false, session);
+            lockedDescendants.addAll(descendants);
+            lockedAncestors.addAll(ancestors);
+        }
+        LOGGER.trace("Locked {} descendant and {} ancestor org rows in {} ms",
+                new Object[]{lockedDescendants.size(), lockedAncestors.size(), System.currentTimeMillis() - start});
+        lastLockedDescendants = lockedDescendants;
+        lastLockedAncestors = lockedAncestors;
+    }
+
+    private void lockOrgRows(Collection<String> oids, boolean exclusive, Session session) {
+        if (oids.isEmpty()) {
+            return;
+        }
+        String queryText = getRowLockQuery(exclusive);
+        List<String> sorted = new ArrayList<>(oids);
+        Collections.sort(sorted);
+        for (int i = 0; i < sorted.size(); i += LOCK_CHUNK_SIZE) {
+            Query q = session.createSQLQuery(queryText);
+            q.setParameterList("oids", sorted.subList(i, Math.min(i + LOCK_CHUNK_SIZE, sorted.size())));
+            q.list();
+        }
+    }
+
+    // the query has to contain :oids parameter
+    private String getRowLockQuery(boolean exclusive) {
+        if (isSQLServer()) {
+            return "select oid from m_org with (" + (exclusive ? "updlock, " : "") + "holdlock, rowlock) where oid in (:oids)";
+        } else {
+            // Oracle and H2 have no shared row locks; SELECT FOR UPDATE is used for ancestors as well
+            return "select oid from m_org where oid in (:oids) for update";
+        }
+    }
+
+    private List<String> getDescendants(Collection<String> oids, Session session) {
+        Query q = session.createSQLQuery("select distinct descendant_oid from " + CLOSURE_TABLE_NAME + " where ancestor_oid in (:oids)")
+                .addScalar("descendant_oid", StringType.INSTANCE);
+        q.setParameterList("oids", oids);
+        return q.list();
+    }
+
+    private List<String> getAncestors(Collection<String> oids, Session session) {
+        if (oids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Query q = session.createSQLQuery("select distinct ancestor_oid from " + CLOSURE_TABLE_NAME + " where descendant_oid in (:oids)")
+                .addScalar("ancestor_oid", StringType.INSTANCE);
+        q.setParameterList("oids", oids);
+        return q.list();
+    }
+
     // returns table name
     private String computeDeltaTable(List<Edge> edges, Context context, Session session) {
 
@@ -1270,6 +1522,16 @@ public class OrgClosureManager {
         return lastOperationDuration;
     }
 
+    // only for testing of the row locking mode (doesn't account for multithreading!)
+    public Set<String> getLastLockedDescendants() {
+        return lastLockedDescendants;
+    }
+
+    // only for testing of the row locking mode (doesn't account for multithreading!)
+    public Set<String> getLastLockedAncestors() {
+        return lastLockedAncestors;
+    }
+
     private <T extends ObjectType> boolean isTypeNonLeaf(Class<T> type) {
         return OrgType.class.equals(type);
     }
@@ -23,15 +23,61 @@ import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import java.io.File;
 
 /**
  * @author lazyman
  */
-public class SqlAuditServiceFactory implements AuditServiceFactory {
+public class SqlAuditServiceFactory implements AuditServiceFactory, ApplicationContextAware {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceFactory.class);
+
+    /**
+     * If true, audit records are written asynchronously in batches by {@link AsyncAuditWriter}.
+     */
+    public static final String PROPERTY_ASYNCHRONOUS = "asynchronous";
+    /**
+     * Maximal number of queued records, callers are blocked when queue is full.
+     */
+    public static final String PROPERTY_ASYNC_QUEUE_SIZE = "asyncQueueSize";
+    /**
+     * Maximal number of records written in one transaction.
+     */
+    public static final String PROPERTY_ASYNC_BATCH_SIZE = "asyncBatchSize";
+    /**
+     * Maximal time (in milliseconds) record waits in queue for other records to fill the batch.
+     */
+    public static final String PROPERTY_ASYNC_FLUSH_INTERVAL = "asyncFlushInterval";
+    /**
+     * Optional file where queued records are appended, records are not lost if midPoint crashes.
+     */
+    public static final String PROPERTY_ASYNC_SPILL_FILE = "asyncSpillFile";
+
+    /**
+     * Maximal number of audit records deleted in one transaction during cleanup.
+     */
+    public static final String PROPERTY_CLEANUP_BATCH_SIZE = "cleanupBatchSize";
+    /**
+     * Time (in milliseconds) to wait between cleanup batches, zero means no throttling.
+     */
+    public static final String PROPERTY_CLEANUP_BATCH_PAUSE = "cleanupBatchPause";
+
+    static final int DEFAULT_CLEANUP_BATCH_SIZE = 10000;
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_ASYNC_BATCH_SIZE = 100;
+    private static final long DEFAULT_ASYNC_FLUSH_INTERVAL = 1000;
+
+    private ApplicationContext applicationContext;
     private SqlRepositoryFactory repositoryFactory;
+    private AsyncAuditWriter asyncWriter;
+    private int cleanupBatchSize = DEFAULT_CLEANUP_BATCH_SIZE;
+    private long cleanupBatchPause;
 
     public SqlRepositoryFactory getRepositoryFactory() {
         return repositoryFactory;
@@ -41,9 +87,17 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
         this.repositoryFactory = repositoryFactory;
     }
 
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+
     @Override
     public synchronized void destroy() throws AuditServiceFactoryException {
         LOGGER.info("Destroying Sql audit service factory.");
+        if (asyncWriter != null) {
+            asyncWriter.shutdown();
+        }
         try {
             repositoryFactory.destroy();
         } catch (RepositoryServiceFactoryException ex) {
@@ -57,19 +111,54 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
         LOGGER.info("Initializing Sql audit service factory.");
         try {
             repositoryFactory.init(config);
+            asyncWriter = createAsyncWriter(config);
+            if (config != null) {
+                cleanupBatchSize = config.getInt(PROPERTY_CLEANUP_BATCH_SIZE, DEFAULT_CLEANUP_BATCH_SIZE);
+                cleanupBatchPause = config.getLong(PROPERTY_CLEANUP_BATCH_PAUSE, 0);
+            }
+            if (cleanupBatchSize <= 0) {
+                throw new AuditServiceFactoryException("Cleanup batch size (" + PROPERTY_CLEANUP_BATCH_SIZE
+                        + ") must be positive, configured value is " + cleanupBatchSize + ".");
+            }
         } catch (RepositoryServiceFactoryException ex) {
             throw new AuditServiceFactoryException(ex.getMessage(), ex);
         }
         LOGGER.info("Sql audit service factory initialization complete.");
     }
 
+    private AsyncAuditWriter createAsyncWriter(Configuration config) {
+        if (config == null || !config.getBoolean(PROPERTY_ASYNCHRONOUS, false)) {
+            return null;
+        }
+
+        String spillFile = config.getString(PROPERTY_ASYNC_SPILL_FILE, null);
+        return new AsyncAuditWriter(
+                config.getInt(PROPERTY_ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE),
+                config.getInt(PROPERTY_ASYNC_BATCH_SIZE, DEFAULT_ASYNC_BATCH_SIZE),
+                config.getLong(PROPERTY_ASYNC_FLUSH_INTERVAL, DEFAULT_ASYNC_FLUSH_INTERVAL),
+                spillFile != null ? new File(spillFile) : null);
+    }
+
     @Override
     public void destroyService(AuditService service) throws AuditServiceFactoryException {
-        //we don't need destroying service objects, they will be GC correctly
+        //service objects will be GC correctly, only queued records have to be written
+        if (asyncWriter != null) {
+            asyncWriter.shutdown();
+        }
     }
 
     @Override
     public AuditService getAuditService() throws AuditServiceFactoryException {
-        return new SqlAuditServiceImpl(repositoryFactory);
+        SqlAuditServiceImpl service = new SqlAuditServiceImpl(repositoryFactory);
+        service.setAsyncWriter(asyncWriter);
+        service.setCleanupBatchSize(cleanupBatchSize);
+        service.setCleanupBatchPause(cleanupBatchPause);
+
+        if (asyncWriter != null) {
+            // writer is started only here, spill file is replayed during start and that needs autowired service
+            applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+            asyncWriter.start(service);
+        }
+        return service;
     }
 }
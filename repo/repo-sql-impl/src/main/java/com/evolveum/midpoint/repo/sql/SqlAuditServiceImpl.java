@@ -43,8 +43,6 @@ import org.apache.commons.lang.Validate;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
-import org.hibernate.dialect.Dialect;
-import org.hibernate.jdbc.Work;
 import org.hibernate.transform.DistinctRootEntityResultTransformer;
 import org.hibernate.transform.ResultTransformer;
 import org.hibernate.transform.RootEntityResultTransformer;
@@ -69,15 +67,60 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
 
+    private AsyncAuditWriter asyncWriter;
+
+    private int cleanupBatchSize = SqlAuditServiceFactory.DEFAULT_CLEANUP_BATCH_SIZE;
+    private long cleanupBatchPause;
+
     public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
     }
 
+    public AsyncAuditWriter getAsyncWriter() {
+        return asyncWriter;
+    }
+
+    /**
+     * @param asyncWriter if not null, records are only queued in {@link #audit(AuditEventRecord, Task)}
+     *                    and written later in batches by this writer
+     */
+    public void setAsyncWriter(AsyncAuditWriter asyncWriter) {
+        this.asyncWriter = asyncWriter;
+    }
+
+    public int getCleanupBatchSize() {
+        return cleanupBatchSize;
+    }
+
+    /**
+     * @param cleanupBatchSize maximal number of audit records deleted in one transaction during cleanup
+     */
+    public void setCleanupBatchSize(int cleanupBatchSize) {
+        this.cleanupBatchSize = cleanupBatchSize;
+    }
+
+    public long getCleanupBatchPause() {
+        return cleanupBatchPause;
+    }
+
+    /**
+     * @param cleanupBatchPause time (in milliseconds) to wait after each batch deleted during cleanup,
+     *                          it throttles cleanup so it doesn't slow down other database operations
+     */
+    public void setCleanupBatchPause(long cleanupBatchPause) {
+        this.cleanupBatchPause = cleanupBatchPause;
+    }
+
     @Override
     public void audit(AuditEventRecord record, Task task) {
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        if (asyncWriter != null) {
+            auditAsync(record);
+            return;
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -196,38 +239,77 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
-    @Override
-    public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
-        Validate.notNull(policy, "Cleanup policy must not be null.");
-        Validate.notNull(parentResult, "Operation result must not be null.");
+    private void auditAsync(AuditEventRecord record) {
+        try {
+            RAuditEventRecord newRecord = RAuditEventRecord.toRepo(record, getPrismContext());
+            asyncWriter.enqueue(newRecord);
+        } catch (DtoTranslationException ex) {
+            throw new SystemException(ex.getMessage(), ex);
+        }
+    }
 
-        final String operation = "deleting";
+    /**
+     * Stores records in one transaction, used by {@link AsyncAuditWriter}. Hibernate groups inserts
+     * of records and their deltas to JDBC batches.
+     */
+    void auditBatch(List<RAuditEventRecord> records) {
+        final String operation = "auditBatch";
         int attempt = 1;
 
-        SqlPerformanceMonitor pm = getPerformanceMonitor();
-        long opHandle = pm.registerOperationStart("deleteObject");
+        while (true) {
+            try {
+                auditBatchAttempt(records);
+                return;
+            } catch (RuntimeException ex) {
+                attempt = logOperationAttempt(null, operation, attempt, ex, null);
+            }
+        }
+    }
 
+    private void auditBatchAttempt(List<RAuditEventRecord> records) {
+        Session session = null;
         try {
-            while (true) {
-                try {
-                    cleanupAuditAttempt(policy, parentResult);
-                    return;
-                } catch (RuntimeException ex) {
-                    attempt = logOperationAttempt(null, operation, attempt, ex, parentResult);
-                    pm.registerOperationNewTrial(opHandle, attempt);
+            session = beginTransaction();
+
+            for (RAuditEventRecord record : records) {
+                // identifiers could be assigned in previous (rolled back) attempt
+                record.setId(0);
+                for (RObjectDeltaOperation delta : record.getDeltas()) {
+                    delta.setRecordId(null);
                 }
+                session.save(record);
             }
+
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, null);
         } finally {
-            pm.registerOperationFinish(opHandle, attempt);
+            cleanupSessionAndResult(session, null);
         }
     }
 
-    private void cleanupAuditAttempt(CleanupPolicyType policy, OperationResult subResult) {
-        if (policy.getMaxAge() == null) {
-            return;
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
+        Validate.notNull(policy, "Cleanup policy must not be null.");
+        Validate.notNull(task, "Task must not be null.");
+        Validate.notNull(parentResult, "Operation result must not be null.");
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("cleanupAudit");
+
+        try {
+            if (policy.getMaxAge() != null) {
+                cleanupAuditMaxAge(policy.getMaxAge(), task, parentResult);
+            }
+            if (policy.getMaxRecords() != null) {
+                cleanupAuditMaxRecords(policy.getMaxRecords(), task, parentResult);
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, 1);
         }
+    }
 
-        Duration duration = policy.getMaxAge();
+    private void cleanupAuditMaxAge(Duration duration, Task task, OperationResult result) {
         if (duration.getSign() > 0) {
             duration = duration.negate();
         }
@@ -235,105 +317,175 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         duration.addTo(minValue);
         LOGGER.info("Starting audit cleanup, deleting up to {} (duration '{}').", new Object[]{minValue, duration});
 
+        long count = deleteAuditRecords(minValue, Long.MAX_VALUE, task, result);
+        LOGGER.info("Cleanup in performed, {} records deleted up to {} (duration '{}').",
+                new Object[]{count, minValue, duration});
+    }
+
+    private void cleanupAuditMaxRecords(int maxRecords, Task task, OperationResult result) {
+        long records = countAuditRecords(result);
+        if (records <= maxRecords) {
+            LOGGER.debug("Audit contains {} records, max. records limit {} not exceeded.", records, maxRecords);
+            return;
+        }
+        LOGGER.info("Starting audit cleanup, deleting {} oldest records (max. records {}).",
+                records - maxRecords, maxRecords);
+
+        long count = deleteAuditRecords(null, records - maxRecords, task, result);
+        LOGGER.info("Cleanup in performed, {} records deleted (max. records {}).", count, maxRecords);
+    }
+
+    /**
+     * Deletes audit records (ordered by id) in chunks of {@link #cleanupBatchSize} records, every chunk
+     * is deleted by id range in its own transaction. Therefore no temporary table is needed and cleanup
+     * doesn't hold locks or undo data for all deleted records.
+     *
+     * @param minValue only records older than this timestamp are deleted, null means any record
+     * @param limit    maximal number of deleted records
+     * @return number of deleted records
+     */
+    private long deleteAuditRecords(Date minValue, long limit, Task task, OperationResult result) {
+        long deleted = 0;
+        long lastId = -1;
+        while (deleted < limit) {
+            if (!task.canRun()) {
+                result.recordPartialError("Interrupted");
+                LOGGER.warn("Audit cleanup was interrupted, {} records deleted.", deleted);
+                break;
+            }
+
+            int size = (int) Math.min(cleanupBatchSize, limit - deleted);
+            CleanupChunk chunk = deleteAuditChunk(minValue, lastId, size, result);
+            if (chunk == null) {
+                break;
+            }
+            deleted += chunk.count;
+            lastId = chunk.lastId;
+            task.setProgress(task.getProgress() + chunk.count);
+            LOGGER.debug("Deleted {} audit records up to id {}, {} records deleted so far.",
+                    new Object[]{chunk.count, lastId, deleted});
+
+            if (cleanupBatchPause > 0) {
+                try {
+                    Thread.sleep(cleanupBatchPause);
+                } catch (InterruptedException ex) {
+                    LOGGER.warn("Audit cleanup was interrupted, {} records deleted.", deleted);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    private CleanupChunk deleteAuditChunk(Date minValue, long lastId, int size, OperationResult result) {
+        final String operation = "deleting";
+        int attempt = 1;
+
+        while (true) {
+            try {
+                return deleteAuditChunkAttempt(minValue, lastId, size, result);
+            } catch (RuntimeException ex) {
+                attempt = logOperationAttempt(null, operation, attempt, ex, result);
+            }
+        }
+    }
+
+    private CleanupChunk deleteAuditChunkAttempt(Date minValue, long lastId, int size, OperationResult result) {
         Session session = null;
         try {
             session = beginTransaction();
 
-            int count = cleanupAuditAttempt(minValue, session);
-            LOGGER.info("Cleanup in performed, {} records deleted up to {} (duration '{}').",
-                    new Object[]{count, minValue, duration});
+            StringBuilder sb = new StringBuilder();
+            sb.append("select a.id from ").append(RAuditEventRecord.class.getSimpleName()).append(" a");
+            sb.append(" where a.id > :lastId");
+            if (minValue != null) {
+                sb.append(" and a.timestamp < :minValue");
+            }
+            sb.append(" order by a.id");
+
+            Query query = session.createQuery(sb.toString());
+            query.setLong("lastId", lastId);
+            if (minValue != null) {
+                query.setTimestamp("minValue", new Timestamp(minValue.getTime()));
+            }
+            query.setMaxResults(size);
+            List<Long> ids = query.list();
+            if (ids.isEmpty()) {
+                session.getTransaction().commit();
+                return null;
+            }
+            long maxId = ids.get(ids.size() - 1);
+
+            // deltas first, records are selected by the same condition as records deleted afterwards
+            String condition = createChunkCondition(minValue);
+            sb = new StringBuilder();
+            sb.append("delete from ").append(RObjectDeltaOperation.TABLE_NAME);
+            sb.append(" where ").append(RObjectDeltaOperation.COLUMN_RECORD_ID).append(" in (select id from ");
+            sb.append(RAuditEventRecord.TABLE_NAME).append(" where ").append(condition).append(')');
+            setChunkParameters(session.createSQLQuery(sb.toString()), lastId, maxId, minValue).executeUpdate();
+
+            sb = new StringBuilder();
+            sb.append("delete from ").append(RAuditEventRecord.TABLE_NAME).append(" where ").append(condition);
+            int count = setChunkParameters(session.createSQLQuery(sb.toString()), lastId, maxId, minValue)
+                    .executeUpdate();
 
             session.getTransaction().commit();
+            return new CleanupChunk(maxId, count);
         } catch (RuntimeException ex) {
-            handleGeneralRuntimeException(ex, session, subResult);
+            handleGeneralRuntimeException(ex, session, result);
         } finally {
-            cleanupSessionAndResult(session, subResult);
-        }
-    }
-
-    protected int cleanupAuditAttempt(Date minValue, Session session) {
-        final Dialect dialect = Dialect.getDialect(getSessionFactoryBean().getHibernateProperties());
-        if (!dialect.supportsTemporaryTables()) {
-            LOGGER.error("Dialect {} doesn't support temporary tables, couldn't cleanup audit logs.",
-                    new Object[]{dialect});
-            throw new SystemException("Dialect " + dialect
-                    + " doesn't support temporary tables, couldn't cleanup audit logs.");
+            cleanupSessionAndResult(session, null);
         }
 
-        //create temporary table
-        final String tempTable = dialect.generateTemporaryTableName(RAuditEventRecord.TABLE_NAME);
-        createTemporaryTable(session, dialect, tempTable);
-        LOGGER.trace("Created temporary table '{}'.", new Object[]{tempTable});
+        return null;
+    }
 
-        //fill temporary table, we don't need to join task on object on container, oid and id is already in task table
+    private String createChunkCondition(Date minValue) {
         StringBuilder sb = new StringBuilder();
-        sb.append("insert into ").append(tempTable).append(' ');
-        sb.append("select a.id as id from ").append(RAuditEventRecord.TABLE_NAME).append(" a");
-        sb.append(" where a.").append(RAuditEventRecord.COLUMN_TIMESTAMP).append(" < ?");
-
-        SQLQuery query = session.createSQLQuery(sb.toString());
-        query.setParameter(0, new Timestamp(minValue.getTime()));
-        int insertCount = query.executeUpdate();
-        LOGGER.trace("Inserted {} audit record ids ready for deleting.", new Object[]{insertCount});
-
-        //drop records from m_task, m_object, m_container
-        session.createSQLQuery(createDeleteQuery(RObjectDeltaOperation.TABLE_NAME, tempTable,
-                RObjectDeltaOperation.COLUMN_RECORD_ID)).executeUpdate();
-        session.createSQLQuery(createDeleteQuery(RAuditEventRecord.TABLE_NAME, tempTable, "id")).executeUpdate();
-
-        //drop temporary table
-        if (dialect.dropTemporaryTableAfterUse()) {
-            LOGGER.debug("Dropping temporary table.");
-            sb = new StringBuilder();
-            sb.append(dialect.getDropTemporaryTableString());
-            sb.append(' ').append(tempTable);
-
-            session.createSQLQuery(sb.toString()).executeUpdate();
+        sb.append("id > ? and id <= ?");
+        if (minValue != null) {
+            sb.append(" and ").append(RAuditEventRecord.COLUMN_TIMESTAMP).append(" < ?");
         }
-
-        return insertCount;
+        return sb.toString();
     }
 
-    /**
-     * This method creates temporary table for cleanup audit method.
-     *
-     * @param session
-     * @param dialect
-     * @param tempTable
-     */
-    private void createTemporaryTable(Session session, final Dialect dialect, final String tempTable) {
-        session.doWork(new Work() {
+    private SQLQuery setChunkParameters(SQLQuery query, long lastId, long maxId, Date minValue) {
+        query.setLong(0, lastId);
+        query.setLong(1, maxId);
+        if (minValue != null) {
+            query.setTimestamp(2, new Timestamp(minValue.getTime()));
+        }
+        return query;
+    }
 
-            @Override
-            public void execute(Connection connection) throws SQLException {
-                //check if table exists
-                try {
-                    Statement s = connection.createStatement();
-                    s.execute("select id from " + tempTable + " where id = 1");
-                    //table already exists
-                    return;
-                } catch (Exception ex) {
-                    //we expect this on the first time
-                }
+    private long countAuditRecords(OperationResult result) {
+        Session session = null;
+        try {
+            session = beginTransaction(true);
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            Long count = (Long) query.uniqueResult();
+            session.getTransaction().commit();
 
-                StringBuilder sb = new StringBuilder();
-                sb.append(dialect.getCreateTemporaryTableString());
-                sb.append(' ').append(tempTable).append(" (id ");
-                sb.append(dialect.getTypeName(Types.BIGINT));
-                sb.append(" not null)");
-                sb.append(dialect.getCreateTemporaryTablePostfix());
+            return count;
+        } catch (RuntimeException ex) {
+            handleGeneralRuntimeException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, null);
+        }
 
-                Statement s = connection.createStatement();
-                s.execute(sb.toString());
-            }
-        });
+        return 0;
     }
 
-    private String createDeleteQuery(String objectTable, String tempTable, String idColumnName) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("delete from ").append(objectTable);
-        sb.append(" where ").append(idColumnName).append(" in (select id from ").append(tempTable).append(')');
+    private static class CleanupChunk {
 
-        return sb.toString();
+        private final long lastId;
+        private final int count;
+
+        private CleanupChunk(long lastId, int count) {
+            this.lastId = lastId;
+            this.count = count;
+        }
     }
 }
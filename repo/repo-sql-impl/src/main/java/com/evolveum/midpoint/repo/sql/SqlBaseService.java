@@ -18,6 +18,7 @@ package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.repo.sql.query.QueryPlanCache;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.SystemException;
@@ -75,6 +76,14 @@ public class SqlBaseService {
         return repositoryFactory.getPerformanceMonitor();
     }
 
+    protected ObjectParsingPool getParsingPool() {
+        return repositoryFactory.getParsingPool();
+    }
+
+    public QueryPlanCache getQueryPlanCache() {
+        return repositoryFactory.getQueryPlanCache();
+    }
+
     protected LocalSessionFactoryBean getSessionFactoryBean() {
         return sessionFactoryBean;
     }
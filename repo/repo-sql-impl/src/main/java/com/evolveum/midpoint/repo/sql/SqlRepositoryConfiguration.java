@@ -71,12 +71,18 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_BY_KEYSET = "iterativeSearchByKeyset";
+    public static final String PROPERTY_USE_MODIFY_HANDLERS = "useModifyHandlers";
+    public static final String PROPERTY_PARSING_THREADS = "parsingThreads";
+    public static final String PROPERTY_PARSING_THRESHOLD = "parsingThreshold";
+    public static final String PROPERTY_QUERY_PLAN_CACHE_SIZE = "queryPlanCacheSize";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
     public static final String PROPERTY_ORG_CLOSURE_STARTUP_ACTION = "orgClosureStartupAction";
     public static final String PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK = "skipOrgClosureStructureCheck";
     public static final String PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE = "stopOnOrgClosureStartupFailure";
+    public static final String PROPERTY_ORG_CLOSURE_ROW_LOCKING = "orgClosureRowLocking";
 
     private String database = Database.H2.name();
 
@@ -109,11 +115,18 @@ public class SqlRepositoryConfiguration {
 
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchByKeyset;
+
+    private boolean useModifyHandlers = true;
+    private int parsingThreads;
+    private int parsingThreshold = 10;
+    private int queryPlanCacheSize = 1000;
 
     private boolean ignoreOrgClosure;
     private OrgClosureManager.StartupAction orgClosureStartupAction;
     private boolean skipOrgClosureStructureCheck;
     private boolean stopOnOrgClosureStartupFailure;
+    private boolean orgClosureRowLocking;
 
     public SqlRepositoryConfiguration(Configuration configuration) {
         setDatabase(configuration.getString(PROPERTY_DATABASE, database));
@@ -151,11 +164,18 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+        setIterativeSearchByKeyset(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_KEYSET, iterativeSearchByKeyset));
+
+        setUseModifyHandlers(configuration.getBoolean(PROPERTY_USE_MODIFY_HANDLERS, useModifyHandlers));
+        setParsingThreads(configuration.getInt(PROPERTY_PARSING_THREADS, parsingThreads));
+        setParsingThreshold(configuration.getInt(PROPERTY_PARSING_THRESHOLD, parsingThreshold));
+        setQueryPlanCacheSize(configuration.getInt(PROPERTY_QUERY_PLAN_CACHE_SIZE, queryPlanCacheSize));
 
         setIgnoreOrgClosure(configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false));
         setOrgClosureStartupAction(configuration.getString(PROPERTY_ORG_CLOSURE_STARTUP_ACTION, OrgClosureManager.StartupAction.REBUILD_IF_NEEDED.toString()));
         setSkipOrgClosureStructureCheck(configuration.getBoolean(PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK, false));
         setStopOnOrgClosureStartupFailure(configuration.getBoolean(PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE, true));
+        setOrgClosureRowLocking(configuration.getBoolean(PROPERTY_ORG_CLOSURE_ROW_LOCKING, false));
     }
 
     private void computeDefaultDatabaseParameters() {
@@ -234,6 +254,8 @@ public class SqlRepositoryConfiguration {
             iterativeSearchByPagingBatchSize = 50;
         } else {
             iterativeSearchByPaging = false;
+            // used only by keyset iterative search, see isIterativeSearchByKeyset()
+            iterativeSearchByPagingBatchSize = 50;
         }
     }
 
@@ -495,6 +517,71 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * @return Returns true if iterative search should read objects in batches ordered by oid, every batch
+     * starting after the last oid of previous batch (keyset pagination), instead of OFFSET/LIMIT batches.
+     * Such search doesn't need to count objects first and later batches are not slower than the first one.
+     * Batch size is {@link #getIterativeSearchByPagingBatchSize()}. Can be overridden for one search
+     * by {@link com.evolveum.midpoint.schema.GetOperationOptions#getKeysetPaging()}. Default is false.
+     */
+    public boolean isIterativeSearchByKeyset() {
+        return iterativeSearchByKeyset;
+    }
+
+    public void setIterativeSearchByKeyset(boolean iterativeSearchByKeyset) {
+        this.iterativeSearchByKeyset = iterativeSearchByKeyset;
+    }
+
+    /**
+     * @return Returns true if simple modifications (e.g. task progress, shadow synchronization situation, metadata)
+     * should be written via targeted UPDATE statements instead of merging whole entity. Default is true.
+     */
+    public boolean isUseModifyHandlers() {
+        return useModifyHandlers;
+    }
+
+    public void setUseModifyHandlers(boolean useModifyHandlers) {
+        this.useModifyHandlers = useModifyHandlers;
+    }
+
+    /**
+     * @return Returns number of threads used to parse objects loaded by searches, see {@link ObjectParsingPool}.
+     * Values lower than 2 mean that objects are parsed by the thread which executes search. Default is 0.
+     */
+    public int getParsingThreads() {
+        return parsingThreads;
+    }
+
+    public void setParsingThreads(int parsingThreads) {
+        this.parsingThreads = parsingThreads;
+    }
+
+    /**
+     * @return Returns minimal number of loaded objects which are parsed concurrently, smaller results are parsed
+     * by the thread which executes search. Iterative search parses objects in batches of this size, next batch
+     * is fetched from database while previous one is being parsed. Default is 10.
+     */
+    public int getParsingThreshold() {
+        return parsingThreshold;
+    }
+
+    public void setParsingThreshold(int parsingThreshold) {
+        this.parsingThreshold = parsingThreshold;
+    }
+
+    /**
+     * @return Returns maximal number of query shapes with cached query plan, see
+     * {@link com.evolveum.midpoint.repo.sql.query.QueryPlanCache}.
+     * Zero disables the cache. Default is 1000.
+     */
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -584,6 +671,18 @@ public class SqlRepositoryConfiguration {
         return stopOnOrgClosureStartupFailure;
     }
 
+    /**
+     * If true, org closure maintenance locks only the rows of affected orgs (their ancestors and descendants)
+     * instead of the whole closure table. Currently used for Oracle, SQL Server and H2 only.
+     */
+    public boolean isOrgClosureRowLocking() {
+        return orgClosureRowLocking;
+    }
+
+    public void setOrgClosureRowLocking(boolean orgClosureRowLocking) {
+        this.orgClosureRowLocking = orgClosureRowLocking;
+    }
+
     public boolean isSkipOrgClosureStructureCheck() {
         return skipOrgClosureStructureCheck;
     }
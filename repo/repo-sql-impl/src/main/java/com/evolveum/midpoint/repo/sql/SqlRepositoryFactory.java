@@ -20,6 +20,7 @@ import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.sql.query.QueryDefinitionRegistry;
+import com.evolveum.midpoint.repo.sql.query.QueryPlanCache;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
@@ -54,6 +55,8 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     private Server server;
 
     private SqlPerformanceMonitor performanceMonitor;
+    private ObjectParsingPool parsingPool;
+    private QueryPlanCache queryPlanCache;
 
     public SqlRepositoryConfiguration getSqlConfiguration() {
         Validate.notNull(sqlConfiguration, "Sql repository configuration not available (null).");
@@ -71,6 +74,8 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
             performanceMonitor.shutdown();
         }
 
+        shutdownParsingPool();
+
         if (!getSqlConfiguration().isEmbedded()) {
             LOGGER.info("Repository is not running in embedded mode, shutdown complete.");
             return;
@@ -396,4 +401,47 @@ public class SqlRepositoryFactory implements RepositoryServiceFactory {
     public SqlPerformanceMonitor getPerformanceMonitor() {
         return performanceMonitor;
     }
+
+    /**
+     * Pool is created when it's needed for the first time, or recreated when number of parsing threads in
+     * configuration was changed.
+     *
+     * @return Returns pool for parsing of loaded objects, or null if objects shouldn't be parsed concurrently.
+     */
+    public synchronized ObjectParsingPool getParsingPool() {
+        int threads = getSqlConfiguration().getParsingThreads();
+        if (threads < 2) {
+            shutdownParsingPool();
+        } else if (parsingPool == null || parsingPool.getParallelism() != threads) {
+            shutdownParsingPool();
+            parsingPool = new ObjectParsingPool(threads);
+        }
+
+        return parsingPool;
+    }
+
+    /**
+     * Cache is created when it's needed for the first time, its size follows size in configuration.
+     *
+     * @return Returns cache of query plans, or null if query plans shouldn't be cached.
+     */
+    public synchronized QueryPlanCache getQueryPlanCache() {
+        int size = getSqlConfiguration().getQueryPlanCacheSize();
+        if (size <= 0) {
+            queryPlanCache = null;
+        } else if (queryPlanCache == null) {
+            queryPlanCache = new QueryPlanCache(size);
+        } else if (queryPlanCache.getMaxSize() != size) {
+            queryPlanCache.setMaxSize(size);
+        }
+
+        return queryPlanCache;
+    }
+
+    private synchronized void shutdownParsingPool() {
+        if (parsingPool != null) {
+            parsingPool.shutdown();
+            parsingPool = null;
+        }
+    }
 }
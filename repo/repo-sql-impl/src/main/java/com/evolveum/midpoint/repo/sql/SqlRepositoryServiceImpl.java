@@ -81,7 +81,6 @@ import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.parser.XNodeProcessorEvaluationMode;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
-import com.evolveum.midpoint.prism.polystring.PrismDefaultPolyStringNormalizer;
 import com.evolveum.midpoint.prism.query.NoneFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
@@ -95,6 +94,11 @@ import com.evolveum.midpoint.repo.sql.data.common.any.RValueType;
 import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
 import com.evolveum.midpoint.repo.sql.data.common.other.RLookupTableRow;
 import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
+import com.evolveum.midpoint.repo.sql.handler.MetadataHandler;
+import com.evolveum.midpoint.repo.sql.handler.ModifyHandler;
+import com.evolveum.midpoint.repo.sql.handler.PartialUpdate;
+import com.evolveum.midpoint.repo.sql.handler.SyncSituationHandler;
+import com.evolveum.midpoint.repo.sql.handler.TaskProgressHandler;
 import com.evolveum.midpoint.repo.sql.query.QueryEngine;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
@@ -156,6 +160,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
 
+    private static final List<ModifyHandler> MODIFY_HANDLERS = Arrays.asList(new TaskProgressHandler(),
+            new SyncSituationHandler(), new MetadataHandler());
+
     private OrgClosureManager closureManager;
 
     public SqlRepositoryServiceImpl(SqlRepositoryFactory repositoryFactory) {
@@ -174,6 +181,17 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                                                             Collection<SelectorOptions<GetOperationOptions>> options,
                                                             boolean lockForUpdate)
             throws ObjectNotFoundException, SchemaException, DtoTranslationException, QueryException {
+        return getObject(session, type, oid, options, lockForUpdate, lockForUpdate);
+    }
+
+    /**
+     * @param loadEntity if true, whole entity is loaded to hibernate session (used before merge),
+     *                   otherwise only full object column is read
+     */
+    private <T extends ObjectType> PrismObject<T> getObject(Session session, Class<T> type, String oid,
+                                                            Collection<SelectorOptions<GetOperationOptions>> options,
+                                                            boolean lockForUpdate, boolean loadEntity)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException, QueryException {
 
         boolean lockedForUpdateViaHibernate = false;
         boolean lockedForUpdateViaSql = false;
@@ -213,7 +231,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
 
         GetObjectResult fullObject = null;
-        if (!lockForUpdate) {
+        if (!loadEntity) {
             Query query = session.getNamedQuery("get.object");
             query.setString("oid", oid);
             query.setResultTransformer(GetObjectResult.RESULT_TRANSFORMER);
@@ -638,7 +656,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private <T extends ObjectType> void updateFullObject(RObject object, PrismObject<T> savedObject)
             throws DtoTranslationException, SchemaException {
         LOGGER.debug("Updating full object xml column start.");
-        savedObject.setVersion(Integer.toString(object.getVersion()));
+        object.setFullObject(createFullObject(savedObject, object.getVersion()));
+        LOGGER.debug("Updating full object xml column finish.");
+    }
+
+    private <T extends ObjectType> byte[] createFullObject(PrismObject<T> savedObject, int version)
+            throws SchemaException {
+        savedObject.setVersion(Integer.toString(version));
 
         if (UserType.class.equals(savedObject.getCompileTimeClass())) {
             savedObject.removeProperty(UserType.F_JPEG_PHOTO);
@@ -652,9 +676,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 
         if (LOGGER.isTraceEnabled()) LOGGER.trace("Storing full object\n{}", xml);
 
-        object.setFullObject(fullObject);
-
-        LOGGER.debug("Updating full object xml column finish.");
+        return fullObject;
     }
 
     private <T extends ObjectType> String nonOverwriteAddObjectAttempt(PrismObject<T> object, RObject rObject,
@@ -739,6 +761,20 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return Arrays.asList(delta);
     }
 
+    /**
+     * Org closure manager needs only parentOrgRef of the original object. Copying just that (instead of
+     * cloning the whole object) avoids deep copies of large objects such as users with many assignments.
+     */
+    private <T extends ObjectType> PrismObject<T> createClosureOriginalObject(PrismObject<T> object) throws SchemaException {
+        PrismObject<T> originalObject = object.getDefinition().instantiate();
+        originalObject.setOid(object.getOid());
+        PrismReference parentOrgRef = object.findReference(ObjectType.F_PARENT_ORG_REF);
+        if (parentOrgRef != null) {
+            originalObject.add(parentOrgRef.clone());
+        }
+        return originalObject;
+    }
+
     private <T extends ObjectType> void deleteObjectAttempt(Class<T> type, String oid, OperationResult result)
             throws ObjectNotFoundException {
         LOGGER_PERFORMANCE.debug("> delete object {}, oid={}", new Object[]{type.getSimpleName(), oid});
@@ -915,7 +951,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 SQLQuery sqlQuery = session.createSQLQuery("SELECT COUNT(*) FROM " + RUtil.getTableName(hqlType));
                 longCount = (Number) sqlQuery.uniqueResult();
             } else {
-                QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext());
+                QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext(), getQueryPlanCache());
                 RQuery rQuery = engine.interpret(query, type, null, true, session);
 
                 longCount = (Number) rQuery.uniqueResult();
@@ -991,9 +1027,10 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 (paging != null ? paging.debugDump() : "undefined")});
 
         if (iterative) {
-            LOGGER.trace("Iterative search by paging: {}, batch size {}",
+            LOGGER.trace("Iterative search by paging: {}, by keyset: {}, batch size {}", new Object[]{
                     getConfiguration().isIterativeSearchByPaging(),
-                    getConfiguration().getIterativeSearchByPagingBatchSize());
+                    getConfiguration().isIterativeSearchByKeyset(),
+                    getConfiguration().getIterativeSearchByPagingBatchSize()});
         }
     }
 
@@ -1005,16 +1042,13 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         Session session = null;
         try {
             session = beginReadOnlyTransaction();
-            QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext());
+            QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext(), getQueryPlanCache());
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             List<GetObjectResult> objects = rQuery.list();
             LOGGER.trace("Found {} objects, translating to JAXB.", new Object[]{(objects != null ? objects.size() : 0)});
 
-            for (GetObjectResult object : objects) {
-                PrismObject<T> prismObject = updateLoadedObject(object, type, options, session);
-                list.add(prismObject);
-            }
+            list.addAll(updateLoadedObjects(objects, type, options, session));
 
             session.getTransaction().commit();
         } catch (QueryException | RuntimeException ex) {
@@ -1026,18 +1060,63 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         return new SearchResultList<PrismObject<T>>(list);
     }
 
+    /**
+     * Parses and updates loaded objects, see {@link #updateLoadedObject(GetObjectResult, Class, Collection, Session)}.
+     * Objects are parsed concurrently if it's enabled in configuration, see {@link ObjectParsingPool}.
+     */
+    private <T extends ObjectType> List<PrismObject<T>> updateLoadedObjects(List<GetObjectResult> results, Class<T> type,
+                                                                            Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                            Session session) throws SchemaException {
+        if (results == null || results.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<PrismObject<T>> prismObjects;
+        ObjectParsingPool pool = getParsingPool();
+        if (pool != null && results.size() >= getConfiguration().getParsingThreshold()) {
+            prismObjects = pool.parseAll(results, this.<T>createRowParser());
+        } else {
+            prismObjects = new ArrayList<>(results.size());
+            for (GetObjectResult result : results) {
+                prismObjects.add(this.<T>parseLoadedObject(result));
+            }
+        }
+
+        List<PrismObject<T>> list = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            list.add(updateLoadedObject(results.get(i), prismObjects.get(i), type, options, session));
+        }
+        return list;
+    }
+
+    private <T extends ObjectType> ObjectParsingPool.RowParser<GetObjectResult, PrismObject<T>> createRowParser() {
+        return new ObjectParsingPool.RowParser<GetObjectResult, PrismObject<T>>() {
+
+            @Override
+            public PrismObject<T> parse(GetObjectResult row) throws SchemaException {
+                return parseLoadedObject(row);
+            }
+        };
+    }
+
     /**
      * This method provides object parsing from String and validation.
      */
     private <T extends ObjectType> PrismObject<T> updateLoadedObject(GetObjectResult result, Class<T> type,
                                                                      Collection<SelectorOptions<GetOperationOptions>> options,
                                                                      Session session) throws SchemaException {
+        PrismObject<T> prismObject = parseLoadedObject(result);
+        return updateLoadedObject(result, prismObject, type, options, session);
+    }
 
+    /**
+     * Unzips and parses full object. Session isn't needed, therefore this method can be called by any thread.
+     */
+    private <T extends ObjectType> PrismObject<T> parseLoadedObject(GetObjectResult result) throws SchemaException {
         String xml = RUtil.getXmlFromByteArray(result.getFullObject(), getConfiguration().isUseZip());
-        PrismObject<T> prismObject;
         try {
         	// "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
-            prismObject = getPrismContext().parseObject(xml, XNodeProcessorEvaluationMode.COMPAT);
+            return getPrismContext().parseObject(xml, XNodeProcessorEvaluationMode.COMPAT);
         } catch (SchemaException e) {
             LOGGER.debug("Couldn't parse object because of schema exception ({}):\nObject: {}", e, xml);
             throw e;
@@ -1045,7 +1124,15 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             LOGGER.debug("Couldn't parse object because of unexpected exception ({}):\nObject: {}", e, xml);
             throw e;
         }
+    }
 
+    /**
+     * Loads data which are not stored in full object (e.g. photo, lookup table rows) and validates parsed object.
+     */
+    private <T extends ObjectType> PrismObject<T> updateLoadedObject(GetObjectResult result, PrismObject<T> prismObject,
+                                                                     Class<T> type,
+                                                                     Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                     Session session) throws SchemaException {
         if (UserType.class.equals(prismObject.getCompileTimeClass())) {
             if (SelectorOptions.hasToLoadPath(UserType.F_JPEG_PHOTO, options)) {
                 //todo improve, use user.hasPhoto flag and take options into account [lazyman]
@@ -1220,7 +1307,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 param = "label.norm";
 
                 PolyString poly = new PolyString(value);
-                poly.recompute(new PrismDefaultPolyStringNormalizer());
+                poly.recompute(getPrismContext().getDefaultPolyStringNormalizer());
                 value = poly.getNorm();
             }
             switch (queryDef.getSearchType()) {
@@ -1363,6 +1450,15 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             session = beginTransaction();
 
+            if (canUseModifyHandlers(type, modifications)) {
+                modifyObjectByHandlers(session, type, oid, modifications);
+
+                LOGGER.trace("Before commit...");
+                session.getTransaction().commit();
+                LOGGER.trace("Committed!");
+                return;
+            }
+
             closureContext = getClosureManager().onBeginTransactionModify(session, type, oid, modifications);
 
             Collection<? extends ItemDelta> lookupTableModifications = filterLookupTableModifications(type, modifications);
@@ -1396,7 +1492,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             }
             PrismObject<T> originalObject = null;
             if (getClosureManager().isEnabled()) {
-                originalObject = prismObject.clone();
+                originalObject = createClosureOriginalObject(prismObject);
             }
             ItemDelta.applyTo(modifications, prismObject);
             if (LOGGER.isTraceEnabled()) {
@@ -1458,6 +1554,65 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    private <T extends ObjectType> boolean canUseModifyHandlers(Class<T> type,
+                                                                Collection<? extends ItemDelta> modifications) {
+        if (!getConfiguration().isUseModifyHandlers()) {
+            return false;
+        }
+
+        for (ItemDelta modification : modifications) {
+            if (findModifyHandler(type, modification) == null) {
+                LOGGER.trace("No modify handler found for {}, whole object will be merged.", modification);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private <T extends ObjectType> ModifyHandler findModifyHandler(Class<T> type, ItemDelta modification) {
+        for (ModifyHandler handler : MODIFY_HANDLERS) {
+            if (handler.canHandle(type, modification)) {
+                return handler;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Modification is not merged through hibernate entity. Only full object XML is read (with lock), deltas
+     * are applied to it and then full object, version and columns provided by {@link ModifyHandler}s are
+     * updated via targeted UPDATE statements.
+     */
+    private <T extends ObjectType> void modifyObjectByHandlers(Session session, Class<T> type, String oid,
+                                                               Collection<? extends ItemDelta> modifications)
+            throws ObjectNotFoundException, SchemaException, DtoTranslationException, QueryException {
+        LOGGER.trace("Modifying object {} using modify handlers.", oid);
+
+        PrismObject<T> prismObject = getObject(session, type, oid, null, true, false);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("OBJECT before:\n{}", new Object[]{prismObject.debugDump()});
+        }
+        ItemDelta.applyTo(modifications, prismObject);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("OBJECT after:\n{}", prismObject.debugDump());
+        }
+
+        PartialUpdate update = new PartialUpdate();
+        for (ItemDelta modification : modifications) {
+            findModifyHandler(type, modification).modifyObject(type, modification, prismObject, update);
+        }
+
+        // see RObject.copyFromJAXB
+        Integer version = RUtil.getIntegerFromString(prismObject.getVersion());
+        int newVersion = version != null ? version + 1 : 1;
+
+        update.set(RObject.class, "version", newVersion);
+        update.set(RObject.class, "fullObject", createFullObject(prismObject, newVersion));
+        update.execute(session, oid);
+    }
+
     private <T extends ObjectType> Collection<? extends ItemDelta> filterLookupTableModifications(Class<T> type,
                                                                                                   Collection<? extends ItemDelta> modifications) {
         Collection<ItemDelta> tableDelta = new ArrayList<>();
@@ -1884,6 +2039,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             query.setFilter(filter);
         }
 
+        if (isIterativeSearchByKeyset(type, query, options)) {
+            searchObjectsIterativeByKeyset(type, query, handler, options, subResult);
+            return null;
+        }
+
         if (getConfiguration().isIterativeSearchByPaging()) {
             searchObjectsIterativeByPaging(type, query, handler, options, subResult);
             return null;
@@ -1917,18 +2077,23 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         Session session = null;
         try {
             session = beginReadOnlyTransaction();
-            QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext());
+            QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext(), getQueryPlanCache());
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             ScrollableResults results = rQuery.scroll(ScrollMode.FORWARD_ONLY);
             try {
                 Iterator<GetObjectResult> iterator = new ScrollableResultsIterator(results);
-                while (iterator.hasNext()) {
-                    GetObjectResult object = iterator.next();
-
-                    PrismObject<T> prismObject = updateLoadedObject(object, type, options, session);
-                    if (!handler.handle(prismObject, result)) {
-                        break;
+                ObjectParsingPool pool = getParsingPool();
+                if (pool != null) {
+                    handleObjectsConcurrently(iterator, pool, type, handler, options, session, result);
+                } else {
+                    while (iterator.hasNext()) {
+                        GetObjectResult object = iterator.next();
+
+                        PrismObject<T> prismObject = updateLoadedObject(object, type, options, session);
+                        if (!handler.handle(prismObject, result)) {
+                            break;
+                        }
                     }
                 }
             } finally {
@@ -1945,6 +2110,55 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    /**
+     * Rows are read in batches (of parsing threshold size). Every batch is submitted to parsing pool and next batch
+     * is fetched from database while previous one is being parsed. Handler is called by this thread in the order
+     * of rows.
+     */
+    private <T extends ObjectType> void handleObjectsConcurrently(Iterator<GetObjectResult> iterator, ObjectParsingPool pool,
+                                                                  Class<T> type, ResultHandler<T> handler,
+                                                                  Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                  Session session, OperationResult result)
+            throws SchemaException {
+        int batchSize = Math.max(getConfiguration().getParsingThreshold(), 1);
+        ObjectParsingPool.RowParser<GetObjectResult, PrismObject<T>> parser = createRowParser();
+
+        List<GetObjectResult> rows = null;
+        ObjectParsingPool.Batch<PrismObject<T>> batch = null;
+        ObjectParsingPool.Batch<PrismObject<T>> nextBatch = null;
+        try {
+            while (true) {
+                List<GetObjectResult> nextRows = new ArrayList<>(batchSize);
+                while (nextRows.size() < batchSize && iterator.hasNext()) {
+                    nextRows.add(iterator.next());
+                }
+                nextBatch = nextRows.isEmpty() ? null : pool.submit(nextRows, parser);
+
+                if (batch != null) {
+                    List<PrismObject<T>> prismObjects = batch.get();
+                    for (int i = 0; i < rows.size(); i++) {
+                        PrismObject<T> prismObject = updateLoadedObject(rows.get(i), prismObjects.get(i), type,
+                                options, session);
+                        if (!handler.handle(prismObject, result)) {
+                            return;
+                        }
+                    }
+                }
+
+                if (nextBatch == null) {
+                    return;
+                }
+                rows = nextRows;
+                batch = nextBatch;
+                nextBatch = null;
+            }
+        } finally {
+            if (nextBatch != null) {
+                nextBatch.cancel();
+            }
+        }
+    }
+
     private <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
                                                                        ResultHandler<T> handler,
                                                                        Collection<SelectorOptions<GetOperationOptions>> options,
@@ -1995,6 +2209,128 @@ main:       while (remaining > 0) {
         }
     }
 
+    private <T extends ObjectType> boolean isIterativeSearchByKeyset(Class<T> type, ObjectQuery query,
+                                                                     Collection<SelectorOptions<GetOperationOptions>> options) {
+        Boolean keysetPaging = GetOperationOptions.getKeysetPaging(SelectorOptions.findRootOptions(options));
+        if (keysetPaging == null) {
+            keysetPaging = getConfiguration().isIterativeSearchByKeyset();
+        }
+        if (!keysetPaging) {
+            return false;
+        }
+
+        ObjectPaging paging = query != null ? query.getPaging() : null;
+        if (paging != null && (paging.getOrderBy() != null
+                || (paging.getOffset() != null && paging.getOffset() > 0))) {
+            LOGGER.debug("Keyset paging can't be used for query with ordering or offset, using default iterative search.");
+            return false;
+        }
+
+        QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext(), getQueryPlanCache());
+        if (!engine.isKeysetPagingSupported(query, type, options)) {
+            LOGGER.debug("Keyset paging can't be used for custom query, using default iterative search.");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Objects are read in batches ordered by oid, every batch starts after the last oid from previous batch.
+     * Objects are not counted before search. Objects added or deleted during search don't shift batches,
+     * therefore other objects are neither skipped nor handled twice.
+     */
+    private <T extends ObjectType> void searchObjectsIterativeByKeyset(Class<T> type, ObjectQuery query,
+                                                                       ResultHandler<T> handler,
+                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                       OperationResult result)
+            throws SchemaException {
+
+        try {
+            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+            ObjectPaging paging = query != null ? query.getPaging() : null;
+            int remaining = paging != null && paging.getMaxSize() != null ? paging.getMaxSize() : Integer.MAX_VALUE;
+
+            String lastOid = null;
+            while (remaining > 0) {
+                int maxSize = remaining < batchSize ? remaining : batchSize;
+                List<PrismObject<T>> objects = searchObjectsByKeyset(type, query, options, lastOid, maxSize, result);
+
+                for (PrismObject<T> object : objects) {
+                    if (!handler.handle(object, result)) {
+                        return;
+                    }
+                }
+
+                if (objects.size() < maxSize) {
+                    break;
+                }
+                lastOid = objects.get(objects.size() - 1).getOid();
+                remaining -= objects.size();
+            }
+        } finally {
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+        }
+    }
+
+    private <T extends ObjectType> List<PrismObject<T>> searchObjectsByKeyset(Class<T> type, ObjectQuery query,
+                                                                              Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                              String afterOid, int maxSize,
+                                                                              OperationResult result) throws SchemaException {
+        OperationResult subResult = result.createSubresult(SEARCH_OBJECTS);
+        subResult.addParam("type", type.getName());
+        subResult.addParam("afterOid", afterOid);
+        subResult.addParam("maxSize", maxSize);
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("searchObjects");
+
+        final String operation = "searching";
+        int attempt = 1;
+        try {
+            while (true) {
+                try {
+                    return searchObjectsByKeysetAttempt(type, query, options, afterOid, maxSize, subResult);
+                } catch (RuntimeException ex) {
+                    attempt = logOperationAttempt(null, operation, attempt, ex, subResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, attempt);
+        }
+    }
+
+    private <T extends ObjectType> List<PrismObject<T>> searchObjectsByKeysetAttempt(Class<T> type, ObjectQuery query,
+                                                                                     Collection<SelectorOptions<GetOperationOptions>> options,
+                                                                                     String afterOid, int maxSize,
+                                                                                     OperationResult result) throws SchemaException {
+        LOGGER_PERFORMANCE.debug("> search objects {} after oid {}", new Object[]{type.getSimpleName(), afterOid});
+        List<PrismObject<T>> list = new ArrayList<>();
+        Session session = null;
+        try {
+            session = beginReadOnlyTransaction();
+            QueryEngine engine = new QueryEngine(getConfiguration(), getPrismContext(), getQueryPlanCache());
+            RQuery rQuery = engine.interpretKeysetBatch(query, type, options, afterOid, maxSize, session);
+
+            List<GetObjectResult> objects = rQuery.list();
+            LOGGER.trace("Found {} objects, translating to JAXB.", new Object[]{(objects != null ? objects.size() : 0)});
+
+            list.addAll(updateLoadedObjects(objects, type, options, session));
+
+            session.getTransaction().commit();
+        } catch (QueryException | RuntimeException ex) {
+            handleGeneralException(ex, session, result);
+        } finally {
+            cleanupSessionAndResult(session, result);
+        }
+
+        return list;
+    }
+
     @Override
     public boolean isAnySubordinate(String upperOrgOid, Collection<String> lowerObjectOids) throws SchemaException {
         Validate.notNull(upperOrgOid, "upperOrgOid must not be null.");
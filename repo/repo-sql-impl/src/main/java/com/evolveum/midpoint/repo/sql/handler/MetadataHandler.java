@@ -1,15 +1,17 @@
 package com.evolveum.midpoint.repo.sql.handler;
 
-/**
- * @author lazyman
- */
-
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
-import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MetadataType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
-import java.util.Collection;
+import javax.xml.namespace.QName;
 
 /**
  * @author lazyman
@@ -29,15 +31,43 @@ import java.util.Collection;
 public class MetadataHandler implements ModifyHandler {
 
     @Override
-    public <T extends ObjectType> boolean canHandle(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications) {
-        return false;
+    public <T extends ObjectType> boolean canHandle(Class<T> type, ItemDelta modification) {
+        ItemPath path = modification.getPath();
+        if (path.size() == 1) {
+            // iteration and iterationToken are stored only in full object
+            QName name = ItemPath.getName(path.first());
+            return (FocusType.class.isAssignableFrom(type) || ShadowType.class.isAssignableFrom(type))
+                    && (QNameUtil.match(name, FocusType.F_ITERATION)
+                    || QNameUtil.match(name, FocusType.F_ITERATION_TOKEN));
+        }
+
+        if (path.size() != 2 || !QNameUtil.match(ObjectType.F_METADATA, ItemPath.getName(path.first()))) {
+            return false;
+        }
+
+        QName name = ItemPath.getName(path.last());
+        return QNameUtil.match(name, MetadataType.F_MODIFY_CHANNEL)
+                || QNameUtil.match(name, MetadataType.F_MODIFY_TIMESTAMP)
+                || QNameUtil.match(name, MetadataType.F_MODIFIER_REF);
     }
 
     @Override
-    public <T extends ObjectType> void modifyObject(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications,
-                                                    OperationResult result) throws ObjectNotFoundException {
+    public <T extends ObjectType> void modifyObject(Class<T> type, ItemDelta modification, PrismObject<T> object,
+                                                    PartialUpdate update) {
+        if (modification.getPath().size() == 1) {
+            return;
+        }
 
+        // see MetadataFactory.fromJAXB
+        MetadataType metadata = object.asObjectable().getMetadata();
+        QName name = modification.getElementName();
+        if (QNameUtil.match(name, MetadataType.F_MODIFY_CHANNEL)) {
+            update.set(RObject.class, "modifyChannel", metadata != null ? metadata.getModifyChannel() : null);
+        } else if (QNameUtil.match(name, MetadataType.F_MODIFY_TIMESTAMP)) {
+            update.set(RObject.class, "modifyTimestamp", metadata != null ? metadata.getModifyTimestamp() : null);
+        } else if (QNameUtil.match(name, MetadataType.F_MODIFIER_REF)) {
+            update.set(RObject.class, "modifierRef", metadata != null ?
+                    RUtil.jaxbRefToEmbeddedRepoRef(metadata.getModifierRef(), object.getPrismContext()) : null);
+        }
     }
 }
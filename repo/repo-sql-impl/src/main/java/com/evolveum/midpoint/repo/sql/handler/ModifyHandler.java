@@ -1,12 +1,9 @@
 package com.evolveum.midpoint.repo.sql.handler;
 
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
-import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
-import java.util.Collection;
-
 /**
  * @author lazyman
  *         <p/>
@@ -15,31 +12,29 @@ import java.util.Collection;
  *         without merging full entity state, which should save a few select queries during merge
  *         (in case of complex objects it could be 10-20 select queries).
  *         <p/>
+ *         Modify operation is handled this way only if every item delta is accepted by some handler,
+ *         otherwise standard merge of the whole entity is used. Full object XML and version are
+ *         always updated by repository service, handler updates only columns which mirror modified item.
+ *         <p/>
  *         Instances of his interface should be stateless.
  */
 public interface ModifyHandler {
 
     /**
-     *
-     * @param type
-     * @param oid
-     * @param modifications
+     * @param type         object type
+     * @param modification item delta
      * @param <T>
-     * @return
+     * @return true if this handler can translate item delta to column updates
      */
-    <T extends ObjectType> boolean canHandle(Class<T> type, String oid,
-                                             Collection<? extends ItemDelta> modifications);
+    <T extends ObjectType> boolean canHandle(Class<T> type, ItemDelta modification);
 
     /**
-     *
-     * @param type
-     * @param oid
-     * @param modifications
-     * @param result
+     * @param type         object type
+     * @param modification item delta accepted by {@link #canHandle(Class, ItemDelta)}
+     * @param object       object with all modifications already applied
+     * @param update       collects column values which has to be updated
      * @param <T>
-     * @throws ObjectNotFoundException
      */
-    <T extends ObjectType> void modifyObject(Class<T> type, String oid,
-                                             Collection<? extends ItemDelta> modifications,
-                                             OperationResult result) throws ObjectNotFoundException;
+    <T extends ObjectType> void modifyObject(Class<T> type, ItemDelta modification, PrismObject<T> object,
+                                             PartialUpdate update);
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.handler;
+
+import com.evolveum.midpoint.repo.sql.data.common.RObject;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects new values of entity properties (columns) for one object. Values are written with one
+ * UPDATE statement per table, entity is not loaded to hibernate session and not merged.
+ * Table names, column names and value types are taken from hibernate mapping metadata, therefore
+ * embedded properties (e.g. {@link com.evolveum.midpoint.repo.sql.data.common.embedded.REmbeddedReference})
+ * and custom types are bound the same way as during merge.
+ *
+ * @author lazyman
+ */
+public class PartialUpdate {
+
+    private static final Trace LOGGER = TraceManager.getTrace(PartialUpdate.class);
+
+    private final Map<Class<? extends RObject>, Map<String, Object>> values = new LinkedHashMap<>();
+
+    /**
+     * @param entity   entity class which contains property (or its subclass)
+     * @param property name of entity property
+     * @param value    new value, already converted to repository representation
+     */
+    public void set(Class<? extends RObject> entity, String property, Object value) {
+        Map<String, Object> properties = values.get(entity);
+        if (properties == null) {
+            properties = new LinkedHashMap<>();
+            values.put(entity, properties);
+        }
+        properties.put(property, value);
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public void execute(Session session, String oid) {
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        SessionFactoryImplementor factory = sessionImplementor.getFactory();
+
+        Map<String, List<ColumnValue>> tables = new LinkedHashMap<>();
+        String keyColumn = null;
+        for (Map.Entry<Class<? extends RObject>, Map<String, Object>> entry : values.entrySet()) {
+            AbstractEntityPersister persister = (AbstractEntityPersister)
+                    factory.getEntityPersister(entry.getKey().getName());
+            // all tables in joined hierarchy are using the same primary key column name
+            keyColumn = persister.getIdentifierColumnNames()[0];
+
+            for (Map.Entry<String, Object> property : entry.getValue().entrySet()) {
+                String name = property.getKey();
+                String table = persister.getPropertyTableName(name);
+                if (table == null) {
+                    throw new SystemException("Unknown property '" + name + "' of entity "
+                            + entry.getKey().getSimpleName());
+                }
+
+                List<ColumnValue> columns = tables.get(table);
+                if (columns == null) {
+                    columns = new ArrayList<>();
+                    tables.put(table, columns);
+                }
+                columns.add(new ColumnValue(persister.getPropertyColumnNames(name),
+                        persister.getPropertyType(name), property.getValue()));
+            }
+        }
+
+        for (Map.Entry<String, List<ColumnValue>> entry : tables.entrySet()) {
+            executeUpdate(session, sessionImplementor, entry.getKey(), keyColumn, entry.getValue(), oid);
+        }
+    }
+
+    private void executeUpdate(Session session, final SessionImplementor sessionImplementor, String table,
+                               String keyColumn, final List<ColumnValue> columns, final String oid) {
+        List<String> assignments = new ArrayList<>();
+        for (ColumnValue column : columns) {
+            for (String name : column.names) {
+                assignments.add(name + " = ?");
+            }
+        }
+
+        final String sql = "update " + table + " set " + StringUtils.join(assignments, ", ")
+                + " where " + keyColumn + " = ?";
+        LOGGER.trace("Partial update of object {}: {}", oid, sql);
+
+        session.doWork(new Work() {
+
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement stmt = connection.prepareStatement(sql);
+                try {
+                    int index = 1;
+                    for (ColumnValue column : columns) {
+                        column.type.nullSafeSet(stmt, column.value, index, sessionImplementor);
+                        index += column.names.length;
+                    }
+                    stmt.setString(index, oid);
+
+                    int count = stmt.executeUpdate();
+                    if (count != 1) {
+                        throw new SystemException("Partial update of object with oid '" + oid + "' updated "
+                                + count + " rows, expected exactly one.");
+                    }
+                } finally {
+                    stmt.close();
+                }
+            }
+        });
+    }
+
+    private static class ColumnValue {
+
+        private final String[] names;
+        private final Type type;
+        private final Object value;
+
+        private ColumnValue(String[] names, Type type, Object value) {
+            this.names = names;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.evolveum.midpoint.repo.sql.handler;
 
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
-import com.evolveum.midpoint.prism.delta.PropertyDelta;
-import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.sql.data.common.RShadow;
+import com.evolveum.midpoint.repo.sql.data.common.enums.RSynchronizationSituation;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
-import java.util.Collection;
+import javax.xml.namespace.QName;
 
 /**
  * @author lazyman
@@ -31,34 +34,38 @@ import java.util.Collection;
 public class SyncSituationHandler implements ModifyHandler {
 
     @Override
-    public <T extends ObjectType> boolean canHandle(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications) {
+    public <T extends ObjectType> boolean canHandle(Class<T> type, ItemDelta modification) {
         if (!ShadowType.class.isAssignableFrom(type)) {
             return false;
         }
 
-        if (modifications.size() == 3 || modifications.size() == 4) {
+        ItemPath path = modification.getPath();
+        if (path.size() != 1) {
             return false;
         }
 
-        PropertyDelta syncSituationDesc = PropertyDelta.findPropertyDelta(modifications,
-                ShadowType.F_SYNCHRONIZATION_SITUATION_DESCRIPTION);
-        PropertyDelta syncTimestamp = PropertyDelta.findPropertyDelta(modifications,
-                ShadowType.F_SYNCHRONIZATION_TIMESTAMP);
-        PropertyDelta fullSyncTimestamp = PropertyDelta.findPropertyDelta(modifications,
-                ShadowType.F_FULL_SYNCHRONIZATION_TIMESTAMP);
-
-        if (syncSituationDesc == null || syncTimestamp == null || fullSyncTimestamp == null) {
-            return false;
-        }
-
-        return true;
+        QName name = ItemPath.getName(path.first());
+        return QNameUtil.match(name, ShadowType.F_SYNCHRONIZATION_SITUATION_DESCRIPTION)
+                || QNameUtil.match(name, ShadowType.F_SYNCHRONIZATION_SITUATION)
+                || QNameUtil.match(name, ShadowType.F_SYNCHRONIZATION_TIMESTAMP)
+                || QNameUtil.match(name, ShadowType.F_FULL_SYNCHRONIZATION_TIMESTAMP);
     }
 
     @Override
-    public <T extends ObjectType> void modifyObject(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications,
-                                                    OperationResult result) throws ObjectNotFoundException {
+    public <T extends ObjectType> void modifyObject(Class<T> type, ItemDelta modification, PrismObject<T> object,
+                                                    PartialUpdate update) {
+        ShadowType shadow = (ShadowType) object.asObjectable();
 
+        // see RShadow.copyFromJAXB
+        QName name = modification.getElementName();
+        if (QNameUtil.match(name, ShadowType.F_SYNCHRONIZATION_SITUATION)) {
+            update.set(RShadow.class, "synchronizationSituation",
+                    RUtil.getRepoEnumValue(shadow.getSynchronizationSituation(), RSynchronizationSituation.class));
+        } else if (QNameUtil.match(name, ShadowType.F_SYNCHRONIZATION_TIMESTAMP)) {
+            update.set(RShadow.class, "synchronizationTimestamp", shadow.getSynchronizationTimestamp());
+        } else if (QNameUtil.match(name, ShadowType.F_FULL_SYNCHRONIZATION_TIMESTAMP)) {
+            update.set(RShadow.class, "fullSynchronizationTimestamp", shadow.getFullSynchronizationTimestamp());
+        }
+        // synchronization situation description is stored only in full object
     }
 }
@@ -1,13 +1,19 @@
 package com.evolveum.midpoint.repo.sql.handler;
 
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
-import com.evolveum.midpoint.prism.delta.PropertyDelta;
-import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.sql.data.common.RTask;
+import com.evolveum.midpoint.repo.sql.data.common.enums.ROperationResultStatus;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
 
-import java.util.Collection;
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * > modify object TaskType, oid=f7fdd34d-562f-4355-a2ed-c7e111b9bae1, modifications=[PropertyDelta( / {.../common/common-3}progress, REPLACE)]
@@ -35,21 +41,40 @@ import java.util.Collection;
  */
 public class TaskProgressHandler implements ModifyHandler {
 
+    /**
+     * Task items which are stored only in full object XML, they don't have any column in m_task table.
+     */
+    private static final List<QName> FULL_OBJECT_ITEMS = Arrays.asList(TaskType.F_PROGRESS,
+            TaskType.F_EXPECTED_TOTAL, TaskType.F_STALLED_SINCE, TaskType.F_NODE_AS_OBSERVED,
+            TaskType.F_NEXT_RUN_START_TIMESTAMP, TaskType.F_RESULT_STATUS);
+
     @Override
-    public <T extends ObjectType> boolean canHandle(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications) {
-        if (!TaskType.class.equals(type) || modifications.size() != 1) {
+    public <T extends ObjectType> boolean canHandle(Class<T> type, ItemDelta modification) {
+        if (!TaskType.class.equals(type)) {
             return false;
         }
 
-        PropertyDelta delta = PropertyDelta.findPropertyDelta(modifications, TaskType.F_PROGRESS);
-        return delta != null && delta.isReplace();
+        ItemPath path = modification.getPath();
+        if (path.size() != 1) {
+            return false;
+        }
+
+        QName name = ItemPath.getName(path.first());
+        return QNameUtil.matchAny(name, FULL_OBJECT_ITEMS) || QNameUtil.match(name, TaskType.F_RESULT);
     }
 
     @Override
-    public <T extends ObjectType> void modifyObject(Class<T> type, String oid,
-                                                    Collection<? extends ItemDelta> modifications,
-                                                    OperationResult result) throws ObjectNotFoundException {
+    public <T extends ObjectType> void modifyObject(Class<T> type, ItemDelta modification, PrismObject<T> object,
+                                                    PartialUpdate update) {
+        if (!QNameUtil.match(TaskType.F_RESULT, modification.getElementName())) {
+            // nothing to do, only full object will be updated
+            return;
+        }
 
+        // see RUtil.copyResultFromJAXB
+        OperationResultType result = ((TaskType) object.asObjectable()).getResult();
+        ROperationResultStatus status = result != null ?
+                RUtil.getRepoEnumValue(result.getStatus(), ROperationResultStatus.class) : null;
+        update.set(RTask.class, "status", status);
     }
 }
@@ -21,6 +21,7 @@ import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.sql.query.definition.Definition;
 import com.evolveum.midpoint.repo.sql.query.definition.EntityDefinition;
+import com.evolveum.midpoint.repo.sql.query.restriction.Restriction;
 import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
@@ -32,7 +33,10 @@ import org.hibernate.Session;
 
 import javax.xml.namespace.QName;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -51,6 +55,9 @@ public class QueryContext {
     private final Map<ItemPath, Criteria> criterias = new HashMap<ItemPath, Criteria>();
     private final Map<ItemPath, String> aliases = new HashMap<ItemPath, String>();
 
+    private Iterator<Restriction> plannedRestrictions;
+    private final List<Restriction> usedRestrictions = new ArrayList<>();
+
     public QueryContext(QueryInterpreter interpreter, Class<? extends ObjectType> type, ObjectQuery query,
                         PrismContext prismContext, Session session) {
         this.interpreter = interpreter;
@@ -89,6 +96,34 @@ public class QueryContext {
         return type;
     }
 
+    /**
+     * Restrictions from cached query plan are used instead of looking up restriction for each filter.
+     */
+    public void setPlannedRestrictions(List<Restriction> plannedRestrictions) {
+        this.plannedRestrictions = plannedRestrictions != null ? plannedRestrictions.iterator() : null;
+    }
+
+    /**
+     * @return Returns prototype of restriction for next interpreted filter, or null if there's no query plan.
+     */
+    public Restriction nextPlannedRestriction() {
+        if (plannedRestrictions == null || !plannedRestrictions.hasNext()) {
+            return null;
+        }
+        return plannedRestrictions.next();
+    }
+
+    public void addUsedRestriction(Restriction prototype) {
+        usedRestrictions.add(prototype);
+    }
+
+    /**
+     * @return Returns prototypes of restrictions used for filters in order as filters were interpreted.
+     */
+    public List<Restriction> getUsedRestrictions() {
+        return usedRestrictions;
+    }
+
     public Criteria getCriteria(ItemPath path) {
         return criterias.get(path);
     }
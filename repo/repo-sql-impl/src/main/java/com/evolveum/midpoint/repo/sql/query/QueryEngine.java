@@ -32,10 +32,19 @@ public class QueryEngine {
 
     private SqlRepositoryConfiguration repoConfiguration;
     private PrismContext prismContext;
+    private QueryPlanCache planCache;
 
     public QueryEngine(SqlRepositoryConfiguration config, PrismContext prismContext) {
+        this(config, prismContext, null);
+    }
+
+    /**
+     * @param planCache cache of query plans, null if plans shouldn't be cached
+     */
+    public QueryEngine(SqlRepositoryConfiguration config, PrismContext prismContext, QueryPlanCache planCache) {
         this.repoConfiguration = config;
         this.prismContext = prismContext;
+        this.planCache = planCache;
     }
 
     public RQuery interpret(ObjectQuery query, Class<? extends ObjectType> type,
@@ -53,7 +62,7 @@ public class QueryEngine {
             }
         }
 
-        QueryInterpreter interpreter = new QueryInterpreter(repoConfiguration);
+        QueryInterpreter interpreter = new QueryInterpreter(repoConfiguration, planCache);
         Criteria criteria = interpreter.interpret(query, type, options, prismContext, countingObjects, session);
         if (countingObjects) {
             criteria.setProjection(Projections.rowCount());
@@ -63,4 +72,41 @@ public class QueryEngine {
 
         return new RQueryCriteriaImpl(criteria);
     }
+
+    /**
+     * Custom queries are not created via criteria, therefore they can't be used for keyset paging.
+     */
+    public boolean isKeysetPagingSupported(ObjectQuery query, Class<? extends ObjectType> type,
+                                           Collection<SelectorOptions<GetOperationOptions>> options) {
+        for (CustomQuery custom : queryLibrary) {
+            if (custom.match(query, type, options, false)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates query for one batch of keyset paged search: objects matching query filter with oid greater
+     * than afterOid (from the beginning if afterOid is null), ordered by oid, at most maxSize objects.
+     * Paging from query is not used.
+     */
+    public RQuery interpretKeysetBatch(ObjectQuery query, Class<? extends ObjectType> type,
+                                       Collection<SelectorOptions<GetOperationOptions>> options,
+                                       String afterOid, int maxSize, Session session) throws QueryException {
+        ObjectQuery filterQuery = null;
+        if (query != null) {
+            filterQuery = query.cloneEmpty();
+            filterQuery.setFilter(query.getFilter());
+            filterQuery.setPaging(null);
+        }
+
+        QueryInterpreter interpreter = new QueryInterpreter(repoConfiguration, planCache);
+        Criteria criteria = interpreter.interpret(filterQuery, type, options, prismContext, false, session);
+        criteria = interpreter.updateKeysetPaging(criteria, afterOid, maxSize);
+        criteria.setResultTransformer(GetObjectResult.RESULT_TRANSFORMER);
+
+        return new RQueryCriteriaImpl(criteria);
+    }
 }
@@ -46,6 +46,7 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
 
 import java.lang.reflect.Modifier;
 import java.util.*;
@@ -106,9 +107,18 @@ public class QueryInterpreter {
     }
 
     private SqlRepositoryConfiguration repoConfiguration;
+    private QueryPlanCache planCache;
 
     public QueryInterpreter(SqlRepositoryConfiguration repoConfiguration) {
+        this(repoConfiguration, null);
+    }
+
+    /**
+     * @param planCache cache of query plans, null if plans shouldn't be cached
+     */
+    public QueryInterpreter(SqlRepositoryConfiguration repoConfiguration, QueryPlanCache planCache) {
         this.repoConfiguration = repoConfiguration;
+        this.planCache = planCache;
     }
 
     public SqlRepositoryConfiguration getRepoConfiguration() {
@@ -126,15 +136,36 @@ public class QueryInterpreter {
             LOGGER.trace("Interpreting query for type '{}', query:\n{}", new Object[]{type, query});
         }
 
+        String shapeKey = null;
+        QueryPlanCache.QueryPlan plan = null;
+        if (planCache != null) {
+            shapeKey = QueryPlanCache.createShapeKey(query, type);
+            if (shapeKey != null) {
+                plan = planCache.get(shapeKey);
+            }
+        }
+
+        List<Restriction> usedRestrictions = new ArrayList<>();
         Criteria criteria;
         if (query != null && query.getFilter() != null) {
-            criteria = interpretQuery(query, type, prismContext, session);
+            criteria = interpretQuery(query, type, prismContext, session, plan, usedRestrictions);
         } else {
             criteria = session.createCriteria(ClassMapper.getHQLTypeClass(type));
         }
 
-        if (!countingObjects && query != null && query.getPaging() != null) {
-            criteria = updatePagingAndSorting(criteria, type, query.getPaging());
+        ObjectPaging paging = query != null ? query.getPaging() : null;
+        String orderProperty;
+        if (plan != null) {
+            orderProperty = plan.getOrderProperty();
+        } else {
+            orderProperty = findOrderProperty(type, paging);
+            if (shapeKey != null) {
+                planCache.put(shapeKey, new QueryPlanCache.QueryPlan(usedRestrictions, orderProperty));
+            }
+        }
+
+        if (!countingObjects && paging != null) {
+            criteria = updatePaging(criteria, paging, orderProperty);
         }
 
         if (!countingObjects) {
@@ -154,17 +185,26 @@ public class QueryInterpreter {
         return criteria;
     }
 
+    /**
+     * @param plan             cached plan for query of the same shape, may be null
+     * @param usedRestrictions prototypes of restrictions used for filters are added here
+     */
     private Criteria interpretQuery(ObjectQuery query, Class<? extends ObjectType> type, PrismContext prismContext,
-                                    Session session) throws QueryException {
+                                    Session session, QueryPlanCache.QueryPlan plan,
+                                    List<Restriction> usedRestrictions) throws QueryException {
         ObjectFilter filter = query.getFilter();
         try {
             QueryContext context = new QueryContext(this, type, query, prismContext, session);
+            if (plan != null) {
+                context.setPlannedRestrictions(plan.getRestrictions());
+            }
 
             Restriction restriction = findAndCreateRestriction(filter, context, null);
             Criterion criterion = restriction.interpret(filter);
 
             Criteria criteria = context.getCriteria(null);
             criteria.add(criterion);
+            usedRestrictions.addAll(context.getUsedRestrictions());
 
             return criteria;
         } catch (QueryException ex) {
@@ -179,15 +219,16 @@ public class QueryInterpreter {
         if (paging == null) {
             return query;
         }
-        if (paging.getOffset() != null) {
-            query = query.setFirstResult(paging.getOffset());
-        }
-        if (paging.getMaxSize() != null) {
-            query = query.setMaxResults(paging.getMaxSize());
-        }
 
-        if (paging.getDirection() == null && paging.getOrderBy() == null) {
-            return query;
+        return updatePaging(query, paging, findOrderProperty(type, paging));
+    }
+
+    /**
+     * @return Returns hibernate property used for ordering, or null if query shouldn't (or can't) be ordered.
+     */
+    private String findOrderProperty(Class<? extends ObjectType> type, ObjectPaging paging) {
+        if (paging == null || (paging.getDirection() == null && paging.getOrderBy() == null)) {
+            return null;
         }
 
         QueryDefinitionRegistry registry = QueryDefinitionRegistry.getInstance();
@@ -196,14 +237,14 @@ public class QueryInterpreter {
         if (paging.getOrderBy() == null) {
             LOGGER.warn("Ordering by property path with size not equal 1 is not supported '" + paging.getOrderBy()
                     + "'.");
-            return query;
+            return null;
         }
         EntityDefinition definition = registry.findDefinition(type, null, EntityDefinition.class);
         Definition def = definition.findDefinition(paging.getOrderBy(), Definition.class);
         if (def == null) {
             LOGGER.warn("Unknown path '" + paging.getOrderBy() + "', couldn't find definition for it, "
                     + "list will not be ordered by it.");
-            return query;
+            return null;
         }
 
         String propertyName = def.getJpaName();
@@ -211,6 +252,21 @@ public class QueryInterpreter {
             propertyName += ".orig";
         }
 
+        return propertyName;
+    }
+
+    private Criteria updatePaging(Criteria query, ObjectPaging paging, String propertyName) {
+        if (paging.getOffset() != null) {
+            query = query.setFirstResult(paging.getOffset());
+        }
+        if (paging.getMaxSize() != null) {
+            query = query.setMaxResults(paging.getMaxSize());
+        }
+
+        if (propertyName == null) {
+            return query;
+        }
+
         if (paging.getDirection() != null) {
             switch (paging.getDirection()) {
                 case ASCENDING:
@@ -228,6 +284,19 @@ public class QueryInterpreter {
         return query;
     }
 
+    /**
+     * Keyset paging: returns objects with oid greater than afterOid, ordered by oid. Unlike offset,
+     * database doesn't have to read and skip rows returned by previous batches.
+     */
+    public Criteria updateKeysetPaging(Criteria query, String afterOid, int maxSize) {
+        if (afterOid != null) {
+            query = query.add(Restrictions.gt("oid", afterOid));
+        }
+        query = query.addOrder(Order.asc("oid"));
+
+        return query.setMaxResults(maxSize);
+    }
+
     public <T extends Object> Matcher<T> findMatcher(T value) {
         return findMatcher(value != null ? (Class<T>) value.getClass() : null);
     }
@@ -244,6 +313,17 @@ public class QueryInterpreter {
 
     public <T extends ObjectFilter> Restriction findAndCreateRestriction(T filter, QueryContext context,
                                                                          Restriction parent) throws QueryException {
+        Restriction planned = context.nextPlannedRestriction();
+        if (planned != null) {
+            //query of the same shape was already interpreted, we don't have to look for restriction
+            Restriction<T> res = planned.cloneInstance();
+            res.setContext(context);
+            res.setParent(parent);
+            res.setFilter(filter);
+
+            context.addUsedRestriction(planned);
+            return res;
+        }
 
         for (Restriction restriction : AVAILABLE_RESTRICTIONS) {
             Restriction<T> res = restriction.cloneInstance();
@@ -255,6 +335,7 @@ public class QueryInterpreter {
                 continue;
             }
 
+            context.addUsedRestriction(restriction);
             return res;
         }
 
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2010-2015 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query;
+
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.query.AllFilter;
+import com.evolveum.midpoint.prism.query.InOidFilter;
+import com.evolveum.midpoint.prism.query.LogicalFilter;
+import com.evolveum.midpoint.prism.query.NoneFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrgFilter;
+import com.evolveum.midpoint.prism.query.PropertyValueFilter;
+import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.prism.query.UnaryLogicalFilter;
+import com.evolveum.midpoint.prism.query.ValueFilter;
+import com.evolveum.midpoint.repo.sql.query.restriction.Restriction;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of query plans for queries with the same shape. Shape of the query consists of object type, structure
+ * of the filter (filter classes, item paths, matching rules, definitions and classes of values) and ordering,
+ * values of filters and offset/size of paging are not part of the shape.
+ * <p/>
+ * Plan contains restrictions which were found for all filters of the query (restriction lookup tries all
+ * available restrictions and some of them have to find definitions for whole item path) and property name used
+ * for ordering. Query of the same shape then only creates criteria from the plan and binds its values to them.
+ * <p/>
+ * Hibernate criteria are bound to session and contain values, therefore criteria itself can't be cached.
+ * <p/>
+ * Cache is held by {@link com.evolveum.midpoint.repo.sql.SqlRepositoryFactory}, see
+ * {@link com.evolveum.midpoint.repo.sql.SqlRepositoryFactory#getQueryPlanCache()}.
+ *
+ * @author lazyman
+ */
+public class QueryPlanCache {
+
+    private final Map<String, QueryPlan> plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private int maxSize;
+
+    public QueryPlanCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static class QueryPlan {
+
+        private final List<Restriction> restrictions;
+        private final String orderProperty;
+
+        QueryPlan(List<Restriction> restrictions, String orderProperty) {
+            this.restrictions = Collections.unmodifiableList(new ArrayList<>(restrictions));
+            this.orderProperty = orderProperty;
+        }
+
+        /**
+         * @return Returns restriction prototypes in the same order as filters were interpreted (depth first).
+         */
+        public List<Restriction> getRestrictions() {
+            return restrictions;
+        }
+
+        /**
+         * @return Returns hibernate property used for ordering, null if query isn't ordered.
+         */
+        public String getOrderProperty() {
+            return orderProperty;
+        }
+    }
+
+    /**
+     * @return Returns plan for query shape or null if the shape wasn't interpreted yet.
+     */
+    public QueryPlan get(String shapeKey) {
+        QueryPlan plan;
+        synchronized (plans) {
+            plan = plans.get(shapeKey);
+        }
+
+        if (plan != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return plan;
+    }
+
+    public void put(String shapeKey, QueryPlan plan) {
+        synchronized (plans) {
+            plans.put(shapeKey, plan);
+        }
+    }
+
+    public int getMaxSize() {
+        synchronized (plans) {
+            return maxSize;
+        }
+    }
+
+    /**
+     * @param maxSize least recently used plans are removed when the cache has more plans, extra plans are removed
+     *                with the next put
+     */
+    public void setMaxSize(int maxSize) {
+        synchronized (plans) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public void clear() {
+        synchronized (plans) {
+            plans.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlanCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + '}';
+    }
+
+    /**
+     * @return Returns key describing shape of the query, or null if the query contains filter which isn't known
+     * (such query is not cached).
+     */
+    public static String createShapeKey(ObjectQuery query, Class<? extends ObjectType> type) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(type.getName()).append(';');
+        if (query == null) {
+            return sb.toString();
+        }
+
+        if (!appendFilter(sb, query.getFilter())) {
+            return null;
+        }
+
+        ObjectPaging paging = query.getPaging();
+        if (paging != null) {
+            sb.append(";order=").append(paging.getOrderBy()).append(',').append(paging.getDirection());
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean appendFilter(StringBuilder sb, ObjectFilter filter) {
+        if (filter == null) {
+            sb.append('-');
+            return true;
+        }
+
+        sb.append(filter.getClass().getSimpleName());
+        if (filter instanceof AllFilter || filter instanceof NoneFilter || filter instanceof InOidFilter) {
+            return true;
+        } else if (filter instanceof OrgFilter) {
+            OrgFilter org = (OrgFilter) filter;
+            sb.append('[').append(org.getScope()).append(',').append(org.isRoot()).append(']');
+            return true;
+        } else if (filter instanceof TypeFilter) {
+            TypeFilter typeFilter = (TypeFilter) filter;
+            sb.append('[').append(typeFilter.getType()).append("](");
+            boolean known = appendFilter(sb, typeFilter.getFilter());
+            sb.append(')');
+            return known;
+        } else if (filter instanceof UnaryLogicalFilter) {
+            sb.append('(');
+            boolean known = appendFilter(sb, ((UnaryLogicalFilter) filter).getFilter());
+            sb.append(')');
+            return known;
+        } else if (filter instanceof LogicalFilter) {
+            sb.append('(');
+            List<ObjectFilter> conditions = ((LogicalFilter) filter).getConditions();
+            if (conditions != null) {
+                for (ObjectFilter condition : conditions) {
+                    if (!appendFilter(sb, condition)) {
+                        return false;
+                    }
+                    sb.append(',');
+                }
+            }
+            sb.append(')');
+            return true;
+        } else if (filter instanceof ValueFilter) {
+            appendValueFilter(sb, (ValueFilter) filter);
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void appendValueFilter(StringBuilder sb, ValueFilter filter) {
+        sb.append('[');
+        appendPath(sb, filter.getFullPath());
+        sb.append(',').append(filter.getMatchingRule());
+
+        ItemDefinition definition = filter.getDefinition();
+        if (definition != null) {
+            sb.append(',').append(definition.getName()).append(':').append(definition.getTypeName());
+        }
+
+        if (filter instanceof PropertyValueFilter) {
+            PropertyValueFilter valueFilter = (PropertyValueFilter) filter;
+            if (valueFilter.getExpression() != null) {
+                sb.append(",expression");
+            }
+
+            List values = valueFilter.getValues();
+            if (values != null) {
+                sb.append(",values(");
+                for (Object value : values) {
+                    if (value instanceof PrismPropertyValue) {
+                        Object realValue = ((PrismPropertyValue) value).getValue();
+                        sb.append(realValue != null ? realValue.getClass().getName() : null);
+                    } else {
+                        sb.append(value != null ? value.getClass().getName() : null);
+                    }
+                    sb.append(',');
+                }
+                sb.append(')');
+            }
+        }
+        sb.append(']');
+    }
+
+    private static void appendPath(StringBuilder sb, ItemPath path) {
+        if (path == null) {
+            sb.append('-');
+            return;
+        }
+
+        for (ItemPathSegment segment : path.getSegments()) {
+            if (segment instanceof NameItemPathSegment) {
+                // full qname, different extension items may have the same local name
+                sb.append(((NameItemPathSegment) segment).getName());
+            } else {
+                sb.append(segment);
+            }
+            sb.append('/');
+        }
+    }
+}
@@ -138,6 +138,7 @@ public abstract class AbstractIntegrationTest extends AbstractTestNGSpringContex
 	private long lastResourceSchemaParseCount = 0;
 	private CachingStatistics lastResourceCacheStats;
 	private long lastShadowFetchOperationCount = 0;
+	private long lastShadowLookupCount = 0;
 	private long lastScriptCompileCount = 0;
 	private long lastScriptExecutionCount = 0;
 	private long lastConnectorOperationCount = 0;
@@ -837,6 +838,17 @@ public abstract class AbstractIntegrationTest extends AbstractTestNGSpringContex
 		lastShadowFetchOperationCount = currentCount;
 	}
 	
+	protected void rememberShadowLookupCount() {
+		lastShadowLookupCount = InternalMonitor.getShadowLookupCount();
+	}
+
+	protected void assertShadowLookupCountIncrement(int expectedIncrement) {
+		long currentCount = InternalMonitor.getShadowLookupCount();
+		long actualIncrement = currentCount - lastShadowLookupCount;
+		assertEquals("Unexpected increment in shadow lookup count", (long)expectedIncrement, actualIncrement);
+		lastShadowLookupCount = currentCount;
+	}
+	
 	protected void rememberDummyResourceGroupMembersReadCount(String instanceName) {
 		lastDummyResourceGroupMembersReadCount  = DummyResource.getInstance(instanceName).getGroupMembersReadCount();
 	}
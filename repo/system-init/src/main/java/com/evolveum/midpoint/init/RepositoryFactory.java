@@ -92,6 +92,9 @@ public class RepositoryFactory implements ApplicationContextAware, RuntimeConfig
             if (factory != null) {
                 factory.destroy();
             }
+            if (cacheFactory != null) {
+                cacheFactory.destroy();
+            }
         } catch (RepositoryServiceFactoryException ex) {
             LoggingUtils.logException(LOGGER, "Failed to destroy RepositoryServiceFactory", ex);
             throw new SystemException("Failed to destroy RepositoryServiceFactory", ex);
@@ -136,6 +139,7 @@ public class RepositoryFactory implements ApplicationContextAware, RuntimeConfig
             try {
                 Class<RepositoryServiceFactory> clazz = (Class<RepositoryServiceFactory>) Class.forName(REPOSITORY_FACTORY_CACHE_CLASS);
                 cacheFactory = getFactoryBean(clazz);
+                cacheFactory.init(midpointConfiguration.getConfiguration(REPOSITORY_CONFIGURATION));
                 //TODO decompose this dependency, remove class casting !!!
                 RepositoryCache repositoryCache = (RepositoryCache) cacheFactory.getRepositoryService();
                 repositoryCache.setRepository(getRepositoryService(), prismContext);
@@ -295,6 +295,8 @@ public class TaskQuartzImpl implements Task {
             throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
 		if (pendingModifications != null) {
 			synchronized (pendingModifications) {		// todo perhaps we should put something like this at more places here...
+				// modifications of the same item were merged when added, this removes also the ones that became empty
+				ItemDelta.compact(pendingModifications);
 				if (!pendingModifications.isEmpty()) {
 
                     try {
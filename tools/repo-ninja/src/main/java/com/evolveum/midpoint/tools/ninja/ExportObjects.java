@@ -18,11 +18,14 @@ import org.apache.commons.io.IOUtils;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.w3c.dom.Element;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -57,7 +60,8 @@ public class ExportObjects extends BaseNinjaAction {
         }
 
         final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(CONTEXTS);
-        final OutputStreamWriter stream = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
+        // objects are written one by one as the iterative search returns them, nothing is kept in memory
+        final Writer stream = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "utf-8"));
         
         try {
         	
@@ -79,15 +83,27 @@ public class ExportObjects extends BaseNinjaAction {
                     System.out.println("Exporting object " + displayName);
 
                     OperationResult resultExport = new OperationResult("Export " + displayName);
+                    String stringObject;
                     try 
                     {
-                    	String stringObject = prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
-                        stream.write("\t" + stringObject + "\n");
+                    	stringObject = prismContext.serializeObjectToString(object, PrismContext.LANG_XML);
                     } 
                     catch (Exception ex) 
                     {
                     	System.out.println("Failed to parse objects to string for xml. Reason: " +  ex);
                         resultExport.recordFatalError("Failed to parse objects to string for xml. Reason: ", ex);
+                        return true;
+                    }
+                    try
+                    {
+                        stream.write("\t" + stringObject + "\n");
+                    }
+                    catch (IOException ex)
+                    {
+                        // no point in continuing, the rest of the objects cannot be written either
+                        System.out.println("Failed to write object to file. Reason: " + ex);
+                        resultExport.recordFatalError("Failed to write object to file. Reason: ", ex);
+                        return false;
                     }
 
                     return true;
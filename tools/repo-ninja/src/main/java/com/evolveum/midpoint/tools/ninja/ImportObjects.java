@@ -35,6 +35,7 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -47,12 +48,21 @@ public class ImportObjects extends BaseNinjaAction {
 
     private String filePath;
 	private boolean validateSchema;
+    private int workerThreads;
 
     public ImportObjects(String filePath, boolean validateSchema) {
         this.filePath = filePath;
         this.validateSchema = validateSchema;
     }
 
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
     public boolean execute() {
         System.out.println("Starting objects import.");
 
@@ -68,7 +78,7 @@ public class ImportObjects extends BaseNinjaAction {
             System.out.println("Loading spring contexts.");
             context = new ClassPathXmlApplicationContext(CONTEXTS);
 
-            InputStreamReader reader = new InputStreamReader(new FileInputStream(objects), "utf-8");
+            InputStreamReader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(objects)), "utf-8");
             input = new ReaderInputStream(reader, reader.getEncoding());
 
             final RepositoryService repository = context.getBean("repositoryService", RepositoryService.class);
@@ -111,6 +121,7 @@ public class ImportObjects extends BaseNinjaAction {
             Validator validator = new Validator(prismContext, handler);
             validator.setVerbose(true);
             validator.setValidateSchema(validateSchema);
+            validator.setWorkerThreads(workerThreads);
 
             OperationResult result = new OperationResult("Import objeccts");
             validator.validate(input, result, OperationConstants.IMPORT_OBJECT);
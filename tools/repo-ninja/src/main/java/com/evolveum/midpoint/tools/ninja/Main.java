@@ -33,6 +33,8 @@ public class Main {
             "Import objects from XML file provided by this option.");
     public static final Option schemaOp = new Option("s", "schema", false,
             "validate schema of imported objects");
+    public static final Option workersOp = new Option("w", "workers", true,
+            "Number of threads validating and storing imported objects (default 0, i.e. no additional threads)");
     public static final Option driver = new Option("d", "driver", true, "JDBC driver class");
     public static final Option url = new Option("u", "url", true, "JDBC url");
     public static final Option username = new Option("U", "username", true, "JDBC username");
@@ -55,6 +57,7 @@ public class Main {
         options.addOption(create);
         options.addOption(importOp);
         options.addOption(schemaOp);
+        options.addOption(workersOp);
         options.addOption(exportOp);
         options.addOption(driver);
         options.addOption(url);
@@ -94,6 +97,9 @@ public class Main {
                 String path = line.getOptionValue(importOp.getOpt());
                 boolean validateSchema = line.hasOption(schemaOp.getOpt());
                 ImportObjects objects = new ImportObjects(path, validateSchema);
+                if (line.hasOption(workersOp.getOpt())) {
+                    objects.setWorkerThreads(Integer.parseInt(line.getOptionValue(workersOp.getOpt())));
+                }
                 objects.execute();
             }
 
@@ -178,7 +184,7 @@ public class Main {
 
     private static void printHelp(Options options) {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("Main [-c <arg>][-h][-i <arg>][-e <arg>][-v][-d <arg>][-u <arg>][-U <arg>][-p <arg>][-P]",
+        formatter.printHelp("Main [-c <arg>][-h][-i <arg>][-w <arg>][-e <arg>][-v][-d <arg>][-u <arg>][-U <arg>][-p <arg>][-P]",
                 options);
     }
 }